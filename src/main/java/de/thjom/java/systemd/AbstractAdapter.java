@@ -12,7 +12,11 @@
 package de.thjom.java.systemd;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.interfaces.DBusSigHandler;
@@ -21,7 +25,9 @@ import org.freedesktop.dbus.messages.DBusSignal;
 
 abstract class AbstractAdapter {
 
-    protected final List<UnitStateListener> unitStateListeners = new ArrayList<>();
+    protected final List<UnitStateListener> unitStateListeners = new CopyOnWriteArrayList<>();
+
+    private final Map<UnitStateListener, QueuedUnitStateListener> queuedListeners = new HashMap<>();
 
     private DBusSigHandler<PropertiesChanged> defaultHandler;
 
@@ -36,27 +42,89 @@ abstract class AbstractAdapter {
     public void addListener(final UnitStateListener listener) throws DBusException {
         synchronized (unitStateListeners) {
             if (defaultHandler == null) {
-                defaultHandler = createStateHandler();
+                DBusSigHandler<PropertiesChanged> handler = createStateHandler();
+
+                addStateHandler(handler);
 
-                addHandler(PropertiesChanged.class, defaultHandler);
+                defaultHandler = handler;
             }
 
             unitStateListeners.add(listener);
         }
     }
 
+    /**
+     * Adds a listener which is decoupled from the signal thread by a bounded
+     * queue (see {@link QueuedUnitStateListener}).
+     *
+     * @param listener The listener.
+     * @param capacity The queue capacity.
+     * @param policy The behavior on a full queue.
+     * @throws DBusException If the signal handler cannot be registered.
+     */
+    public void addListener(final UnitStateListener listener, final int capacity, final QueuedUnitStateListener.OverflowPolicy policy) throws DBusException {
+        QueuedUnitStateListener queued = new QueuedUnitStateListener(listener, capacity, policy);
+
+        synchronized (unitStateListeners) {
+            QueuedUnitStateListener previous = queuedListeners.put(listener, queued);
+
+            if (previous != null) {
+                removeListener(previous);
+                previous.close();
+            }
+
+            try {
+                addListener(queued);
+            }
+            catch (final DBusException e) {
+                queuedListeners.remove(listener);
+                queued.close();
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the queued listeners (along their delivery statistics).
+     *
+     * @return The queued listeners.
+     */
+    public Collection<QueuedUnitStateListener> getQueuedListeners() {
+        synchronized (unitStateListeners) {
+            return new ArrayList<>(queuedListeners.values());
+        }
+    }
+
     public void removeListener(final UnitStateListener listener) throws DBusException {
         synchronized (unitStateListeners) {
+            QueuedUnitStateListener queued = queuedListeners.remove(listener);
+
+            if (queued != null) {
+                removeListener(queued);
+                queued.close();
+
+                return;
+            }
+
             unitStateListeners.remove(listener);
 
             if (unitStateListeners.isEmpty() && defaultHandler != null) {
-                removeHandler(PropertiesChanged.class, defaultHandler);
+                removeStateHandler(defaultHandler);
 
                 defaultHandler = null;
             }
         }
     }
 
+    protected void addStateHandler(final DBusSigHandler<PropertiesChanged> handler) throws DBusException {
+        addHandler(PropertiesChanged.class, handler);
+    }
+
+    protected void removeStateHandler(final DBusSigHandler<PropertiesChanged> handler) throws DBusException {
+        removeHandler(PropertiesChanged.class, handler);
+    }
+
     protected DBusSigHandler<PropertiesChanged> createStateHandler() {
         return signal -> {};
     }
@@ -0,0 +1,44 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Source of the accounting values of units.
+ */
+public interface AccountingBackend {
+
+    /**
+     * Reads the current accounting values of a unit.
+     *
+     * @param unitName The full unit name.
+     * @param values The values indexed by {@link ResourceMetric#ordinal()};
+     * preset with {@link ResourceSample#NOT_AVAILABLE} which is kept for
+     * values the backend cannot provide.
+     * @throws IOException If the values cannot be read from a file.
+     * @throws DBusException If the values cannot be read from the bus.
+     */
+    void read(String unitName, long[] values) throws IOException, DBusException;
+
+    /**
+     * Releases resources held for a unit which is no longer sampled.
+     *
+     * @param unitName The full unit name.
+     */
+    default void release(final String unitName) {
+        // Nothing held by default
+    }
+
+}
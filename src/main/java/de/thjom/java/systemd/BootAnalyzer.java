@@ -0,0 +1,404 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.Variant;
+
+import de.thjom.java.systemd.DependencyGraph.Type;
+import de.thjom.java.systemd.interfaces.ManagerInterface.StartupFinished;
+import de.thjom.java.systemd.types.UnitType;
+
+/**
+ * In-process equivalent of <code>systemd-analyze time</code>,
+ * <code>blame</code> and <code>critical-chain</code>.<p>
+ *
+ * All data is fetched in bulk on {@link #load(Manager)}: one
+ * <code>GetAll</code> call for the manager and one per loaded unit. Unit
+ * times are taken from the monotonic <code>InactiveExit</code> (activating)
+ * and <code>ActiveEnter</code> (activated) timestamps, the critical chain
+ * follows the <code>After</code> dependencies. All times are in
+ * microseconds.
+ */
+public final class BootAnalyzer {
+
+    private final BootTimes bootTimes;
+    private final String defaultTarget;
+    private final Map<String, UnitTimes> unitTimes;
+    private final DependencyGraph graph;
+
+    BootAnalyzer(final Map<String, Variant<?>> managerProperties, final String defaultTarget, final Map<String, Map<String, Variant<?>>> unitProperties) {
+        this.bootTimes = BootTimes.of(managerProperties);
+        this.defaultTarget = defaultTarget;
+        this.unitTimes = new HashMap<>(unitProperties.size() * 2);
+
+        DependencyGraph.Builder builder = DependencyGraph.builder();
+
+        for (Map.Entry<String, Map<String, Variant<?>>> entry : unitProperties.entrySet()) {
+            unitTimes.put(entry.getKey(), UnitTimes.of(entry.getKey(), entry.getValue()));
+            builder.put(entry.getKey(), entry.getValue());
+        }
+
+        this.graph = builder.build();
+    }
+
+    /**
+     * Fetches the manager and unit timestamps.
+     *
+     * @param manager The manager.
+     * @return The analyzer.
+     * @throws DBusException If the properties cannot be accessed.
+     */
+    public static BootAnalyzer load(final Manager manager) throws DBusException {
+        Map<String, Variant<?>> managerProperties = manager.getProperties().getAll();
+        List<UnitType> units = manager.listUnits();
+        Map<String, Map<String, Variant<?>>> unitProperties = new HashMap<>(units.size() * 2);
+
+        for (UnitType unit : units) {
+            unitProperties.put(unit.getUnitName(), Properties.create(manager.dbus, unit.getUnitObjectPath().getPath(), Unit.SERVICE_NAME).getAll());
+        }
+
+        return new BootAnalyzer(managerProperties, manager.getDefaultTarget(), unitProperties);
+    }
+
+    public BootTimes getBootTimes() {
+        return bootTimes;
+    }
+
+    public String getDefaultTarget() {
+        return defaultTarget;
+    }
+
+    public UnitTimes getUnitTimes(final String unitName) {
+        return unitTimes.get(unitName);
+    }
+
+    /**
+     * Returns the units ordered by their activation time, longest first
+     * (see <code>systemd-analyze blame</code>).
+     *
+     * @return The activated units.
+     */
+    public List<UnitTimes> blame() {
+        List<UnitTimes> blame = new ArrayList<>();
+
+        for (UnitTimes times : unitTimes.values()) {
+            if (times.getActivationTime() > 0L) {
+                blame.add(times);
+            }
+        }
+
+        blame.sort(Comparator.comparingLong(UnitTimes::getActivationTime).reversed().thenComparing(UnitTimes::getUnitName));
+
+        return blame;
+    }
+
+    public List<ChainLink> criticalChain() {
+        return criticalChain(defaultTarget, 0L);
+    }
+
+    /**
+     * Returns the chain of units the given unit waited for (see
+     * <code>systemd-analyze critical-chain</code>). Starting at the given
+     * unit, each level holds the <code>After</code> dependencies which were
+     * activated last, i.e. at most <code>fuzz</code> before the latest one.
+     *
+     * @param unitName The full unit name (e.g. the default target).
+     * @param fuzz The tolerance in microseconds.
+     * @return The chain in depth-first order, starting with the unit itself.
+     */
+    public List<ChainLink> criticalChain(final String unitName, final long fuzz) {
+        List<ChainLink> chain = new ArrayList<>();
+        UnitTimes times = unitTimes.get(unitName);
+
+        if (times != null) {
+            chain.add(new ChainLink(times, 0, bootTimes.userspaceStart));
+
+            Set<String> visited = new HashSet<>();
+            visited.add(unitName);
+
+            follow(unitName, 1, fuzz, visited, chain);
+        }
+
+        return chain;
+    }
+
+    private void follow(final String unitName, final int level, final long fuzz, final Set<String> visited, final List<ChainLink> chain) {
+        List<UnitTimes> dependencies = new ArrayList<>();
+
+        for (String dependency : graph.getDependencies(unitName, Type.AFTER)) {
+            UnitTimes times = unitTimes.get(dependency);
+
+            // Units activated after boot did not delay it
+            if (times != null && times.activated > 0L && (bootTimes.finish == 0L || times.activated <= bootTimes.finish)) {
+                dependencies.add(times);
+            }
+        }
+
+        if (dependencies.isEmpty()) {
+            return;
+        }
+
+        dependencies.sort(Comparator.comparingLong((UnitTimes t) -> t.activated).reversed());
+
+        long latest = dependencies.get(0).activated;
+
+        for (UnitTimes times : dependencies) {
+            if (latest - times.activated > fuzz) {
+                break;
+            }
+
+            chain.add(new ChainLink(times, level, bootTimes.userspaceStart));
+
+            if (visited.add(times.unitName)) {
+                follow(times.unitName, level + 1, fuzz, visited, chain);
+            }
+        }
+    }
+
+    private static long timestamp(final Map<String, Variant<?>> properties, final String propertyName) {
+        Variant<?> value = properties.get(propertyName);
+
+        return value != null && value.getValue() instanceof Number ? ((Number) value.getValue()).longValue() : 0L;
+    }
+
+    /**
+     * Durations of the boot phases (see <code>systemd-analyze time</code>).
+     */
+    public static final class BootTimes {
+
+        private final long firmware;
+        private final long loader;
+        private final long kernel;
+        private final long initRD;
+        private final long userspace;
+        private final long userspaceStart;
+        private final long finish;
+
+        BootTimes(final long firmware, final long loader, final long kernel, final long initRD, final long userspace, final long userspaceStart, final long finish) {
+            this.firmware = firmware;
+            this.loader = loader;
+            this.kernel = kernel;
+            this.initRD = initRD;
+            this.userspace = userspace;
+            this.userspaceStart = userspaceStart;
+            this.finish = finish;
+        }
+
+        static BootTimes of(final Map<String, Variant<?>> properties) {
+            // Firmware and loader timestamps are offsets before the kernel start
+            long firmwareTime = timestamp(properties, Manager.Property.FIRMWARE_TIMESTAMP_MONOTONIC);
+            long loaderTime = timestamp(properties, Manager.Property.LOADER_TIMESTAMP_MONOTONIC);
+            long initRDTime = timestamp(properties, Manager.Property.INIT_RD_TIMESTAMP_MONOTONIC);
+            long userspaceTime = timestamp(properties, Manager.Property.USERSPACE_TIMESTAMP_MONOTONIC);
+            long finishTime = timestamp(properties, Manager.Property.FINISH_TIMESTAMP_MONOTONIC);
+
+            return new BootTimes(
+                    firmwareTime > 0L ? firmwareTime - loaderTime : 0L,
+                    loaderTime,
+                    initRDTime > 0L ? initRDTime : userspaceTime,
+                    initRDTime > 0L ? userspaceTime - initRDTime : 0L,
+                    finishTime > 0L ? finishTime - userspaceTime : 0L,
+                    userspaceTime,
+                    finishTime);
+        }
+
+        /**
+         * Takes the boot times from the startup signal.
+         *
+         * @param signal The signal.
+         * @return The boot times.
+         */
+        public static BootTimes of(final StartupFinished signal) {
+            long userspaceStart = signal.getKernel() + signal.getInitRD();
+
+            return new BootTimes(signal.getFirmware(), signal.getLoader(), signal.getKernel(), signal.getInitRD(), signal.getUserspace(), userspaceStart, userspaceStart + signal.getUserspace());
+        }
+
+        public long getFirmware() {
+            return firmware;
+        }
+
+        public long getLoader() {
+            return loader;
+        }
+
+        public long getKernel() {
+            return kernel;
+        }
+
+        public long getInitRD() {
+            return initRD;
+        }
+
+        public long getUserspace() {
+            return userspace;
+        }
+
+        public long getTotal() {
+            return firmware + loader + kernel + initRD + userspace;
+        }
+
+        /**
+         * Returns whether the startup is finished. Otherwise the userspace
+         * time and the total are incomplete.
+         *
+         * @return <code>true</code> if the startup finished.
+         */
+        public boolean isFinished() {
+            return finish > 0L;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Startup finished in %dms (firmware) + %dms (loader) + %dms (kernel) + %dms (initrd) + %dms (userspace) = %dms",
+                    TimeUnit.MICROSECONDS.toMillis(firmware), TimeUnit.MICROSECONDS.toMillis(loader), TimeUnit.MICROSECONDS.toMillis(kernel),
+                    TimeUnit.MICROSECONDS.toMillis(initRD), TimeUnit.MICROSECONDS.toMillis(userspace), TimeUnit.MICROSECONDS.toMillis(getTotal()));
+        }
+
+    }
+
+    /**
+     * Monotonic activation timestamps of a unit.
+     */
+    public static final class UnitTimes {
+
+        private final String unitName;
+        private final long activating;
+        private final long activated;
+        private final long deactivating;
+        private final long deactivated;
+
+        UnitTimes(final String unitName, final long activating, final long activated, final long deactivating, final long deactivated) {
+            this.unitName = unitName;
+            this.activating = activating;
+            this.activated = activated;
+            this.deactivating = deactivating;
+            this.deactivated = deactivated;
+        }
+
+        static UnitTimes of(final String unitName, final Map<String, Variant<?>> properties) {
+            return new UnitTimes(unitName,
+                    timestamp(properties, Unit.Property.INACTIVE_EXIT_TIMESTAMP_MONOTONIC),
+                    timestamp(properties, Unit.Property.ACTIVE_ENTER_TIMESTAMP_MONOTONIC),
+                    timestamp(properties, Unit.Property.ACTIVE_EXIT_TIMESTAMP_MONOTONIC),
+                    timestamp(properties, Unit.Property.INACTIVE_ENTER_TIMESTAMP_MONOTONIC));
+        }
+
+        public String getUnitName() {
+            return unitName;
+        }
+
+        public long getActivating() {
+            return activating;
+        }
+
+        public long getActivated() {
+            return activated;
+        }
+
+        public long getDeactivating() {
+            return deactivating;
+        }
+
+        public long getDeactivated() {
+            return deactivated;
+        }
+
+        /**
+         * Returns the time the unit took to activate.
+         *
+         * @return The activation time or zero if unknown.
+         */
+        public long getActivationTime() {
+            return activating > 0L && activated > activating ? activated - activating : 0L;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%dms %s", TimeUnit.MICROSECONDS.toMillis(getActivationTime()), unitName);
+        }
+
+    }
+
+    /**
+     * Entry of a critical chain.
+     */
+    public static final class ChainLink {
+
+        private final UnitTimes times;
+        private final int level;
+        private final long activatedOffset;
+
+        ChainLink(final UnitTimes times, final int level, final long userspaceStart) {
+            this.times = times;
+            this.level = level;
+            this.activatedOffset = times.activated > userspaceStart ? times.activated - userspaceStart : 0L;
+        }
+
+        public String getUnitName() {
+            return times.unitName;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * Returns when the unit became active, relative to the start of
+         * userspace (the "@" value of <code>systemd-analyze</code>).
+         *
+         * @return The offset.
+         */
+        public long getActivatedOffset() {
+            return activatedOffset;
+        }
+
+        /**
+         * Returns the activation time of the unit (the "+" value of
+         * <code>systemd-analyze</code>).
+         *
+         * @return The activation time.
+         */
+        public long getActivationTime() {
+            return times.getActivationTime();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+
+            for (int i = 0; i < level; i++) {
+                builder.append("  ");
+            }
+
+            builder.append(times.unitName).append(String.format(" @%dms", TimeUnit.MICROSECONDS.toMillis(activatedOffset)));
+
+            if (getActivationTime() > 0L) {
+                builder.append(String.format(" +%dms", TimeUnit.MICROSECONDS.toMillis(getActivationTime())));
+            }
+
+            return builder.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Reads the accounting values with one <code>GetAll</code> call per unit
+ * on its type specific interface.
+ */
+public class BusAccountingBackend implements AccountingBackend {
+
+    private final Manager manager;
+
+    private final Map<String, Properties> properties = new ConcurrentHashMap<>();
+
+    public BusAccountingBackend(final Manager manager) {
+        this.manager = Objects.requireNonNull(manager);
+    }
+
+    @Override
+    public void read(final String unitName, final long[] values) throws DBusException {
+        Properties unitProperties = properties.get(unitName);
+
+        if (unitProperties == null) {
+            String iface = interfaceOf(unitName);
+
+            if (iface == null) {
+                return;
+            }
+
+            unitProperties = Properties.create(manager.dbus, Unit.OBJECT_PATH + Systemd.escapePath(unitName), iface);
+            properties.put(unitName, unitProperties);
+        }
+
+        decode(unitProperties.getAll(), values);
+    }
+
+    @Override
+    public void release(final String unitName) {
+        properties.remove(unitName);
+    }
+
+    static void decode(final Map<String, Variant<?>> unitProperties, final long[] values) {
+        for (ResourceMetric metric : ResourceMetric.METRICS) {
+            Variant<?> value = unitProperties.get(metric.property);
+
+            if (value != null && value.getValue() instanceof Number) {
+                long number = ((Number) value.getValue()).longValue();
+
+                // UINT64_MAX (and anything beyond the signed range) is "not available"
+                values[metric.ordinal()] = number < 0L ? ResourceSample.NOT_AVAILABLE : number;
+            }
+        }
+    }
+
+    /**
+     * Returns the interface carrying the accounting properties of a unit.
+     *
+     * @param unitName The full unit name.
+     * @return The interface name or <code>null</code> for units without accounting.
+     */
+    static String interfaceOf(final String unitName) {
+        String type = UnitIndex.typeOf(unitName);
+
+        if (type == null) {
+            return null;
+        }
+
+        switch (type) {
+            case Service.UNIT_SUFFIX:
+                return Service.SERVICE_NAME;
+            case Scope.UNIT_SUFFIX:
+                return Scope.SERVICE_NAME;
+            case Slice.UNIT_SUFFIX:
+                return Slice.SERVICE_NAME;
+            case Socket.UNIT_SUFFIX:
+                return Socket.SERVICE_NAME;
+            case Mount.UNIT_SUFFIX:
+                return Mount.SERVICE_NAME;
+            case Swap.UNIT_SUFFIX:
+                return Swap.SERVICE_NAME;
+            default:
+                return null;
+        }
+    }
+
+}
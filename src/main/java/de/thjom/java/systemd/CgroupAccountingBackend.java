@@ -0,0 +1,248 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Reads the accounting values directly from the cgroup file system.<p>
+ *
+ * The control group of a unit is resolved once via the bus, afterwards the
+ * accounting files are kept open and re-read from their start on each call
+ * into a shared buffer, parsing the numbers without intermediate strings.
+ * The unified hierarchy (cgroup v2) is used if present, otherwise the
+ * <code>memory</code>, <code>cpuacct</code>, <code>pids</code> and
+ * <code>blkio</code> controllers of the legacy hierarchy. IP accounting is
+ * not exposed in the cgroup file system and thus not available.
+ */
+public class CgroupAccountingBackend implements AccountingBackend {
+
+    public static final Path DEFAULT_ROOT = Paths.get("/sys/fs/cgroup");
+
+    private static final byte[] USAGE_USEC = CgroupFileReader.bytes("usage_usec");
+    private static final byte[] RBYTES = CgroupFileReader.bytes("rbytes");
+    private static final byte[] WBYTES = CgroupFileReader.bytes("wbytes");
+    private static final byte[] RIOS = CgroupFileReader.bytes("rios");
+    private static final byte[] WIOS = CgroupFileReader.bytes("wios");
+    private static final byte[] READ = CgroupFileReader.bytes("Read");
+    private static final byte[] WRITE = CgroupFileReader.bytes("Write");
+
+    // Legacy "no limit" is reported as the page aligned maximum
+    private static final long V1_UNLIMITED = Long.MAX_VALUE & ~0xfffL;
+
+    @FunctionalInterface
+    interface ControlGroupResolver {
+
+        String resolve(String unitName) throws DBusException;
+
+    }
+
+    private final Path root;
+    private final boolean unified;
+    private final ControlGroupResolver resolver;
+
+    private final Map<String, CgroupFiles> files = new HashMap<>();
+    private final CgroupFileReader reader = new CgroupFileReader();
+
+    public CgroupAccountingBackend(final Manager manager) {
+        this(manager, DEFAULT_ROOT);
+    }
+
+    public CgroupAccountingBackend(final Manager manager, final Path root) {
+        this(root, busResolver(Objects.requireNonNull(manager)));
+    }
+
+    CgroupAccountingBackend(final Path root, final ControlGroupResolver resolver) {
+        this.root = Objects.requireNonNull(root);
+        this.unified = Files.exists(root.resolve("cgroup.controllers"));
+        this.resolver = Objects.requireNonNull(resolver);
+    }
+
+    static ControlGroupResolver busResolver(final Manager manager) {
+        return unitName -> {
+            String iface = BusAccountingBackend.interfaceOf(unitName);
+
+            if (iface == null) {
+                return null;
+            }
+
+            return Properties.create(manager.dbus, Unit.OBJECT_PATH + Systemd.escapePath(unitName), iface).getString(Slice.Property.CONTROL_GROUP);
+        };
+    }
+
+    /**
+     * @return <code>true</code> if the unified hierarchy (cgroup v2) is used.
+     */
+    public boolean isUnified() {
+        return unified;
+    }
+
+    @Override
+    public synchronized void read(final String unitName, final long[] values) throws IOException, DBusException {
+        CgroupFiles unitFiles = files.get(unitName);
+
+        if (unitFiles == null) {
+            String controlGroup = resolver.resolve(unitName);
+
+            if (controlGroup == null || controlGroup.isEmpty()) {
+                // No control group (e.g. inactive unit), resolve again next time
+                return;
+            }
+
+            unitFiles = unified ? openUnified(controlGroup) : openLegacy(controlGroup);
+
+            if (unitFiles.isEmpty()) {
+                throw new NoSuchFileException(controlGroup, null, "No accounting files found for control group");
+            }
+
+            files.put(unitName, unitFiles);
+        }
+
+        try {
+            if (unified) {
+                readUnified(unitFiles, values);
+            }
+            else {
+                readLegacy(unitFiles, values);
+            }
+        }
+        catch (final IOException e) {
+            // Control group vanished (e.g. unit restarted), resolve again next time
+            files.remove(unitName);
+            unitFiles.close();
+
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void release(final String unitName) {
+        CgroupFiles unitFiles = files.remove(unitName);
+
+        if (unitFiles != null) {
+            unitFiles.close();
+        }
+    }
+
+    private CgroupFiles openUnified(final String controlGroup) throws IOException {
+        Path dir = cgroupDir(root, controlGroup);
+
+        CgroupFiles unitFiles = new CgroupFiles();
+        unitFiles.memoryCurrent = CgroupFileReader.open(dir.resolve("memory.current"));
+        unitFiles.memoryHigh = CgroupFileReader.open(dir.resolve("memory.high"));
+        unitFiles.memoryMax = CgroupFileReader.open(dir.resolve("memory.max"));
+        unitFiles.cpu = CgroupFileReader.open(dir.resolve("cpu.stat"));
+        unitFiles.pids = CgroupFileReader.open(dir.resolve("pids.current"));
+        unitFiles.ioBytes = CgroupFileReader.open(dir.resolve("io.stat"));
+
+        return unitFiles;
+    }
+
+    private CgroupFiles openLegacy(final String controlGroup) throws IOException {
+        Path memory = cgroupDir(root.resolve("memory"), controlGroup);
+        Path blkio = cgroupDir(root.resolve("blkio"), controlGroup);
+
+        CgroupFiles unitFiles = new CgroupFiles();
+        unitFiles.memoryCurrent = CgroupFileReader.open(memory.resolve("memory.usage_in_bytes"));
+        unitFiles.memoryHigh = CgroupFileReader.open(memory.resolve("memory.soft_limit_in_bytes"));
+        unitFiles.memoryMax = CgroupFileReader.open(memory.resolve("memory.limit_in_bytes"));
+        unitFiles.cpu = CgroupFileReader.open(cgroupDir(root.resolve("cpuacct"), controlGroup).resolve("cpuacct.usage"));
+        unitFiles.pids = CgroupFileReader.open(cgroupDir(root.resolve("pids"), controlGroup).resolve("pids.current"));
+        unitFiles.ioBytes = CgroupFileReader.open(blkio.resolve("blkio.throttle.io_service_bytes"));
+        unitFiles.ioOperations = CgroupFileReader.open(blkio.resolve("blkio.throttle.io_serviced"));
+
+        return unitFiles;
+    }
+
+    static Path cgroupDir(final Path base, final String controlGroup) {
+        String relative = controlGroup.startsWith("/") ? controlGroup.substring(1) : controlGroup;
+
+        return relative.isEmpty() ? base : base.resolve(relative);
+    }
+
+    private void readUnified(final CgroupFiles unitFiles, final long[] values) throws IOException {
+        values[ResourceMetric.MEMORY_CURRENT.ordinal()] = reader.readValue(unitFiles.memoryCurrent);
+        values[ResourceMetric.MEMORY_HIGH.ordinal()] = reader.readValue(unitFiles.memoryHigh);
+        values[ResourceMetric.MEMORY_MAX.ordinal()] = reader.readValue(unitFiles.memoryMax);
+        values[ResourceMetric.TASKS_CURRENT.ordinal()] = reader.readValue(unitFiles.pids);
+
+        if (reader.fill(unitFiles.cpu)) {
+            long micros = reader.findKeyed(USAGE_USEC);
+
+            if (micros != ResourceSample.NOT_AVAILABLE) {
+                values[ResourceMetric.CPU_USAGE_NSEC.ordinal()] = micros * 1000L;
+            }
+        }
+
+        if (reader.fill(unitFiles.ioBytes)) {
+            values[ResourceMetric.IO_READ_BYTES.ordinal()] = reader.sumAssigned(RBYTES);
+            values[ResourceMetric.IO_WRITE_BYTES.ordinal()] = reader.sumAssigned(WBYTES);
+            values[ResourceMetric.IO_READ_OPERATIONS.ordinal()] = reader.sumAssigned(RIOS);
+            values[ResourceMetric.IO_WRITE_OPERATIONS.ordinal()] = reader.sumAssigned(WIOS);
+        }
+    }
+
+    private void readLegacy(final CgroupFiles unitFiles, final long[] values) throws IOException {
+        values[ResourceMetric.MEMORY_CURRENT.ordinal()] = reader.readValue(unitFiles.memoryCurrent);
+        values[ResourceMetric.MEMORY_HIGH.ordinal()] = readLimit(unitFiles.memoryHigh);
+        values[ResourceMetric.MEMORY_MAX.ordinal()] = readLimit(unitFiles.memoryMax);
+        values[ResourceMetric.CPU_USAGE_NSEC.ordinal()] = reader.readValue(unitFiles.cpu);
+        values[ResourceMetric.TASKS_CURRENT.ordinal()] = reader.readValue(unitFiles.pids);
+
+        if (reader.fill(unitFiles.ioBytes)) {
+            values[ResourceMetric.IO_READ_BYTES.ordinal()] = reader.sumOperation(READ);
+            values[ResourceMetric.IO_WRITE_BYTES.ordinal()] = reader.sumOperation(WRITE);
+        }
+
+        if (reader.fill(unitFiles.ioOperations)) {
+            values[ResourceMetric.IO_READ_OPERATIONS.ordinal()] = reader.sumOperation(READ);
+            values[ResourceMetric.IO_WRITE_OPERATIONS.ordinal()] = reader.sumOperation(WRITE);
+        }
+    }
+
+    private long readLimit(final FileChannel channel) throws IOException {
+        long value = reader.readValue(channel);
+
+        return value >= V1_UNLIMITED ? ResourceSample.NOT_AVAILABLE : value;
+    }
+
+    private static final class CgroupFiles {
+
+        private FileChannel memoryCurrent;
+        private FileChannel memoryHigh;
+        private FileChannel memoryMax;
+        private FileChannel cpu;
+        private FileChannel pids;
+        private FileChannel ioBytes;
+        private FileChannel ioOperations;
+
+        boolean isEmpty() {
+            return memoryCurrent == null && cpu == null && pids == null && ioBytes == null;
+        }
+
+        void close() {
+            CgroupFileReader.close(memoryCurrent, memoryHigh, memoryMax, cpu, pids, ioBytes, ioOperations);
+        }
+
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Receives the transitions reported by a {@link CgroupEventsWatcher}.
+ */
+public interface CgroupEventsListener {
+
+    /**
+     * Called when the first process entered or the last process left the
+     * control group of a unit (or one of its descendants).
+     *
+     * @param unitName The full unit name.
+     * @param populated <code>true</code> if there are processes now.
+     */
+    void populatedChanged(String unitName, boolean populated);
+
+    /**
+     * Called when freezing or thawing of the control group of a unit completed.
+     *
+     * @param unitName The full unit name.
+     * @param frozen <code>true</code> if the control group is frozen now.
+     */
+    default void frozenChanged(final String unitName, final boolean frozen) {
+        // Not interested by default
+    }
+
+}
@@ -0,0 +1,698 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.CgroupAccountingBackend.ControlGroupResolver;
+
+/**
+ * Watches the <code>cgroup.events</code> files of units (unified hierarchy)
+ * and reports changes of <code>populated</code> and <code>frozen</code> as
+ * soon as the kernel signals them via inotify (through a
+ * {@link WatchService}), without waiting for signals of the manager.<p>
+ *
+ * Changes are passed to the {@link CgroupEventsListener}s and, if set, to a
+ * {@link UnitStateEventPublisher} as <code>PropertiesChanged</code> events
+ * with the properties {@link #POPULATED} (not a property of systemd) and
+ * {@link Unit.Property#FREEZER_STATE}. The control group of a unit is
+ * resolved when it is watched. If it vanishes (e.g. the unit stopped), its
+ * parent directory is watched and the unit is followed again as soon as the
+ * control group is re-created. Listeners are notified without holding the
+ * lock of the watcher.
+ */
+public class CgroupEventsWatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CgroupEventsWatcher.class);
+
+    /** Name of the synthetic property carrying the populated state. */
+    public static final String POPULATED = "ControlGroupPopulated";
+
+    static final String EVENTS_FILE = "cgroup.events";
+
+    private static final byte[] POPULATED_KEY = CgroupFileReader.bytes("populated");
+    private static final byte[] FROZEN_KEY = CgroupFileReader.bytes("frozen");
+
+    private final Path root;
+    private final ControlGroupResolver resolver;
+
+    private final CgroupFileReader reader = new CgroupFileReader();
+
+    private final Map<String, Watched> units = new HashMap<>();
+    private final Map<Path, Watched> directories = new HashMap<>();
+    private final Map<Path, Set<Watched>> waiting = new HashMap<>();
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private final List<CgroupEventsListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final List<Runnable> changes = new ArrayList<>();
+    private final Object notifyLock = new Object();
+
+    private volatile UnitStateEventPublisher publisher;
+
+    private WatchService watchService;
+
+    private UnitMonitor monitor;
+    private UnitMonitorListener monitorListener;
+
+    public CgroupEventsWatcher(final Manager manager) {
+        this(manager, CgroupAccountingBackend.DEFAULT_ROOT);
+    }
+
+    public CgroupEventsWatcher(final Manager manager, final Path root) {
+        this(root, CgroupAccountingBackend.busResolver(Objects.requireNonNull(manager)));
+    }
+
+    CgroupEventsWatcher(final Path root, final ControlGroupResolver resolver) {
+        this.root = Objects.requireNonNull(root);
+        this.resolver = Objects.requireNonNull(resolver);
+    }
+
+    /**
+     * Creates the watch service and starts the thread dispatching its events.
+     *
+     * @throws IOException If the watch service cannot be created.
+     */
+    public void open() throws IOException {
+        synchronized (this) {
+            if (watchService != null) {
+                return;
+            }
+
+            watchService = FileSystems.getDefault().newWatchService();
+
+            for (Watched watched : new ArrayList<>(units.values())) {
+                if (watched.directory != null) {
+                    try {
+                        register(watched.directory);
+                    }
+                    catch (final IOException e) {
+                        gone(watched);
+                    }
+                }
+                else if (watched.awaited != null) {
+                    await(watched, watched.awaited);
+                }
+            }
+
+            WatchService service = watchService;
+
+            Thread watchThread = new Thread(() -> dispatch(service), getClass().getSimpleName() + "-watchThread");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+
+        notifyChanges();
+    }
+
+    @Override
+    public void close() {
+        detach();
+
+        synchronized (this) {
+            closeWatchService();
+        }
+    }
+
+    private void closeWatchService() {
+        if (watchService == null) {
+            return;
+        }
+
+        try {
+            watchService.close();
+        }
+        catch (final IOException e) {
+            LOG.error("Unable to close watch service", e);
+        }
+        finally {
+            watchService = null;
+
+            keys.clear();
+        }
+    }
+
+    public void addListener(final CgroupEventsListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final CgroupEventsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes the changes to an event stream (e.g. of
+     * {@link UnitMonitor#createEventPublisher(int, QueuedUnitStateListener.OverflowPolicy, boolean)}).
+     *
+     * @param publisher The publisher or <code>null</code> to stop publishing.
+     */
+    public void setPublisher(final UnitStateEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Watches the monitored units of a monitor and follows its refreshes.
+     *
+     * @param unitMonitor The monitor.
+     */
+    public void attach(final UnitMonitor unitMonitor) {
+        Objects.requireNonNull(unitMonitor);
+
+        detach();
+
+        UnitMonitorListener listener = monitoredUnits -> {
+            List<String> names = new ArrayList<>(monitoredUnits.size());
+            monitoredUnits.forEach(u -> names.add(u.name));
+
+            retain(names);
+        };
+
+        synchronized (this) {
+            monitor = unitMonitor;
+            monitorListener = listener;
+        }
+
+        // Not holding the lock, the monitor notifies under its own
+        unitMonitor.addListener(listener);
+        listener.monitorRefreshed(unitMonitor.getMonitoredUnits());
+    }
+
+    public void detach() {
+        UnitMonitor unitMonitor;
+        UnitMonitorListener listener;
+
+        synchronized (this) {
+            unitMonitor = monitor;
+            listener = monitorListener;
+
+            monitor = null;
+            monitorListener = null;
+        }
+
+        if (unitMonitor != null) {
+            unitMonitor.removeListener(listener);
+        }
+    }
+
+    public void watch(final String... unitNames) {
+        watch(Arrays.asList(unitNames));
+    }
+
+    public synchronized void watch(final Collection<String> unitNames) {
+        for (String unitName : unitNames) {
+            Watched watched = units.computeIfAbsent(unitName, Watched::new);
+
+            // Units waiting for their control group are picked up by the watch service
+            if (watched.directory == null && (watched.awaited == null || watchService == null)) {
+                resolve(watched);
+            }
+        }
+    }
+
+    public synchronized void unwatch(final Collection<String> unitNames) {
+        for (String unitName : unitNames) {
+            Watched watched = units.remove(unitName);
+
+            if (watched != null) {
+                release(watched);
+            }
+        }
+    }
+
+    public void unwatch(final String... unitNames) {
+        unwatch(Arrays.asList(unitNames));
+    }
+
+    synchronized void retain(final Collection<String> unitNames) {
+        List<String> removed = new ArrayList<>(units.keySet());
+        removed.removeAll(unitNames);
+
+        unwatch(removed);
+        watch(unitNames);
+    }
+
+    public synchronized Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(units.keySet()));
+    }
+
+    /**
+     * @param unitName The full unit name.
+     * @return Whether the control group has processes (empty if unknown).
+     */
+    public synchronized Optional<Boolean> isPopulated(final String unitName) {
+        Watched watched = units.get(unitName);
+
+        return Optional.ofNullable(watched != null && watched.directory != null ? watched.populated : null);
+    }
+
+    /**
+     * @param unitName The full unit name.
+     * @return Whether the control group is frozen (empty if unknown).
+     */
+    public synchronized Optional<Boolean> isFrozen(final String unitName) {
+        Watched watched = units.get(unitName);
+
+        return Optional.ofNullable(watched != null && watched.directory != null ? watched.frozen : null);
+    }
+
+    /**
+     * Freezes a unit and waits until the kernel reports its control group
+     * as frozen.
+     *
+     * @param unit The unit (watched or not).
+     * @param timeout The maximum time to wait.
+     * @param timeUnit The time unit of the timeout.
+     * @return <code>true</code> if the unit is frozen within the timeout.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean freeze(final Unit unit, final long timeout, final TimeUnit timeUnit) throws InterruptedException {
+        watch(unit.name);
+        unit.freeze();
+
+        return awaitFrozen(unit.name, true, timeout, timeUnit);
+    }
+
+    /**
+     * Thaws a unit and waits until the kernel reports its control group
+     * as thawed.
+     *
+     * @param unit The unit (watched or not).
+     * @param timeout The maximum time to wait.
+     * @param timeUnit The time unit of the timeout.
+     * @return <code>true</code> if the unit is thawed within the timeout.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean thaw(final Unit unit, final long timeout, final TimeUnit timeUnit) throws InterruptedException {
+        watch(unit.name);
+        unit.thaw();
+
+        return awaitFrozen(unit.name, false, timeout, timeUnit);
+    }
+
+    synchronized boolean awaitFrozen(final String unitName, final boolean frozen, final long timeout, final TimeUnit timeUnit) throws InterruptedException {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+
+        while (true) {
+            Watched watched = units.get(unitName);
+
+            if (watched != null && watched.directory != null && watched.frozen == frozen) {
+                return true;
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0L) {
+                return false;
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private void resolve(final Watched watched) {
+        String controlGroup;
+
+        try {
+            controlGroup = resolver.resolve(watched.unitName);
+        }
+        catch (final DBusException | DBusExecutionException e) {
+            LOG.debug(String.format("Unable to resolve control group of unit '%s': %s", watched.unitName, e.getMessage()));
+
+            return;
+        }
+
+        if (controlGroup == null || controlGroup.isEmpty()) {
+            return;
+        }
+
+        Path directory = CgroupAccountingBackend.cgroupDir(root, controlGroup);
+
+        release(watched);
+
+        try {
+            watched.channel = CgroupFileReader.open(directory.resolve(EVENTS_FILE));
+
+            if (watched.channel == null) {
+                return;
+            }
+
+            watched.directory = directory;
+            directories.put(directory, watched);
+
+            register(directory);
+            read(watched, false);
+        }
+        catch (final IOException e) {
+            LOG.debug(String.format("Unable to watch control group of unit '%s': %s", watched.unitName, e.getMessage()));
+
+            release(watched);
+        }
+    }
+
+    private void register(final Path directory) throws IOException {
+        if (watchService != null && !keys.containsKey(directory)) {
+            keys.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+        }
+    }
+
+    private void unregister(final Path directory) {
+        if (!directories.containsKey(directory) && !waiting.containsKey(directory)) {
+            WatchKey key = keys.remove(directory);
+
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    private void release(final Watched watched) {
+        if (watched.directory != null) {
+            Path directory = watched.directory;
+
+            directories.remove(directory);
+            watched.directory = null;
+
+            unregister(directory);
+        }
+
+        if (watched.awaited != null) {
+            Path parent = watched.awaited.getParent();
+            Set<Watched> awaiting = waiting.get(parent);
+
+            if (awaiting != null && awaiting.remove(watched) && awaiting.isEmpty()) {
+                waiting.remove(parent);
+            }
+
+            watched.awaited = null;
+
+            unregister(parent);
+        }
+
+        CgroupFileReader.close(watched.channel);
+        watched.channel = null;
+    }
+
+    private void dispatch(final WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+
+                synchronized (this) {
+                    dispatch(key);
+                }
+
+                notifyChanges();
+            }
+        }
+        catch (final InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Watch thread finished");
+        }
+    }
+
+    private void dispatch(final WatchKey key) {
+        Path path = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            boolean overflow = event.kind() == StandardWatchEventKinds.OVERFLOW;
+            String name = String.valueOf(event.context());
+
+            Watched watched = directories.get(path);
+
+            if (watched != null && (overflow || EVENTS_FILE.equals(name))) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    // The directory itself is only reported once no file of it is open
+                    gone(watched);
+                }
+                else {
+                    check(watched);
+                }
+            }
+
+            Set<Watched> awaiting = waiting.get(path);
+
+            if (awaiting != null && (overflow || event.kind() == StandardWatchEventKinds.ENTRY_CREATE)) {
+                for (Watched candidate : new ArrayList<>(awaiting)) {
+                    Path directory = candidate.awaited;
+
+                    if (overflow ? Files.isDirectory(directory) : directory.getFileName().toString().equals(name)) {
+                        reopen(candidate, directory);
+                    }
+                }
+            }
+        }
+
+        if (!key.reset() && keys.get(path) == key) {
+            // Directory removed
+            keys.remove(path);
+
+            Watched watched = directories.get(path);
+
+            if (watched != null) {
+                gone(watched);
+            }
+
+            // Parent removed as well, resolved again on the next watch or refresh
+            Set<Watched> awaiting = waiting.get(path);
+
+            if (awaiting != null) {
+                new ArrayList<>(awaiting).forEach(this::release);
+            }
+        }
+    }
+
+    /**
+     * Re-reads the events file of a unit and notifies the changes.
+     *
+     * @param unitName The full unit name.
+     */
+    void check(final String unitName) {
+        synchronized (this) {
+            Watched watched = units.get(unitName);
+
+            if (watched != null && watched.directory != null) {
+                check(watched);
+            }
+        }
+
+        notifyChanges();
+    }
+
+    private void check(final Watched watched) {
+        try {
+            if (watched.channel == null) {
+                watched.channel = CgroupFileReader.open(watched.directory.resolve(EVENTS_FILE));
+
+                if (watched.channel == null) {
+                    return;
+                }
+            }
+
+            read(watched, true);
+        }
+        catch (final IOException e) {
+            gone(watched);
+        }
+    }
+
+    private void gone(final Watched watched) {
+        Path directory = watched.directory;
+        boolean populated = watched.populated;
+
+        release(watched);
+
+        if (populated) {
+            watched.populated = false;
+            changes.add(() -> notifyPopulated(watched.unitName, false));
+        }
+
+        if (directory != null) {
+            await(watched, directory);
+        }
+
+        notifyAll();
+    }
+
+    private void await(final Watched watched, final Path directory) {
+        Path parent = directory.getParent();
+
+        watched.awaited = directory;
+        waiting.computeIfAbsent(parent, p -> new HashSet<>()).add(watched);
+
+        try {
+            register(parent);
+        }
+        catch (final IOException e) {
+            LOG.debug(String.format("Unable to watch parent of control group of unit '%s': %s", watched.unitName, e.getMessage()));
+
+            release(watched);
+
+            return;
+        }
+
+        // Re-created before the parent was watched
+        if (Files.isDirectory(directory)) {
+            reopen(watched, directory);
+        }
+    }
+
+    private void reopen(final Watched watched, final Path directory) {
+        release(watched);
+
+        watched.directory = directory;
+        directories.put(directory, watched);
+
+        try {
+            register(directory);
+        }
+        catch (final IOException e) {
+            // Removed again
+            directories.remove(directory);
+            watched.directory = null;
+
+            await(watched, directory);
+
+            return;
+        }
+
+        // The events file may not exist yet, it is opened when created
+        check(watched);
+    }
+
+    private void read(final Watched watched, final boolean notify) throws IOException {
+        if (!reader.fill(watched.channel)) {
+            return;
+        }
+
+        long populatedValue = reader.findKeyed(POPULATED_KEY);
+        long frozenValue = reader.findKeyed(FROZEN_KEY);
+
+        // A missing key (e.g. file read while being written) leaves the state unchanged
+        boolean populated = populatedValue != ResourceSample.NOT_AVAILABLE ? populatedValue == 1L : watched.populated;
+        boolean frozen = frozenValue != ResourceSample.NOT_AVAILABLE ? frozenValue == 1L : watched.frozen;
+
+        boolean populatedChanged = populated != watched.populated;
+        boolean frozenChanged = frozen != watched.frozen;
+
+        watched.populated = populated;
+        watched.frozen = frozen;
+
+        if (notify) {
+            if (populatedChanged) {
+                changes.add(() -> notifyPopulated(watched.unitName, populated));
+            }
+
+            if (frozenChanged) {
+                changes.add(() -> notifyFrozen(watched.unitName, frozen));
+            }
+        }
+
+        notifyAll();
+    }
+
+    private void notifyChanges() {
+        // Serializes the notifications, keeping their order
+        synchronized (notifyLock) {
+            List<Runnable> pending;
+
+            synchronized (this) {
+                if (changes.isEmpty()) {
+                    return;
+                }
+
+                pending = new ArrayList<>(changes);
+                changes.clear();
+            }
+
+            pending.forEach(Runnable::run);
+        }
+    }
+
+    private void notifyPopulated(final String unitName, final boolean populated) {
+        for (CgroupEventsListener listener : listeners) {
+            try {
+                listener.populatedChanged(unitName, populated);
+            }
+            catch (final RuntimeException e) {
+                LOG.error(String.format("Error while notifying populated change of unit '%s'", unitName), e);
+            }
+        }
+
+        publish(unitName, POPULATED, new Variant<>(populated));
+    }
+
+    private void notifyFrozen(final String unitName, final boolean frozen) {
+        for (CgroupEventsListener listener : listeners) {
+            try {
+                listener.frozenChanged(unitName, frozen);
+            }
+            catch (final RuntimeException e) {
+                LOG.error(String.format("Error while notifying frozen change of unit '%s'", unitName), e);
+            }
+        }
+
+        publish(unitName, Unit.Property.FREEZER_STATE, new Variant<>(frozen ? "frozen" : "running"));
+    }
+
+    private void publish(final String unitName, final String property, final Variant<?> value) {
+        UnitStateEventPublisher target = publisher;
+
+        if (target != null) {
+            target.publish(UnitStateEvent.propertiesChanged(unitName, Collections.singletonMap(property, value)));
+        }
+    }
+
+    private static final class Watched {
+
+        private final String unitName;
+
+        private Path directory;
+        private Path awaited;
+        private FileChannel channel;
+
+        private boolean populated;
+        private boolean frozen;
+
+        Watched(final String unitName) {
+            this.unitName = unitName;
+        }
+
+    }
+
+}
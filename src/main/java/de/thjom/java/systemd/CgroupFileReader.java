@@ -0,0 +1,295 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parser of the flat files of the cgroup and proc file systems working in
+ * place on one reused buffer, so that reading a file allocates nothing.
+ * Instances are not thread-safe.
+ */
+final class CgroupFileReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CgroupFileReader.class);
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final byte[] MAX = bytes("max");
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    static FileChannel open(final Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+        catch (final NoSuchFileException e) {
+            // E.g. controller not enabled for this control group
+            LOG.trace(String.format("File '%s' not present", path));
+
+            return null;
+        }
+    }
+
+    static void close(final FileChannel... channels) {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                }
+                catch (final IOException e) {
+                    LOG.debug("Unable to close file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the whole file from its start into the buffer, growing it if
+     * the file does not fit.
+     */
+    boolean fill(final FileChannel channel) throws IOException {
+        if (channel == null) {
+            return false;
+        }
+
+        while (true) {
+            buffer.clear();
+
+            long position = 0L;
+            int n;
+
+            while (buffer.hasRemaining() && (n = channel.read(buffer, position)) > 0) {
+                position += n;
+            }
+
+            if (buffer.hasRemaining()) {
+                buffer.flip();
+
+                return true;
+            }
+
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+        }
+    }
+
+    long readValue(final FileChannel channel) throws IOException {
+        if (!fill(channel)) {
+            return ResourceSample.NOT_AVAILABLE;
+        }
+
+        int start = skipBlank(0);
+
+        if (matches(start, MAX)) {
+            return ResourceSample.NOT_AVAILABLE;
+        }
+
+        return parseLong(start);
+    }
+
+    /**
+     * Finds a line "key value" (as in <code>cpu.stat</code>).
+     */
+    long findKeyed(final byte[] key) {
+        int limit = buffer.limit();
+
+        for (int i = 0; i < limit; i = nextLine(i)) {
+            if (matches(i, key) && i + key.length < limit && buffer.get(i + key.length) == ' ') {
+                return parseLong(skipBlank(i + key.length));
+            }
+        }
+
+        return ResourceSample.NOT_AVAILABLE;
+    }
+
+    /**
+     * Sums all "key=value" tokens over all lines (as in <code>io.stat</code>).
+     */
+    long sumAssigned(final byte[] key) {
+        int limit = buffer.limit();
+        long sum = 0L;
+
+        for (int i = 0; i < limit; i++) {
+            if ((i == 0 || buffer.get(i - 1) == ' ' || buffer.get(i - 1) == '\n') && matches(i, key) && i + key.length < limit && buffer.get(i + key.length) == '=') {
+                long value = parseLong(i + key.length + 1);
+
+                if (value != ResourceSample.NOT_AVAILABLE) {
+                    sum += value;
+                }
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Sums the lines "device operation value" for an operation over all
+     * devices (as in <code>blkio.throttle.io_service_bytes</code>).
+     */
+    long sumOperation(final byte[] operation) {
+        int limit = buffer.limit();
+        long sum = 0L;
+
+        for (int i = 0; i < limit; i = nextLine(i)) {
+            int op = i;
+
+            while (op < limit && buffer.get(op) != ' ' && buffer.get(op) != '\n') {
+                op++;
+            }
+
+            op = skipBlank(op);
+
+            if (matches(op, operation) && op + operation.length < limit && buffer.get(op + operation.length) == ' ') {
+                long value = parseLong(skipBlank(op + operation.length));
+
+                if (value != ResourceSample.NOT_AVAILABLE) {
+                    sum += value;
+                }
+            }
+        }
+
+        return sum;
+    }
+
+    boolean matches(final int offset, final byte[] token) {
+        if (offset + token.length > buffer.limit()) {
+            return false;
+        }
+
+        for (int i = 0; i < token.length; i++) {
+            if (buffer.get(offset + i) != token[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    int skipBlank(final int offset) {
+        int i = offset;
+
+        while (i < buffer.limit() && buffer.get(i) == ' ') {
+            i++;
+        }
+
+        return i;
+    }
+
+    int nextLine(final int offset) {
+        int i = offset;
+
+        while (i < buffer.limit() && buffer.get(i) != '\n') {
+            i++;
+        }
+
+        return i + 1;
+    }
+
+    long parseLong(final int offset) {
+        long value = 0L;
+        int i = offset;
+
+        for (; i < buffer.limit(); i++) {
+            int digit = buffer.get(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+
+            value = value * 10L + digit;
+        }
+
+        return i > offset ? value : ResourceSample.NOT_AVAILABLE;
+    }
+
+    /**
+     * Finds a line starting with a token followed by a blank (as in the
+     * pressure files).
+     *
+     * @return The offset of the line or -1.
+     */
+    int findLine(final byte[] token) {
+        int limit = buffer.limit();
+
+        for (int i = 0; i < limit; i = nextLine(i)) {
+            if (matches(i, token) && i + token.length < limit && buffer.get(i + token.length) == ' ') {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the value of a "key=value" token within a line.
+     *
+     * @return The offset of the value or -1.
+     */
+    int findAssigned(final int line, final byte[] key) {
+        int limit = buffer.limit();
+
+        for (int i = line; i < limit && buffer.get(i) != '\n'; i++) {
+            if (buffer.get(i) == ' ' && matches(i + 1, key) && i + 1 + key.length < limit && buffer.get(i + 1 + key.length) == '=') {
+                return i + key.length + 2;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parses a non-negative decimal number like "12.34".
+     */
+    double parseDecimal(final int offset) {
+        long integer = 0L;
+        long fraction = 0L;
+        long scale = 1L;
+        boolean point = false;
+        int i = offset;
+
+        for (; i < buffer.limit(); i++) {
+            byte c = buffer.get(i);
+
+            if (c == '.' && !point) {
+                point = true;
+            }
+            else if (c >= '0' && c <= '9') {
+                if (point) {
+                    fraction = fraction * 10L + (c - '0');
+                    scale *= 10L;
+                }
+                else {
+                    integer = integer * 10L + (c - '0');
+                }
+            }
+            else {
+                break;
+            }
+        }
+
+        return i > offset ? integer + (double) fraction / scale : Double.NaN;
+    }
+
+    static byte[] bytes(final String token) {
+        return token.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
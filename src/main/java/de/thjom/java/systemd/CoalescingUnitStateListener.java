@@ -0,0 +1,234 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener decorator which merges bursts of state changes per unit (e.g. as
+ * emitted along a restart) into a single callback of the delegate.<p>
+ *
+ * The first change of a unit opens a window of the configured length. All
+ * changes received within that window are merged (last value wins per
+ * property) and delivered on expiry of the window. If intermediate states
+ * shall be preserved, a change of the <code>ActiveState</code> or
+ * <code>SubState</code> value within a window flushes the pending batch
+ * first, so that each transition is still delivered once.<p>
+ *
+ * Batches are delivered one at a time and in the order they were completed,
+ * either on the signal thread or on the timer thread.
+ */
+public class CoalescingUnitStateListener implements UnitStateListener, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingUnitStateListener.class);
+
+    private final UnitStateListener delegate;
+    private final long windowMillis;
+    private final boolean preserveTransitions;
+
+    private final Map<Unit, Batch> pending = new HashMap<>();
+    private final Deque<Batch> ready = new ArrayDeque<>();
+    private final Object deliveryLock = new Object();
+    private final Timer timer;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    private boolean closed;
+
+    public CoalescingUnitStateListener(final UnitStateListener delegate, final long window, final TimeUnit unit) {
+        this(delegate, window, unit, false);
+    }
+
+    public CoalescingUnitStateListener(final UnitStateListener delegate, final long window, final TimeUnit unit, final boolean preserveTransitions) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Coalescing window must be positive");
+        }
+
+        this.delegate = Objects.requireNonNull(delegate);
+        this.windowMillis = Math.max(1L, unit.toMillis(window));
+        this.preserveTransitions = preserveTransitions;
+        this.timer = createTimer();
+    }
+
+    protected Timer createTimer() {
+        return new Timer(getClass().getSimpleName() + "-flushTimer", true);
+    }
+
+    @Override
+    public void stateChanged(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        receivedCount.incrementAndGet();
+
+        synchronized (pending) {
+            if (closed) {
+                Batch passed = new Batch(unit);
+                passed.merge(changedProperties);
+
+                ready.add(passed);
+            }
+            else {
+                Batch batch = pending.get(unit);
+
+                if (batch != null && preserveTransitions && batch.isTransition(changedProperties)) {
+                    batch.cancel();
+                    pending.remove(unit);
+
+                    ready.add(batch);
+                    batch = null;
+                }
+
+                if (batch == null) {
+                    batch = new Batch(unit);
+                    pending.put(unit, batch);
+                    timer.schedule(batch, windowMillis);
+                }
+
+                batch.merge(changedProperties);
+            }
+        }
+
+        deliverReady();
+    }
+
+    /**
+     * Delivers all pending batches immediately.
+     */
+    public void flush() {
+        synchronized (pending) {
+            List<Batch> batches = new ArrayList<>(pending.values());
+            batches.forEach(Batch::cancel);
+            pending.clear();
+
+            ready.addAll(batches);
+        }
+
+        deliverReady();
+    }
+
+    /**
+     * Delivers all pending batches and stops the coalescing. Changes received
+     * afterwards are passed through to the delegate.
+     */
+    @Override
+    public void close() {
+        synchronized (pending) {
+            closed = true;
+        }
+
+        flush();
+        timer.cancel();
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    private void expire(final Batch batch) {
+        synchronized (pending) {
+            if (pending.get(batch.unit) != batch) {
+                return;
+            }
+
+            pending.remove(batch.unit);
+            ready.add(batch);
+        }
+
+        deliverReady();
+    }
+
+    private void deliverReady() {
+        // Whichever thread holds the lock delivers the batches completed meanwhile
+        synchronized (deliveryLock) {
+            while (true) {
+                Batch batch;
+
+                synchronized (pending) {
+                    batch = ready.poll();
+                }
+
+                if (batch == null) {
+                    return;
+                }
+
+                deliver(batch);
+            }
+        }
+    }
+
+    private void deliver(final Batch batch) {
+        deliveredCount.incrementAndGet();
+
+        try {
+            delegate.stateChanged(batch.unit, batch.properties);
+        }
+        catch (final RuntimeException e) {
+            LOG.error(String.format("Error while delivering coalesced state change of unit '%s'", batch.unit), e);
+        }
+    }
+
+    private final class Batch extends TimerTask {
+
+        private final Unit unit;
+        private final Map<String, Variant<?>> properties = new LinkedHashMap<>();
+
+        Batch(final Unit unit) {
+            this.unit = unit;
+        }
+
+        void merge(final Map<String, Variant<?>> changedProperties) {
+            properties.putAll(changedProperties);
+        }
+
+        boolean isTransition(final Map<String, Variant<?>> changedProperties) {
+            return differs(changedProperties, Unit.Property.ACTIVE_STATE) || differs(changedProperties, Unit.Property.SUB_STATE);
+        }
+
+        private boolean differs(final Map<String, Variant<?>> changedProperties, final String propertyName) {
+            Variant<?> current = properties.get(propertyName);
+            Variant<?> changed = changedProperties.get(propertyName);
+
+            return current != null && changed != null && !Objects.equals(current.getValue(), changed.getValue());
+        }
+
+        @Override
+        public void run() {
+            expire(this);
+        }
+
+    }
+
+}
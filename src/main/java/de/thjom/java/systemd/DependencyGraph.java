@@ -0,0 +1,580 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.Variant;
+
+import de.thjom.java.systemd.types.UnitType;
+
+/**
+ * Immutable graph of the dependencies between units.<p>
+ *
+ * Units are numbered densely; the edges of each dependency type are stored
+ * in compressed sparse row form (an offset array per unit and one target
+ * array), forward as well as transposed. Graphs are created by a
+ * {@link Builder} which fetches all properties of a unit with a single
+ * <code>GetAll</code> call and can be updated per unit and rebuilt (e.g.
+ * after a daemon reload).
+ */
+public final class DependencyGraph {
+
+    public enum Type {
+        REQUIRES(Unit.Property.REQUIRES),
+        REQUISITE(Unit.Property.REQUISITE),
+        WANTS(Unit.Property.WANTS),
+        BINDS_TO(Unit.Property.BINDS_TO),
+        PART_OF(Unit.Property.PART_OF),
+        CONFLICTS(Unit.Property.CONFLICTS),
+        BEFORE(Unit.Property.BEFORE),
+        AFTER(Unit.Property.AFTER),
+        ON_FAILURE(Unit.Property.ON_FAILURE),
+        TRIGGERS(Unit.Property.TRIGGERS),
+        PROPAGATES_RELOAD_TO(Unit.Property.PROPAGATES_RELOAD_TO),
+        JOINS_NAMESPACE_OF(Unit.Property.JOINS_NAMESPACE_OF);
+
+        public final String property;
+
+        Type(final String property) {
+            this.property = property;
+        }
+    }
+
+    /** Dependency types along which systemd propagates a stop of the target unit. */
+    public static final Set<Type> STOP_PROPAGATION = Collections.unmodifiableSet(EnumSet.of(Type.REQUIRES, Type.REQUISITE, Type.BINDS_TO, Type.PART_OF));
+
+    private static final Type[] TYPES = Type.values();
+    private static final String[] NO_DEPENDENCIES = new String[0];
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+
+    private final int[][] offsets = new int[TYPES.length][];
+    private final int[][] targets = new int[TYPES.length][];
+    private final int[][] reverseOffsets = new int[TYPES.length][];
+    private final int[][] reverseTargets = new int[TYPES.length][];
+
+    private DependencyGraph(final Map<String, String[][]> rows) {
+        ids = new HashMap<>(rows.size() * 2);
+
+        List<String> unitNames = new ArrayList<>(rows.keySet());
+        unitNames.forEach(n -> ids.put(n, ids.size()));
+
+        // Units which are only referenced get ids as well
+        for (String[][] row : rows.values()) {
+            for (String[] dependencies : row) {
+                for (String dependency : dependencies) {
+                    if (!ids.containsKey(dependency)) {
+                        ids.put(dependency, ids.size());
+                        unitNames.add(dependency);
+                    }
+                }
+            }
+        }
+
+        names = unitNames.toArray(new String[unitNames.size()]);
+
+        int n = names.length;
+
+        for (Type type : TYPES) {
+            int t = type.ordinal();
+            int[] offset = new int[n + 1];
+            int[] reverseOffset = new int[n + 1];
+            int edges = 0;
+
+            for (Map.Entry<String, String[][]> entry : rows.entrySet()) {
+                String[] dependencies = entry.getValue()[t];
+
+                offset[ids.get(entry.getKey()) + 1] = dependencies.length;
+                edges += dependencies.length;
+
+                for (String dependency : dependencies) {
+                    reverseOffset[ids.get(dependency) + 1]++;
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                offset[i + 1] += offset[i];
+                reverseOffset[i + 1] += reverseOffset[i];
+            }
+
+            int[] target = new int[edges];
+            int[] reverseTarget = new int[edges];
+            int[] fill = Arrays.copyOf(reverseOffset, n);
+
+            for (int id = 0; id < n; id++) {
+                String[][] row = rows.get(names[id]);
+
+                if (row == null) {
+                    continue;
+                }
+
+                int p = offset[id];
+
+                for (String dependency : row[t]) {
+                    int dependencyId = ids.get(dependency);
+
+                    target[p++] = dependencyId;
+                    reverseTarget[fill[dependencyId]++] = id;
+                }
+            }
+
+            offsets[t] = offset;
+            targets[t] = target;
+            reverseOffsets[t] = reverseOffset;
+            reverseTargets[t] = reverseTarget;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds the graph of all loaded units.
+     *
+     * @param manager The manager.
+     * @return The graph.
+     * @throws DBusException If the unit properties cannot be accessed.
+     */
+    public static DependencyGraph load(final Manager manager) throws DBusException {
+        return builder().load(manager).build();
+    }
+
+    /**
+     * Returns the number of units including those which are only referenced
+     * as dependency.
+     *
+     * @return The number of units.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public boolean contains(final String unitName) {
+        return ids.containsKey(unitName);
+    }
+
+    public int getEdgeCount(final Type type) {
+        return targets[type.ordinal()].length;
+    }
+
+    public List<String> getDependencies(final String unitName, final Type type) {
+        return neighbors(unitName, offsets[type.ordinal()], targets[type.ordinal()]);
+    }
+
+    /**
+     * Returns the units which have the given unit as dependency of the given
+     * type (e.g. the units which require the given unit for
+     * {@link Type#REQUIRES}).
+     *
+     * @param unitName The full unit name.
+     * @param type The dependency type.
+     * @return The dependent units.
+     */
+    public List<String> getDependents(final String unitName, final Type type) {
+        return neighbors(unitName, reverseOffsets[type.ordinal()], reverseTargets[type.ordinal()]);
+    }
+
+    private List<String> neighbors(final String unitName, final int[] offset, final int[] target) {
+        Integer id = ids.get(unitName);
+
+        if (id == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> neighbors = new ArrayList<>(offset[id + 1] - offset[id]);
+
+        for (int p = offset[id]; p < offset[id + 1]; p++) {
+            neighbors.add(names[target[p]]);
+        }
+
+        return neighbors;
+    }
+
+    /**
+     * Returns all units reachable from the given unit via dependencies of
+     * the given types.
+     *
+     * @param unitName The full unit name.
+     * @param types The dependency types.
+     * @return The reachable units (without the unit itself) in breadth-first order.
+     */
+    public Set<String> closure(final String unitName, final Set<Type> types) {
+        return traverse(unitName, types, offsets, targets);
+    }
+
+    /**
+     * Returns all units which reach the given unit via dependencies of the
+     * given types.
+     *
+     * @param unitName The full unit name.
+     * @param types The dependency types.
+     * @return The dependent units (without the unit itself) in breadth-first order.
+     */
+    public Set<String> reverseClosure(final String unitName, final Set<Type> types) {
+        return traverse(unitName, types, reverseOffsets, reverseTargets);
+    }
+
+    /**
+     * Returns the units which are stopped along with the given unit (see
+     * {@link #STOP_PROPAGATION}).
+     *
+     * @param unitName The full unit name.
+     * @return The affected units.
+     */
+    public Set<String> blastRadius(final String unitName) {
+        return reverseClosure(unitName, STOP_PROPAGATION);
+    }
+
+    private Set<String> traverse(final String unitName, final Set<Type> types, final int[][] offset, final int[][] target) {
+        Integer start = ids.get(unitName);
+
+        if (start == null) {
+            return Collections.emptySet();
+        }
+
+        BitSet visited = new BitSet(names.length);
+        int[] queue = new int[names.length];
+        int head = 0;
+        int tail = 0;
+
+        visited.set(start);
+        queue[tail++] = start;
+
+        while (head < tail) {
+            int id = queue[head++];
+
+            for (Type type : types) {
+                int t = type.ordinal();
+
+                for (int p = offset[t][id]; p < offset[t][id + 1]; p++) {
+                    int next = target[t][p];
+
+                    if (!visited.get(next)) {
+                        visited.set(next);
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+
+        Set<String> reached = new LinkedHashSet<>(tail * 2);
+
+        for (int i = 1; i < tail; i++) {
+            reached.add(names[queue[i]]);
+        }
+
+        return reached;
+    }
+
+    /**
+     * Finds the dependency cycles over the given types as strongly connected
+     * components.
+     *
+     * @param types The dependency types, e.g. {@link Type#AFTER} for ordering cycles.
+     * @return The units of each cycle.
+     */
+    public List<List<String>> findCycles(final Set<Type> types) {
+        int n = names.length;
+        int[][] merged = merge(types, offsets, targets);
+        int[] offset = merged[0];
+        int[] target = merged[1];
+
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] position = new int[n];
+        int[] stack = new int[n];
+        int[] path = new int[n];
+        boolean[] onStack = new boolean[n];
+        int counter = 0;
+        int sp = 0;
+
+        Arrays.fill(index, -1);
+
+        List<List<String>> cycles = new ArrayList<>();
+
+        // Iterative Tarjan to cope with long dependency chains
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+
+            int depth = 0;
+            path[0] = root;
+            index[root] = low[root] = counter++;
+            position[root] = offset[root];
+            stack[sp++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int v = path[depth];
+
+                if (position[v] < offset[v + 1]) {
+                    int w = target[position[v]++];
+
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        position[w] = offset[w];
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        path[++depth] = w;
+                    }
+                    else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                }
+                else {
+                    if (low[v] == index[v]) {
+                        List<String> component = new ArrayList<>();
+                        int w;
+
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            component.add(names[w]);
+                        }
+                        while (w != v);
+
+                        if (component.size() > 1 || hasEdge(offset, target, v, v)) {
+                            Collections.reverse(component);
+                            cycles.add(component);
+                        }
+                    }
+
+                    if (--depth >= 0) {
+                        int u = path[depth];
+                        low[u] = Math.min(low[u], low[v]);
+                    }
+                }
+            }
+        }
+
+        return cycles;
+    }
+
+    /**
+     * Orders all units such that for each edge <code>a &rarr; b</code> of the
+     * given types <code>b</code> precedes <code>a</code> (i.e. dependencies
+     * first for {@link Type#AFTER} or {@link Type#REQUIRES}).
+     *
+     * @param types The dependency types.
+     * @return The order or an empty optional if the dependencies are cyclic.
+     */
+    public Optional<List<String>> topologicalOrder(final Set<Type> types) {
+        int n = names.length;
+        int[][] merged = merge(types, offsets, targets);
+        int[][] reverse = merge(types, reverseOffsets, reverseTargets);
+
+        int[] remaining = new int[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+
+        for (int id = 0; id < n; id++) {
+            remaining[id] = merged[0][id + 1] - merged[0][id];
+
+            if (remaining[id] == 0) {
+                queue[tail++] = id;
+            }
+        }
+
+        while (head < tail) {
+            int id = queue[head++];
+
+            for (int p = reverse[0][id]; p < reverse[0][id + 1]; p++) {
+                int dependent = reverse[1][p];
+
+                if (--remaining[dependent] == 0) {
+                    queue[tail++] = dependent;
+                }
+            }
+        }
+
+        if (tail < n) {
+            return Optional.empty();
+        }
+
+        List<String> order = new ArrayList<>(n);
+
+        for (int id : queue) {
+            order.add(names[id]);
+        }
+
+        return Optional.of(order);
+    }
+
+    private int[][] merge(final Set<Type> types, final int[][] offset, final int[][] target) {
+        int n = names.length;
+        int[] mergedOffset = new int[n + 1];
+
+        for (int id = 0; id < n; id++) {
+            int degree = 0;
+
+            for (Type type : types) {
+                degree += offset[type.ordinal()][id + 1] - offset[type.ordinal()][id];
+            }
+
+            mergedOffset[id + 1] = mergedOffset[id] + degree;
+        }
+
+        int[] mergedTarget = new int[mergedOffset[n]];
+        int p = 0;
+
+        for (int id = 0; id < n; id++) {
+            for (Type type : types) {
+                int t = type.ordinal();
+                int length = offset[t][id + 1] - offset[t][id];
+
+                System.arraycopy(target[t], offset[t][id], mergedTarget, p, length);
+                p += length;
+            }
+        }
+
+        return new int[][] { mergedOffset, mergedTarget };
+    }
+
+    private static boolean hasEdge(final int[] offset, final int[] target, final int from, final int to) {
+        for (int p = offset[from]; p < offset[from + 1]; p++) {
+            if (target[p] == to) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Collects the dependencies per unit. A builder can be kept to update
+     * single units and to build a new graph afterwards.
+     */
+    public static final class Builder {
+
+        private final Map<String, String[][]> rows = new LinkedHashMap<>();
+
+        Builder() {
+            super();
+        }
+
+        /**
+         * Fetches the dependencies of all loaded units, replacing any
+         * previous content.
+         *
+         * @param manager The manager.
+         * @return This builder.
+         * @throws DBusException If the unit properties cannot be accessed.
+         */
+        public Builder load(final Manager manager) throws DBusException {
+            List<UnitType> units = manager.listUnits();
+
+            rows.clear();
+
+            for (UnitType unit : units) {
+                put(unit.getUnitName(), fetch(manager, unit.getUnitObjectPath().getPath()));
+            }
+
+            return this;
+        }
+
+        /**
+         * Fetches the dependencies of the given units only.
+         *
+         * @param manager The manager.
+         * @param unitNames The full unit names.
+         * @return This builder.
+         * @throws DBusException If the unit properties cannot be accessed.
+         */
+        public Builder load(final Manager manager, final Collection<String> unitNames) throws DBusException {
+            for (String unitName : unitNames) {
+                put(unitName, fetch(manager, Unit.OBJECT_PATH + Systemd.escapePath(unitName)));
+            }
+
+            return this;
+        }
+
+        private static Map<String, Variant<?>> fetch(final Manager manager, final String objectPath) throws DBusException {
+            return Properties.create(manager.dbus, objectPath, Unit.SERVICE_NAME).getAll();
+        }
+
+        /**
+         * Sets the dependencies of a unit from its unit properties.
+         *
+         * @param unitName The full unit name.
+         * @param properties The properties as returned by <code>GetAll</code>.
+         * @return This builder.
+         */
+        public Builder put(final String unitName, final Map<String, Variant<?>> properties) {
+            String[][] row = new String[TYPES.length][];
+
+            for (Type type : TYPES) {
+                Variant<?> value = properties.get(type.property);
+
+                row[type.ordinal()] = value != null && value.getValue() instanceof List ? toArray((List<?>) value.getValue()) : NO_DEPENDENCIES;
+            }
+
+            rows.put(unitName, row);
+
+            return this;
+        }
+
+        public Builder put(final String unitName, final Type type, final String... dependencies) {
+            String[][] row = rows.get(unitName);
+
+            if (row == null) {
+                row = new String[TYPES.length][];
+                Arrays.fill(row, NO_DEPENDENCIES);
+
+                rows.put(unitName, row);
+            }
+
+            row[type.ordinal()] = dependencies.clone();
+
+            return this;
+        }
+
+        public Builder remove(final String unitName) {
+            rows.remove(unitName);
+
+            return this;
+        }
+
+        public DependencyGraph build() {
+            return new DependencyGraph(rows);
+        }
+
+        private static String[] toArray(final List<?> values) {
+            String[] array = new String[values.size()];
+
+            for (int i = 0; i < array.length; i++) {
+                array[i] = String.valueOf(values.get(i));
+            }
+
+            return array;
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Arrays;
+
+/**
+ * Block of a time series compressed as described in the Gorilla paper:
+ * timestamps as delta-of-delta with variable length prefixes, values XORed
+ * with their predecessor storing only the meaningful bits. The bits are
+ * packed into a primitive <code>long</code> array which is trimmed to its
+ * size when the block is sealed.
+ */
+final class GorillaBlock {
+
+    private static final int INITIAL_WORDS = 16;
+
+    private long[] bits = new long[INITIAL_WORDS];
+    private int bitCount;
+    private int count;
+
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastValue;
+    private int lastLeading = -1;
+    private int lastTrailing;
+
+    int getCount() {
+        return count;
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    long getLastValue() {
+        return lastValue;
+    }
+
+    int getSizeInBytes() {
+        return bits.length * Long.BYTES;
+    }
+
+    /**
+     * Appends a point (timestamps must not decrease).
+     */
+    void append(final long timestamp, final long value) {
+        if (count == 0) {
+            writeBits(timestamp, 64);
+            writeBits(value, 64);
+
+            firstTimestamp = timestamp;
+        }
+        else {
+            long delta = timestamp - lastTimestamp;
+
+            writeTimestamp(delta - lastDelta);
+            writeValue(value ^ lastValue);
+
+            lastDelta = delta;
+        }
+
+        lastTimestamp = timestamp;
+        lastValue = value;
+        count++;
+    }
+
+    private void writeTimestamp(final long dod) {
+        if (dod == 0L) {
+            writeBits(0b0L, 1);
+        }
+        else if (dod >= -63L && dod <= 64L) {
+            writeBits(0b10L, 2);
+            writeBits(dod + 63L, 7);
+        }
+        else if (dod >= -255L && dod <= 256L) {
+            writeBits(0b110L, 3);
+            writeBits(dod + 255L, 9);
+        }
+        else if (dod >= -2047L && dod <= 2048L) {
+            writeBits(0b1110L, 4);
+            writeBits(dod + 2047L, 12);
+        }
+        else {
+            writeBits(0b1111L, 4);
+            writeBits(dod, 64);
+        }
+    }
+
+    private void writeValue(final long xor) {
+        if (xor == 0L) {
+            writeBits(0b0L, 1);
+
+            return;
+        }
+
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+
+        if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+            // Meaningful bits fit into the previous window
+            writeBits(0b10L, 2);
+            writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        }
+        else {
+            int length = 64 - leading - trailing;
+
+            writeBits(0b11L, 2);
+            writeBits(leading, 5);
+            writeBits(length - 1, 6);
+            writeBits(xor >>> trailing, length);
+
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    private void writeBits(final long value, final int n) {
+        int index = bitCount >>> 6;
+
+        if (index + 1 >= bits.length) {
+            bits = Arrays.copyOf(bits, bits.length * 2);
+        }
+
+        long masked = n == 64 ? value : value & ((1L << n) - 1);
+        int free = 64 - (bitCount & 63);
+
+        if (n <= free) {
+            bits[index] |= masked << (free - n);
+        }
+        else {
+            bits[index] |= masked >>> (n - free);
+            bits[index + 1] |= masked << (64 - (n - free));
+        }
+
+        bitCount += n;
+    }
+
+    /**
+     * Releases the unused capacity once no more points are appended.
+     */
+    void seal() {
+        bits = Arrays.copyOf(bits, (bitCount + 63) >>> 6);
+    }
+
+    Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Sequential decoder over the points of the block.
+     */
+    final class Reader {
+
+        private final int limit = count;
+
+        private int position;
+        private int index;
+
+        private long timestamp;
+        private long delta;
+        private long value;
+        private int leading;
+        private int trailing;
+
+        /**
+         * Moves to the next point.
+         *
+         * @return <code>false</code> if there are no more points.
+         */
+        boolean next() {
+            if (index >= limit) {
+                return false;
+            }
+
+            if (index == 0) {
+                timestamp = readBits(64);
+                value = readBits(64);
+            }
+            else {
+                delta += readTimestamp();
+                timestamp += delta;
+                value ^= readValue();
+            }
+
+            index++;
+
+            return true;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        long getValue() {
+            return value;
+        }
+
+        private long readTimestamp() {
+            if (readBits(1) == 0L) {
+                return 0L;
+            }
+
+            if (readBits(1) == 0L) {
+                return readBits(7) - 63L;
+            }
+
+            if (readBits(1) == 0L) {
+                return readBits(9) - 255L;
+            }
+
+            if (readBits(1) == 0L) {
+                return readBits(12) - 2047L;
+            }
+
+            return readBits(64);
+        }
+
+        private long readValue() {
+            if (readBits(1) == 0L) {
+                return 0L;
+            }
+
+            if (readBits(1) == 1L) {
+                leading = (int) readBits(5);
+                trailing = 64 - leading - ((int) readBits(6) + 1);
+            }
+
+            return readBits(64 - leading - trailing) << trailing;
+        }
+
+        private long readBits(final int n) {
+            int word = position >>> 6;
+            int free = 64 - (position & 63);
+            long result;
+
+            if (n <= free) {
+                result = bits[word] >>> (free - n);
+            }
+            else {
+                result = (bits[word] << (n - free)) | (bits[word + 1] >>> (64 - (n - free)));
+            }
+
+            position += n;
+
+            return n == 64 ? result : result & ((1L << n) - 1);
+        }
+
+    }
+
+}
@@ -0,0 +1,420 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.interfaces.ManagerInterface.JobNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.JobRemoved;
+
+/**
+ * Records the duration of jobs by pairing <code>JobNew</code> and
+ * <code>JobRemoved</code> signals via the job id.<p>
+ *
+ * Durations and results are aggregated per unit, per job type and in total
+ * into {@link LatencyHistogram}s. The job type is not part of the signals;
+ * if enabled, it is read from the job object after <code>JobNew</code> on a
+ * separate thread (one call per job, jobs which finish before are recorded
+ * as {@link #UNKNOWN_JOB_TYPE}).<p>
+ *
+ * Signals are dispatched concurrently, so the <code>JobRemoved</code> of a
+ * short job may be handled before its <code>JobNew</code>; such removals
+ * are remembered for a short time and paired with the late
+ * <code>JobNew</code>. Pending jobs older than the pending timeout are
+ * evicted. The number of pending jobs is bounded, jobs beyond are not
+ * tracked.
+ */
+public class JobLatencyRecorder implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobLatencyRecorder.class);
+
+    public static final String UNKNOWN_JOB_TYPE = "unknown";
+
+    static final String JOB_INTERFACE = Systemd.SERVICE_NAME + ".Job";
+    static final String JOB_TYPE = "JobType";
+
+    private static final int DEFAULT_MAX_PENDING_JOBS = 16384;
+
+    public static final long DEFAULT_PENDING_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1L);
+
+    private static final long REMOVAL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10L);
+    private static final long EXPIRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private final Manager manager;
+    private final boolean resolveJobTypes;
+    private final int maxPendingJobs;
+    private final LongSupplier clock;
+    private final Executor executor;
+
+    // Guarded by itself, pairs pending jobs with early removals
+    private final Map<Long, PendingJob> pendingJobs = new HashMap<>();
+    private final Map<Long, EarlyRemoval> earlyRemovals = new HashMap<>();
+    private long pendingTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PENDING_TIMEOUT_MILLIS);
+    private long lastExpiryNanos;
+
+    private final ConcurrentMap<String, JobStatistics> unitStatistics = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, JobStatistics> typeStatistics = new ConcurrentHashMap<>();
+    private final JobStatistics totalStatistics = new JobStatistics();
+    private final AtomicLong untrackedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private DBusSigHandler<JobNew> jobNewHandler;
+    private DBusSigHandler<JobRemoved> jobRemovedHandler;
+
+    public JobLatencyRecorder(final Manager manager, final boolean resolveJobTypes) {
+        this(manager, resolveJobTypes, DEFAULT_MAX_PENDING_JOBS, System::nanoTime, createExecutor());
+    }
+
+    JobLatencyRecorder(final Manager manager, final boolean resolveJobTypes, final int maxPendingJobs, final LongSupplier clock, final Executor executor) {
+        this.manager = Objects.requireNonNull(manager);
+        this.resolveJobTypes = resolveJobTypes;
+        this.maxPendingJobs = maxPendingJobs;
+        this.clock = Objects.requireNonNull(clock);
+        this.executor = Objects.requireNonNull(executor);
+        this.lastExpiryNanos = clock.getAsLong();
+    }
+
+    private static Executor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, JobLatencyRecorder.class.getSimpleName() + "-jobTypeResolver");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        // No idle thread is kept
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * Sets the time after which a job without <code>JobRemoved</code> is
+     * no longer considered pending.
+     *
+     * @param timeout The timeout.
+     * @param unit The time unit of the timeout.
+     */
+    public void setPendingTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0L) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        synchronized (pendingJobs) {
+            pendingTimeoutNanos = unit.toNanos(timeout);
+        }
+    }
+
+    /**
+     * Registers the signal handlers.
+     *
+     * @throws DBusException If the handlers cannot be registered.
+     */
+    public synchronized void open() throws DBusException {
+        if (jobNewHandler != null) {
+            return;
+        }
+
+        jobNewHandler = s -> {
+            // Taken before anything else, so no round trip adds to the duration
+            long now = clock.getAsLong();
+            long jobId = s.getId();
+
+            if (jobNew(jobId, s.getUnit(), now) && resolveJobTypes) {
+                String jobPath = s.getJob().getPath();
+
+                executor.execute(() -> jobTypeResolved(jobId, readJobType(jobPath)));
+            }
+        };
+        jobRemovedHandler = s -> jobRemoved(s.getId(), s.getResult(), clock.getAsLong());
+
+        manager.subscribe();
+
+        try {
+            manager.addHandler(JobNew.class, jobNewHandler);
+            manager.addHandler(JobRemoved.class, jobRemovedHandler);
+        }
+        catch (final DBusException e) {
+            close();
+
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (jobNewHandler == null) {
+            return;
+        }
+
+        try {
+            manager.removeHandler(JobNew.class, jobNewHandler);
+            manager.removeHandler(JobRemoved.class, jobRemovedHandler);
+        }
+        catch (final DBusException e) {
+            LOG.error("Unable to remove signal handlers of job latency recorder", e);
+        }
+        finally {
+            manager.unsubscribe();
+
+            jobNewHandler = null;
+
+            synchronized (pendingJobs) {
+                pendingJobs.clear();
+                earlyRemovals.clear();
+            }
+        }
+    }
+
+    private String readJobType(final String jobPath) {
+        try {
+            return Properties.create(manager.dbus, jobPath, JOB_INTERFACE).getString(JOB_TYPE);
+        }
+        catch (final DBusException | DBusExecutionException e) {
+            // Job already finished
+            return UNKNOWN_JOB_TYPE;
+        }
+    }
+
+    /**
+     * Starts to track a job.
+     *
+     * @return <code>true</code> if the job is pending now.
+     */
+    boolean jobNew(final long jobId, final String unitName, final long startNanos) {
+        EarlyRemoval removal;
+
+        synchronized (pendingJobs) {
+            expire(startNanos);
+
+            removal = earlyRemovals.remove(jobId);
+
+            if (removal == null) {
+                if (pendingJobs.size() >= maxPendingJobs) {
+                    untrackedCount.incrementAndGet();
+
+                    return false;
+                }
+
+                pendingJobs.put(jobId, new PendingJob(unitName, startNanos));
+
+                return true;
+            }
+        }
+
+        // Removed before, the duration is at most the delay of this signal
+        record(unitName, UNKNOWN_JOB_TYPE, Math.max(0L, removal.endNanos - startNanos), removal.result);
+
+        return false;
+    }
+
+    void jobTypeResolved(final long jobId, final String jobType) {
+        synchronized (pendingJobs) {
+            PendingJob job = pendingJobs.get(jobId);
+
+            if (job != null) {
+                job.jobType = jobType;
+            }
+        }
+    }
+
+    void jobRemoved(final long jobId, final String result, final long endNanos) {
+        PendingJob job;
+
+        synchronized (pendingJobs) {
+            expire(endNanos);
+
+            job = pendingJobs.remove(jobId);
+
+            if (job == null) {
+                earlyRemovals.put(jobId, new EarlyRemoval(result, endNanos));
+
+                return;
+            }
+        }
+
+        record(job.unitName, job.jobType, endNanos - job.startNanos, result);
+    }
+
+    private void record(final String unitName, final String jobType, final long nanos, final String result) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+
+        unitStatistics.computeIfAbsent(unitName, k -> new JobStatistics()).record(micros, result);
+        typeStatistics.computeIfAbsent(jobType, k -> new JobStatistics()).record(micros, result);
+        totalStatistics.record(micros, result);
+    }
+
+    /**
+     * Evicts stale pending jobs and early removals, at most once per second
+     * (lock held).
+     */
+    private void expire(final long now) {
+        if (now - lastExpiryNanos < EXPIRY_INTERVAL_NANOS) {
+            return;
+        }
+
+        lastExpiryNanos = now;
+
+        for (Iterator<PendingJob> it = pendingJobs.values().iterator(); it.hasNext();) {
+            if (now - it.next().startNanos > pendingTimeoutNanos) {
+                it.remove();
+                expiredCount.incrementAndGet();
+            }
+        }
+
+        // Removals of jobs which were not tracked at all
+        earlyRemovals.values().removeIf(r -> now - r.endNanos > REMOVAL_TIMEOUT_NANOS);
+    }
+
+    public Optional<JobStatistics> getUnitStatistics(final String unitName) {
+        return Optional.ofNullable(unitStatistics.get(unitName));
+    }
+
+    /**
+     * @param jobType The job type, e.g. "start" or "restart".
+     * @return The statistics of the job type.
+     */
+    public Optional<JobStatistics> getTypeStatistics(final String jobType) {
+        return Optional.ofNullable(typeStatistics.get(jobType));
+    }
+
+    public JobStatistics getTotalStatistics() {
+        return totalStatistics;
+    }
+
+    public Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(unitStatistics.keySet());
+    }
+
+    public int getPendingCount() {
+        synchronized (pendingJobs) {
+            return pendingJobs.size();
+        }
+    }
+
+    /**
+     * Returns the number of pending jobs which were evicted after the
+     * pending timeout without a <code>JobRemoved</code>.
+     *
+     * @return The number of expired jobs.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Returns the number of jobs which were not tracked as too many jobs
+     * were pending.
+     *
+     * @return The number of untracked jobs.
+     */
+    public long getUntrackedCount() {
+        return untrackedCount.get();
+    }
+
+    /**
+     * Durations and results of finished jobs.
+     */
+    public static final class JobStatistics {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final ConcurrentMap<String, LongAdder> results = new ConcurrentHashMap<>();
+
+        JobStatistics() {
+            super();
+        }
+
+        void record(final long micros, final String result) {
+            histogram.record(micros);
+            results.computeIfAbsent(result, k -> new LongAdder()).increment();
+        }
+
+        /**
+         * Returns the histogram of the job durations in microseconds.
+         *
+         * @return The histogram.
+         */
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        /**
+         * Returns the number of jobs per result (e.g. "done", "failed",
+         * "timeout", "canceled").
+         *
+         * @return The result counts.
+         */
+        public Map<String, Long> getResultCounts() {
+            Map<String, Long> counts = new HashMap<>();
+            results.forEach((k, v) -> counts.put(k, v.sum()));
+
+            return counts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, results=%s", histogram, getResultCounts());
+        }
+
+    }
+
+    private static final class PendingJob {
+
+        private final String unitName;
+        private final long startNanos;
+        private String jobType = UNKNOWN_JOB_TYPE;
+
+        PendingJob(final String unitName, final long startNanos) {
+            this.unitName = unitName;
+            this.startNanos = startNanos;
+        }
+
+    }
+
+    private static final class EarlyRemoval {
+
+        private final String result;
+        private final long endNanos;
+
+        EarlyRemoval(final String result, final long endNanos) {
+            this.result = result;
+            this.endNanos = endNanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in fixed memory with log-linear buckets (like
+ * HdrHistogram): each power of two is split into 32 linear sub-buckets, so
+ * that recorded values are resolved with a relative error below about 3%.
+ * Values from one microsecond up to {@link #MAX_VALUE} (about 19 hours) are
+ * tracked, larger values are clamped. Recording is lock-free.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final int MAX_VALUE_BITS = 36;
+
+    /** Maximum trackable value in microseconds. */
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private static final int BUCKET_COUNT = MAX_VALUE_BITS - SUB_BUCKET_BITS + 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT * SUB_BUCKET_HALF + SUB_BUCKET_HALF);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param value The latency.
+     * @param unit The time unit of the latency.
+     */
+    public void record(final long value, final TimeUnit unit) {
+        record(unit.toMicros(value));
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param micros The latency in microseconds.
+     */
+    public void record(final long micros) {
+        long value = Math.min(Math.max(micros, 0L), MAX_VALUE);
+
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+            // Retry
+        }
+    }
+
+    static int indexOf(final long value) {
+        int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        int subBucket = (int) (value >>> bucket);
+
+        return bucket * SUB_BUCKET_HALF + subBucket;
+    }
+
+    static long highestValueAt(final int index) {
+        int bucket = Math.max(0, index / SUB_BUCKET_HALF - 1);
+        long subBucket = index - bucket * SUB_BUCKET_HALF;
+
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+
+        return n > 0L ? (double) sum.get() / n : 0.0;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the
+     * recorded values fall.
+     *
+     * @param percentile The percentile (0 to 100).
+     * @return The value in microseconds (the upper bound of its bucket, at most the maximum).
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        long total = count.get();
+
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0L;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+
+        count.set(0L);
+        sum.set(0L);
+        max.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, p50=%dus, p99=%dus, max=%dus", getCount(), getValueAtPercentile(50.0), getValueAtPercentile(99.0), getMax());
+    }
+
+}
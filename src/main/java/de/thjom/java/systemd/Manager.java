@@ -18,9 +18,12 @@ import org.freedesktop.dbus.*;
 import org.freedesktop.dbus.connections.impl.*;
 import org.freedesktop.dbus.exceptions.*;
 import org.freedesktop.dbus.interfaces.*;
+import org.freedesktop.dbus.messages.*;
+import org.slf4j.*;
 
 import java.math.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Manager extends InterfaceAdapter {
 
@@ -182,7 +185,14 @@ public class Manager extends InterfaceAdapter {
 
     }
 
-    private boolean subscribed;
+    static final String BUS_NAME = "org.freedesktop.DBus";
+    static final String BUS_OBJECT_PATH = "/org/freedesktop/DBus";
+
+    private static final Logger LOG = LoggerFactory.getLogger(Manager.class);
+
+    private final Map<String, SignalDispatcher> dispatchers = new HashMap<>();
+
+    private int subscriptions;
 
     private Manager(final DBusConnection dbus, final ManagerInterface iface) throws DBusException {
         super(dbus, iface);
@@ -415,12 +425,17 @@ public class Manager extends InterfaceAdapter {
         return getInterface().stopUnit(name, mode);
     }
 
+    /**
+     * Enables signal emission of the manager. Calls are reference-counted,
+     * i.e. emission is only enabled for the first call and stays enabled
+     * until the same number of calls to {@link #unsubscribe()} happened.
+     */
     public synchronized void subscribe() {
-        if (!subscribed) {
+        if (subscriptions == 0) {
             getInterface().subscribe();
-
-            subscribed = true;
         }
+
+        subscriptions++;
     }
 
     public void switchRoot(final String newRoot, final String init) {
@@ -455,14 +470,107 @@ public class Manager extends InterfaceAdapter {
         getInterface().unsetEnvironment(names);
     }
 
+    /**
+     * Releases a subscription taken by {@link #subscribe()}. Signal emission
+     * is disabled when the last subscription has been released.
+     */
     public synchronized void unsubscribe() {
-        if (subscribed) {
+        if (subscriptions == 1) {
             getInterface().unsubscribe();
+        }
+
+        if (subscriptions > 0) {
+            subscriptions--;
+        }
+    }
+
+    public synchronized boolean isSubscribed() {
+        return subscriptions > 0;
+    }
+
+    public synchronized int getSubscriptionCount() {
+        return subscriptions;
+    }
+
+    /**
+     * Adds a signal handler along a match rule which is installed on the bus
+     * daemon. Unlike {@link #addHandler(Class, DBusSigHandler)} only signals
+     * matching the given rule are routed to this connection.
+     *
+     * @param rule The match rule (interface and member are derived from the signal type if absent).
+     * @param type The signal type.
+     * @param handler The signal handler.
+     * @throws DBusException If the rule cannot be mapped to the signal type.
+     */
+    public <T extends DBusSignal> void addHandler(final MatchRule rule, final Class<T> type, final DBusSigHandler<T> handler) throws DBusException {
+        DBusMatchRule busRule = rule.toDBusMatchRule(type);
+        String key = dispatcherKey(busRule);
+
+        synchronized (dispatchers) {
+            SignalDispatcher dispatcher = dispatchers.get(key);
+
+            if (dispatcher == null) {
+                dispatcher = new SignalDispatcher(busRule);
+
+                // Let dbus-java install the primary rule along the local handler
+                dbus.addGenericSigHandler(busRule, dispatcher);
+                dispatchers.put(key, dispatcher);
+            }
+            else if (!dispatcher.hasRule(busRule.toString())) {
+                getBus().AddMatch(busRule.toString());
+            }
+
+            dispatcher.add(busRule.toString(), new HandlerRegistration<>(rule, type, handler));
+        }
+    }
+
+    public <T extends DBusSignal> void removeHandler(final MatchRule rule, final Class<T> type, final DBusSigHandler<T> handler) throws DBusException {
+        if (handler == null) {
+            return;
+        }
+
+        DBusMatchRule busRule = rule.toDBusMatchRule(type);
+        String key = dispatcherKey(busRule);
+
+        synchronized (dispatchers) {
+            SignalDispatcher dispatcher = dispatchers.get(key);
+
+            if (dispatcher == null || !dispatcher.remove(busRule.toString(), rule, handler)) {
+                return;
+            }
+
+            if (dispatcher.isUnused(busRule.toString())) {
+                getBus().RemoveMatch(busRule.toString());
+            }
 
-            subscribed = false;
+            if (dispatcher.isEmpty()) {
+                dbus.removeGenericSigHandler(dispatcher.primaryRule, dispatcher);
+                dispatchers.remove(key);
+            }
         }
     }
 
+    /**
+     * Creates a publisher of the state events of all units. Signal handlers
+     * are only registered while the publisher has subscribers.
+     *
+     * @param bufferSize The buffer size per subscriber.
+     * @param policy The behavior on a full subscriber buffer.
+     * @param replayLatest Whether new subscribers receive the latest event of each unit first.
+     * @return The publisher.
+     */
+    public UnitStateEventPublisher createEventPublisher(final int bufferSize, final QueuedUnitStateListener.OverflowPolicy policy, final boolean replayLatest) {
+        return new UnitStateEventPublisher(this, bufferSize, policy, replayLatest);
+    }
+
+    private DBus getBus() throws DBusException {
+        return dbus.getRemoteObject(BUS_NAME, BUS_OBJECT_PATH, DBus.class);
+    }
+
+    private static String dispatcherKey(final DBusMatchRule busRule) {
+        return busRule.getInterface() + ':' + busRule.getMember() + ':' + busRule.getObject();
+    }
+
     public Automount getAutomount(final String name) throws DBusException {
         return Automount.create(this, name);
     }
@@ -995,4 +1103,109 @@ public class Manager extends InterfaceAdapter {
         return properties.getString(Property.VIRTUALIZATION);
     }
 
+    private static final class HandlerRegistration<T extends DBusSignal> {
+
+        private final MatchRule rule;
+        private final Class<T> type;
+        private final DBusSigHandler<T> handler;
+
+        HandlerRegistration(final MatchRule rule, final Class<T> type, final DBusSigHandler<T> handler) {
+            this.rule = Objects.requireNonNull(rule);
+            this.type = Objects.requireNonNull(type);
+            this.handler = Objects.requireNonNull(handler);
+        }
+
+        void deliver(final DBusSignal signal) {
+            if (type.isInstance(signal)) {
+                handler.handle(type.cast(signal));
+            }
+        }
+
+    }
+
+    /**
+     * Generic handler which is shared by all rules resolving to the same
+     * signal tuple in dbus-java. Since the bus daemon routes the union of all
+     * installed rules, each registration is checked against its own rule.
+     */
+    private final class SignalDispatcher implements DBusSigHandler<DBusSignal> {
+
+        private final DBusMatchRule primaryRule;
+        private final Map<String, Integer> ruleCounts = new HashMap<>();
+        private final List<HandlerRegistration<?>> registrations = new CopyOnWriteArrayList<>();
+
+        SignalDispatcher(final DBusMatchRule primaryRule) {
+            this.primaryRule = primaryRule;
+        }
+
+        boolean hasRule(final String rule) {
+            return ruleCounts.containsKey(rule);
+        }
+
+        void add(final String rule, final HandlerRegistration<?> registration) {
+            ruleCounts.merge(rule, 1, Integer::sum);
+            registrations.add(registration);
+        }
+
+        boolean remove(final String rule, final MatchRule matchRule, final DBusSigHandler<?> handler) {
+            for (HandlerRegistration<?> registration : registrations) {
+                if (registration.handler == handler && registration.rule.equals(matchRule)) {
+                    registrations.remove(registration);
+                    ruleCounts.computeIfPresent(rule, (k, v) -> v - 1);
+
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Checks if a secondary rule is no longer referenced. The primary rule is
+         * kept until the dispatcher is removed (it is owned by dbus-java then).
+         */
+        boolean isUnused(final String rule) {
+            if (rule.equals(primaryRule.toString())) {
+                return false;
+            }
+
+            Integer count = ruleCounts.get(rule);
+
+            if (count != null && count <= 0) {
+                ruleCounts.remove(rule);
+
+                return true;
+            }
+
+            return false;
+        }
+
+        boolean isEmpty() {
+            return registrations.isEmpty();
+        }
+
+        @Override
+        public void handle(final DBusSignal signal) {
+            DBusSignal real = null;
+
+            for (HandlerRegistration<?> registration : registrations) {
+                if (registration.rule.matches(signal)) {
+                    try {
+                        if (real == null) {
+                            real = signal.getClass() == DBusSignal.class ? signal.createReal(dbus) : signal;
+                        }
+
+                        registration.deliver(real);
+                    }
+                    catch (final DBusException e) {
+                        LOG.error(String.format("Unable to convert signal %s", signal), e);
+
+                        return;
+                    }
+                }
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,361 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.freedesktop.dbus.DBusMatchRule;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.messages.DBusSignal;
+
+/**
+ * Immutable D-Bus match rule which is installed on the bus daemon, so that
+ * signals not matching the rule are dropped before they are sent to this
+ * connection.<p>
+ *
+ * Besides the keys supported by dbus-java itself (interface, member, path)
+ * this rule supports the <code>sender</code>, <code>path_namespace</code>
+ * and <code>argN</code> keys.
+ *
+ * @see <a href="https://dbus.freedesktop.org/doc/dbus-specification.html#message-bus-routing-match-rules">Match rules</a>
+ */
+public final class MatchRule {
+
+    public static final String TYPE_SIGNAL = "signal";
+    public static final int MAX_ARG_INDEX = 63;
+
+    private static final String PROPERTIES_INTERFACE = "org.freedesktop.DBus.Properties";
+    private static final String PROPERTIES_CHANGED = "PropertiesChanged";
+    private static final String UNIT_PATH_NAMESPACE = Systemd.OBJECT_PATH + "/unit";
+
+    private final String sender;
+    private final String iface;
+    private final String member;
+    private final String path;
+    private final String pathNamespace;
+    private final Map<Integer, String> args;
+
+    private final String rule;
+
+    private MatchRule(final Builder builder) {
+        this.sender = builder.sender;
+        this.iface = builder.iface;
+        this.member = builder.member;
+        this.path = builder.path;
+        this.pathNamespace = builder.pathNamespace;
+        this.args = new TreeMap<>(builder.args);
+        this.rule = render();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a rule matching <code>PropertiesChanged</code> signals of the
+     * <code>org.freedesktop.systemd1.Unit</code> interface on all unit objects.
+     * Changes of the type specific interfaces (e.g. <code>Service</code>) and
+     * of the accounting properties are dropped by the bus daemon.
+     *
+     * @return The match rule.
+     */
+    public static MatchRule unitPropertiesChanged() {
+        return builder()
+                .sender(Systemd.SERVICE_NAME)
+                .iface(PROPERTIES_INTERFACE)
+                .member(PROPERTIES_CHANGED)
+                .pathNamespace(UNIT_PATH_NAMESPACE)
+                .arg(0, Unit.SERVICE_NAME)
+                .build();
+    }
+
+    /**
+     * Returns a rule matching <code>PropertiesChanged</code> signals of the
+     * <code>org.freedesktop.systemd1.Unit</code> interface on a single unit.
+     *
+     * @param unitName The full name of the unit (e.g. "cronie.service").
+     * @return The match rule.
+     */
+    public static MatchRule unitPropertiesChanged(final String unitName) {
+        return builder()
+                .sender(Systemd.SERVICE_NAME)
+                .iface(PROPERTIES_INTERFACE)
+                .member(PROPERTIES_CHANGED)
+                .path(Unit.OBJECT_PATH + Systemd.escapePath(unitName))
+                .arg(0, Unit.SERVICE_NAME)
+                .build();
+    }
+
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.sender = sender;
+        builder.iface = iface;
+        builder.member = member;
+        builder.path = path;
+        builder.pathNamespace = pathNamespace;
+        builder.args.putAll(args);
+
+        return builder;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getInterface() {
+        return iface;
+    }
+
+    public String getMember() {
+        return member;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getPathNamespace() {
+        return pathNamespace;
+    }
+
+    public String getArg(final int index) {
+        return args.get(index);
+    }
+
+    /**
+     * Checks a received signal against this rule. The sender is not checked
+     * since the signal carries the unique name of the sending connection
+     * whereas rules usually refer to a well-known name (the bus daemon has
+     * already applied it anyway).
+     *
+     * @param signal The received signal.
+     * @return <code>true</code> if the signal is covered by this rule.
+     */
+    public boolean matches(final DBusSignal signal) {
+        if (iface != null && !iface.equals(signal.getInterface())) {
+            return false;
+        }
+
+        if (member != null && !member.equals(signal.getName())) {
+            return false;
+        }
+
+        String signalPath = signal.getPath();
+
+        if (path != null && !path.equals(signalPath)) {
+            return false;
+        }
+
+        if (pathNamespace != null && !isInNamespace(signalPath)) {
+            return false;
+        }
+
+        if (!args.isEmpty()) {
+            Object[] parameters;
+
+            try {
+                parameters = signal.getParameters();
+            }
+            catch (final DBusException e) {
+                return false;
+            }
+
+            for (Map.Entry<Integer, String> arg : args.entrySet()) {
+                int index = arg.getKey();
+
+                if (parameters == null || index >= parameters.length || !arg.getValue().equals(parameters[index])) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isInNamespace(final String signalPath) {
+        if (signalPath == null) {
+            return false;
+        }
+
+        if ("/".equals(pathNamespace) || signalPath.equals(pathNamespace)) {
+            return true;
+        }
+
+        return signalPath.startsWith(pathNamespace) && signalPath.charAt(pathNamespace.length()) == '/';
+    }
+
+    DBusMatchRule toDBusMatchRule(final Class<? extends DBusSignal> type) throws DBusException {
+        return new AdaptedRule(type, this);
+    }
+
+    private String render() {
+        StringBuilder builder = new StringBuilder(128);
+
+        append(builder, "type", TYPE_SIGNAL);
+        append(builder, "sender", sender);
+        append(builder, "interface", iface);
+        append(builder, "member", member);
+        append(builder, "path", path);
+        append(builder, "path_namespace", pathNamespace);
+
+        for (Map.Entry<Integer, String> arg : args.entrySet()) {
+            append(builder, "arg" + arg.getKey(), arg.getValue());
+        }
+
+        return builder.toString();
+    }
+
+    private static void append(final StringBuilder builder, final String key, final String value) {
+        if (value != null) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+
+            // Single quotes cannot be escaped within a quoted value (see specification)
+            builder.append(key).append("='").append(value.replace("'", "'\\''")).append('\'');
+        }
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null) {
+            return false;
+        }
+
+        if (this.getClass() == obj.getClass()) {
+            MatchRule other = (MatchRule) obj;
+
+            return rule.equals(other.rule);
+        }
+
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return rule.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return rule;
+    }
+
+    public static final class Builder {
+
+        private String sender;
+        private String iface;
+        private String member;
+        private String path;
+        private String pathNamespace;
+        private final Map<Integer, String> args = new TreeMap<>();
+
+        private Builder() {
+            super();
+        }
+
+        public Builder sender(final String sender) {
+            this.sender = sender;
+
+            return this;
+        }
+
+        public Builder iface(final String iface) {
+            this.iface = iface;
+
+            return this;
+        }
+
+        public Builder member(final String member) {
+            this.member = member;
+
+            return this;
+        }
+
+        public Builder path(final String path) {
+            this.path = path;
+
+            return this;
+        }
+
+        public Builder pathNamespace(final String pathNamespace) {
+            this.pathNamespace = pathNamespace;
+
+            return this;
+        }
+
+        public Builder arg(final int index, final String value) {
+            if (index < 0 || index > MAX_ARG_INDEX) {
+                throw new IllegalArgumentException(String.format("Argument index out of range [0..%d]: %d", MAX_ARG_INDEX, index));
+            }
+
+            if (value != null) {
+                args.put(index, value);
+            }
+            else {
+                args.remove(index);
+            }
+
+            return this;
+        }
+
+        public MatchRule build() {
+            if (path != null && pathNamespace != null) {
+                throw new IllegalStateException("Keys 'path' and 'path_namespace' must not be combined");
+            }
+
+            return new MatchRule(this);
+        }
+
+    }
+
+    /**
+     * Bridge to the match rule type of dbus-java. The signal tuple which is
+     * used for local dispatching is derived from the signal type whereas the
+     * string which is sent to the bus daemon carries the full rule.
+     */
+    private static final class AdaptedRule extends DBusMatchRule {
+
+        private final String rule;
+
+        AdaptedRule(final Class<? extends DBusSignal> type, final MatchRule matchRule) throws DBusException {
+            super(type, null, matchRule.path);
+
+            if (matchRule.iface != null && !matchRule.iface.equals(getInterface())) {
+                throw new IllegalArgumentException(String.format("Rule interface '%s' does not match signal type %s", matchRule.iface, type.getName()));
+            }
+
+            if (matchRule.member != null && !matchRule.member.equals(getMember())) {
+                throw new IllegalArgumentException(String.format("Rule member '%s' does not match signal type %s", matchRule.member, type.getName()));
+            }
+
+            this.rule = matchRule.toBuilder()
+                    .iface(getInterface())
+                    .member(getMember())
+                    .build()
+                    .toString();
+        }
+
+        @Override
+        public String toString() {
+            return rule;
+        }
+
+    }
+
+}
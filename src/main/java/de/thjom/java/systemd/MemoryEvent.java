@@ -0,0 +1,114 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Increase of one of the counters in the <code>memory.events</code> file of
+ * the control group of a unit, e.g. an OOM kill inside a service.
+ */
+public final class MemoryEvent {
+
+    public enum Counter {
+
+        /** Throttled and put under reclaim for exceeding <code>MemoryHigh</code>. */
+        HIGH("high"),
+        /** Usage was about to go over <code>MemoryMax</code>. */
+        MAX("max"),
+        /** The OOM killer was invoked (reclaim failed at the limit). */
+        OOM("oom"),
+        /** A process was killed by the OOM killer. */
+        OOM_KILL("oom_kill");
+
+        /** Key of the line in <code>memory.events</code>. */
+        public final String key;
+
+        Counter(final String key) {
+            this.key = key;
+        }
+
+    }
+
+    private final String unitName;
+    private final long timestamp;
+    private final Counter counter;
+    private final long increase;
+    private final long total;
+    private final double rate;
+    private final long mainPid;
+
+    MemoryEvent(final String unitName, final long timestamp, final Counter counter, final long increase, final long total, final double rate, final long mainPid) {
+        this.unitName = unitName;
+        this.timestamp = timestamp;
+        this.counter = counter;
+        this.increase = increase;
+        this.total = total;
+        this.rate = rate;
+        this.mainPid = mainPid;
+    }
+
+    public String getUnitName() {
+        return unitName;
+    }
+
+    /**
+     * Returns the time the increase was detected.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Counter getCounter() {
+        return counter;
+    }
+
+    /**
+     * @return The increase since the previous poll.
+     */
+    public long getIncrease() {
+        return increase;
+    }
+
+    /**
+     * @return The current value of the counter.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the increase per second since the previous poll.
+     *
+     * @return The rate or {@link Double#NaN} if unknown.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the <code>ExecMainPID</code> of the unit at the time the
+     * increase was detected (the PID of the killed main process is kept by
+     * systemd after it exited).
+     *
+     * @return The PID or <code>0</code> if unknown (e.g. for scopes and slices).
+     */
+    public long getMainPid() {
+        return mainPid;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s +%d (total=%d, mainPid=%d)", unitName, counter.key, increase, total, mainPid);
+    }
+
+}
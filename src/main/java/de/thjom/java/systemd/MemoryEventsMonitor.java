@@ -0,0 +1,486 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.CgroupAccountingBackend.ControlGroupResolver;
+import de.thjom.java.systemd.MemoryEvent.Counter;
+
+/**
+ * Periodically reads the <code>memory.events</code> files of the control
+ * groups of a set of units (unified hierarchy only) and notifies listeners
+ * when the <code>high</code>, <code>max</code>, <code>oom</code> or
+ * <code>oom_kill</code> counters increase, so that OOM kills inside
+ * services are no longer silent.<p>
+ *
+ * The first read of a unit only establishes the baseline. The files are kept
+ * open and parsed in place as by the {@link PressureSampler}. The
+ * <code>ExecMainPID</code> of a unit is fetched via the bus when its control
+ * group is opened and after its counters increased (not on every poll), so
+ * that an event carries the PID from before a kill and restart.<p>
+ *
+ * If the control group vanished since the previous poll (e.g. the service was
+ * stopped by its <code>OOMPolicy</code>), a kill not yet seen is reported from
+ * the <code>Result</code> of the service being <code>oom-kill</code>, and the
+ * next control group of the unit counts from zero.
+ */
+public class MemoryEventsMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryEventsMonitor.class);
+
+    public static final String EVENTS_FILE = "memory.events";
+
+    static final String OOM_KILL_RESULT = "oom-kill";
+
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private static final byte[][] KEYS = new byte[COUNTERS.length][];
+
+    static {
+        for (Counter counter : COUNTERS) {
+            KEYS[counter.ordinal()] = CgroupFileReader.bytes(counter.key);
+        }
+    }
+
+    @FunctionalInterface
+    interface MainPidResolver {
+
+        long resolve(String unitName) throws DBusException;
+
+    }
+
+    @FunctionalInterface
+    interface ResultResolver {
+
+        String resolve(String unitName) throws DBusException;
+
+    }
+
+    private final Path cgroupRoot;
+    private final ControlGroupResolver resolver;
+    private final MainPidResolver pidResolver;
+    private final ResultResolver resultResolver;
+    private final LongSupplier nanoClock;
+    private final LongSupplier wallClock;
+
+    private final CgroupFileReader reader = new CgroupFileReader();
+
+    private final Set<String> unitNames = new LinkedHashSet<>();
+    private final Map<String, FileChannel> channels = new HashMap<>();
+    private final Map<String, Previous> previous = new HashMap<>();
+    private final Map<String, Long> mainPids = new HashMap<>();
+    private final List<MemoryEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private Timer pollingTimer;
+
+    public MemoryEventsMonitor(final Manager manager) {
+        this(manager, CgroupAccountingBackend.DEFAULT_ROOT);
+    }
+
+    public MemoryEventsMonitor(final Manager manager, final Path cgroupRoot) {
+        this(cgroupRoot, CgroupAccountingBackend.busResolver(Objects.requireNonNull(manager)), busPidResolver(manager), busResultResolver(manager), System::nanoTime, System::currentTimeMillis);
+    }
+
+    MemoryEventsMonitor(final Path cgroupRoot, final ControlGroupResolver resolver, final MainPidResolver pidResolver, final ResultResolver resultResolver, final LongSupplier nanoClock, final LongSupplier wallClock) {
+        this.cgroupRoot = Objects.requireNonNull(cgroupRoot);
+        this.resolver = Objects.requireNonNull(resolver);
+        this.pidResolver = Objects.requireNonNull(pidResolver);
+        this.resultResolver = Objects.requireNonNull(resultResolver);
+        this.nanoClock = Objects.requireNonNull(nanoClock);
+        this.wallClock = Objects.requireNonNull(wallClock);
+    }
+
+    private static MainPidResolver busPidResolver(final Manager manager) {
+        return unitName -> {
+            if (!unitName.endsWith(Service.UNIT_SUFFIX)) {
+                return 0L;
+            }
+
+            return Properties.create(manager.dbus, Unit.OBJECT_PATH + Systemd.escapePath(unitName), Service.SERVICE_NAME).getLong(Service.Property.EXEC_MAIN_PID);
+        };
+    }
+
+    private static ResultResolver busResultResolver(final Manager manager) {
+        return unitName -> {
+            if (!unitName.endsWith(Service.UNIT_SUFFIX)) {
+                return "";
+            }
+
+            return Properties.create(manager.dbus, Unit.OBJECT_PATH + Systemd.escapePath(unitName), Service.SERVICE_NAME).getString(Service.Property.RESULT);
+        };
+    }
+
+    public synchronized void addUnits(final Collection<String> names) {
+        unitNames.addAll(names);
+    }
+
+    public synchronized void addUnits(final String... names) {
+        addUnits(Arrays.asList(names));
+    }
+
+    public synchronized void removeUnits(final Collection<String> names) {
+        for (String name : names) {
+            if (unitNames.remove(name)) {
+                release(name);
+                previous.remove(name);
+                mainPids.remove(name);
+            }
+        }
+    }
+
+    public synchronized void removeUnits(final String... names) {
+        removeUnits(Arrays.asList(names));
+    }
+
+    public synchronized Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(unitNames));
+    }
+
+    public void addListener(final MemoryEventListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final MemoryEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of failed reads (e.g. of units which are not loaded).
+     *
+     * @return The number of errors.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Returns the value of a counter as of the latest poll.
+     *
+     * @param unitName The full unit name.
+     * @param counter The counter.
+     * @return The value or {@link ResourceSample#NOT_AVAILABLE} if unknown.
+     */
+    public synchronized long getTotal(final String unitName, final Counter counter) {
+        Previous last = previous.get(unitName);
+
+        return last != null ? last.totals[counter.ordinal()] : ResourceSample.NOT_AVAILABLE;
+    }
+
+    /**
+     * Reads the counters of all units once and notifies the listeners of
+     * every increase.
+     *
+     * @return The increases detected by this poll.
+     */
+    public List<MemoryEvent> poll() {
+        List<Increase> increases = new ArrayList<>();
+        List<Increase> vanished = new ArrayList<>();
+        Set<String> opened = new LinkedHashSet<>();
+        Set<String> moved = new LinkedHashSet<>();
+        Map<String, Long> pids;
+
+        synchronized (this) {
+            long timestamp = wallClock.getAsLong();
+
+            for (String unitName : unitNames) {
+                read(unitName, timestamp, increases, vanished, opened);
+            }
+
+            pids = new HashMap<>(mainPids);
+        }
+
+        for (Increase increase : increases) {
+            moved.add(increase.unitName);
+        }
+
+        // Bus calls outside the lock, a new control group runs a new main process
+        pids.putAll(refreshMainPids(opened));
+
+        for (Increase candidate : vanished) {
+            if (OOM_KILL_RESULT.equals(resultOf(candidate.unitName))) {
+                increases.add(candidate);
+            }
+        }
+
+        List<MemoryEvent> events = new ArrayList<>(increases.size());
+
+        for (Increase increase : increases) {
+            // PID as of the previous poll, i.e. before a kill and restart
+            long pid = pids.computeIfAbsent(increase.unitName, this::mainPidOf);
+
+            events.add(new MemoryEvent(increase.unitName, increase.timestamp, increase.counter, increase.increase, increase.total, increase.rate, pid));
+        }
+
+        // E.g. the main process has been replaced within the control group
+        refreshMainPids(moved);
+
+        for (MemoryEvent event : events) {
+            for (MemoryEventListener listener : listeners) {
+                try {
+                    listener.memoryEventOccurred(event);
+                }
+                catch (final RuntimeException e) {
+                    LOG.error("Error while notifying memory event", e);
+                }
+            }
+        }
+
+        return events;
+    }
+
+    private Map<String, Long> refreshMainPids(final Collection<String> names) {
+        Map<String, Long> pids = new HashMap<>();
+
+        for (String unitName : names) {
+            pids.put(unitName, mainPidOf(unitName));
+        }
+
+        synchronized (this) {
+            pids.keySet().retainAll(unitNames);
+            mainPids.putAll(pids);
+        }
+
+        return pids;
+    }
+
+    private String resultOf(final String unitName) {
+        try {
+            return resultResolver.resolve(unitName);
+        }
+        catch (final DBusException | DBusExecutionException e) {
+            LOG.debug(String.format("Unable to get result of unit '%s': %s", unitName, e.getMessage()));
+
+            return null;
+        }
+    }
+
+    private long mainPidOf(final String unitName) {
+        try {
+            return pidResolver.resolve(unitName);
+        }
+        catch (final DBusException | DBusExecutionException e) {
+            LOG.debug(String.format("Unable to get main PID of unit '%s': %s", unitName, e.getMessage()));
+
+            return 0L;
+        }
+    }
+
+    private void read(final String unitName, final long timestamp, final List<Increase> increases, final List<Increase> vanished, final Set<String> newlyOpened) {
+        long[] totals = new long[COUNTERS.length];
+        boolean opened = channels.containsKey(unitName);
+
+        try {
+            FileChannel channel = channelOf(unitName);
+
+            if (channel == null || !reader.fill(channel)) {
+                return;
+            }
+
+            if (!opened) {
+                newlyOpened.add(unitName);
+            }
+        }
+        catch (final IOException | DBusException | DBusExecutionException e) {
+            // Control group vanished, resolve again next time
+            release(unitName);
+            errorCount.incrementAndGet();
+
+            LOG.debug(String.format("Unable to read memory events of unit '%s': %s", unitName, e.getMessage()));
+
+            if (opened) {
+                gone(unitName, timestamp, vanished);
+            }
+
+            return;
+        }
+
+        for (Counter counter : COUNTERS) {
+            totals[counter.ordinal()] = reader.findKeyed(KEYS[counter.ordinal()]);
+        }
+
+        long nanos = nanoClock.getAsLong();
+        Previous last = previous.get(unitName);
+        Previous current = new Previous(nanos, totals);
+
+        // A kill stays reported for the life of the control group
+        current.killed = last != null && last.killed;
+        previous.put(unitName, current);
+
+        if (last == null) {
+            return;
+        }
+
+        double seconds = (nanos - last.nanos) / (double) TimeUnit.SECONDS.toNanos(1L);
+
+        for (Counter counter : COUNTERS) {
+            int i = counter.ordinal();
+
+            if (totals[i] == ResourceSample.NOT_AVAILABLE || last.totals[i] == ResourceSample.NOT_AVAILABLE || totals[i] == last.totals[i]) {
+                continue;
+            }
+
+            // A decrease (new control group) counts since zero
+            long increase = totals[i] > last.totals[i] ? totals[i] - last.totals[i] : totals[i];
+
+            if (increase > 0L) {
+                increases.add(new Increase(unitName, timestamp, counter, increase, totals[i], seconds > 0.0 ? increase / seconds : Double.NaN));
+
+                if (counter == Counter.OOM_KILL) {
+                    current.killed = true;
+                }
+            }
+        }
+    }
+
+    private void gone(final String unitName, final long timestamp, final List<Increase> vanished) {
+        Previous last = previous.get(unitName);
+
+        if (last == null) {
+            return;
+        }
+
+        // The next control group counts from zero
+        long[] zeros = new long[COUNTERS.length];
+        previous.put(unitName, new Previous(last.nanos, zeros));
+
+        // A kill missed between the last read and the removal is only visible in the result of the unit
+        long kills = last.totals[Counter.OOM_KILL.ordinal()];
+
+        if (!last.killed && kills != ResourceSample.NOT_AVAILABLE) {
+            vanished.add(new Increase(unitName, timestamp, Counter.OOM_KILL, 1L, kills + 1L, Double.NaN));
+        }
+    }
+
+    private FileChannel channelOf(final String unitName) throws IOException, DBusException {
+        FileChannel channel = channels.get(unitName);
+
+        if (channel == null) {
+            String controlGroup = resolver.resolve(unitName);
+
+            if (controlGroup == null || controlGroup.isEmpty()) {
+                return null;
+            }
+
+            Path path = CgroupAccountingBackend.cgroupDir(cgroupRoot, controlGroup).resolve(EVENTS_FILE);
+            channel = openEvents(path);
+
+            if (channel == null) {
+                throw new NoSuchFileException(path.toString());
+            }
+
+            channels.put(unitName, channel);
+        }
+
+        return channel;
+    }
+
+    FileChannel openEvents(final Path path) throws IOException {
+        return CgroupFileReader.open(path);
+    }
+
+    private void release(final String unitName) {
+        FileChannel channel = channels.remove(unitName);
+
+        if (channel != null) {
+            CgroupFileReader.close(channel);
+        }
+    }
+
+    public synchronized void startPolling(final long delay, final long period, final TimeUnit unit) {
+        TimerTask task = new TimerTask() {
+
+            @Override
+            public void run() {
+                poll();
+            }
+
+        };
+
+        stopPolling();
+
+        pollingTimer = createTimer();
+        pollingTimer.schedule(task, unit.toMillis(delay), unit.toMillis(period));
+    }
+
+    public synchronized void stopPolling() {
+        if (pollingTimer != null) {
+            pollingTimer.cancel();
+            pollingTimer = null;
+        }
+    }
+
+    protected Timer createTimer() {
+        return new Timer(getClass().getSimpleName() + "-pollingTimer", true);
+    }
+
+    private static final class Previous {
+
+        private final long nanos;
+        private final long[] totals;
+
+        private boolean killed;
+
+        Previous(final long nanos, final long[] totals) {
+            this.nanos = nanos;
+            this.totals = totals;
+        }
+
+    }
+
+    private static final class Increase {
+
+        private final String unitName;
+        private final long timestamp;
+        private final Counter counter;
+        private final long increase;
+        private final long total;
+        private final double rate;
+
+        Increase(final String unitName, final long timestamp, final Counter counter, final long increase, final long total, final double rate) {
+            this.unitName = unitName;
+            this.timestamp = timestamp;
+            this.counter = counter;
+            this.increase = increase;
+            this.total = total;
+            this.rate = rate;
+        }
+
+    }
+
+}
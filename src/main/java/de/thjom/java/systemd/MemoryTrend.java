@@ -0,0 +1,103 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Trend of the memory usage of a unit as fitted by a
+ * {@link MemoryTrendAnalyzer} over its latest samples.
+ */
+public final class MemoryTrend {
+
+    private final String unitName;
+    private final long timestamp;
+    private final long current;
+    private final long limit;
+    private final double slope;
+    private final int sampleCount;
+
+    MemoryTrend(final String unitName, final long timestamp, final long current, final long limit, final double slope, final int sampleCount) {
+        this.unitName = unitName;
+        this.timestamp = timestamp;
+        this.current = current;
+        this.limit = limit;
+        this.slope = slope;
+        this.sampleCount = sampleCount;
+    }
+
+    public String getUnitName() {
+        return unitName;
+    }
+
+    /**
+     * Returns the time of the latest sample.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The latest <code>MemoryCurrent</code> in bytes.
+     */
+    public long getCurrent() {
+        return current;
+    }
+
+    /**
+     * Returns the lower one of <code>MemoryHigh</code> and <code>MemoryMax</code>.
+     *
+     * @return The limit in bytes or {@link ResourceSample#NOT_AVAILABLE} if unlimited.
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the slope of the least squares line over the window.
+     *
+     * @return The growth in bytes per second or {@link Double#NaN} if unknown.
+     */
+    public double getSlope() {
+        return slope;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the estimated time until the usage reaches the limit.
+     *
+     * @return The time in seconds (<code>0</code> if already at the limit,
+     * even without a trend yet) or {@link Double#POSITIVE_INFINITY} if the
+     * usage does not grow or there is no limit.
+     */
+    public double getSecondsToLimit() {
+        if (limit == ResourceSample.NOT_AVAILABLE) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        if (current >= limit) {
+            return 0.0;
+        }
+
+        // Also if the slope is not known yet (NaN)
+        return slope > 0.0 ? (limit - current) / slope : Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: current=%d, limit=%d, slope=%.1f B/s, secondsToLimit=%.1f", unitName, current, limit, slope, getSecondsToLimit());
+    }
+
+}
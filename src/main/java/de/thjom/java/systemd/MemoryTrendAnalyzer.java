@@ -0,0 +1,410 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Predicts the exhaustion of the memory limits of services, scopes and
+ * slices from the samples of a {@link ResourceSampler}.<p>
+ *
+ * For each unit the analyzer keeps the latest <code>MemoryCurrent</code>
+ * values in a ring of fixed size together with the running sums of a least
+ * squares fit, so a sample costs a constant number of operations and no
+ * history is fetched again. The estimated time until the usage reaches the
+ * lower one of <code>MemoryHigh</code> and <code>MemoryMax</code> is
+ * compared with a threshold, the listeners are notified when a unit falls
+ * below it and when it recovers. A restart of a unit starts a new window.<p>
+ *
+ * Units removed from the sampler and units without a sample for as many
+ * ticks as the window is long are dropped, the listeners are told that the
+ * exhaustion of such a unit cleared.
+ */
+public class MemoryTrendAnalyzer implements ResourceSampleListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryTrendAnalyzer.class);
+
+    public static final int DEFAULT_WINDOW_SIZE = 30;
+
+    /** Minimum number of samples in a window for an estimate. */
+    public static final int MIN_SAMPLES = 3;
+
+    private static final String[] ANALYZED_TYPES = { Service.UNIT_SUFFIX, Scope.UNIT_SUFFIX, Slice.UNIT_SUFFIX };
+
+    private final int windowSize;
+    private final double thresholdSeconds;
+
+    private final Map<String, Window> windows = new HashMap<>();
+    private final Set<String> exhausting = new HashSet<>();
+    private final List<MemoryTrendListener> listeners = new CopyOnWriteArrayList<>();
+
+    private long tick;
+    private long tickTimestamp = Long.MIN_VALUE;
+
+    /**
+     * @param threshold The time to the limit below which listeners are notified.
+     * @param unit The time unit of the threshold.
+     */
+    public MemoryTrendAnalyzer(final long threshold, final TimeUnit unit) {
+        this(DEFAULT_WINDOW_SIZE, threshold, unit);
+    }
+
+    /**
+     * @param windowSize The number of samples per unit to fit the trend over.
+     * @param threshold The time to the limit below which listeners are notified.
+     * @param unit The time unit of the threshold.
+     */
+    public MemoryTrendAnalyzer(final int windowSize, final long threshold, final TimeUnit unit) {
+        if (windowSize < MIN_SAMPLES) {
+            throw new IllegalArgumentException("Window size must be at least " + MIN_SAMPLES);
+        }
+
+        this.windowSize = windowSize;
+        this.thresholdSeconds = unit.toMillis(threshold) / 1000.0;
+    }
+
+    public void addListener(final MemoryTrendListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final MemoryTrendListener listener) {
+        listeners.remove(listener);
+    }
+
+    static boolean isAnalyzed(final String unitName) {
+        for (String suffix : ANALYZED_TYPES) {
+            if (unitName.endsWith(suffix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public void sampleTaken(final ResourceSample sample) {
+        String unitName = sample.getUnitName();
+
+        if (!isAnalyzed(unitName) || !sample.isAvailable(ResourceMetric.MEMORY_CURRENT)) {
+            return;
+        }
+
+        MemoryTrend trend;
+        Boolean exceeded = null;
+        List<MemoryTrend> expired = Collections.emptyList();
+
+        synchronized (this) {
+            // All samples of a tick share the timestamp
+            if (sample.getTimestamp() != tickTimestamp) {
+                tickTimestamp = sample.getTimestamp();
+                tick++;
+
+                expired = expire();
+            }
+
+            Window window = windows.computeIfAbsent(unitName, k -> new Window(windowSize));
+            window.lastTick = tick;
+
+            if (sample.isCounterReset()) {
+                window.clear();
+            }
+
+            window.add(sample.getTimestamp(), sample.getValue(ResourceMetric.MEMORY_CURRENT));
+            window.limit = limitOf(sample);
+
+            trend = window.toTrend(unitName);
+
+            double seconds = trend.getSecondsToLimit();
+
+            if (window.count >= MIN_SAMPLES || seconds == 0.0) {
+                boolean below = seconds < thresholdSeconds;
+
+                if (below ? exhausting.add(unitName) : exhausting.remove(unitName)) {
+                    exceeded = below;
+                }
+            }
+        }
+
+        for (MemoryTrend cleared : expired) {
+            notifyListeners(cleared, false);
+        }
+
+        if (exceeded != null) {
+            notifyListeners(trend, exceeded);
+        }
+    }
+
+    @Override
+    public void unitsRemoved(final Collection<String> unitNames) {
+        for (String unitName : unitNames) {
+            removeUnit(unitName);
+        }
+    }
+
+    private List<MemoryTrend> expire() {
+        List<String> unitNames = new ArrayList<>();
+
+        for (Map.Entry<String, Window> entry : windows.entrySet()) {
+            if (tick - entry.getValue().lastTick > windowSize) {
+                unitNames.add(entry.getKey());
+            }
+        }
+
+        List<MemoryTrend> cleared = new ArrayList<>();
+
+        for (String unitName : unitNames) {
+            LOG.debug(String.format("Removing unit '%s' without samples from memory trends", unitName));
+
+            MemoryTrend trend = remove(unitName);
+
+            if (trend != null) {
+                cleared.add(trend);
+            }
+        }
+
+        return cleared;
+    }
+
+    private MemoryTrend remove(final String unitName) {
+        Window window = windows.remove(unitName);
+
+        return exhausting.remove(unitName) && window != null ? window.toTrend(unitName) : null;
+    }
+
+    private void notifyListeners(final MemoryTrend trend, final boolean exceeded) {
+        for (MemoryTrendListener listener : listeners) {
+            try {
+                if (exceeded) {
+                    listener.exhaustionPredicted(trend);
+                }
+                else {
+                    listener.exhaustionCleared(trend);
+                }
+            }
+            catch (final RuntimeException e) {
+                LOG.error("Error while notifying memory trend", e);
+            }
+        }
+    }
+
+    private static long limitOf(final ResourceSample sample) {
+        long limit = ResourceSample.NOT_AVAILABLE;
+
+        for (ResourceMetric metric : new ResourceMetric[] { ResourceMetric.MEMORY_HIGH, ResourceMetric.MEMORY_MAX }) {
+            if (sample.isAvailable(metric) && (limit == ResourceSample.NOT_AVAILABLE || sample.getValue(metric) < limit)) {
+                limit = sample.getValue(metric);
+            }
+        }
+
+        return limit;
+    }
+
+    /**
+     * Returns the current trend of a unit.
+     *
+     * @param unitName The full unit name.
+     * @return The trend or nothing if the unit has not been sampled.
+     */
+    public synchronized Optional<MemoryTrend> getTrend(final String unitName) {
+        Window window = windows.get(unitName);
+
+        return Optional.ofNullable(window != null ? window.toTrend(unitName) : null);
+    }
+
+    /**
+     * @return The units whose estimated time to the limit is below the threshold.
+     */
+    public synchronized Set<String> getExhaustingUnits() {
+        return Collections.unmodifiableSet(new HashSet<>(exhausting));
+    }
+
+    /**
+     * Returns the trends of all units ordered by their estimated time to
+     * the limit.
+     *
+     * @return The trends, the most urgent first.
+     */
+    public synchronized List<MemoryTrend> getTrends() {
+        List<MemoryTrend> trends = new ArrayList<>(windows.size());
+
+        for (Map.Entry<String, Window> entry : windows.entrySet()) {
+            trends.add(entry.getValue().toTrend(entry.getKey()));
+        }
+
+        trends.sort((t1, t2) -> Double.compare(t1.getSecondsToLimit(), t2.getSecondsToLimit()));
+
+        return trends;
+    }
+
+    /**
+     * Removes the window of a unit, the listeners are notified if its
+     * exhaustion has been predicted.
+     *
+     * @param unitName The full unit name.
+     */
+    public void removeUnit(final String unitName) {
+        MemoryTrend trend;
+
+        synchronized (this) {
+            trend = remove(unitName);
+        }
+
+        if (trend != null) {
+            notifyListeners(trend, false);
+        }
+    }
+
+    /**
+     * Ring of the latest samples of a unit with the running sums of the
+     * least squares fit. Times and values are taken relative to an origin
+     * which is moved to the oldest sample once per revolution (recomputing
+     * the sums), so the sums stay small and rounding errors do not add up.
+     */
+    static final class Window {
+
+        private final long[] times;
+        private final long[] values;
+
+        private int head;
+        private int count;
+        private int added;
+
+        private long timeOrigin;
+        private long valueOrigin;
+
+        private double sumX;
+        private double sumY;
+        private double sumXY;
+        private double sumXX;
+
+        private long limit = ResourceSample.NOT_AVAILABLE;
+
+        private long lastTick;
+
+        Window(final int size) {
+            this.times = new long[size];
+            this.values = new long[size];
+        }
+
+        void clear() {
+            head = 0;
+            count = 0;
+            added = 0;
+            sumX = sumY = sumXY = sumXX = 0.0;
+        }
+
+        void add(final long timestamp, final long value) {
+            if (count == 0) {
+                timeOrigin = timestamp;
+                valueOrigin = value;
+            }
+
+            if (count == times.length) {
+                // Drop the oldest sample
+                subtract(times[head], values[head]);
+                count--;
+            }
+
+            times[head] = timestamp;
+            values[head] = value;
+            head = (head + 1) % times.length;
+            count++;
+
+            double x = (timestamp - timeOrigin) / 1000.0;
+            double y = value - valueOrigin;
+
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+
+            if (++added >= times.length) {
+                rebase();
+            }
+        }
+
+        private void subtract(final long timestamp, final long value) {
+            double x = (timestamp - timeOrigin) / 1000.0;
+            double y = value - valueOrigin;
+
+            sumX -= x;
+            sumY -= y;
+            sumXY -= x * y;
+            sumXX -= x * x;
+        }
+
+        private void rebase() {
+            int oldest = (head - count + times.length) % times.length;
+
+            timeOrigin = times[oldest];
+            valueOrigin = values[oldest];
+            sumX = sumY = sumXY = sumXX = 0.0;
+
+            for (int i = 0; i < count; i++) {
+                int index = (oldest + i) % times.length;
+                double x = (times[index] - timeOrigin) / 1000.0;
+                double y = values[index] - valueOrigin;
+
+                sumX += x;
+                sumY += y;
+                sumXY += x * y;
+                sumXX += x * x;
+            }
+
+            added = 0;
+        }
+
+        /**
+         * @return The slope in units per second or {@link Double#NaN} if
+         * there are not enough samples.
+         */
+        double slope() {
+            if (count < MIN_SAMPLES) {
+                return Double.NaN;
+            }
+
+            double denominator = count * sumXX - sumX * sumX;
+
+            if (denominator <= 0.0) {
+                return Double.NaN;
+            }
+
+            return (count * sumXY - sumX * sumY) / denominator;
+        }
+
+        long latest() {
+            return values[(head - 1 + times.length) % times.length];
+        }
+
+        MemoryTrend toTrend(final String unitName) {
+            long timestamp = times[(head - 1 + times.length) % times.length];
+
+            return new MemoryTrend(unitName, timestamp, latest(), limit, slope(), count);
+        }
+
+    }
+
+}
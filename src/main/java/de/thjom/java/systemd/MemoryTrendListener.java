@@ -0,0 +1,37 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Receives the predictions of a {@link MemoryTrendAnalyzer}.
+ */
+public interface MemoryTrendListener {
+
+    /**
+     * Called when the estimated time until a unit reaches its memory limit
+     * falls below the threshold of the analyzer.
+     *
+     * @param trend The trend of the unit.
+     */
+    void exhaustionPredicted(MemoryTrend trend);
+
+    /**
+     * Called when the estimate of a unit is above the threshold again or
+     * the unit is no longer analyzed.
+     *
+     * @param trend The trend of the unit.
+     */
+    default void exhaustionCleared(final MemoryTrend trend) {
+        // Not interested by default
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import de.thjom.java.systemd.types.UnitType;
+
+/**
+ * Writes the state of the manager, the units and their accounting values in
+ * the OpenMetrics text format.<p>
+ *
+ * The output is encoded directly into a reused buffer which is flushed to
+ * the target channel. Metric names and label values (unit names and states)
+ * are encoded once and cached as bytes, numbers are written digit by digit;
+ * no intermediate strings are built per scrape. The accounting values are
+ * the latest samples of an optional {@link ResourceSampler}.
+ */
+public class OpenMetricsExporter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] SYSTEM_STATES = {
+        "initializing", "starting", "running", "degraded", "maintenance", "stopping", "offline", "unknown"
+    };
+
+    private static final byte[] EOF = bytes("# EOF\n");
+    private static final byte[] FAILED_UNITS = bytes("# TYPE systemd_manager_failed_units gauge\nsystemd_manager_failed_units ");
+    private static final byte[] JOBS = bytes("# TYPE systemd_manager_jobs gauge\nsystemd_manager_jobs ");
+    private static final byte[] SYSTEM_STATE_HEADER = bytes("# TYPE systemd_system_state stateset\n");
+    private static final byte[] SYSTEM_STATE = bytes("systemd_system_state{systemd_system_state=\"");
+    private static final byte[] UNIT_HEADER = bytes("# TYPE systemd_unit info\n");
+    private static final byte[] UNIT_INFO = bytes("systemd_unit_info{unit=\"");
+    private static final byte[] LOAD_STATE = bytes("\",load_state=\"");
+    private static final byte[] ACTIVE_STATE = bytes("\",active_state=\"");
+    private static final byte[] SUB_STATE = bytes("\",sub_state=\"");
+    private static final byte[] UNIT_LABEL = bytes("{unit=\"");
+    private static final byte[] LABELS_END = bytes("\"} ");
+    private static final byte[] ONE = bytes("1\n");
+    private static final byte[] ZERO = bytes("0\n");
+
+    private static final byte[][] METRIC_HEADERS = new byte[ResourceMetric.METRICS.length][];
+    private static final byte[][] METRIC_SAMPLES = new byte[ResourceMetric.METRICS.length][];
+
+    static {
+        for (ResourceMetric metric : ResourceMetric.METRICS) {
+            String family = familyOf(metric);
+            String type = metric.isCounter() ? "counter" : "gauge";
+
+            METRIC_HEADERS[metric.ordinal()] = bytes(String.format("# TYPE %s %s\n", family, type));
+            METRIC_SAMPLES[metric.ordinal()] = bytes(metric.isCounter() ? family + "_total" : family);
+        }
+    }
+
+    private final Manager manager;
+    private final ResourceSampler sampler;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] digits = new byte[20];
+    private final Map<String, byte[]> labelValues = new HashMap<>();
+
+    private WritableByteChannel channel;
+
+    public OpenMetricsExporter(final Manager manager) {
+        this(manager, null);
+    }
+
+    /**
+     * @param manager The manager.
+     * @param sampler The sampler providing the accounting values (may be <code>null</code>).
+     */
+    public OpenMetricsExporter(final Manager manager, final ResourceSampler sampler) {
+        this.manager = Objects.requireNonNull(manager);
+        this.sampler = sampler;
+    }
+
+    static String familyOf(final ResourceMetric metric) {
+        switch (metric) {
+            case CPU_USAGE_NSEC:
+                return "systemd_unit_cpu_usage_seconds";
+            case MEMORY_CURRENT:
+                return "systemd_unit_memory_current_bytes";
+            case MEMORY_HIGH:
+                return "systemd_unit_memory_high_bytes";
+            case MEMORY_MAX:
+                return "systemd_unit_memory_max_bytes";
+            default:
+                return "systemd_unit_" + metric.name().toLowerCase();
+        }
+    }
+
+    public void write(final OutputStream out) throws IOException {
+        write(Channels.newChannel(out));
+    }
+
+    public void write(final WritableByteChannel target) throws IOException {
+        List<ResourceSample> samples = sampler != null ? sampler.getLatestSamples() : Collections.emptyList();
+
+        write(target, manager.getNFailedUnits(), manager.getNJobs(), manager.getSystemState(), manager.listUnits(), samples);
+    }
+
+    synchronized void write(final WritableByteChannel target, final long nFailedUnits, final long nJobs, final String systemState, final Collection<UnitType> units, final Collection<ResourceSample> samples) throws IOException {
+        channel = target;
+        buffer.clear();
+
+        try {
+            put(FAILED_UNITS);
+            putLong(nFailedUnits);
+            put((byte) '\n');
+
+            put(JOBS);
+            putLong(nJobs);
+            put((byte) '\n');
+
+            put(SYSTEM_STATE_HEADER);
+
+            for (String state : SYSTEM_STATES) {
+                put(SYSTEM_STATE);
+                put(labelValue(state));
+                put(LABELS_END);
+                put(state.equals(systemState) ? ONE : ZERO);
+            }
+
+            put(UNIT_HEADER);
+
+            for (UnitType unit : units) {
+                put(UNIT_INFO);
+                put(labelValue(unit.getUnitName()));
+                put(LOAD_STATE);
+                put(labelValue(unit.getLoadState()));
+                put(ACTIVE_STATE);
+                put(labelValue(unit.getActiveState()));
+                put(SUB_STATE);
+                put(labelValue(unit.getSubState()));
+                put(LABELS_END);
+                put(ONE);
+            }
+
+            for (ResourceMetric metric : ResourceMetric.METRICS) {
+                writeMetric(metric, samples);
+            }
+
+            put(EOF);
+            flush();
+        }
+        finally {
+            channel = null;
+
+            if (labelValues.size() > 4 * (units.size() + SYSTEM_STATES.length)) {
+                // Drop the encodings of units which are gone
+                labelValues.clear();
+            }
+        }
+    }
+
+    private void writeMetric(final ResourceMetric metric, final Collection<ResourceSample> samples) throws IOException {
+        boolean header = false;
+
+        for (ResourceSample sample : samples) {
+            if (!sample.isAvailable(metric)) {
+                continue;
+            }
+
+            if (!header) {
+                put(METRIC_HEADERS[metric.ordinal()]);
+                header = true;
+            }
+
+            put(METRIC_SAMPLES[metric.ordinal()]);
+            put(UNIT_LABEL);
+            put(labelValue(sample.getUnitName()));
+            put(LABELS_END);
+
+            if (metric == ResourceMetric.CPU_USAGE_NSEC) {
+                putNanosAsSeconds(sample.getValue(metric));
+            }
+            else {
+                putLong(sample.getValue(metric));
+            }
+
+            put((byte) '\n');
+        }
+    }
+
+    private byte[] labelValue(final String value) {
+        String key = value != null ? value : "";
+        byte[] encoded = labelValues.get(key);
+
+        if (encoded == null) {
+            encoded = bytes(escape(key));
+            labelValues.put(key, encoded);
+        }
+
+        return encoded;
+    }
+
+    static String escape(final String value) {
+        StringBuilder escaped = null;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' || c == '"' || c == '\n') {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+                }
+
+                escaped.append('\\').append(c == '\n' ? 'n' : c);
+            }
+            else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+
+        return escaped != null ? escaped.toString() : value;
+    }
+
+    private void put(final byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+
+        buffer.put(b);
+    }
+
+    private void put(final byte[] bytes) throws IOException {
+        int offset = 0;
+
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void putLong(final long value) throws IOException {
+        if (value < 0L) {
+            put((byte) '-');
+        }
+
+        int i = digits.length;
+        long rest = value;
+
+        do {
+            digits[--i] = (byte) ('0' + Math.abs(rest % 10L));
+            rest /= 10L;
+        }
+        while (rest != 0L);
+
+        for (; i < digits.length; i++) {
+            put(digits[i]);
+        }
+    }
+
+    private void putNanosAsSeconds(final long nanos) throws IOException {
+        putLong(nanos / 1_000_000_000L);
+        put((byte) '.');
+
+        long fraction = nanos % 1_000_000_000L;
+
+        for (long divisor = 100_000_000L; divisor > 0L; divisor /= 10L) {
+            put((byte) ('0' + fraction / divisor % 10L));
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Receives the samples of a {@link PressureSampler} and the crossings of
+ * its thresholds.
+ */
+public interface PressureListener {
+
+    void pressureSampled(PressureSample sample);
+
+    /**
+     * Called when the pressure of a unit (or the system) rises above or
+     * falls below a threshold again.
+     *
+     * @param sample The sample which crossed the threshold.
+     * @param threshold The threshold.
+     * @param exceeded <code>true</code> if the threshold is exceeded now.
+     */
+    default void thresholdCrossed(final PressureSample sample, final PressureSampler.Threshold threshold, final boolean exceeded) {
+        // Not interested by default
+    }
+
+}
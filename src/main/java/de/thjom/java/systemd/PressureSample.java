@@ -0,0 +1,141 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Pressure stall information (PSI) of a unit or the whole system at one
+ * sampling tick. Besides the averages computed by the kernel, the share of
+ * the time stalled since the previous tick is derived from the totals.
+ */
+public final class PressureSample {
+
+    public enum Resource {
+
+        CPU("cpu"),
+        MEMORY("memory"),
+        IO("io");
+
+        /** Name of the pressure file below <code>/proc/pressure</code>. */
+        public final String fileName;
+
+        Resource(final String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * @return The name of the pressure file in a control group.
+         */
+        public String getCgroupFileName() {
+            return fileName + ".pressure";
+        }
+
+    }
+
+    /**
+     * Stall of some or of all (non-idle) tasks.
+     */
+    public enum Line {
+        SOME,
+        FULL
+    }
+
+    public enum Window {
+        /** Kernel average over 10 seconds. */
+        AVG10,
+        /** Kernel average over 60 seconds. */
+        AVG60,
+        /** Kernel average over 300 seconds. */
+        AVG300,
+        /** Share of the time stalled since the previous sample. */
+        RATE
+    }
+
+    static final int SERIES_COUNT = Resource.values().length * Line.values().length;
+    static final int WINDOW_COUNT = Window.values().length;
+
+    private final String unitName;
+    private final long timestamp;
+    private final double[] percentages;
+    private final long[] totals;
+
+    PressureSample(final String unitName, final long timestamp, final double[] percentages, final long[] totals) {
+        this.unitName = unitName;
+        this.timestamp = timestamp;
+        this.percentages = percentages;
+        this.totals = totals;
+    }
+
+    static int indexOf(final Resource resource, final Line line) {
+        return resource.ordinal() * 2 + line.ordinal();
+    }
+
+    /**
+     * @return The full unit name or <code>null</code> for the system wide values.
+     */
+    public String getUnitName() {
+        return unitName;
+    }
+
+    public boolean isSystem() {
+        return unitName == null;
+    }
+
+    /**
+     * Returns the time of the sample.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isAvailable(final Resource resource, final Line line) {
+        return totals[indexOf(resource, line)] != ResourceSample.NOT_AVAILABLE;
+    }
+
+    /**
+     * Returns the share of the time stalled.
+     *
+     * @param resource The resource.
+     * @param line The line.
+     * @param window The window.
+     * @return The percentage (0 to 100) or {@link Double#NaN} if unknown.
+     */
+    public double getPercentage(final Resource resource, final Line line, final Window window) {
+        return percentages[indexOf(resource, line) * WINDOW_COUNT + window.ordinal()];
+    }
+
+    /**
+     * Returns the total time stalled.
+     *
+     * @param resource The resource.
+     * @param line The line.
+     * @return The time in microseconds or {@link ResourceSample#NOT_AVAILABLE}.
+     */
+    public long getTotal(final Resource resource, final Line line) {
+        return totals[indexOf(resource, line)];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(isSystem() ? "system" : unitName).append(" [");
+
+        for (Resource resource : Resource.values()) {
+            if (isAvailable(resource, Line.SOME)) {
+                builder.append(String.format("%s some=%.2f%% ", resource, getPercentage(resource, Line.SOME, Window.AVG10)));
+            }
+        }
+
+        return builder.append(']').toString();
+    }
+
+}
@@ -0,0 +1,520 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.CgroupAccountingBackend.ControlGroupResolver;
+import de.thjom.java.systemd.PressureSample.Line;
+import de.thjom.java.systemd.PressureSample.Resource;
+import de.thjom.java.systemd.PressureSample.Window;
+
+/**
+ * Periodically reads the pressure stall information (PSI) of the system
+ * (<code>/proc/pressure</code>) and of a set of units (the
+ * <code>*.pressure</code> files of their control groups, unified hierarchy
+ * only).<p>
+ *
+ * As with the {@link CgroupAccountingBackend}, the control group of a unit
+ * is resolved once, the files are kept open and parsed in place. Listeners
+ * are notified of each sample and of the crossings of the registered
+ * {@link Threshold}s (edge-triggered per unit).
+ */
+public class PressureSampler implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PressureSampler.class);
+
+    public static final Path DEFAULT_PROC_ROOT = Paths.get("/proc/pressure");
+
+    private static final String SYSTEM_KEY = "";
+
+    private static final Resource[] RESOURCES = Resource.values();
+    private static final Line[] LINES = Line.values();
+
+    private static final byte[][] LINE_TOKENS = { CgroupFileReader.bytes("some"), CgroupFileReader.bytes("full") };
+    private static final byte[] AVG10 = CgroupFileReader.bytes("avg10");
+    private static final byte[] AVG60 = CgroupFileReader.bytes("avg60");
+    private static final byte[] AVG300 = CgroupFileReader.bytes("avg300");
+    private static final byte[] TOTAL = CgroupFileReader.bytes("total");
+
+    private final Path cgroupRoot;
+    private final Path procRoot;
+    private final ControlGroupResolver resolver;
+    private final LongSupplier nanoClock;
+    private final LongSupplier wallClock;
+
+    private final CgroupFileReader reader = new CgroupFileReader();
+
+    private final Set<String> unitNames = new LinkedHashSet<>();
+    private final Map<String, PressureFiles> files = new HashMap<>();
+    private final Map<String, Previous> previous = new LinkedHashMap<>();
+    private final Map<Threshold, Set<String>> exceeded = new LinkedHashMap<>();
+    private final List<PressureListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private Timer samplingTimer;
+
+    public PressureSampler(final Manager manager) {
+        this(manager, CgroupAccountingBackend.DEFAULT_ROOT, DEFAULT_PROC_ROOT);
+    }
+
+    public PressureSampler(final Manager manager, final Path cgroupRoot, final Path procRoot) {
+        this(cgroupRoot, procRoot, CgroupAccountingBackend.busResolver(Objects.requireNonNull(manager)), System::nanoTime, System::currentTimeMillis);
+    }
+
+    PressureSampler(final Path cgroupRoot, final Path procRoot, final ControlGroupResolver resolver, final LongSupplier nanoClock, final LongSupplier wallClock) {
+        this.cgroupRoot = Objects.requireNonNull(cgroupRoot);
+        this.procRoot = Objects.requireNonNull(procRoot);
+        this.resolver = Objects.requireNonNull(resolver);
+        this.nanoClock = Objects.requireNonNull(nanoClock);
+        this.wallClock = Objects.requireNonNull(wallClock);
+    }
+
+    public synchronized void addUnits(final Collection<String> names) {
+        unitNames.addAll(names);
+    }
+
+    public synchronized void addUnits(final String... names) {
+        addUnits(Arrays.asList(names));
+    }
+
+    public synchronized void removeUnits(final Collection<String> names) {
+        for (String name : names) {
+            if (unitNames.remove(name)) {
+                release(name);
+                previous.remove(name);
+            }
+        }
+    }
+
+    public synchronized void removeUnits(final String... names) {
+        removeUnits(Arrays.asList(names));
+    }
+
+    public synchronized Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(unitNames));
+    }
+
+    public void addListener(final PressureListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final PressureListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized void addThreshold(final Threshold threshold) {
+        exceeded.putIfAbsent(Objects.requireNonNull(threshold), new HashSet<>());
+    }
+
+    public synchronized void removeThreshold(final Threshold threshold) {
+        exceeded.remove(threshold);
+    }
+
+    /**
+     * Returns the number of failed reads (e.g. of units which are not loaded).
+     *
+     * @return The number of errors.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Samples the system and all units once and notifies the listeners.
+     *
+     * @return The samples of this tick, starting with the system wide one
+     * (units which could not be read are missing).
+     */
+    public List<PressureSample> sample() {
+        List<PressureSample> samples;
+        List<Crossing> crossings = new ArrayList<>();
+
+        synchronized (this) {
+            samples = new ArrayList<>(unitNames.size() + 1);
+
+            long timestamp = wallClock.getAsLong();
+
+            for (String key : keys()) {
+                PressureSample sample = read(key, timestamp);
+
+                if (sample != null) {
+                    samples.add(sample);
+                }
+            }
+
+            for (PressureSample sample : samples) {
+                checkThresholds(sample, crossings);
+            }
+        }
+
+        for (PressureSample sample : samples) {
+            for (PressureListener listener : listeners) {
+                try {
+                    listener.pressureSampled(sample);
+                }
+                catch (final RuntimeException e) {
+                    LOG.error("Error while notifying pressure sample", e);
+                }
+            }
+        }
+
+        for (Crossing crossing : crossings) {
+            for (PressureListener listener : listeners) {
+                try {
+                    listener.thresholdCrossed(crossing.sample, crossing.threshold, crossing.exceeded);
+                }
+                catch (final RuntimeException e) {
+                    LOG.error("Error while notifying pressure threshold", e);
+                }
+            }
+        }
+
+        return samples;
+    }
+
+    private List<String> keys() {
+        List<String> keys = new ArrayList<>(unitNames.size() + 1);
+        keys.add(SYSTEM_KEY);
+        keys.addAll(unitNames);
+
+        return keys;
+    }
+
+    private PressureSample read(final String key, final long timestamp) {
+        PressureFiles pressureFiles;
+
+        try {
+            pressureFiles = filesOf(key);
+        }
+        catch (final IOException | DBusException | DBusExecutionException e) {
+            errorCount.incrementAndGet();
+
+            LOG.debug(String.format("Unable to open pressure files of unit '%s': %s", key, e.getMessage()));
+
+            return null;
+        }
+
+        if (pressureFiles == null) {
+            return null;
+        }
+
+        double[] percentages = new double[PressureSample.SERIES_COUNT * PressureSample.WINDOW_COUNT];
+        long[] totals = new long[PressureSample.SERIES_COUNT];
+        Arrays.fill(percentages, Double.NaN);
+        Arrays.fill(totals, ResourceSample.NOT_AVAILABLE);
+
+        try {
+            for (Resource resource : RESOURCES) {
+                if (reader.fill(pressureFiles.channels[resource.ordinal()])) {
+                    parse(resource, percentages, totals);
+                }
+            }
+        }
+        catch (final IOException e) {
+            // Control group vanished, resolve again next time
+            release(key);
+            errorCount.incrementAndGet();
+
+            LOG.debug(String.format("Unable to read pressure files of unit '%s': %s", key, e.getMessage()));
+
+            return null;
+        }
+
+        long nanos = nanoClock.getAsLong();
+        Previous last = previous.get(key);
+
+        if (last != null && nanos > last.nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos - last.nanos);
+
+            for (int i = 0; i < totals.length; i++) {
+                if (totals[i] != ResourceSample.NOT_AVAILABLE && last.totals[i] != ResourceSample.NOT_AVAILABLE && micros > 0L) {
+                    // A decrease (new control group) counts as stall since zero
+                    long stalled = totals[i] >= last.totals[i] ? totals[i] - last.totals[i] : totals[i];
+
+                    percentages[i * PressureSample.WINDOW_COUNT + Window.RATE.ordinal()] = Math.min(100.0, 100.0 * stalled / micros);
+                }
+            }
+        }
+
+        previous.put(key, new Previous(nanos, totals));
+
+        return new PressureSample(SYSTEM_KEY.equals(key) ? null : key, timestamp, percentages, totals);
+    }
+
+    private void parse(final Resource resource, final double[] percentages, final long[] totals) {
+        for (Line line : LINES) {
+            int offset = reader.findLine(LINE_TOKENS[line.ordinal()]);
+
+            if (offset < 0) {
+                continue;
+            }
+
+            int index = PressureSample.indexOf(resource, line);
+            int base = index * PressureSample.WINDOW_COUNT;
+
+            percentages[base + Window.AVG10.ordinal()] = decimal(offset, AVG10);
+            percentages[base + Window.AVG60.ordinal()] = decimal(offset, AVG60);
+            percentages[base + Window.AVG300.ordinal()] = decimal(offset, AVG300);
+
+            int total = reader.findAssigned(offset, TOTAL);
+
+            if (total >= 0) {
+                totals[index] = reader.parseLong(total);
+            }
+        }
+    }
+
+    private double decimal(final int line, final byte[] key) {
+        int offset = reader.findAssigned(line, key);
+
+        return offset >= 0 ? reader.parseDecimal(offset) : Double.NaN;
+    }
+
+    private PressureFiles filesOf(final String key) throws IOException, DBusException {
+        PressureFiles pressureFiles = files.get(key);
+
+        if (pressureFiles == null) {
+            Path dir;
+
+            if (SYSTEM_KEY.equals(key)) {
+                dir = procRoot;
+            }
+            else {
+                String controlGroup = resolver.resolve(key);
+
+                if (controlGroup == null || controlGroup.isEmpty()) {
+                    return null;
+                }
+
+                dir = CgroupAccountingBackend.cgroupDir(cgroupRoot, controlGroup);
+            }
+
+            pressureFiles = new PressureFiles();
+
+            for (Resource resource : RESOURCES) {
+                pressureFiles.channels[resource.ordinal()] = CgroupFileReader.open(dir.resolve(SYSTEM_KEY.equals(key) ? resource.fileName : resource.getCgroupFileName()));
+            }
+
+            if (pressureFiles.isEmpty()) {
+                throw new NoSuchFileException(dir.toString(), null, "No pressure files found");
+            }
+
+            files.put(key, pressureFiles);
+        }
+
+        return pressureFiles;
+    }
+
+    private void release(final String key) {
+        PressureFiles pressureFiles = files.remove(key);
+
+        if (pressureFiles != null) {
+            CgroupFileReader.close(pressureFiles.channels);
+        }
+
+        // Crossings start over with the next sample
+        for (Set<String> keys : exceeded.values()) {
+            keys.remove(key);
+        }
+    }
+
+    private void checkThresholds(final PressureSample sample, final List<Crossing> crossings) {
+        String key = sample.isSystem() ? SYSTEM_KEY : sample.getUnitName();
+
+        for (Map.Entry<Threshold, Set<String>> entry : exceeded.entrySet()) {
+            Threshold threshold = entry.getKey();
+            double value = sample.getPercentage(threshold.resource, threshold.line, threshold.window);
+
+            if (Double.isNaN(value)) {
+                continue;
+            }
+
+            boolean above = value > threshold.percentage;
+
+            if (above ? entry.getValue().add(key) : entry.getValue().remove(key)) {
+                crossings.add(new Crossing(sample, threshold, above));
+            }
+        }
+    }
+
+    public synchronized void startSampling(final long delay, final long period, final TimeUnit unit) {
+        TimerTask task = new TimerTask() {
+
+            @Override
+            public void run() {
+                sample();
+            }
+
+        };
+
+        stopSampling();
+
+        samplingTimer = createTimer();
+        samplingTimer.schedule(task, unit.toMillis(delay), unit.toMillis(period));
+    }
+
+    public synchronized void stopSampling() {
+        if (samplingTimer != null) {
+            samplingTimer.cancel();
+            samplingTimer = null;
+        }
+    }
+
+    protected Timer createTimer() {
+        return new Timer(getClass().getSimpleName() + "-samplingTimer", true);
+    }
+
+    /**
+     * Stops sampling and closes the files kept open.
+     */
+    @Override
+    public synchronized void close() {
+        stopSampling();
+
+        for (String key : new ArrayList<>(files.keySet())) {
+            release(key);
+        }
+    }
+
+    /**
+     * Pressure above which listeners are notified, e.g. more than 20% of
+     * the time some tasks stalled on memory within the last 10 seconds.
+     */
+    public static final class Threshold {
+
+        private final Resource resource;
+        private final Line line;
+        private final Window window;
+        private final double percentage;
+
+        public Threshold(final Resource resource, final Line line, final Window window, final double percentage) {
+            this.resource = Objects.requireNonNull(resource);
+            this.line = Objects.requireNonNull(line);
+            this.window = Objects.requireNonNull(window);
+            this.percentage = percentage;
+        }
+
+        public Resource getResource() {
+            return resource;
+        }
+
+        public Line getLine() {
+            return line;
+        }
+
+        public Window getWindow() {
+            return window;
+        }
+
+        public double getPercentage() {
+            return percentage;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+
+            Threshold other = (Threshold) obj;
+
+            return resource == other.resource && line == other.line && window == other.window && Double.compare(percentage, other.percentage) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resource, line, window, percentage);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s %s > %.2f%%", resource, line, window, percentage);
+        }
+
+    }
+
+    private static final class PressureFiles {
+
+        private final FileChannel[] channels = new FileChannel[RESOURCES.length];
+
+        boolean isEmpty() {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+    }
+
+    private static final class Previous {
+
+        private final long nanos;
+        private final long[] totals;
+
+        Previous(final long nanos, final long[] totals) {
+            this.nanos = nanos;
+            this.totals = totals;
+        }
+
+    }
+
+    private static final class Crossing {
+
+        private final PressureSample sample;
+        private final Threshold threshold;
+        private final boolean exceeded;
+
+        Crossing(final PressureSample sample, final Threshold threshold, final boolean exceeded) {
+            this.sample = sample;
+            this.threshold = threshold;
+            this.exceeded = exceeded;
+        }
+
+    }
+
+}
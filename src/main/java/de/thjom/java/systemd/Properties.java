@@ -13,6 +13,7 @@ package de.thjom.java.systemd;
 
 import java.math.BigInteger;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.freedesktop.dbus.connections.impl.DBusConnection;
@@ -78,6 +79,15 @@ public class Properties extends InterfaceAdapter {
         return this;
     }
 
+    /**
+     * Returns all properties of the interface with a single call.
+     *
+     * @return The property values by name.
+     */
+    public Map<String, Variant<?>> getAll() {
+        return getInterface().getAllProperties(serviceName);
+    }
+
     public Variant<?> getVariant(final String propertyName) {
         return getInterface().getProperty(serviceName, propertyName);
     }
@@ -0,0 +1,312 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener decorator which decouples the delegate from the signal thread by
+ * a bounded queue and a dedicated delivery thread. A slow delegate therefore
+ * only delays its own callbacks.<p>
+ *
+ * The behavior on a full queue is defined by {@link OverflowPolicy}. Queue
+ * depth, lag (time between reception and delivery) and drop counters are
+ * published per instance.
+ */
+public class QueuedUnitStateListener implements UnitStateListener, AutoCloseable {
+
+    public enum OverflowPolicy {
+        /** Blocks the signal thread until the queue has capacity again. */
+        BLOCK,
+        /** Discards the oldest queued change. */
+        DROP_OLDEST,
+        /** Merges the change into a queued change of the same unit (drops the oldest change otherwise). */
+        COALESCE
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueuedUnitStateListener.class);
+
+    private final UnitStateListener delegate;
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    private final Deque<Event> queue = new ArrayDeque<>();
+    private final Map<Unit, Event> queuedByUnit = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong lastLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    private final Thread worker;
+
+    private volatile boolean closed;
+
+    public QueuedUnitStateListener(final UnitStateListener delegate, final int capacity, final OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+
+        this.delegate = Objects.requireNonNull(delegate);
+        this.capacity = capacity;
+        this.policy = Objects.requireNonNull(policy);
+
+        this.worker = new Thread(this::deliverLoop, getClass().getSimpleName() + "-" + delegate.getClass().getSimpleName());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public UnitStateListener getDelegate() {
+        return delegate;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public void stateChanged(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        receivedCount.incrementAndGet();
+
+        lock.lock();
+
+        try {
+            if (closed) {
+                droppedCount.incrementAndGet();
+
+                return;
+            }
+
+            if (queue.size() >= capacity && !makeRoom(unit, changedProperties)) {
+                return;
+            }
+
+            Event event = new Event(unit, changedProperties);
+            queue.addLast(event);
+            queuedByUnit.put(unit, event);
+
+            notEmpty.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the overflow policy on a full queue.
+     *
+     * @return <code>true</code> if the change still needs to be enqueued.
+     */
+    private boolean makeRoom(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        switch (policy) {
+            case BLOCK:
+                while (queue.size() >= capacity && !closed) {
+                    notFull.awaitUninterruptibly();
+                }
+
+                if (closed) {
+                    droppedCount.incrementAndGet();
+
+                    return false;
+                }
+
+                return true;
+            case COALESCE:
+                Event queued = queuedByUnit.get(unit);
+
+                if (queued != null) {
+                    queued.properties.putAll(changedProperties);
+                    coalescedCount.incrementAndGet();
+
+                    return false;
+                }
+
+                dropOldest();
+
+                return true;
+            case DROP_OLDEST:
+            default:
+                dropOldest();
+
+                return true;
+        }
+    }
+
+    private void dropOldest() {
+        Event oldest = queue.pollFirst();
+
+        if (oldest != null) {
+            queuedByUnit.remove(oldest.unit, oldest);
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private void deliverLoop() {
+        while (true) {
+            Event event;
+
+            lock.lock();
+
+            try {
+                while (queue.isEmpty() && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+
+                event = queue.pollFirst();
+
+                if (event == null) {
+                    return;
+                }
+
+                queuedByUnit.remove(event.unit, event);
+                notFull.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+
+            long lag = System.nanoTime() - event.timestamp;
+            lastLagNanos.set(lag);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+
+            try {
+                delegate.stateChanged(event.unit, event.properties);
+            }
+            catch (final RuntimeException e) {
+                LOG.error(String.format("Error while delivering state change of unit '%s'", event.unit), e);
+            }
+
+            deliveredCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting changes. Already queued changes are still delivered
+     * by the delivery thread which terminates afterwards.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+
+        try {
+            closed = true;
+
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getQueueSize() {
+        lock.lock();
+
+        try {
+            return queue.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the age of the oldest change not yet delivered.
+     *
+     * @param unit The time unit of the result.
+     * @return The current lag (zero for an empty queue).
+     */
+    public long getCurrentLag(final TimeUnit unit) {
+        lock.lock();
+
+        try {
+            Event oldest = queue.peekFirst();
+
+            return oldest != null ? unit.convert(System.nanoTime() - oldest.timestamp, TimeUnit.NANOSECONDS) : 0L;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLastLag(final TimeUnit unit) {
+        return unit.convert(lastLagNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxLag(final TimeUnit unit) {
+        return unit.convert(maxLagNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[delegate=%s, policy=%s, queued=%d/%d, received=%d, delivered=%d, dropped=%d, coalesced=%d, maxLag=%dms]",
+                getClass().getSimpleName(), delegate, policy, getQueueSize(), capacity, getReceivedCount(), getDeliveredCount(),
+                getDroppedCount(), getCoalescedCount(), getMaxLag(TimeUnit.MILLISECONDS));
+    }
+
+    private static final class Event {
+
+        private final Unit unit;
+        private final Map<String, Variant<?>> properties;
+        private final long timestamp;
+
+        Event(final Unit unit, final Map<String, Variant<?>> properties) {
+            this.unit = unit;
+            this.properties = new LinkedHashMap<>(properties);
+            this.timestamp = System.nanoTime();
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import de.thjom.java.systemd.features.CpuAccounting;
+import de.thjom.java.systemd.features.IoAccounting;
+import de.thjom.java.systemd.features.IpAccounting;
+import de.thjom.java.systemd.features.MemoryAccounting;
+import de.thjom.java.systemd.features.TasksAccounting;
+
+/**
+ * Accounting values which are sampled by a {@link ResourceSampler}.
+ */
+public enum ResourceMetric {
+
+    CPU_USAGE_NSEC(CpuAccounting.Property.CPU_USAGE_NSEC, Kind.COUNTER),
+    MEMORY_CURRENT(MemoryAccounting.Property.MEMORY_CURRENT, Kind.GAUGE),
+    MEMORY_HIGH(MemoryAccounting.Property.MEMORY_HIGH, Kind.LIMIT),
+    MEMORY_MAX(MemoryAccounting.Property.MEMORY_MAX, Kind.LIMIT),
+    IO_READ_BYTES(IoAccounting.Property.IO_READ_BYTES, Kind.COUNTER),
+    IO_WRITE_BYTES(IoAccounting.Property.IO_WRITE_BYTES, Kind.COUNTER),
+    IO_READ_OPERATIONS(IoAccounting.Property.IO_READ_OPERATIONS, Kind.COUNTER),
+    IO_WRITE_OPERATIONS(IoAccounting.Property.IO_WRITE_OPERATIONS, Kind.COUNTER),
+    IP_INGRESS_BYTES(IpAccounting.Property.IP_INGRESS_BYTES, Kind.COUNTER),
+    IP_EGRESS_BYTES(IpAccounting.Property.IP_EGRESS_BYTES, Kind.COUNTER),
+    IP_INGRESS_PACKETS(IpAccounting.Property.IP_INGRESS_PACKETS, Kind.COUNTER),
+    IP_EGRESS_PACKETS(IpAccounting.Property.IP_EGRESS_PACKETS, Kind.COUNTER),
+    TASKS_CURRENT(TasksAccounting.Property.TASKS_CURRENT, Kind.GAUGE);
+
+    public enum Kind {
+        /** Monotonic counter which is turned into a rate. */
+        COUNTER,
+        /** Current value. */
+        GAUGE,
+        /** Configured limit ("infinity" is not available). */
+        LIMIT
+    }
+
+    static final ResourceMetric[] METRICS = values();
+
+    public final String property;
+    public final Kind kind;
+
+    ResourceMetric(final String property, final Kind kind) {
+        this.property = property;
+        this.kind = kind;
+    }
+
+    public boolean isCounter() {
+        return kind == Kind.COUNTER;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Accounting values of a unit at one sampling tick, together with the
+ * per-second rates of the counters since the previous tick.
+ */
+public final class ResourceSample {
+
+    /** Marker of values which are not available (<code>UINT64_MAX</code> on the bus). */
+    public static final long NOT_AVAILABLE = -1L;
+
+    private final String unitName;
+    private final long timestamp;
+    private final long[] values;
+    private final double[] rates;
+    private final boolean counterReset;
+
+    ResourceSample(final String unitName, final long timestamp, final long[] values, final double[] rates, final boolean counterReset) {
+        this.unitName = unitName;
+        this.timestamp = timestamp;
+        this.values = values;
+        this.rates = rates;
+        this.counterReset = counterReset;
+    }
+
+    public String getUnitName() {
+        return unitName;
+    }
+
+    /**
+     * Returns the time of the sample.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isAvailable(final ResourceMetric metric) {
+        return values[metric.ordinal()] != NOT_AVAILABLE;
+    }
+
+    /**
+     * @param metric The metric.
+     * @return The value or {@link #NOT_AVAILABLE}.
+     */
+    public long getValue(final ResourceMetric metric) {
+        return values[metric.ordinal()];
+    }
+
+    /**
+     * Returns the per-second rate of a counter since the previous sample.
+     *
+     * @param metric The counter.
+     * @return The rate or {@link Double#NaN} if unknown (first sample, value not available or no counter).
+     */
+    public double getRate(final ResourceMetric metric) {
+        return rates[metric.ordinal()];
+    }
+
+    /**
+     * Returns the CPU usage as a fraction of one CPU.
+     *
+     * @return The CPU usage or {@link Double#NaN} if unknown.
+     */
+    public double getCpuUsage() {
+        return getRate(ResourceMetric.CPU_USAGE_NSEC) / 1e9;
+    }
+
+    /**
+     * Returns whether a counter decreased since the previous sample, which
+     * happens when the unit was restarted.
+     *
+     * @return <code>true</code> on a counter reset.
+     */
+    public boolean isCounterReset() {
+        return counterReset;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(unitName).append(" [");
+
+        for (ResourceMetric metric : ResourceMetric.METRICS) {
+            if (isAvailable(metric)) {
+                builder.append(metric).append('=').append(getValue(metric));
+
+                if (!Double.isNaN(getRate(metric))) {
+                    builder.append(String.format(" (%.1f/s)", getRate(metric)));
+                }
+
+                builder.append(", ");
+            }
+        }
+
+        if (builder.charAt(builder.length() - 1) == ' ') {
+            builder.setLength(builder.length() - 2);
+        }
+
+        return builder.append(']').toString();
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collection;
+
+@FunctionalInterface
+public interface ResourceSampleListener {
+
+    void sampleTaken(ResourceSample sample);
+
+    /**
+     * Called after units have been removed from the sampler.
+     *
+     * @param unitNames The full names of the removed units.
+     */
+    default void unitsRemoved(final Collection<String> unitNames) {
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically reads the accounting values of a set of units and turns the
+ * monotonic counters into per-second rates.<p>
+ *
+ * Each tick reads all values of a unit at once from the
+ * {@link AccountingBackend} (by default one <code>GetAll</code> call per
+ * unit). A counter which decreased since the previous tick (unit restart)
+ * is taken as reset to zero, values reported as <code>UINT64_MAX</code> are
+ * {@link ResourceSample#NOT_AVAILABLE} and have no rate.
+ */
+public class ResourceSampler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceSampler.class);
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final AccountingBackend backend;
+    private final LongSupplier nanoClock;
+    private final LongSupplier wallClock;
+
+    private final Set<String> unitNames = new LinkedHashSet<>();
+    private final Map<String, Previous> previous = new LinkedHashMap<>();
+    private final List<ResourceSampleListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong tickCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private Timer samplingTimer;
+
+    public ResourceSampler(final Manager manager) {
+        this(new BusAccountingBackend(manager));
+    }
+
+    public ResourceSampler(final AccountingBackend backend) {
+        this(backend, System::nanoTime, System::currentTimeMillis);
+    }
+
+    ResourceSampler(final AccountingBackend backend, final LongSupplier nanoClock, final LongSupplier wallClock) {
+        this.backend = Objects.requireNonNull(backend);
+        this.nanoClock = Objects.requireNonNull(nanoClock);
+        this.wallClock = Objects.requireNonNull(wallClock);
+    }
+
+    public AccountingBackend getBackend() {
+        return backend;
+    }
+
+    public synchronized void addUnits(final Collection<String> names) {
+        unitNames.addAll(names);
+    }
+
+    public synchronized void addUnits(final String... names) {
+        addUnits(Arrays.asList(names));
+    }
+
+    public void removeUnits(final Collection<String> names) {
+        List<String> removed = new ArrayList<>(names.size());
+
+        synchronized (this) {
+            for (String name : names) {
+                if (unitNames.remove(name)) {
+                    previous.remove(name);
+                    backend.release(name);
+                    removed.add(name);
+                }
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            Collection<String> removedNames = Collections.unmodifiableList(removed);
+
+            for (ResourceSampleListener listener : listeners) {
+                try {
+                    listener.unitsRemoved(removedNames);
+                }
+                catch (final RuntimeException e) {
+                    LOG.error(String.format("Error while notifying removal of units %s", removed), e);
+                }
+            }
+        }
+    }
+
+    public void removeUnits(final String... names) {
+        removeUnits(Arrays.asList(names));
+    }
+
+    public synchronized Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(unitNames));
+    }
+
+    public void addListener(final ResourceSampleListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final ResourceSampleListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Samples all units once and notifies the listeners.
+     *
+     * @return The samples of this tick (units which could not be read are missing).
+     */
+    public List<ResourceSample> sample() {
+        List<ResourceSample> samples;
+
+        synchronized (this) {
+            samples = new ArrayList<>(unitNames.size());
+
+            long timestamp = wallClock.getAsLong();
+
+            for (String unitName : unitNames) {
+                long[] values = new long[ResourceMetric.METRICS.length];
+                Arrays.fill(values, ResourceSample.NOT_AVAILABLE);
+
+                try {
+                    backend.read(unitName, values);
+                }
+                catch (final IOException | DBusException | DBusExecutionException e) {
+                    errorCount.incrementAndGet();
+
+                    LOG.debug(String.format("Unable to read accounting values of unit '%s': %s", unitName, e.getMessage()));
+
+                    continue;
+                }
+
+                samples.add(toSample(unitName, timestamp, nanoClock.getAsLong(), values));
+            }
+
+            tickCount.incrementAndGet();
+        }
+
+        for (ResourceSample sample : samples) {
+            for (ResourceSampleListener listener : listeners) {
+                try {
+                    listener.sampleTaken(sample);
+                }
+                catch (final RuntimeException e) {
+                    LOG.error(String.format("Error while notifying sample of unit '%s'", sample.getUnitName()), e);
+                }
+            }
+        }
+
+        return samples;
+    }
+
+    private ResourceSample toSample(final String unitName, final long timestamp, final long nanos, final long[] values) {
+        double[] rates = new double[values.length];
+        Arrays.fill(rates, Double.NaN);
+
+        boolean reset = false;
+        Previous last = previous.get(unitName);
+
+        if (last != null && nanos > last.nanos) {
+            double seconds = (nanos - last.nanos) / NANOS_PER_SECOND;
+
+            for (ResourceMetric metric : ResourceMetric.METRICS) {
+                int i = metric.ordinal();
+
+                if (metric.isCounter() && values[i] != ResourceSample.NOT_AVAILABLE && last.values[i] != ResourceSample.NOT_AVAILABLE) {
+                    long delta = values[i] - last.values[i];
+
+                    if (delta < 0L) {
+                        // Counter restarted from zero within the interval
+                        delta = values[i];
+                        reset = true;
+                    }
+
+                    rates[i] = delta / seconds;
+                }
+            }
+        }
+
+        ResourceSample sample = new ResourceSample(unitName, timestamp, values, rates, reset);
+        previous.put(unitName, new Previous(nanos, values, sample));
+
+        return sample;
+    }
+
+    public synchronized Optional<ResourceSample> getLatestSample(final String unitName) {
+        Previous last = previous.get(unitName);
+
+        return Optional.ofNullable(last != null ? last.sample : null);
+    }
+
+    /**
+     * Returns the latest sample of each unit which has been read at least once.
+     *
+     * @return The samples.
+     */
+    public synchronized List<ResourceSample> getLatestSamples() {
+        List<ResourceSample> samples = new ArrayList<>(previous.size());
+
+        for (Previous last : previous.values()) {
+            samples.add(last.sample);
+        }
+
+        return samples;
+    }
+
+    public long getTickCount() {
+        return tickCount.get();
+    }
+
+    /**
+     * Returns the number of failed reads (e.g. of units which are not loaded).
+     *
+     * @return The number of errors.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public synchronized void startSampling(final long delay, final long period, final TimeUnit unit) {
+        TimerTask task = new TimerTask() {
+
+            @Override
+            public void run() {
+                sample();
+            }
+
+        };
+
+        stopSampling();
+
+        samplingTimer = createTimer();
+        samplingTimer.schedule(task, unit.toMillis(delay), unit.toMillis(period));
+    }
+
+    public synchronized void stopSampling() {
+        if (samplingTimer != null) {
+            samplingTimer.cancel();
+            samplingTimer = null;
+        }
+    }
+
+    protected Timer createTimer() {
+        return new Timer(getClass().getSimpleName() + "-samplingTimer", true);
+    }
+
+    private static final class Previous {
+
+        private final long nanos;
+        private final long[] values;
+        private final ResourceSample sample;
+
+        Previous(final long nanos, final long[] values, final ResourceSample sample) {
+            this.nanos = nanos;
+            this.values = values;
+            this.sample = sample;
+        }
+
+    }
+
+}
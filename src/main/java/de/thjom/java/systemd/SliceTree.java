@@ -0,0 +1,462 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tree of slices (<code>-.slice</code> &rarr; <code>system.slice</code> &rarr;
+ * <code>tenant-a.slice</code> &rarr; units) with the accounting values of the
+ * units aggregated bottom-up from the samples of a {@link ResourceSampler}.<p>
+ *
+ * The slice of a unit is resolved once via the bus on its first sample,
+ * the parent of a slice follows from its name. Each sample only applies the
+ * difference to the previous sample of the unit to its slice and the
+ * ancestors. Gauges are summed, counters are summed as rates and as a
+ * monotonic total of the increases (restarts of units do not decrease it).
+ * Limits are not aggregated. Samples of slices themselves are ignored, the
+ * tree is built from the leaf units only.<p>
+ *
+ * Units removed from the sampler and units without a sample for a number
+ * of ticks (e.g. unloaded units which cannot be read anymore) are removed
+ * from the tree. The summed rates are recomputed from the units once per
+ * tick, so rounding errors of the differences do not add up.
+ */
+public class SliceTree implements ResourceSampleListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SliceTree.class);
+
+    public static final String ROOT_SLICE = UnitPatternMonitor.ROOT_SLICE;
+
+    public static final int DEFAULT_EXPIRY_TICKS = 3;
+
+    private static final int METRIC_COUNT = ResourceMetric.METRICS.length;
+
+    @FunctionalInterface
+    interface SliceResolver {
+
+        String resolve(String unitName) throws DBusException;
+
+    }
+
+    private final SliceResolver resolver;
+
+    private final Map<String, Node> slices = new HashMap<>();
+    private final Map<String, Leaf> units = new HashMap<>();
+
+    private int expiryTicks = DEFAULT_EXPIRY_TICKS;
+    private long tick;
+    private long tickTimestamp = Long.MIN_VALUE;
+
+    public SliceTree(final Manager manager) {
+        this(busResolver(Objects.requireNonNull(manager)));
+    }
+
+    SliceTree(final SliceResolver resolver) {
+        this.resolver = Objects.requireNonNull(resolver);
+
+        slices.put(ROOT_SLICE, new Node(ROOT_SLICE, null));
+    }
+
+    private static SliceResolver busResolver(final Manager manager) {
+        return unitName -> {
+            String iface = BusAccountingBackend.interfaceOf(unitName);
+
+            if (iface == null) {
+                return null;
+            }
+
+            return Properties.create(manager.dbus, Unit.OBJECT_PATH + Systemd.escapePath(unitName), iface).getString(Service.Property.SLICE);
+        };
+    }
+
+    /**
+     * Returns the parent of a slice as encoded in its name, e.g.
+     * "system.slice" for "system-getty.slice".
+     *
+     * @param slice The slice name.
+     * @return The parent or <code>null</code> for the root slice.
+     */
+    static String parentOf(final String slice) {
+        if (ROOT_SLICE.equals(slice)) {
+            return null;
+        }
+
+        int dash = slice.lastIndexOf('-', slice.length() - Slice.UNIT_SUFFIX.length() - 1);
+
+        return dash > 0 ? slice.substring(0, dash) + Slice.UNIT_SUFFIX : ROOT_SLICE;
+    }
+
+    @Override
+    public void sampleTaken(final ResourceSample sample) {
+        String unitName = sample.getUnitName();
+
+        if (unitName.endsWith(Slice.UNIT_SUFFIX)) {
+            return;
+        }
+
+        Leaf leaf;
+
+        synchronized (this) {
+            leaf = units.get(unitName);
+        }
+
+        if (leaf == null) {
+            String slice;
+
+            try {
+                slice = resolver.resolve(unitName);
+            }
+            catch (final DBusException | DBusExecutionException e) {
+                LOG.debug(String.format("Unable to resolve slice of unit '%s': %s", unitName, e.getMessage()));
+
+                return;
+            }
+
+            if (slice == null || slice.isEmpty()) {
+                return;
+            }
+
+            synchronized (this) {
+                leaf = units.computeIfAbsent(unitName, k -> new Leaf(unitName, nodeOf(slice)));
+                leaf.slice.units.add(unitName);
+            }
+        }
+
+        update(leaf, sample);
+    }
+
+    @Override
+    public synchronized void unitsRemoved(final Collection<String> unitNames) {
+        for (String unitName : unitNames) {
+            removeUnit(unitName);
+        }
+    }
+
+    /**
+     * Sets the number of ticks without a sample after which a unit is
+     * removed from the tree.
+     *
+     * @param ticks The number of ticks.
+     */
+    public synchronized void setExpiryTicks(final int ticks) {
+        if (ticks <= 0) {
+            throw new IllegalArgumentException("Expiry must be positive");
+        }
+
+        this.expiryTicks = ticks;
+    }
+
+    /**
+     * Assigns a unit to a slice (instead of resolving it on the first sample).
+     *
+     * @param unitName The full unit name.
+     * @param slice The slice name.
+     */
+    public synchronized void setSlice(final String unitName, final String slice) {
+        removeUnit(unitName);
+
+        Leaf leaf = new Leaf(unitName, nodeOf(slice));
+        leaf.slice.units.add(unitName);
+        units.put(unitName, leaf);
+    }
+
+    /**
+     * Removes a unit and its contribution from its slice and the ancestors.
+     *
+     * @param unitName The full unit name.
+     */
+    public synchronized void removeUnit(final String unitName) {
+        Leaf leaf = units.remove(unitName);
+
+        if (leaf != null) {
+            double[] rates = new double[METRIC_COUNT];
+            long[] values = new long[METRIC_COUNT];
+
+            for (ResourceMetric metric : ResourceMetric.METRICS) {
+                int i = metric.ordinal();
+
+                if (metric.isCounter()) {
+                    rates[i] = -leaf.rates[i];
+                }
+                else {
+                    values[i] = -leaf.values[i];
+                }
+            }
+
+            // Totals stay as the usage has been consumed
+            propagate(leaf.slice, values, rates, new long[METRIC_COUNT]);
+
+            leaf.slice.units.remove(unitName);
+        }
+    }
+
+    private Node nodeOf(final String slice) {
+        Node node = slices.get(slice);
+
+        if (node == null) {
+            Node parent = nodeOf(parentOf(slice));
+
+            node = new Node(slice, parent);
+            slices.put(slice, node);
+            parent.children.add(slice);
+        }
+
+        return node;
+    }
+
+    private synchronized void update(final Leaf leaf, final ResourceSample sample) {
+        if (units.get(leaf.unitName) != leaf) {
+            // Removed concurrently
+            return;
+        }
+
+        // All samples of a tick share the timestamp
+        if (sample.getTimestamp() != tickTimestamp) {
+            tickTimestamp = sample.getTimestamp();
+            leaf.lastTick = ++tick;
+
+            expire();
+            rebase();
+        }
+        else {
+            leaf.lastTick = tick;
+        }
+
+        long[] values = new long[METRIC_COUNT];
+        double[] rates = new double[METRIC_COUNT];
+        long[] increases = new long[METRIC_COUNT];
+
+        for (ResourceMetric metric : ResourceMetric.METRICS) {
+            int i = metric.ordinal();
+
+            if (metric.kind == ResourceMetric.Kind.LIMIT) {
+                continue;
+            }
+
+            boolean available = sample.isAvailable(metric);
+            long value = available ? sample.getValue(metric) : 0L;
+
+            if (metric.isCounter()) {
+                double rate = Double.isNaN(sample.getRate(metric)) ? 0.0 : sample.getRate(metric);
+
+                rates[i] = rate - leaf.rates[i];
+                leaf.rates[i] = rate;
+
+                // The last available value is kept while a counter is not available
+                if (available) {
+                    if (leaf.counted[i]) {
+                        // A decrease is a restart from zero
+                        increases[i] = value >= leaf.values[i] ? value - leaf.values[i] : value;
+                    }
+
+                    leaf.values[i] = value;
+                    leaf.counted[i] = true;
+                }
+            }
+            else {
+                values[i] = value - leaf.values[i];
+                leaf.values[i] = value;
+            }
+        }
+
+        propagate(leaf.slice, values, rates, increases);
+    }
+
+    private void expire() {
+        List<String> expired = new ArrayList<>();
+
+        for (Leaf leaf : units.values()) {
+            // Leaves which have never been sampled do not contribute
+            if (leaf.lastTick > 0L && tick - leaf.lastTick > expiryTicks) {
+                expired.add(leaf.unitName);
+            }
+        }
+
+        for (String unitName : expired) {
+            LOG.debug(String.format("Removing unit '%s' without samples from slice tree", unitName));
+
+            removeUnit(unitName);
+        }
+    }
+
+    private void rebase() {
+        for (Node node : slices.values()) {
+            Arrays.fill(node.rates, 0.0);
+        }
+
+        for (Leaf leaf : units.values()) {
+            for (Node node = leaf.slice; node != null; node = node.parent) {
+                for (int i = 0; i < METRIC_COUNT; i++) {
+                    node.rates[i] += leaf.rates[i];
+                }
+            }
+        }
+    }
+
+    private static void propagate(final Node slice, final long[] values, final double[] rates, final long[] increases) {
+        for (Node node = slice; node != null; node = node.parent) {
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                node.values[i] += values[i];
+                node.rates[i] += rates[i];
+                node.totals[i] += increases[i];
+            }
+        }
+    }
+
+    public synchronized Set<String> getSliceNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(slices.keySet()));
+    }
+
+    /**
+     * Returns a snapshot of a slice.
+     *
+     * @param slice The slice name.
+     * @return The aggregated values of the slice.
+     */
+    public synchronized Optional<SliceUsage> getUsage(final String slice) {
+        Node node = slices.get(slice);
+
+        return Optional.ofNullable(node != null ? new SliceUsage(node) : null);
+    }
+
+    /**
+     * Aggregated accounting values of a slice and everything below.
+     */
+    public static final class SliceUsage {
+
+        private final String sliceName;
+        private final String parentName;
+        private final Set<String> childSlices;
+        private final Set<String> unitNames;
+        private final long[] values;
+        private final double[] rates;
+        private final long[] totals;
+
+        SliceUsage(final Node node) {
+            this.sliceName = node.sliceName;
+            this.parentName = node.parent != null ? node.parent.sliceName : null;
+            this.childSlices = Collections.unmodifiableSet(new TreeSet<>(node.children));
+            this.unitNames = Collections.unmodifiableSet(new TreeSet<>(node.units));
+            this.values = node.values.clone();
+            this.rates = node.rates.clone();
+            this.totals = node.totals.clone();
+        }
+
+        public String getSliceName() {
+            return sliceName;
+        }
+
+        public Optional<String> getParentName() {
+            return Optional.ofNullable(parentName);
+        }
+
+        public Set<String> getChildSlices() {
+            return childSlices;
+        }
+
+        /**
+         * @return The units directly assigned to the slice.
+         */
+        public Set<String> getUnitNames() {
+            return unitNames;
+        }
+
+        /**
+         * Returns the sum of a gauge.
+         *
+         * @param metric A gauge (e.g. {@link ResourceMetric#MEMORY_CURRENT}).
+         * @return The sum over all units below the slice.
+         */
+        public long getValue(final ResourceMetric metric) {
+            return values[metric.ordinal()];
+        }
+
+        /**
+         * Returns the sum of the per-second rates of a counter.
+         *
+         * @param metric A counter (e.g. {@link ResourceMetric#CPU_USAGE_NSEC}).
+         * @return The rate over all units below the slice.
+         */
+        public double getRate(final ResourceMetric metric) {
+            return rates[metric.ordinal()];
+        }
+
+        /**
+         * Returns the increase of a counter since the units were first sampled.
+         *
+         * @param metric A counter.
+         * @return The monotonic total over all units below the slice.
+         */
+        public long getTotal(final ResourceMetric metric) {
+            return totals[metric.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: values=%s, rates=%s", sliceName, Arrays.toString(values), Arrays.toString(rates));
+        }
+
+    }
+
+    private static final class Node {
+
+        private final String sliceName;
+        private final Node parent;
+        private final Set<String> children = new TreeSet<>();
+        private final Set<String> units = new TreeSet<>();
+
+        private final long[] values = new long[METRIC_COUNT];
+        private final double[] rates = new double[METRIC_COUNT];
+        private final long[] totals = new long[METRIC_COUNT];
+
+        Node(final String sliceName, final Node parent) {
+            this.sliceName = sliceName;
+            this.parent = parent;
+        }
+
+    }
+
+    private static final class Leaf {
+
+        private final String unitName;
+        private final Node slice;
+
+        private final long[] values = new long[METRIC_COUNT];
+        private final double[] rates = new double[METRIC_COUNT];
+        private final boolean[] counted = new boolean[METRIC_COUNT];
+
+        private long lastTick;
+
+        Leaf(final String unitName, final Node slice) {
+            this.unitName = unitName;
+            this.slice = slice;
+        }
+
+    }
+
+}
@@ -84,6 +84,33 @@ public final class Systemd {
         return "";
     }
 
+    public static String unescapePath(final CharSequence escapedPath) {
+        if (escapedPath != null) {
+            int length = escapedPath.length();
+            StringBuilder unescaped = new StringBuilder(length);
+
+            for (int i = 0; i < length; i++) {
+                char c = escapedPath.charAt(i);
+
+                if (c == '_' && i + 2 < length && isHexDigit(escapedPath.charAt(i + 1)) && isHexDigit(escapedPath.charAt(i + 2))) {
+                    unescaped.append((char) Integer.parseInt(escapedPath.subSequence(i + 1, i + 3).toString(), 16));
+                    i += 2;
+                }
+                else {
+                    unescaped.append(c);
+                }
+            }
+
+            return unescaped.toString();
+        }
+
+        return "";
+    }
+
+    private static boolean isHexDigit(final char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
     public static Instant timestampToInstant(final long timestamp) {
         return Instant.EPOCH.plus(timestamp, ChronoUnit.MICROS);
     }
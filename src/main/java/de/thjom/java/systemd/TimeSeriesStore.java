@@ -0,0 +1,575 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory store of the samples of a {@link ResourceSampler} with one
+ * compressed time series per unit and metric (see {@link GorillaBlock}).<p>
+ *
+ * Points are kept for the configured retention in blocks, whole blocks are
+ * dropped once they are older. Besides the raw points, rollups with a
+ * resolution of one and five minutes are kept for the rollup retention:
+ * the value of a rollup point is the mean (gauges) or the last value
+ * (counters) of its interval, along with the maximum. The currently open
+ * rollup interval is not visible to queries.
+ */
+public class TimeSeriesStore implements ResourceSampleListener {
+
+    public enum Resolution {
+
+        RAW(0L),
+        ONE_MINUTE(TimeUnit.MINUTES.toMillis(1L)),
+        FIVE_MINUTES(TimeUnit.MINUTES.toMillis(5L));
+
+        public final long millis;
+
+        Resolution(final long millis) {
+            this.millis = millis;
+        }
+
+    }
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final long retentionMillis;
+    private final long rollupRetentionMillis;
+    private final long blockMillis;
+
+    private final ConcurrentMap<String, MetricSeries[]> units = new ConcurrentHashMap<>();
+
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private volatile long lastTrim = NEVER;
+
+    private TimeSeriesStore(final Builder builder) {
+        this.retentionMillis = builder.retentionMillis;
+        this.rollupRetentionMillis = builder.rollupRetentionMillis;
+        this.blockMillis = builder.blockMillis;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long getRetention(final TimeUnit unit) {
+        return unit.convert(retentionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getRollupRetention(final TimeUnit unit) {
+        return unit.convert(rollupRetentionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void sampleTaken(final ResourceSample sample) {
+        for (ResourceMetric metric : ResourceMetric.METRICS) {
+            if (sample.isAvailable(metric)) {
+                record(sample.getUnitName(), metric, sample.getTimestamp(), sample.getValue(metric));
+            }
+        }
+
+        long last = lastTrim;
+
+        if (last == NEVER) {
+            // Nothing to trim yet, the first sample starts the interval
+            lastTrim = sample.getTimestamp();
+        }
+        else if (sample.getTimestamp() - last >= blockMillis) {
+            trim(sample.getTimestamp());
+        }
+    }
+
+    /**
+     * Records a single point.
+     *
+     * @param unitName The full unit name.
+     * @param metric The metric.
+     * @param timestamp The time of the point (milliseconds since the epoch).
+     * @param value The value.
+     */
+    public void record(final String unitName, final ResourceMetric metric, final long timestamp, final long value) {
+        MetricSeries[] unitSeries = units.computeIfAbsent(unitName, k -> new MetricSeries[ResourceMetric.METRICS.length]);
+        MetricSeries series;
+
+        synchronized (unitSeries) {
+            series = unitSeries[metric.ordinal()];
+
+            if (series == null) {
+                series = new MetricSeries(metric.isCounter());
+                unitSeries[metric.ordinal()] = series;
+            }
+        }
+
+        series.append(timestamp, value);
+    }
+
+    /**
+     * Drops the points which are older than the retention and the units
+     * without any points left.
+     *
+     * @param now The current time (milliseconds since the epoch).
+     */
+    public void trim(final long now) {
+        lastTrim = now;
+
+        for (Iterator<MetricSeries[]> it = units.values().iterator(); it.hasNext();) {
+            MetricSeries[] unitSeries = it.next();
+            boolean empty = true;
+
+            synchronized (unitSeries) {
+                for (MetricSeries series : unitSeries) {
+                    if (series != null && !series.trim(now)) {
+                        empty = false;
+                    }
+                }
+            }
+
+            if (empty) {
+                it.remove();
+            }
+        }
+    }
+
+    public void removeUnit(final String unitName) {
+        units.remove(unitName);
+    }
+
+    public Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(units.keySet());
+    }
+
+    /**
+     * Returns the estimated memory held by the compressed points.
+     *
+     * @return The size in bytes.
+     */
+    public long getSizeInBytes() {
+        long size = 0L;
+
+        for (MetricSeries[] unitSeries : units.values()) {
+            synchronized (unitSeries) {
+                for (MetricSeries series : unitSeries) {
+                    if (series != null) {
+                        size += series.getSizeInBytes();
+                    }
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the points of a time range.
+     *
+     * @param unitName The full unit name.
+     * @param metric The metric.
+     * @param from The start of the range (inclusive, milliseconds since the epoch).
+     * @param to The end of the range (inclusive, milliseconds since the epoch).
+     * @param resolution The resolution.
+     * @return The points (the rollup values for a rollup resolution).
+     */
+    public Points range(final String unitName, final ResourceMetric metric, final long from, final long to, final Resolution resolution) {
+        MetricSeries series = seriesOf(unitName, metric);
+
+        return series != null ? series.valuesOf(resolution).range(from, to) : Points.EMPTY;
+    }
+
+    /**
+     * Returns the maxima of the rollup intervals of a time range.
+     *
+     * @param unitName The full unit name.
+     * @param metric The metric.
+     * @param from The start of the range (inclusive, milliseconds since the epoch).
+     * @param to The end of the range (inclusive, milliseconds since the epoch).
+     * @param resolution The resolution (the raw points for {@link Resolution#RAW}).
+     * @return The points.
+     */
+    public Points rangeMax(final String unitName, final ResourceMetric metric, final long from, final long to, final Resolution resolution) {
+        MetricSeries series = seriesOf(unitName, metric);
+
+        return series != null ? series.maximaOf(resolution).range(from, to) : Points.EMPTY;
+    }
+
+    /**
+     * Returns the average per-second increase of a counter over a time
+     * range. A decrease is taken as a restart from zero.
+     *
+     * @param unitName The full unit name.
+     * @param metric The counter.
+     * @param from The start of the range (inclusive, milliseconds since the epoch).
+     * @param to The end of the range (inclusive, milliseconds since the epoch).
+     * @param resolution The resolution.
+     * @return The rate or <code>NaN</code> if there are fewer than two points.
+     */
+    public double rate(final String unitName, final ResourceMetric metric, final long from, final long to, final Resolution resolution) {
+        Points points = range(unitName, metric, from, to, resolution);
+
+        if (points.size() < 2) {
+            return Double.NaN;
+        }
+
+        long increase = 0L;
+
+        for (int i = 1; i < points.size(); i++) {
+            increase += increaseOf(points.values[i - 1], points.values[i]);
+        }
+
+        long millis = points.timestamps[points.size() - 1] - points.timestamps[0];
+
+        return millis > 0L ? increase * 1000.0 / millis : Double.NaN;
+    }
+
+    /**
+     * Returns a percentile of a time range (nearest rank). For counters, the
+     * percentile of the per-second rates between consecutive points is
+     * returned, for other metrics the percentile of the values.
+     *
+     * @param unitName The full unit name.
+     * @param metric The metric.
+     * @param from The start of the range (inclusive, milliseconds since the epoch).
+     * @param to The end of the range (inclusive, milliseconds since the epoch).
+     * @param resolution The resolution.
+     * @param percentile The percentile (0 to 100).
+     * @return The percentile or <code>NaN</code> if there are no points.
+     */
+    public double percentile(final String unitName, final ResourceMetric metric, final long from, final long to, final Resolution resolution, final double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        Points points = range(unitName, metric, from, to, resolution);
+        double[] values;
+
+        if (metric.isCounter()) {
+            values = new double[Math.max(0, points.size() - 1)];
+
+            for (int i = 1; i < points.size(); i++) {
+                long millis = points.timestamps[i] - points.timestamps[i - 1];
+                values[i - 1] = millis > 0L ? increaseOf(points.values[i - 1], points.values[i]) * 1000.0 / millis : 0.0;
+            }
+        }
+        else {
+            values = new double[points.size()];
+
+            for (int i = 0; i < points.size(); i++) {
+                values[i] = points.values[i];
+            }
+        }
+
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+
+        Arrays.sort(values);
+
+        int rank = (int) Math.ceil(percentile / 100.0 * values.length);
+
+        return values[Math.max(rank, 1) - 1];
+    }
+
+    private static long increaseOf(final long previous, final long current) {
+        return current >= previous ? current - previous : current;
+    }
+
+    private MetricSeries seriesOf(final String unitName, final ResourceMetric metric) {
+        MetricSeries[] unitSeries = units.get(unitName);
+
+        if (unitSeries == null) {
+            return null;
+        }
+
+        synchronized (unitSeries) {
+            return unitSeries[metric.ordinal()];
+        }
+    }
+
+    /**
+     * Points of a time range in primitive arrays.
+     */
+    public static final class Points {
+
+        static final Points EMPTY = new Points(new long[0], new long[0], 0);
+
+        private final long[] timestamps;
+        private final long[] values;
+        private final int size;
+
+        Points(final long[] timestamps, final long[] values, final int size) {
+            this.timestamps = timestamps;
+            this.values = values;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getTimestamp(final int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException(String.format("Index: %d, size: %d", index, size));
+            }
+
+            return timestamps[index];
+        }
+
+        public long getValue(final int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException(String.format("Index: %d, size: %d", index, size));
+            }
+
+            return values[index];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Points[size=%d]", size);
+        }
+
+    }
+
+    /**
+     * Sequence of compressed blocks with a retention.
+     */
+    static final class TimeSeries {
+
+        private final long retentionMillis;
+        private final long blockMillis;
+
+        private final ArrayDeque<GorillaBlock> blocks = new ArrayDeque<>();
+
+        TimeSeries(final long retentionMillis, final long blockMillis) {
+            this.retentionMillis = retentionMillis;
+            this.blockMillis = blockMillis;
+        }
+
+        synchronized void append(final long timestamp, final long value) {
+            GorillaBlock head = blocks.peekLast();
+
+            if (head != null && timestamp < head.getLastTimestamp()) {
+                // Out of order
+                return;
+            }
+
+            if (head == null || timestamp - head.getFirstTimestamp() >= blockMillis) {
+                if (head != null) {
+                    head.seal();
+                }
+
+                head = new GorillaBlock();
+                blocks.addLast(head);
+            }
+
+            head.append(timestamp, value);
+        }
+
+        /**
+         * @return <code>true</code> if no points are left.
+         */
+        synchronized boolean trim(final long now) {
+            while (!blocks.isEmpty() && blocks.peekFirst().getLastTimestamp() < now - retentionMillis) {
+                blocks.removeFirst();
+            }
+
+            return blocks.isEmpty();
+        }
+
+        synchronized Points range(final long from, final long to) {
+            int capacity = 0;
+
+            for (GorillaBlock block : blocks) {
+                if (block.getLastTimestamp() >= from && block.getFirstTimestamp() <= to) {
+                    capacity += block.getCount();
+                }
+            }
+
+            if (capacity == 0) {
+                return Points.EMPTY;
+            }
+
+            long[] timestamps = new long[capacity];
+            long[] values = new long[capacity];
+            int size = 0;
+
+            for (GorillaBlock block : blocks) {
+                if (block.getLastTimestamp() >= from && block.getFirstTimestamp() <= to) {
+                    GorillaBlock.Reader reader = block.reader();
+
+                    while (reader.next() && reader.getTimestamp() <= to) {
+                        if (reader.getTimestamp() >= from) {
+                            timestamps[size] = reader.getTimestamp();
+                            values[size] = reader.getValue();
+                            size++;
+                        }
+                    }
+                }
+            }
+
+            return new Points(timestamps, values, size);
+        }
+
+        synchronized long getSizeInBytes() {
+            long size = 0L;
+
+            for (GorillaBlock block : blocks) {
+                size += block.getSizeInBytes();
+            }
+
+            return size;
+        }
+
+    }
+
+    /**
+     * Raw series of a metric with its rollups.
+     */
+    private final class MetricSeries {
+
+        private final boolean counter;
+
+        private final TimeSeries raw;
+        private final TimeSeries[] rollupValues = new TimeSeries[RESOLUTIONS.length];
+        private final TimeSeries[] rollupMaxima = new TimeSeries[RESOLUTIONS.length];
+
+        private final long[] intervalStart = new long[RESOLUTIONS.length];
+        private final long[] intervalSum = new long[RESOLUTIONS.length];
+        private final long[] intervalCount = new long[RESOLUTIONS.length];
+        private final long[] intervalMax = new long[RESOLUTIONS.length];
+        private final long[] intervalLast = new long[RESOLUTIONS.length];
+
+        MetricSeries(final boolean counter) {
+            this.counter = counter;
+            this.raw = new TimeSeries(retentionMillis, blockMillis);
+
+            for (int i = 1; i < RESOLUTIONS.length; i++) {
+                // Rollup blocks hold the same number of points as raw blocks at a 10s interval
+                long rollupBlockMillis = Math.max(blockMillis, RESOLUTIONS[i].millis * blockMillis / TimeUnit.SECONDS.toMillis(10L));
+
+                rollupValues[i] = new TimeSeries(rollupRetentionMillis, rollupBlockMillis);
+                rollupMaxima[i] = new TimeSeries(rollupRetentionMillis, rollupBlockMillis);
+                intervalStart[i] = Long.MIN_VALUE;
+            }
+        }
+
+        synchronized void append(final long timestamp, final long value) {
+            raw.append(timestamp, value);
+
+            for (int i = 1; i < RESOLUTIONS.length; i++) {
+                long start = timestamp - Math.floorMod(timestamp, RESOLUTIONS[i].millis);
+
+                if (start != intervalStart[i]) {
+                    if (intervalCount[i] > 0L) {
+                        rollupValues[i].append(intervalStart[i], counter ? intervalLast[i] : Math.round((double) intervalSum[i] / intervalCount[i]));
+                        rollupMaxima[i].append(intervalStart[i], intervalMax[i]);
+                    }
+
+                    intervalStart[i] = start;
+                    intervalSum[i] = 0L;
+                    intervalCount[i] = 0L;
+                    intervalMax[i] = Long.MIN_VALUE;
+                }
+
+                intervalSum[i] += value;
+                intervalCount[i]++;
+                intervalMax[i] = Math.max(intervalMax[i], value);
+                intervalLast[i] = value;
+            }
+        }
+
+        synchronized boolean trim(final long now) {
+            boolean empty = raw.trim(now);
+
+            for (int i = 1; i < RESOLUTIONS.length; i++) {
+                empty &= rollupValues[i].trim(now);
+                rollupMaxima[i].trim(now);
+            }
+
+            return empty;
+        }
+
+        TimeSeries valuesOf(final Resolution resolution) {
+            return resolution == Resolution.RAW ? raw : rollupValues[resolution.ordinal()];
+        }
+
+        TimeSeries maximaOf(final Resolution resolution) {
+            return resolution == Resolution.RAW ? raw : rollupMaxima[resolution.ordinal()];
+        }
+
+        synchronized long getSizeInBytes() {
+            long size = raw.getSizeInBytes();
+
+            for (int i = 1; i < RESOLUTIONS.length; i++) {
+                size += rollupValues[i].getSizeInBytes() + rollupMaxima[i].getSizeInBytes();
+            }
+
+            return size;
+        }
+
+    }
+
+    public static final class Builder {
+
+        private long retentionMillis = TimeUnit.HOURS.toMillis(6L);
+        private long rollupRetentionMillis = TimeUnit.HOURS.toMillis(24L);
+        private long blockMillis = TimeUnit.MINUTES.toMillis(30L);
+
+        private Builder() {
+            super();
+        }
+
+        /**
+         * Sets the retention of the raw points (default: 6 hours).
+         */
+        public Builder retention(final long retention, final TimeUnit unit) {
+            this.retentionMillis = unit.toMillis(retention);
+
+            return this;
+        }
+
+        /**
+         * Sets the retention of the rollups (default: 24 hours).
+         */
+        public Builder rollupRetention(final long retention, final TimeUnit unit) {
+            this.rollupRetentionMillis = unit.toMillis(retention);
+
+            return this;
+        }
+
+        /**
+         * Sets the time span of a raw block, which is the granularity of the
+         * retention (default: 30 minutes).
+         */
+        public Builder blockDuration(final long duration, final TimeUnit unit) {
+            this.blockMillis = unit.toMillis(duration);
+
+            return this;
+        }
+
+        public TimeSeriesStore build() {
+            if (retentionMillis <= 0L || rollupRetentionMillis <= 0L || blockMillis <= 0L) {
+                throw new IllegalStateException("Retention and block duration must be positive");
+            }
+
+            return new TimeSeriesStore(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+
+import de.thjom.java.systemd.TimeSeriesStore.Resolution;
+import de.thjom.java.systemd.types.UnitType;
+
+/**
+ * Queries for the units consuming the most resources, e.g. the top 20 units
+ * by CPU rate over the last minute.<p>
+ *
+ * The queries run over the latest samples of a {@link ResourceSampler} (and
+ * the points of a {@link TimeSeriesStore} for rates over a window) and keep
+ * only the best <code>n</code> scores in a bounded heap of primitives while
+ * scanning, so no bus calls are made and no full list is sorted.
+ */
+public class TopConsumers {
+
+    private static final String[] ACCOUNTED_TYPES = { Service.UNIT_SUFFIX, Scope.UNIT_SUFFIX, Slice.UNIT_SUFFIX };
+
+    private final ResourceSampler sampler;
+    private final TimeSeriesStore store;
+    private final LongSupplier clock;
+
+    public TopConsumers(final ResourceSampler sampler) {
+        this(sampler, null);
+    }
+
+    /**
+     * @param sampler The sampler providing the latest samples.
+     * @param store The store for rates over a window (may be <code>null</code>).
+     */
+    public TopConsumers(final ResourceSampler sampler, final TimeSeriesStore store) {
+        this(sampler, store, System::currentTimeMillis);
+    }
+
+    TopConsumers(final ResourceSampler sampler, final TimeSeriesStore store, final LongSupplier clock) {
+        this.sampler = Objects.requireNonNull(sampler);
+        this.store = store;
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    /**
+     * Returns the names of the loaded units which carry resource accounting
+     * (services, scopes and slices), e.g. to be added to a sampler.
+     *
+     * @param manager The manager.
+     * @return The unit names.
+     */
+    public static List<String> listAccountedUnits(final Manager manager) {
+        List<String> names = new ArrayList<>();
+
+        for (UnitType unit : manager.listUnits()) {
+            if (Arrays.asList(ACCOUNTED_TYPES).contains(UnitIndex.typeOf(unit.getUnitName()))) {
+                names.add(unit.getUnitName());
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Returns the units with the highest rate of a counter since the
+     * previous sample.
+     *
+     * @param metric The counter.
+     * @param n The maximum number of units.
+     * @return The units in descending order.
+     */
+    public List<Entry> byRate(final ResourceMetric metric, final int n) {
+        return select(n, s -> s.getRate(metric));
+    }
+
+    /**
+     * Returns the units with the highest average rate of a counter over a
+     * window (requires a {@link TimeSeriesStore}).
+     *
+     * @param metric The counter.
+     * @param n The maximum number of units.
+     * @param window The window ending now.
+     * @param unit The time unit of the window.
+     * @return The units in descending order.
+     */
+    public List<Entry> byRate(final ResourceMetric metric, final int n, final long window, final TimeUnit unit) {
+        if (store == null) {
+            throw new IllegalStateException("Rates over a window require a time series store");
+        }
+
+        long to = clock.getAsLong();
+        long from = to - unit.toMillis(window);
+
+        return select(n, s -> store.rate(s.getUnitName(), metric, from, to, Resolution.RAW));
+    }
+
+    /**
+     * Returns the units with the highest current value.
+     *
+     * @param metric The metric.
+     * @param n The maximum number of units.
+     * @return The units in descending order.
+     */
+    public List<Entry> byValue(final ResourceMetric metric, final int n) {
+        return select(n, s -> s.isAvailable(metric) ? s.getValue(metric) : Double.NaN);
+    }
+
+    /**
+     * Returns the units with the highest ratio of two values, e.g.
+     * <code>MemoryCurrent / MemoryMax</code>. Units without a (non-zero)
+     * denominator are skipped.
+     *
+     * @param numerator The metric of the numerator.
+     * @param denominator The metric of the denominator.
+     * @param n The maximum number of units.
+     * @return The units in descending order.
+     */
+    public List<Entry> byRatio(final ResourceMetric numerator, final ResourceMetric denominator, final int n) {
+        return select(n, s -> {
+            if (!s.isAvailable(numerator) || !s.isAvailable(denominator) || s.getValue(denominator) == 0L) {
+                return Double.NaN;
+            }
+
+            return (double) s.getValue(numerator) / s.getValue(denominator);
+        });
+    }
+
+    private List<Entry> select(final int n, final ToDoubleFunction<ResourceSample> score) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Number of units must be positive");
+        }
+
+        Heap heap = new Heap(n);
+
+        for (ResourceSample sample : sampler.getLatestSamples()) {
+            double value = score.applyAsDouble(sample);
+
+            if (!Double.isNaN(value)) {
+                heap.offer(sample.getUnitName(), value);
+            }
+        }
+
+        return heap.drain();
+    }
+
+    public static final class Entry {
+
+        private final String unitName;
+        private final double score;
+
+        Entry(final String unitName, final double score) {
+            this.unitName = unitName;
+            this.score = score;
+        }
+
+        public String getUnitName() {
+            return unitName;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s=%s", unitName, score);
+        }
+
+    }
+
+    /**
+     * Bounded min-heap keeping the <code>n</code> highest scores.
+     */
+    static final class Heap {
+
+        private final double[] scores;
+        private final String[] names;
+
+        private int size;
+
+        Heap(final int capacity) {
+            this.scores = new double[capacity];
+            this.names = new String[capacity];
+        }
+
+        void offer(final String name, final double score) {
+            if (size < scores.length) {
+                int i = size++;
+
+                // Sift up
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+
+                    if (scores[parent] <= score) {
+                        break;
+                    }
+
+                    scores[i] = scores[parent];
+                    names[i] = names[parent];
+                    i = parent;
+                }
+
+                scores[i] = score;
+                names[i] = name;
+            }
+            else if (score > scores[0]) {
+                siftDown(name, score);
+            }
+        }
+
+        private void siftDown(final String name, final double score) {
+            int i = 0;
+
+            while (true) {
+                int child = 2 * i + 1;
+
+                if (child >= size) {
+                    break;
+                }
+
+                if (child + 1 < size && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+
+                if (scores[child] >= score) {
+                    break;
+                }
+
+                scores[i] = scores[child];
+                names[i] = names[child];
+                i = child;
+            }
+
+            scores[i] = score;
+            names[i] = name;
+        }
+
+        /**
+         * Empties the heap.
+         *
+         * @return The entries in descending order of their scores.
+         */
+        List<Entry> drain() {
+            Entry[] entries = new Entry[size];
+
+            while (size > 0) {
+                entries[size - 1] = new Entry(names[0], scores[0]);
+
+                size--;
+                String lastName = names[size];
+                double lastScore = scores[size];
+                names[size] = null;
+
+                if (size > 0) {
+                    siftDown(lastName, lastScore);
+                }
+            }
+
+            return Collections.unmodifiableList(Arrays.asList(entries));
+        }
+
+    }
+
+}
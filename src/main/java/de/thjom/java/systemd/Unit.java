@@ -58,7 +58,9 @@ public abstract class Unit extends InterfaceAdapter implements UnitStateNotifier
         ACTIVING(1, "activating"),
         INACTIVE(2, "inactive"),
         DEACTIVATING(3, "deactivating"),
-        FAILED(4, "failed");
+        FAILED(4, "failed"),
+        RELOADING(5, "reloading"),
+        MAINTENANCE(6, "maintenance");
         public final int code;
         public final String state;
 
@@ -208,6 +210,8 @@ public abstract class Unit extends InterfaceAdapter implements UnitStateNotifier
 
     private final Properties unitProperties;
 
+    private final Map<Class<?>, Set<DBusSigHandler<?>>> registeredHandlers = new HashMap<>();
+
     protected Unit(final Manager manager, final UnitInterface iface, final String name) throws DBusException {
         super(manager.dbus, iface);
 
@@ -293,14 +297,51 @@ public abstract class Unit extends InterfaceAdapter implements UnitStateNotifier
 
     @Override
     public <T extends DBusSignal> void addHandler(final Class<T> type, final DBusSigHandler<T> handler) throws DBusException {
-        manager.subscribe();
         dbus.addSigHandler(type, getInterface(), handler);
+
+        synchronized (registeredHandlers) {
+            if (!registeredHandlers.computeIfAbsent(type, k -> new HashSet<>()).add(handler)) {
+                // Already registered, subscribed once per handler
+                return;
+            }
+        }
+
+        try {
+            manager.subscribe();
+        }
+        catch (final RuntimeException e) {
+            unregister(type, handler);
+            dbus.removeSigHandler(type, getInterface(), handler);
+
+            throw e;
+        }
     }
 
     @Override
     public <T extends DBusSignal> void removeHandler(final Class<T> type, final DBusSigHandler<T> handler) throws DBusException {
-        if (handler != null) {
-            dbus.removeSigHandler(type, getInterface(), handler);
+        if (handler != null && unregister(type, handler)) {
+            try {
+                dbus.removeSigHandler(type, getInterface(), handler);
+            }
+            finally {
+                manager.unsubscribe();
+            }
+        }
+    }
+
+    private boolean unregister(final Class<?> type, final DBusSigHandler<?> handler) {
+        synchronized (registeredHandlers) {
+            Set<DBusSigHandler<?>> handlers = registeredHandlers.get(type);
+
+            if (handlers == null || !handlers.remove(handler)) {
+                return false;
+            }
+
+            if (handlers.isEmpty()) {
+                registeredHandlers.remove(type);
+            }
+
+            return true;
         }
     }
 
@@ -310,9 +351,7 @@ public abstract class Unit extends InterfaceAdapter implements UnitStateNotifier
             Map<String, Variant<?>> properties = signal.getPropertiesChanged();
 
             if (properties.containsKey(ACTIVE_STATE) || properties.containsKey(LOAD_STATE) || properties.containsKey(SUB_STATE)) {
-                synchronized (unitStateListeners) {
-                    unitStateListeners.forEach(l -> l.stateChanged(Unit.this, properties));
-                }
+                unitStateListeners.forEach(l -> l.stateChanged(Unit.this, properties));
             }
         };
     }
@@ -0,0 +1,295 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Change log of the monitored units for pull consumers.<p>
+ *
+ * Every change is assigned a monotonically increasing sequence number. The
+ * log is compacted per unit: a unit is contained once, at the sequence
+ * number of its latest change, with the latest value of each property
+ * changed so far. Consumers keep the sequence number of the last batch as
+ * cursor and fetch only the units changed since then. If the log had to be
+ * trimmed beyond a cursor (see capacity), the consumer is told to resync
+ * from a full snapshot.
+ */
+public class UnitChangeFeed implements UnitStateListener, UnitMonitorListener {
+
+    private final int capacity;
+
+    private final Map<String, Delta> latest = new HashMap<>();
+    private final TreeMap<Long, Delta> log = new TreeMap<>();
+
+    // Units known to be present, independent of the trimming of the log
+    private final Set<String> present = new HashSet<>();
+
+    private long sequence;
+    private long compactedSequence;
+
+    /**
+     * @param capacity The maximum number of units kept in the log; the units
+     * with the oldest changes are trimmed beyond.
+     */
+    public UnitChangeFeed(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Feed capacity must be positive");
+        }
+
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void stateChanged(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        record(unit.name, changedProperties);
+    }
+
+    /**
+     * Records additions and removals of monitored units.
+     */
+    @Override
+    public void monitorRefreshed(final Collection<Unit> monitoredUnits) {
+        Set<String> names = new HashSet<>();
+        monitoredUnits.forEach(u -> names.add(u.name));
+
+        refreshed(names);
+    }
+
+    synchronized void refreshed(final Set<String> unitNames) {
+        for (String unitName : unitNames) {
+            if (!present.contains(unitName)) {
+                append(unitName, Collections.emptyMap(), false);
+            }
+        }
+
+        List<String> removed = new ArrayList<>();
+
+        for (String unitName : present) {
+            if (!unitNames.contains(unitName)) {
+                removed.add(unitName);
+            }
+        }
+
+        removed.forEach(n -> append(n, Collections.emptyMap(), true));
+    }
+
+    public synchronized void record(final String unitName, final Map<String, Variant<?>> changedProperties) {
+        append(unitName, changedProperties, false);
+    }
+
+    public synchronized void recordRemoval(final String unitName) {
+        append(unitName, Collections.emptyMap(), true);
+    }
+
+    private void append(final String unitName, final Map<String, Variant<?>> changedProperties, final boolean removed) {
+        Delta previous = latest.get(unitName);
+        Delta delta = new Delta(unitName, ++sequence, removed);
+
+        if (previous != null) {
+            log.remove(previous.sequence);
+
+            if (!removed && !previous.removed) {
+                delta.properties.putAll(previous.properties);
+            }
+        }
+
+        delta.properties.putAll(changedProperties);
+
+        latest.put(unitName, delta);
+        log.put(delta.sequence, delta);
+
+        if (removed) {
+            present.remove(unitName);
+        }
+        else {
+            present.add(unitName);
+        }
+
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Delta> it = log.values().iterator();
+
+        while (log.size() > capacity && it.hasNext()) {
+            Delta oldest = it.next();
+            it.remove();
+            latest.remove(oldest.unitName);
+
+            compactedSequence = oldest.sequence;
+        }
+    }
+
+    /**
+     * Returns the changes after the given cursor, at most one delta per unit.
+     *
+     * @param cursor The cursor (sequence number of the last batch, zero initially).
+     * @param maxItems The maximum number of deltas returned.
+     * @return The batch of changes.
+     */
+    public synchronized Changes changesSince(final long cursor, final int maxItems) {
+        if (maxItems <= 0) {
+            throw new IllegalArgumentException("Maximum number of items must be positive");
+        }
+
+        if (cursor < compactedSequence || cursor > sequence) {
+            return new Changes(sequence, true, Collections.emptyList(), false);
+        }
+
+        List<Delta> deltas = new ArrayList<>(Math.min(maxItems, log.size()));
+        long next = cursor;
+
+        for (Delta delta : log.tailMap(cursor, false).values()) {
+            if (deltas.size() == maxItems) {
+                return new Changes(next, false, deltas, true);
+            }
+
+            deltas.add(delta.copy());
+            next = delta.sequence;
+        }
+
+        return new Changes(sequence, false, deltas, false);
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the sequence number up to which the log has been trimmed.
+     * Cursors below need a resync.
+     *
+     * @return The compacted sequence number.
+     */
+    public synchronized long getCompactedSequence() {
+        return compactedSequence;
+    }
+
+    public synchronized int size() {
+        return log.size();
+    }
+
+    /**
+     * Batch of changes returned by {@link UnitChangeFeed#changesSince(long, int)}.
+     */
+    public static final class Changes {
+
+        private final long cursor;
+        private final boolean resyncRequired;
+        private final List<Delta> deltas;
+        private final boolean more;
+
+        Changes(final long cursor, final boolean resyncRequired, final List<Delta> deltas, final boolean more) {
+            this.cursor = cursor;
+            this.resyncRequired = resyncRequired;
+            this.deltas = Collections.unmodifiableList(deltas);
+            this.more = more;
+        }
+
+        /**
+         * Returns the cursor for the next call. On resync, this is the
+         * current sequence number which is valid after taking a snapshot.
+         *
+         * @return The next cursor.
+         */
+        public long getCursor() {
+            return cursor;
+        }
+
+        public boolean isResyncRequired() {
+            return resyncRequired;
+        }
+
+        public List<Delta> getDeltas() {
+            return deltas;
+        }
+
+        public boolean hasMore() {
+            return more;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[cursor=%d, resync=%s, deltas=%d, more=%s]", getClass().getSimpleName(), cursor, resyncRequired, deltas.size(), more);
+        }
+
+    }
+
+    /**
+     * Compacted change of a single unit.
+     */
+    public static final class Delta {
+
+        private final String unitName;
+        private final long sequence;
+        private final boolean removed;
+        private final Map<String, Variant<?>> properties;
+
+        Delta(final String unitName, final long sequence, final boolean removed) {
+            this.unitName = unitName;
+            this.sequence = sequence;
+            this.removed = removed;
+            this.properties = new LinkedHashMap<>();
+        }
+
+        private Delta(final Delta delta) {
+            this.unitName = delta.unitName;
+            this.sequence = delta.sequence;
+            this.removed = delta.removed;
+            this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(delta.properties));
+        }
+
+        Delta copy() {
+            return new Delta(this);
+        }
+
+        public String getUnitName() {
+            return unitName;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public boolean isRemoved() {
+            return removed;
+        }
+
+        public Map<String, Variant<?>> getProperties() {
+            return properties;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d: %s%s %s", sequence, unitName, removed ? " (removed)" : "", properties.keySet());
+        }
+
+    }
+
+}
@@ -0,0 +1,409 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties.PropertiesChanged;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.Manager.SystemStateEnum;
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+import de.thjom.java.systemd.interfaces.ManagerInterface.Reloading;
+import de.thjom.java.systemd.interfaces.ManagerInterface.StartupFinished;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitRemoved;
+import de.thjom.java.systemd.types.UnitType;
+
+/**
+ * Index of the failed and transitioning (activating, deactivating) units
+ * and of the system state derived thereof.<p>
+ *
+ * The index is seeded by one <code>ListUnits</code> call on {@link #open()}
+ * and afterwards maintained from signals only, so that queries neither
+ * involve bus calls nor scans. Query results are immutable snapshots which
+ * are replaced on change. The system state follows the rules of systemd:
+ * initializing/starting until startup finished, stopping while
+ * <code>shutdown.target</code> is activating or active, maintenance in
+ * rescue or emergency mode and degraded as long as a unit failed. Daemon
+ * reloads trigger a resync, debounced on a timer thread.
+ */
+public class UnitHealthIndex implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnitHealthIndex.class);
+
+    public static final long DEFAULT_RESYNC_DEBOUNCE_MILLIS = UnitMonitor.DEFAULT_REFRESH_DEBOUNCE_MILLIS;
+
+    static final String BASIC_TARGET = "basic.target";
+    static final String SHUTDOWN_TARGET = "shutdown.target";
+    static final String RESCUE_TARGET = "rescue.target";
+    static final String EMERGENCY_TARGET = "emergency.target";
+
+    private final Manager manager;
+
+    private final Set<String> failed = new LinkedHashSet<>();
+    private final Set<String> activating = new LinkedHashSet<>();
+    private final Set<String> deactivating = new LinkedHashSet<>();
+
+    private boolean startupFinished;
+    private boolean basicReached;
+    private boolean stopping;
+    private boolean maintenance;
+
+    private boolean failedChanged;
+    private boolean activatingChanged;
+    private boolean deactivatingChanged;
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), SystemStateEnum.UNKNOWN);
+
+    private DBusSigHandler<PropertiesChanged> propertiesHandler;
+    private DBusSigHandler<UnitRemoved> unitRemovedHandler;
+    private DBusSigHandler<StartupFinished> startupFinishedHandler;
+    private DBusSigHandler<Reloading> reloadingHandler;
+
+    private final MatchRule stateMatchRule = MatchRule.unitPropertiesChanged();
+
+    private final Object resyncGuard = new Object();
+    private long resyncDebounceMillis = DEFAULT_RESYNC_DEBOUNCE_MILLIS;
+    private Timer resyncTimer;
+    private TimerTask pendingResync;
+
+    public UnitHealthIndex(final Manager manager) {
+        this.manager = Objects.requireNonNull(manager);
+    }
+
+    /**
+     * Registers the signal handlers and seeds the index.
+     *
+     * @throws DBusException If the handlers cannot be registered or the units not be listed.
+     */
+    public synchronized void open() throws DBusException {
+        if (propertiesHandler != null) {
+            return;
+        }
+
+        propertiesHandler = s -> {
+            Variant<?> value = s.getPropertiesChanged().get(Unit.Property.ACTIVE_STATE);
+
+            if (value != null) {
+                update(Systemd.unescapePath(Unit.extractName(s.getPath())), String.valueOf(value.getValue()));
+            }
+        };
+        unitRemovedHandler = s -> remove(s.getId());
+        startupFinishedHandler = s -> finishStartup();
+        reloadingHandler = s -> {
+            if (!s.isActive()) {
+                requestResync();
+            }
+        };
+
+        manager.subscribe();
+
+        try {
+            manager.addHandler(stateMatchRule, PropertiesChanged.class, propertiesHandler);
+            manager.addHandler(UnitRemoved.class, unitRemovedHandler);
+            manager.addHandler(StartupFinished.class, startupFinishedHandler);
+            manager.addHandler(Reloading.class, reloadingHandler);
+
+            resync();
+        }
+        catch (final DBusException | DBusExecutionException e) {
+            close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the signal handlers and stops pending resyncs; the index keeps
+     * its last state.
+     */
+    @Override
+    public synchronized void close() {
+        cancelPendingResync();
+
+        if (propertiesHandler == null) {
+            return;
+        }
+
+        try {
+            manager.removeHandler(stateMatchRule, PropertiesChanged.class, propertiesHandler);
+            manager.removeHandler(UnitRemoved.class, unitRemovedHandler);
+            manager.removeHandler(StartupFinished.class, startupFinishedHandler);
+            manager.removeHandler(Reloading.class, reloadingHandler);
+        }
+        catch (final DBusException e) {
+            LOG.error("Unable to remove signal handlers of health index", e);
+        }
+        finally {
+            manager.unsubscribe();
+
+            propertiesHandler = null;
+        }
+    }
+
+    /**
+     * Configures the delay of resyncs requested by reloads. Reloads within
+     * the delay are coalesced into one resync.
+     *
+     * @param debounce The delay.
+     * @param unit The time unit of the delay.
+     */
+    public void setResyncDebounce(final long debounce, final TimeUnit unit) {
+        if (debounce < 0L) {
+            throw new IllegalArgumentException("Invalid resync delay");
+        }
+
+        synchronized (resyncGuard) {
+            resyncDebounceMillis = unit.toMillis(debounce);
+        }
+    }
+
+    /**
+     * Requests an asynchronous resync. The resync runs on a timer thread
+     * once no further request arrived within the debounce delay.
+     */
+    public void requestResync() {
+        synchronized (resyncGuard) {
+            if (pendingResync != null) {
+                pendingResync.cancel();
+            }
+
+            if (resyncTimer == null) {
+                resyncTimer = createResyncTimer();
+            }
+
+            pendingResync = new TimerTask() {
+
+                @Override
+                public void run() {
+                    synchronized (resyncGuard) {
+                        if (pendingResync != this) {
+                            return;
+                        }
+
+                        pendingResync = null;
+                    }
+
+                    try {
+                        resync();
+                    }
+                    catch (final DBusExecutionException e) {
+                        LOG.error("Unable to resync health index after reload", e);
+                    }
+                }
+
+            };
+
+            resyncTimer.schedule(pendingResync, resyncDebounceMillis);
+        }
+    }
+
+    private void cancelPendingResync() {
+        synchronized (resyncGuard) {
+            pendingResync = null;
+
+            if (resyncTimer != null) {
+                resyncTimer.cancel();
+                resyncTimer = null;
+            }
+        }
+    }
+
+    protected Timer createResyncTimer() {
+        return new Timer(getClass().getSimpleName() + "-resyncTimer", true);
+    }
+
+    /**
+     * Rebuilds the index from a full unit listing.
+     */
+    public void resync() {
+        SystemStateEnum systemState = manager.getSystemStateEnum();
+
+        seed(manager.listUnits(), systemState);
+    }
+
+    synchronized void seed(final Collection<UnitType> units, final SystemStateEnum systemState) {
+        failed.clear();
+        activating.clear();
+        deactivating.clear();
+
+        failedChanged = true;
+        activatingChanged = true;
+        deactivatingChanged = true;
+
+        startupFinished = systemState != SystemStateEnum.INITIALIZAING && systemState != SystemStateEnum.STARTING;
+        basicReached = systemState != SystemStateEnum.INITIALIZAING;
+        stopping = false;
+        maintenance = false;
+
+        for (UnitType unit : units) {
+            apply(unit.getUnitName(), UnitStateEnum.valueFromString(unit.getActiveState()));
+        }
+
+        publish();
+    }
+
+    synchronized void update(final String unitName, final String activeState) {
+        if (apply(unitName, UnitStateEnum.valueFromString(activeState))) {
+            publish();
+        }
+    }
+
+    synchronized void remove(final String unitName) {
+        if (apply(unitName, UnitStateEnum.INACTIVE)) {
+            publish();
+        }
+    }
+
+    synchronized void finishStartup() {
+        startupFinished = true;
+        basicReached = true;
+
+        publish();
+    }
+
+    private boolean apply(final String unitName, final UnitStateEnum state) {
+        failedChanged |= state == UnitStateEnum.FAILED ? failed.add(unitName) : failed.remove(unitName);
+        activatingChanged |= state == UnitStateEnum.ACTIVING ? activating.add(unitName) : activating.remove(unitName);
+        deactivatingChanged |= state == UnitStateEnum.DEACTIVATING ? deactivating.add(unitName) : deactivating.remove(unitName);
+
+        boolean up = state == UnitStateEnum.ACTIVE || state == UnitStateEnum.ACTIVING || state == UnitStateEnum.RELOADING;
+
+        switch (unitName) {
+            case BASIC_TARGET:
+                if (state == UnitStateEnum.ACTIVE) {
+                    basicReached = true;
+                }
+                break;
+            case SHUTDOWN_TARGET:
+                stopping = up;
+                break;
+            case RESCUE_TARGET:
+            case EMERGENCY_TARGET:
+                maintenance = up;
+                break;
+            default:
+                break;
+        }
+
+        return failedChanged || activatingChanged || deactivatingChanged || snapshot.systemState != deriveSystemState();
+    }
+
+    private void publish() {
+        Snapshot current = snapshot;
+
+        // Unchanged sets are shared with the previous snapshot
+        snapshot = new Snapshot(
+                failedChanged ? copyOf(failed) : current.failed,
+                activatingChanged ? copyOf(activating) : current.activating,
+                deactivatingChanged ? copyOf(deactivating) : current.deactivating,
+                deriveSystemState());
+
+        failedChanged = false;
+        activatingChanged = false;
+        deactivatingChanged = false;
+    }
+
+    private static Set<String> copyOf(final Set<String> names) {
+        return names.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(names));
+    }
+
+    private SystemStateEnum deriveSystemState() {
+        if (stopping) {
+            return SystemStateEnum.STOPPING;
+        }
+
+        if (!startupFinished) {
+            return basicReached ? SystemStateEnum.STARTING : SystemStateEnum.INITIALIZAING;
+        }
+
+        if (maintenance) {
+            return SystemStateEnum.MAINTENANCE;
+        }
+
+        return failed.isEmpty() ? SystemStateEnum.RUNNING : SystemStateEnum.DEGRADED;
+    }
+
+    /**
+     * Returns the system state as derived from the unit states, without a
+     * bus call.
+     *
+     * @return The system state ({@link SystemStateEnum#UNKNOWN} until seeded).
+     */
+    public SystemStateEnum getSystemState() {
+        return snapshot.systemState;
+    }
+
+    public boolean isDegraded() {
+        return snapshot.systemState == SystemStateEnum.DEGRADED;
+    }
+
+    public boolean isFailed(final String unitName) {
+        return snapshot.failed.contains(unitName);
+    }
+
+    public int getFailedCount() {
+        return snapshot.failed.size();
+    }
+
+    public Set<String> getFailedUnits() {
+        return snapshot.failed;
+    }
+
+    public Set<String> getActivatingUnits() {
+        return snapshot.activating;
+    }
+
+    public Set<String> getDeactivatingUnits() {
+        return snapshot.deactivating;
+    }
+
+    /**
+     * Returns the number of units currently activating or deactivating.
+     *
+     * @return The number of transitioning units.
+     */
+    public int getTransitioningCount() {
+        Snapshot current = snapshot;
+
+        return current.activating.size() + current.deactivating.size();
+    }
+
+    private static final class Snapshot {
+
+        private final Set<String> failed;
+        private final Set<String> activating;
+        private final Set<String> deactivating;
+        private final SystemStateEnum systemState;
+
+        Snapshot(final Set<String> failed, final Set<String> activating, final Set<String> deactivating, final SystemStateEnum systemState) {
+            this.failed = failed;
+            this.activating = activating;
+            this.deactivating = deactivating;
+            this.systemState = systemState;
+        }
+
+    }
+
+}
@@ -0,0 +1,651 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties.PropertiesChanged;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+import de.thjom.java.systemd.interfaces.ManagerInterface.Reloading;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitRemoved;
+import de.thjom.java.systemd.types.UnitType;
+
+/**
+ * Secondary indexes over the loaded units for queries by active state,
+ * unit type, slice, template and fragment path.<p>
+ *
+ * Each unit is assigned a small integer id which is reused after removal.
+ * The indexes map each key to a bitmap of unit ids; slices and fragment
+ * paths are kept sorted so that sub-slices and directories are resolved by
+ * a range lookup. Criteria of a {@link Query} are combined by intersecting
+ * the bitmaps.<p>
+ *
+ * The index is seeded on {@link #open()} (one <code>ListUnits</code> call
+ * plus the slice and fragment path of each unit) and afterwards maintained
+ * from signals. Slices are not part of the unit signals, so units moved to
+ * another slice are only picked up by a resync, which follows each daemon
+ * reload (debounced, on a timer thread).
+ */
+public class UnitIndex implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnitIndex.class);
+
+    public static final long DEFAULT_RESYNC_DEBOUNCE_MILLIS = UnitMonitor.DEFAULT_REFRESH_DEBOUNCE_MILLIS;
+
+    private static final char TEMPLATE_SEPARATOR = '@';
+
+    private final Manager manager;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[64];
+    private UnitStateEnum[] states = new UnitStateEnum[64];
+    private String[] slices = new String[64];
+    private String[] fragmentPaths = new String[64];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+
+    private final BitSet all = new BitSet();
+    private final Map<UnitStateEnum, BitSet> byState = new EnumMap<>(UnitStateEnum.class);
+    private final Map<String, BitSet> byType = new HashMap<>();
+    private final Map<String, BitSet> byTemplate = new HashMap<>();
+    private final NavigableMap<String, BitSet> bySlice = new TreeMap<>();
+    private final NavigableMap<String, BitSet> byFragmentPath = new TreeMap<>();
+
+    private final MatchRule stateMatchRule = MatchRule.unitPropertiesChanged();
+    private DBusSigHandler<PropertiesChanged> propertiesHandler;
+    private DBusSigHandler<UnitNew> unitNewHandler;
+    private DBusSigHandler<UnitRemoved> unitRemovedHandler;
+    private DBusSigHandler<Reloading> reloadingHandler;
+
+    private final Object resyncGuard = new Object();
+    private long resyncDebounceMillis = DEFAULT_RESYNC_DEBOUNCE_MILLIS;
+    private Timer resyncTimer;
+    private TimerTask pendingResync;
+
+    public UnitIndex(final Manager manager) {
+        this.manager = Objects.requireNonNull(manager);
+    }
+
+    /**
+     * Registers the signal handlers and seeds the index.
+     *
+     * @throws DBusException If the handlers cannot be registered.
+     */
+    public synchronized void open() throws DBusException {
+        if (propertiesHandler != null) {
+            return;
+        }
+
+        propertiesHandler = s -> update(Systemd.unescapePath(Unit.extractName(s.getPath())), s.getPropertiesChanged());
+        unitNewHandler = s -> load(s.getId());
+        unitRemovedHandler = s -> remove(s.getId());
+        reloadingHandler = s -> {
+            if (!s.isActive()) {
+                requestResync();
+            }
+        };
+
+        manager.subscribe();
+
+        try {
+            manager.addHandler(stateMatchRule, PropertiesChanged.class, propertiesHandler);
+            manager.addHandler(UnitNew.class, unitNewHandler);
+            manager.addHandler(UnitRemoved.class, unitRemovedHandler);
+            manager.addHandler(Reloading.class, reloadingHandler);
+
+            resync();
+        }
+        catch (final DBusException | DBusExecutionException e) {
+            close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the signal handlers and stops pending resyncs; the index keeps
+     * its last state.
+     */
+    @Override
+    public synchronized void close() {
+        cancelPendingResync();
+
+        if (propertiesHandler == null) {
+            return;
+        }
+
+        try {
+            manager.removeHandler(stateMatchRule, PropertiesChanged.class, propertiesHandler);
+            manager.removeHandler(UnitNew.class, unitNewHandler);
+            manager.removeHandler(UnitRemoved.class, unitRemovedHandler);
+            manager.removeHandler(Reloading.class, reloadingHandler);
+        }
+        catch (final DBusException e) {
+            LOG.error("Unable to remove signal handlers of unit index", e);
+        }
+        finally {
+            manager.unsubscribe();
+
+            propertiesHandler = null;
+        }
+    }
+
+    /**
+     * Configures the delay of resyncs requested by reloads. Reloads within
+     * the delay are coalesced into one resync.
+     *
+     * @param debounce The delay.
+     * @param unit The time unit of the delay.
+     */
+    public void setResyncDebounce(final long debounce, final TimeUnit unit) {
+        if (debounce < 0L) {
+            throw new IllegalArgumentException("Invalid resync delay");
+        }
+
+        synchronized (resyncGuard) {
+            resyncDebounceMillis = unit.toMillis(debounce);
+        }
+    }
+
+    /**
+     * Requests an asynchronous resync. The resync runs on a timer thread
+     * once no further request arrived within the debounce delay.
+     */
+    public void requestResync() {
+        synchronized (resyncGuard) {
+            if (pendingResync != null) {
+                pendingResync.cancel();
+            }
+
+            if (resyncTimer == null) {
+                resyncTimer = createResyncTimer();
+            }
+
+            pendingResync = new TimerTask() {
+
+                @Override
+                public void run() {
+                    synchronized (resyncGuard) {
+                        if (pendingResync != this) {
+                            return;
+                        }
+
+                        pendingResync = null;
+                    }
+
+                    try {
+                        resync();
+                    }
+                    catch (final DBusExecutionException e) {
+                        LOG.error("Unable to resync unit index after reload", e);
+                    }
+                }
+
+            };
+
+            resyncTimer.schedule(pendingResync, resyncDebounceMillis);
+        }
+    }
+
+    private void cancelPendingResync() {
+        synchronized (resyncGuard) {
+            pendingResync = null;
+
+            if (resyncTimer != null) {
+                resyncTimer.cancel();
+                resyncTimer = null;
+            }
+        }
+    }
+
+    protected Timer createResyncTimer() {
+        return new Timer(getClass().getSimpleName() + "-resyncTimer", true);
+    }
+
+    /**
+     * Rebuilds the index from a full unit listing.
+     */
+    public void resync() {
+        List<UnitType> units = manager.listUnits();
+        List<Entry> entries = new ArrayList<>(units.size());
+
+        for (UnitType unit : units) {
+            entries.add(read(unit.getUnitName(), unit.getActiveState()));
+        }
+
+        synchronized (this) {
+            clear();
+
+            entries.forEach(e -> put(e.unitName, e.activeState, e.slice, e.fragmentPath));
+        }
+    }
+
+    private void load(final String unitName) {
+        Entry entry = read(unitName, null);
+
+        put(entry.unitName, entry.activeState, entry.slice, entry.fragmentPath);
+    }
+
+    private Entry read(final String unitName, final String activeState) {
+        String state = activeState;
+        String slice = null;
+        String fragmentPath = null;
+
+        try {
+            Unit unit = manager.getUnit(unitName);
+
+            if (state == null) {
+                state = unit.getActiveState();
+            }
+
+            slice = UnitPatternMonitor.sliceOf(unit);
+            fragmentPath = unit.getFragmentPath();
+        }
+        catch (final DBusException | DBusExecutionException | IllegalArgumentException e) {
+            LOG.warn(String.format("Unable to read properties of unit '%s': %s", unitName, e.getMessage()));
+        }
+
+        return new Entry(unitName, UnitStateEnum.valueFromString(state), slice, fragmentPath);
+    }
+
+    synchronized void put(final String unitName, final UnitStateEnum activeState, final String slice, final String fragmentPath) {
+        Integer id = ids.get(unitName);
+
+        if (id == null) {
+            id = allocate(unitName);
+        }
+
+        setState(id, activeState);
+        setSlice(id, slice);
+        setFragmentPath(id, fragmentPath);
+    }
+
+    synchronized void update(final String unitName, final Map<String, Variant<?>> changedProperties) {
+        Integer id = ids.get(unitName);
+
+        if (id == null) {
+            return;
+        }
+
+        Variant<?> value = changedProperties.get(Unit.Property.ACTIVE_STATE);
+
+        if (value != null) {
+            setState(id, UnitStateEnum.valueFromString(String.valueOf(value.getValue())));
+        }
+
+        value = changedProperties.get(Unit.Property.FRAGMENT_PATH);
+
+        if (value != null) {
+            setFragmentPath(id, String.valueOf(value.getValue()));
+        }
+    }
+
+    synchronized void remove(final String unitName) {
+        Integer id = ids.remove(unitName);
+
+        if (id == null) {
+            return;
+        }
+
+        setState(id, null);
+        setSlice(id, null);
+        setFragmentPath(id, null);
+
+        unindex(byType, typeOf(unitName), id);
+        unindex(byTemplate, templateOf(unitName), id);
+
+        all.clear(id);
+        names[id] = null;
+
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+
+        freeIds[freeCount++] = id;
+    }
+
+    private void clear() {
+        ids.clear();
+        Arrays.fill(names, null);
+        Arrays.fill(states, null);
+        Arrays.fill(slices, null);
+        Arrays.fill(fragmentPaths, null);
+        freeCount = 0;
+        nextId = 0;
+
+        all.clear();
+        byState.clear();
+        byType.clear();
+        byTemplate.clear();
+        bySlice.clear();
+        byFragmentPath.clear();
+    }
+
+    private int allocate(final String unitName) {
+        int id;
+
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        }
+        else {
+            id = nextId++;
+
+            if (id == names.length) {
+                int capacity = names.length * 2;
+
+                names = Arrays.copyOf(names, capacity);
+                states = Arrays.copyOf(states, capacity);
+                slices = Arrays.copyOf(slices, capacity);
+                fragmentPaths = Arrays.copyOf(fragmentPaths, capacity);
+            }
+        }
+
+        ids.put(unitName, id);
+        names[id] = unitName;
+        all.set(id);
+
+        index(byType, typeOf(unitName), id);
+        index(byTemplate, templateOf(unitName), id);
+
+        return id;
+    }
+
+    private void setState(final int id, final UnitStateEnum state) {
+        if (states[id] != state) {
+            unindex(byState, states[id], id);
+            index(byState, state, id);
+
+            states[id] = state;
+        }
+    }
+
+    private void setSlice(final int id, final String slice) {
+        String value = slice == null || slice.isEmpty() ? null : slice;
+
+        if (!Objects.equals(slices[id], value)) {
+            unindex(bySlice, slices[id], id);
+            index(bySlice, value, id);
+
+            slices[id] = value;
+        }
+    }
+
+    private void setFragmentPath(final int id, final String fragmentPath) {
+        String value = fragmentPath == null || fragmentPath.isEmpty() ? null : fragmentPath;
+
+        if (!Objects.equals(fragmentPaths[id], value)) {
+            unindex(byFragmentPath, fragmentPaths[id], id);
+            index(byFragmentPath, value, id);
+
+            fragmentPaths[id] = value;
+        }
+    }
+
+    private static <K> void index(final Map<K, BitSet> index, final K key, final int id) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new BitSet()).set(id);
+        }
+    }
+
+    private static <K> void unindex(final Map<K, BitSet> index, final K key, final int id) {
+        if (key != null) {
+            BitSet bits = index.get(key);
+
+            if (bits != null) {
+                bits.clear(id);
+
+                if (bits.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    static String typeOf(final String unitName) {
+        int dot = unitName.lastIndexOf('.');
+
+        return dot < 0 ? null : unitName.substring(dot);
+    }
+
+    /**
+     * Returns the template of an instance name, e.g. "worker@.service" for
+     * "worker@1.service".
+     *
+     * @param unitName The full unit name.
+     * @return The template name or <code>null</code> if the unit is no instance.
+     */
+    static String templateOf(final String unitName) {
+        int at = unitName.indexOf(TEMPLATE_SEPARATOR);
+        int dot = unitName.lastIndexOf('.');
+
+        if (at < 0 || dot < 0 || dot <= at + 1) {
+            return null;
+        }
+
+        return unitName.substring(0, at + 1) + unitName.substring(dot);
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    public synchronized boolean contains(final String unitName) {
+        return ids.containsKey(unitName);
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    private synchronized BitSet match(final Query query) {
+        BitSet result = (BitSet) all.clone();
+
+        if (query.activeState != null) {
+            and(result, byState.get(query.activeState));
+        }
+
+        if (query.type != null) {
+            and(result, byType.get(query.type));
+        }
+
+        if (query.template != null) {
+            and(result, byTemplate.get(query.template));
+        }
+
+        if (query.slice != null) {
+            result.and(sliceBits(query.slice));
+        }
+
+        if (query.directory != null) {
+            result.and(union(byFragmentPath.subMap(query.directory, true, query.directory + Character.MAX_VALUE, false).values()));
+        }
+
+        return result;
+    }
+
+    private synchronized List<String> list(final Query query) {
+        BitSet result = match(query);
+        List<String> units = new ArrayList<>(result.cardinality());
+
+        for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+            units.add(names[id]);
+        }
+
+        return units;
+    }
+
+    private BitSet sliceBits(final String slice) {
+        if (UnitPatternMonitor.ROOT_SLICE.equals(slice)) {
+            return union(bySlice.values());
+        }
+
+        // Sub-slices share the name prefix (see UnitPatternMonitor.isInSlice())
+        String prefix = slice.substring(0, slice.length() - Slice.UNIT_SUFFIX.length()) + '-';
+        BitSet bits = union(bySlice.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+        BitSet direct = bySlice.get(slice);
+
+        if (direct != null) {
+            bits.or(direct);
+        }
+
+        return bits;
+    }
+
+    private static void and(final BitSet result, final BitSet bits) {
+        if (bits == null) {
+            result.clear();
+        }
+        else {
+            result.and(bits);
+        }
+    }
+
+    private static BitSet union(final Collection<BitSet> bitSets) {
+        BitSet union = new BitSet();
+
+        for (BitSet bits : bitSets) {
+            if (bits != null) {
+                union.or(bits);
+            }
+        }
+
+        return union;
+    }
+
+    private static final class Entry {
+
+        private final String unitName;
+        private final UnitStateEnum activeState;
+        private final String slice;
+        private final String fragmentPath;
+
+        Entry(final String unitName, final UnitStateEnum activeState, final String slice, final String fragmentPath) {
+            this.unitName = unitName;
+            this.activeState = activeState;
+            this.slice = slice;
+            this.fragmentPath = fragmentPath;
+        }
+
+    }
+
+    /**
+     * Conjunctive query over the indexes, e.g. all failed instances of
+     * <code>worker@.service</code>:
+     * <pre>
+     * index.query().template("worker@.service").activeState(UnitStateEnum.FAILED).list();
+     * </pre>
+     */
+    public final class Query {
+
+        private UnitStateEnum activeState;
+        private String type;
+        private String template;
+        private String slice;
+        private String directory;
+
+        Query() {
+            super();
+        }
+
+        public Query activeState(final UnitStateEnum activeState) {
+            this.activeState = activeState;
+
+            return this;
+        }
+
+        /**
+         * @param type The unit suffix, e.g. {@link Service#UNIT_SUFFIX}.
+         * @return This query.
+         */
+        public Query type(final String type) {
+            this.type = type;
+
+            return this;
+        }
+
+        /**
+         * @param template The template name, e.g. "worker@.service".
+         * @return This query.
+         */
+        public Query template(final String template) {
+            this.template = template;
+
+            return this;
+        }
+
+        /**
+         * Restricts the query to the units of a slice and its sub-slices.
+         *
+         * @param slice The slice name, e.g. "system-tenants.slice".
+         * @return This query.
+         */
+        public Query slice(final String slice) {
+            if (!slice.endsWith(Slice.UNIT_SUFFIX)) {
+                throw new IllegalArgumentException(String.format("Not a slice: %s", slice));
+            }
+
+            this.slice = slice;
+
+            return this;
+        }
+
+        /**
+         * Restricts the query to the units whose fragment path is located
+         * below a directory.
+         *
+         * @param directory The directory, e.g. "/etc/systemd/system".
+         * @return This query.
+         */
+        public Query fragmentPathUnder(final String directory) {
+            this.directory = directory.endsWith("/") ? directory : directory + '/';
+
+            return this;
+        }
+
+        /**
+         * Evaluates the query.
+         *
+         * @return The names of the matching units ordered by their index id.
+         */
+        public List<String> list() {
+            return UnitIndex.this.list(this);
+        }
+
+        public int count() {
+            return match(this).cardinality();
+        }
+
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+import de.thjom.java.systemd.UnitLifecycleEvent.Kind;
+
+/**
+ * State machine which turns raw state changes into typed
+ * {@link UnitLifecycleEvent}s, so that consumers neither decode variants nor
+ * track previous states themselves.<p>
+ *
+ * The decoder keeps the last active state and sub-state per unit, the first
+ * signal of a unit only establishes them without an event. Failure
+ * details (<code>Result</code>, <code>ExecMainStatus</code>) and the restart
+ * counter (<code>NRestarts</code>) are taken from the signal if present and
+ * read from the service otherwise. Events are delivered through a single
+ * reused instance per decoder. When attached to a monitor, the states of
+ * units no longer monitored are dropped on each refresh.
+ */
+public class UnitLifecycleDecoder implements UnitStateListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnitLifecycleDecoder.class);
+
+    static final String SUB_STATE_AUTO_RESTART = "auto-restart";
+
+    private final List<UnitLifecycleListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, State> states = new HashMap<>();
+
+    private final UnitLifecycleEvent event = new UnitLifecycleEvent();
+
+    private final UnitMonitorListener retainer = this::retain;
+
+    public UnitLifecycleDecoder() {
+        super();
+    }
+
+    public UnitLifecycleDecoder(final UnitLifecycleListener listener) {
+        addListener(listener);
+    }
+
+    public void addListener(final UnitLifecycleListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final UnitLifecycleListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Decodes the state changes of the monitored units of a monitor and
+     * follows its refreshes.
+     *
+     * @param monitor The monitor.
+     * @throws DBusException If the state handler cannot be registered.
+     */
+    public void attach(final UnitMonitor monitor) throws DBusException {
+        monitor.addListener(retainer);
+        monitor.addListener(this);
+    }
+
+    public void detach(final UnitMonitor monitor) throws DBusException {
+        monitor.removeListener(retainer);
+        monitor.removeListener(this);
+    }
+
+    @Override
+    public void stateChanged(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        decode(unit.name, unit, changedProperties);
+    }
+
+    void decode(final String unitName, final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> activeValue = changedProperties.get(Unit.Property.ACTIVE_STATE);
+        Variant<?> subValue = changedProperties.get(Unit.Property.SUB_STATE);
+        Variant<?> conditionValue = changedProperties.get(Unit.Property.CONDITION_RESULT);
+
+        if (activeValue == null && subValue == null && conditionValue == null) {
+            return;
+        }
+
+        Kind kind = null;
+        boolean restarting;
+        long now;
+
+        synchronized (this) {
+            State state = states.get(unitName);
+
+            if (state == null) {
+                state = new State();
+                states.put(unitName, state);
+            }
+
+            UnitStateEnum previous = state.activeState;
+            UnitStateEnum current = activeValue != null ? UnitStateEnum.valueFromString(String.valueOf(activeValue.getValue())) : previous;
+
+            String previousSub = state.subState;
+            String currentSub = subValue != null ? String.valueOf(subValue.getValue()) : previousSub;
+
+            state.activeState = current;
+            state.subState = currentSub;
+
+            // The first signal of a unit is the baseline, not a transition
+            if (previous == null && previousSub == null) {
+                return;
+            }
+
+            now = System.nanoTime();
+
+            boolean conditionFailed = conditionValue != null && Boolean.FALSE.equals(conditionValue.getValue())
+                    && current != UnitStateEnum.ACTIVE && current != UnitStateEnum.ACTIVING;
+
+            if (conditionFailed) {
+                kind = Kind.CONDITION_FAILED;
+            }
+            else if (current != previous && previous != null) {
+                switch (current) {
+                    case ACTIVE:
+                        kind = previous == UnitStateEnum.RELOADING ? Kind.RELOADED : Kind.STARTED;
+                        break;
+                    case FAILED:
+                        kind = Kind.FAILED;
+                        break;
+                    case INACTIVE:
+                        kind = Kind.STOPPED;
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            restarting = SUB_STATE_AUTO_RESTART.equals(currentSub) && !currentSub.equals(previousSub);
+        }
+
+        if (kind == null && !restarting) {
+            return;
+        }
+
+        // Possibly bus calls, made before taking the lock again for delivery
+        String result = kind == Kind.FAILED ? result(unit, changedProperties) : null;
+        int exitStatus = kind == Kind.FAILED ? exitStatus(unit, changedProperties) : 0;
+        long restarts = restarting ? restarts(unit, changedProperties) + 1L : 0L;
+
+        synchronized (this) {
+            if (kind == Kind.FAILED) {
+                fire(event.set(kind, unitName, unit, now).failure(result, exitStatus));
+            }
+            else if (kind != null) {
+                fire(event.set(kind, unitName, unit, now));
+            }
+
+            if (restarting) {
+                fire(event.set(Kind.RESTARTING, unitName, unit, now).restart(restarts));
+            }
+        }
+    }
+
+    private void fire(final UnitLifecycleEvent event) {
+        for (UnitLifecycleListener listener : listeners) {
+            try {
+                listener.lifecycleChanged(event);
+            }
+            catch (final RuntimeException e) {
+                LOG.error(String.format("Error while notifying lifecycle event '%s'", event), e);
+            }
+        }
+    }
+
+    private static String result(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> value = changedProperties.get(Service.Property.RESULT);
+
+        if (value != null) {
+            return String.valueOf(value.getValue());
+        }
+
+        // Type specific properties are not part of the unit signal
+        return unit instanceof Service ? ((Service) unit).getResult() : null;
+    }
+
+    private static int exitStatus(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> value = changedProperties.get(Service.Property.EXEC_MAIN_STATUS);
+
+        if (value != null && value.getValue() instanceof Number) {
+            return ((Number) value.getValue()).intValue();
+        }
+
+        return unit instanceof Service ? ((Service) unit).getExecMainStatus() : 0;
+    }
+
+    private static long restarts(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> value = changedProperties.get(Service.Property.N_RESTARTS);
+
+        if (value != null && value.getValue() instanceof Number) {
+            return ((Number) value.getValue()).longValue();
+        }
+
+        return unit instanceof Service ? ((Service) unit).getNRestarts() : 0L;
+    }
+
+    /**
+     * Forgets the state of a unit (e.g. after the unit has been unloaded).
+     *
+     * @param unitName The full unit name.
+     */
+    public synchronized void forget(final String unitName) {
+        states.remove(unitName);
+    }
+
+    /**
+     * Drops the states of all units not contained in the given collection.
+     *
+     * @param units The units to keep.
+     */
+    public void retain(final Collection<Unit> units) {
+        Set<String> names = new HashSet<>();
+        units.forEach(u -> names.add(u.name));
+
+        retainNames(names);
+    }
+
+    synchronized void retainNames(final Collection<String> unitNames) {
+        states.keySet().retainAll(unitNames);
+    }
+
+    public synchronized Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(states.keySet()));
+    }
+
+    private static final class State {
+
+        private UnitStateEnum activeState;
+        private String subState;
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+/**
+ * Typed lifecycle event of a unit as derived by {@link UnitLifecycleDecoder}.<p>
+ *
+ * Instances passed to {@link UnitLifecycleListener}s are reused by the
+ * decoder (flyweight) and only valid within the callback; use
+ * {@link #copy()} to retain an event.
+ */
+public final class UnitLifecycleEvent {
+
+    public enum Kind {
+        /** Entered <code>active</code> (from an inactive or activating state). */
+        STARTED,
+        /** Entered <code>inactive</code> regularly. */
+        STOPPED,
+        /** Entered <code>failed</code>; carries result and exit status. */
+        FAILED,
+        /** Returned to <code>active</code> from <code>reloading</code>. */
+        RELOADED,
+        /** Entered the <code>auto-restart</code> sub-state; carries the restart number. */
+        RESTARTING,
+        /** Start skipped as a unit condition was not met. */
+        CONDITION_FAILED
+    }
+
+    private Kind kind;
+    private Unit unit;
+    private String unitName;
+    private String result;
+    private int exitStatus;
+    private long restarts;
+    private long timestamp;
+
+    UnitLifecycleEvent() {
+        super();
+    }
+
+    UnitLifecycleEvent set(final Kind kind, final String unitName, final Unit unit, final long timestamp) {
+        this.kind = kind;
+        this.unitName = unitName;
+        this.unit = unit;
+        this.timestamp = timestamp;
+        this.result = null;
+        this.exitStatus = 0;
+        this.restarts = 0L;
+
+        return this;
+    }
+
+    UnitLifecycleEvent failure(final String result, final int exitStatus) {
+        this.result = result;
+        this.exitStatus = exitStatus;
+
+        return this;
+    }
+
+    UnitLifecycleEvent restart(final long restarts) {
+        this.restarts = restarts;
+
+        return this;
+    }
+
+    /**
+     * Returns a detached copy of this event which may be retained beyond
+     * the callback.
+     *
+     * @return The copy.
+     */
+    public UnitLifecycleEvent copy() {
+        UnitLifecycleEvent copy = new UnitLifecycleEvent();
+        copy.set(kind, unitName, unit, timestamp);
+        copy.result = result;
+        copy.exitStatus = exitStatus;
+        copy.restarts = restarts;
+
+        return copy;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public String getUnitName() {
+        return unitName;
+    }
+
+    /**
+     * Returns the result of a failed unit (e.g. "exit-code", "timeout").
+     *
+     * @return The result for {@link Kind#FAILED}, <code>null</code> otherwise.
+     */
+    public String getResult() {
+        return result;
+    }
+
+    public int getExitStatus() {
+        return exitStatus;
+    }
+
+    /**
+     * Returns the number of the upcoming restart (i.e. <code>NRestarts</code>
+     * plus one, as systemd increments the counter when the restart is
+     * actually performed).
+     *
+     * @return The restart number for {@link Kind#RESTARTING}, zero otherwise.
+     */
+    public long getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * Returns the time of the decoding as value of {@link System#nanoTime()}.
+     *
+     * @return The monotonic timestamp.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case FAILED:
+                return String.format("%s %s (result=%s, status=%d)", kind, unitName, result, exitStatus);
+            case RESTARTING:
+                return String.format("%s %s (%d)", kind, unitName, restarts);
+            default:
+                return String.format("%s %s", kind, unitName);
+        }
+    }
+
+}
@@ -11,7 +11,6 @@
 
 package de.thjom.java.systemd;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +20,11 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.interfaces.DBusSigHandler;
@@ -37,6 +41,9 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
 
     protected static final String ERROR_MSG_MONITOR_REFRESH = "Error while refreshing internal monitor state";
 
+    public static final long DEFAULT_REFRESH_DEBOUNCE_MILLIS = 250L;
+    public static final long DEFAULT_REFRESH_MAX_DELAY_MILLIS = 2000L;
+
 	private static final String ACTIVE_STATE = Unit.Property.ACTIVE_STATE;
 	private static final String LOAD_STATE = Unit.Property.LOAD_STATE;
 	private static final String SUB_STATE = Unit.Property.SUB_STATE;
@@ -46,13 +53,33 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
     protected final Manager manager;
     protected final ConcurrentMap<String, Unit> monitoredUnits = new ConcurrentHashMap<>();
 
-    protected final List<UnitMonitorListener> unitMonitorListeners = new ArrayList<>();
+    protected final List<UnitMonitorListener> unitMonitorListeners = new CopyOnWriteArrayList<>();
 
     protected ReloadingHandler reloadingHandler;
     protected UnitFilesChangedHandler unitFilesChangedHandler;
 
+    private MatchRule stateMatchRule;
+
     private Timer pollingTimer;
 
+    private UnitStateHistory history;
+    private UnitMonitorListener historyRetainer;
+
+    private UnitChangeFeed changeFeed;
+
+    private final Object refreshGuard = new Object();
+    private final AtomicInteger refreshWip = new AtomicInteger();
+    private final AtomicLong refreshRequestCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong lastRefreshNanos = new AtomicLong();
+    private final AtomicLong maxRefreshNanos = new AtomicLong();
+
+    private long refreshDebounceMillis = DEFAULT_REFRESH_DEBOUNCE_MILLIS;
+    private long refreshMaxDelayMillis = DEFAULT_REFRESH_MAX_DELAY_MILLIS;
+    private Timer refreshTimer;
+    private TimerTask pendingRefresh;
+    private long burstStartMillis;
+
     protected UnitMonitor(final Manager manager) {
         this.manager = Objects.requireNonNull(manager);
     }
@@ -65,10 +92,17 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
 
     @Override
     public <T extends DBusSignal> void removeHandler(final Class<T> type, final DBusSigHandler<T> handler) throws DBusException {
-        manager.removeHandler(type, handler);
+        if (handler != null) {
+            manager.removeHandler(type, handler);
+            manager.unsubscribe();
+        }
     }
 
-    public void addDefaultHandlers() throws DBusException {
+    public synchronized void addDefaultHandlers() throws DBusException {
+        if (reloadingHandler != null) {
+            return;
+        }
+
         manager.subscribe();
 
         reloadingHandler = new ReloadingHandler();
@@ -78,9 +112,49 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
         manager.addHandler(UnitFilesChanged.class, unitFilesChangedHandler);
     }
 
-    public void removeDefaultHandlers() throws DBusException {
+    public synchronized void removeDefaultHandlers() throws DBusException {
+        if (reloadingHandler == null) {
+            return;
+        }
+
         manager.removeHandler(Reloading.class, reloadingHandler);
         manager.removeHandler(UnitFilesChanged.class, unitFilesChangedHandler);
+
+        reloadingHandler = null;
+        unitFilesChangedHandler = null;
+
+        cancelPendingRefresh();
+
+        manager.unsubscribe();
+    }
+
+    /**
+     * Returns the match rule which is installed on the bus daemon for the
+     * state handler of this monitor. Subclasses may narrow the rule further
+     * (e.g. by object path).
+     *
+     * @return The match rule for <code>PropertiesChanged</code> signals.
+     */
+    protected MatchRule createStateMatchRule() {
+        return MatchRule.unitPropertiesChanged();
+    }
+
+    @Override
+    protected void addStateHandler(final DBusSigHandler<PropertiesChanged> handler) throws DBusException {
+        stateMatchRule = createStateMatchRule();
+
+        manager.subscribe();
+        manager.addHandler(stateMatchRule, PropertiesChanged.class, handler);
+    }
+
+    @Override
+    protected void removeStateHandler(final DBusSigHandler<PropertiesChanged> handler) throws DBusException {
+        if (stateMatchRule != null) {
+            manager.removeHandler(stateMatchRule, PropertiesChanged.class, handler);
+            manager.unsubscribe();
+
+            stateMatchRule = null;
+        }
     }
 
     @Override
@@ -92,14 +166,90 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
                 Map<String, Variant<?>> properties = signal.getPropertiesChanged();
 
                 if (properties.containsKey(ACTIVE_STATE) || properties.containsKey(LOAD_STATE) || properties.containsKey(SUB_STATE)) {
-                    synchronized (unitStateListeners) {
-                        unitStateListeners.forEach(l -> l.stateChanged(unit.get(), properties));
-                    }
+                    unitStateListeners.forEach(l -> l.stateChanged(unit.get(), properties));
                 }
             }
         };
     }
 
+    /**
+     * Enables recording of the state transitions of the monitored units.
+     * The history of a unit is dropped when a refresh removes the unit.
+     *
+     * @param capacity The number of transitions kept per unit.
+     * @return The history.
+     * @throws DBusException If the state handler cannot be registered.
+     */
+    public synchronized UnitStateHistory enableHistory(final int capacity) throws DBusException {
+        if (history != null) {
+            if (history.getCapacity() == capacity) {
+                return history;
+            }
+
+            disableHistory();
+        }
+
+        history = new UnitStateHistory(capacity);
+        historyRetainer = history::retain;
+
+        addListener(history);
+        addListener(historyRetainer);
+
+        return history;
+    }
+
+    public synchronized void disableHistory() throws DBusException {
+        if (history != null) {
+            removeListener(history);
+            removeListener(historyRetainer);
+
+            history = null;
+            historyRetainer = null;
+        }
+    }
+
+    public synchronized Optional<UnitStateHistory> getHistory() {
+        return Optional.ofNullable(history);
+    }
+
+    /**
+     * Enables the change log of the monitored units for pull consumers.
+     * Unit additions and removals are recorded on refresh.
+     *
+     * @param capacity The maximum number of units kept in the log.
+     * @return The change feed.
+     * @throws DBusException If the state handler cannot be registered.
+     */
+    public synchronized UnitChangeFeed enableChangeFeed(final int capacity) throws DBusException {
+        if (changeFeed != null) {
+            if (changeFeed.getCapacity() == capacity) {
+                return changeFeed;
+            }
+
+            disableChangeFeed();
+        }
+
+        changeFeed = new UnitChangeFeed(capacity);
+
+        addListener((UnitStateListener) changeFeed);
+        addListener((UnitMonitorListener) changeFeed);
+
+        return changeFeed;
+    }
+
+    public synchronized void disableChangeFeed() throws DBusException {
+        if (changeFeed != null) {
+            removeListener((UnitStateListener) changeFeed);
+            removeListener((UnitMonitorListener) changeFeed);
+
+            changeFeed = null;
+        }
+    }
+
+    public synchronized Optional<UnitChangeFeed> getChangeFeed() {
+        return Optional.ofNullable(changeFeed);
+    }
+
     public synchronized void addListener(final UnitMonitorListener listener) {
         unitMonitorListeners.add(listener);
     }
@@ -145,10 +295,165 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
         return new Timer(getClass().getSimpleName() + "-pollingTimer", true);
     }
 
+    protected Timer createRefreshTimer() {
+        return new Timer(getClass().getSimpleName() + "-refreshTimer", true);
+    }
+
+    /**
+     * Configures the coalescing of refreshes requested by signals. Requests
+     * are deferred until no further request arrived within the debounce
+     * delay, but not longer than the maximum delay after the first request
+     * of a burst.
+     *
+     * @param debounce The debounce delay (zero refreshes on the signal thread).
+     * @param maxDelay The maximum delay of a refresh within a burst.
+     * @param unit The time unit of both delays.
+     */
+    public void setRefreshDebounce(final long debounce, final long maxDelay, final TimeUnit unit) {
+        if (debounce < 0L || maxDelay < debounce) {
+            throw new IllegalArgumentException("Invalid refresh delays");
+        }
+
+        synchronized (refreshGuard) {
+            refreshDebounceMillis = unit.toMillis(debounce);
+            refreshMaxDelayMillis = unit.toMillis(maxDelay);
+        }
+    }
+
+    /**
+     * Requests an asynchronous refresh of this monitor. Requests of a burst
+     * (e.g. one <code>UnitFilesChanged</code> signal per touched unit file)
+     * are coalesced into a single refresh. Requests received while a refresh
+     * is running cause at most one more refresh.
+     */
+    public void requestRefresh() {
+        refreshRequestCount.incrementAndGet();
+
+        synchronized (refreshGuard) {
+            if (refreshDebounceMillis > 0L) {
+                long now = System.currentTimeMillis();
+
+                if (pendingRefresh == null) {
+                    burstStartMillis = now;
+                }
+                else {
+                    pendingRefresh.cancel();
+                }
+
+                if (refreshTimer == null) {
+                    refreshTimer = createRefreshTimer();
+                }
+
+                long delay = Math.min(refreshDebounceMillis, Math.max(0L, burstStartMillis + refreshMaxDelayMillis - now));
+
+                pendingRefresh = new TimerTask() {
+
+                    @Override
+                    public void run() {
+                        synchronized (refreshGuard) {
+                            if (pendingRefresh != this) {
+                                return;
+                            }
+
+                            pendingRefresh = null;
+                        }
+
+                        runRefresh();
+                    }
+
+                };
+
+                refreshTimer.schedule(pendingRefresh, delay);
+
+                return;
+            }
+        }
+
+        runRefresh();
+    }
+
+    private void runRefresh() {
+        // A running refresh absorbs all requests received meanwhile and repeats once
+        if (refreshWip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+
+        do {
+            long start = System.nanoTime();
+
+            try {
+                refresh();
+            }
+            catch (final DBusException | RuntimeException e) {
+                log.error(ERROR_MSG_MONITOR_REFRESH, e);
+            }
+
+            long duration = System.nanoTime() - start;
+
+            refreshCount.incrementAndGet();
+            lastRefreshNanos.set(duration);
+            maxRefreshNanos.accumulateAndGet(duration, Math::max);
+
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Monitor refreshed in %d ms (%d refreshes for %d requests)",
+                        TimeUnit.NANOSECONDS.toMillis(duration), refreshCount.get(), refreshRequestCount.get()));
+            }
+
+            missed = refreshWip.addAndGet(-missed);
+        }
+        while (missed != 0);
+    }
+
+    private void cancelPendingRefresh() {
+        synchronized (refreshGuard) {
+            if (pendingRefresh != null) {
+                pendingRefresh.cancel();
+                pendingRefresh = null;
+            }
+
+            // Created again by the next request
+            if (refreshTimer != null) {
+                refreshTimer.cancel();
+                refreshTimer = null;
+            }
+        }
+    }
+
+    public long getRefreshRequestCount() {
+        return refreshRequestCount.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public long getLastRefreshDuration(final TimeUnit unit) {
+        return unit.convert(lastRefreshNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxRefreshDuration(final TimeUnit unit) {
+        return unit.convert(maxRefreshNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
     public boolean monitorsUnit(final String unitName) {
         return monitoredUnits.containsKey(Systemd.escapePath(unitName));
     }
 
+    /**
+     * Creates a publisher of the state events of the units currently
+     * monitored by this monitor.
+     *
+     * @param bufferSize The buffer size per subscriber.
+     * @param policy The behavior on a full subscriber buffer.
+     * @param replayLatest Whether new subscribers receive the latest event of each unit first.
+     * @return The publisher.
+     */
+    public UnitStateEventPublisher createEventPublisher(final int bufferSize, final QueuedUnitStateListener.OverflowPolicy policy, final boolean replayLatest) {
+        return new UnitStateEventPublisher(manager, this::monitorsUnit, bufferSize, policy, replayLatest, ForkJoinPool.commonPool());
+    }
+
     public Optional<Unit> getMonitoredUnit(final String unitName) {
         return findMonitoredUnit(Systemd.escapePath(unitName));
     }
@@ -175,12 +480,7 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
                     log.debug(String.format("Signal received ('daemon-reload' finished: %s)", signal));
                 }
 
-                try {
-                    refresh();
-                }
-                catch (final DBusException e) {
-                    log.error(ERROR_MSG_MONITOR_REFRESH, e);
-                }
+                requestRefresh();
             }
         }
 
@@ -194,12 +494,7 @@ abstract class UnitMonitor extends AbstractAdapter implements UnitStateNotifier
                 log.debug(String.format("Signal received (unit files changed: %s)", signal));
             }
 
-            try {
-                refresh();
-            }
-            catch (final DBusException e) {
-                log.error(ERROR_MSG_MONITOR_REFRESH, e);
-            }
+            requestRefresh();
         }
 
     }
@@ -0,0 +1,394 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable matcher of unit names against a set of glob patterns (as known
+ * from <code>systemctl list-units PATTERN...</code>) and regular expressions.<p>
+ *
+ * All globs are compiled into one automaton whose deterministic states are
+ * built lazily and cached, so that the cost of a match is linear in the
+ * length of the name and independent of the number of globs. Regular
+ * expressions are combined into a single alternation.<p>
+ *
+ * Supported glob syntax: <code>*</code> (any sequence), <code>?</code> (any
+ * character), <code>[...]</code> (character class with ranges, negated by a
+ * leading <code>!</code> or <code>^</code>) and <code>\</code> (escapes the
+ * next character).
+ */
+public final class UnitNameMatcher {
+
+    private static final int MAX_CACHED_STATES = 4096;
+
+    private static final UnitNameMatcher EMPTY = new UnitNameMatcher(Collections.emptyList(), Collections.emptyList());
+
+    private final List<String> globs;
+    private final List<String> regexes;
+
+    // Flattened positions of all globs, a position is the index of the next token
+    private final Token[] tokens;
+    private final BitSet accepting = new BitSet();
+
+    private final Pattern regex;
+
+    private final Map<BitSet, State> states = new ConcurrentHashMap<>();
+    private final State initial;
+
+    private UnitNameMatcher(final Collection<String> globs, final Collection<String> regexes) {
+        this.globs = Collections.unmodifiableList(new ArrayList<>(globs));
+        this.regexes = Collections.unmodifiableList(new ArrayList<>(regexes));
+
+        List<Token> flattened = new ArrayList<>();
+        BitSet starts = new BitSet();
+
+        for (String glob : this.globs) {
+            starts.set(flattened.size());
+            parse(glob, flattened);
+
+            // End of pattern
+            accepting.set(flattened.size());
+            flattened.add(null);
+        }
+
+        this.tokens = flattened.toArray(new Token[0]);
+        this.initial = intern(closure(starts));
+
+        if (this.regexes.isEmpty()) {
+            this.regex = null;
+        }
+        else {
+            StringJoiner alternation = new StringJoiner("|");
+            this.regexes.forEach(r -> alternation.add("(?:" + r + ')'));
+
+            this.regex = Pattern.compile(alternation.toString());
+        }
+    }
+
+    public static UnitNameMatcher empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Compiles the given patterns into a matcher.
+     *
+     * @param globs The glob patterns.
+     * @param regexes The regular expressions (matched against the whole name).
+     * @return The matcher.
+     * @throws java.util.regex.PatternSyntaxException If a regular expression is invalid.
+     */
+    public static UnitNameMatcher compile(final Collection<String> globs, final Collection<String> regexes) {
+        if (globs.isEmpty() && regexes.isEmpty()) {
+            return EMPTY;
+        }
+
+        return new UnitNameMatcher(globs, regexes);
+    }
+
+    public static UnitNameMatcher compileGlobs(final String... globs) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, globs);
+
+        return compile(list, Collections.emptyList());
+    }
+
+    public static boolean isGlob(final CharSequence pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+
+            if (c == '*' || c == '?' || c == '[' || c == '\\') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public List<String> getGlobs() {
+        return globs;
+    }
+
+    public List<String> getRegexes() {
+        return regexes;
+    }
+
+    public boolean isEmpty() {
+        return globs.isEmpty() && regexes.isEmpty();
+    }
+
+    /**
+     * Checks a unit name against all patterns.
+     *
+     * @param unitName The full (unescaped) unit name, e.g. "worker@1.service".
+     * @return <code>true</code> if at least one pattern matches the whole name.
+     */
+    public boolean matches(final CharSequence unitName) {
+        if (unitName == null) {
+            return false;
+        }
+
+        if (matchesGlob(unitName)) {
+            return true;
+        }
+
+        return regex != null && regex.matcher(unitName).matches();
+    }
+
+    private boolean matchesGlob(final CharSequence unitName) {
+        State state = initial;
+        int length = unitName.length();
+
+        for (int i = 0; i < length && !state.dead; i++) {
+            state = state.next(unitName.charAt(i));
+        }
+
+        return state.accept;
+    }
+
+    int getCachedStateCount() {
+        return states.size();
+    }
+
+    private State intern(final BitSet positions) {
+        State state = states.get(positions);
+
+        if (state == null) {
+            state = new State(positions, positions.intersects(accepting));
+
+            if (states.size() < MAX_CACHED_STATES) {
+                State existing = states.putIfAbsent(positions, state);
+
+                if (existing != null) {
+                    state = existing;
+                }
+            }
+        }
+
+        return state;
+    }
+
+    private BitSet closure(final BitSet positions) {
+        BitSet closed = (BitSet) positions.clone();
+
+        // A star may match the empty sequence, i.e. the following position is reachable as well
+        for (int i = closed.nextSetBit(0); i >= 0; i = closed.nextSetBit(i + 1)) {
+            Token token = tokens[i];
+
+            if (token != null && token.kind == Kind.STAR) {
+                closed.set(i + 1);
+            }
+        }
+
+        return closed;
+    }
+
+    private BitSet step(final BitSet positions, final char c) {
+        BitSet next = new BitSet(tokens.length);
+
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+            Token token = tokens[i];
+
+            if (token == null) {
+                continue;
+            }
+
+            if (token.kind == Kind.STAR) {
+                next.set(i);
+            }
+            else if (token.matches(c)) {
+                next.set(i + 1);
+            }
+        }
+
+        return closure(next);
+    }
+
+    private static void parse(final String glob, final List<Token> tokens) {
+        int length = glob.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = glob.charAt(i);
+
+            switch (c) {
+                case '*':
+                    // Consecutive stars are equivalent to one star
+                    if (tokens.isEmpty() || tokens.get(tokens.size() - 1) == null || tokens.get(tokens.size() - 1).kind != Kind.STAR) {
+                        tokens.add(Token.STAR);
+                    }
+                    break;
+                case '?':
+                    tokens.add(Token.ANY);
+                    break;
+                case '\\':
+                    if (i + 1 < length) {
+                        tokens.add(Token.literal(glob.charAt(++i)));
+                    }
+                    else {
+                        tokens.add(Token.literal(c));
+                    }
+                    break;
+                case '[':
+                    int end = findClassEnd(glob, i);
+
+                    if (end < 0) {
+                        tokens.add(Token.literal(c));
+                    }
+                    else {
+                        tokens.add(Token.charClass(glob.substring(i + 1, end)));
+                        i = end;
+                    }
+                    break;
+                default:
+                    tokens.add(Token.literal(c));
+                    break;
+            }
+        }
+    }
+
+    private static int findClassEnd(final String glob, final int start) {
+        int i = start + 1;
+
+        if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+            i++;
+        }
+
+        // A closing bracket right at the start is part of the class
+        if (i < glob.length() && glob.charAt(i) == ']') {
+            i++;
+        }
+
+        return glob.indexOf(']', i);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[globs=%s, regexes=%s]", getClass().getSimpleName(), globs, regexes);
+    }
+
+    private enum Kind {
+        LITERAL,
+        ANY,
+        STAR,
+        CLASS
+    }
+
+    private static final class Token {
+
+        private static final Token ANY = new Token(Kind.ANY, '\0', null, false);
+        private static final Token STAR = new Token(Kind.STAR, '\0', null, false);
+
+        private final Kind kind;
+        private final char literal;
+        private final char[] ranges;
+        private final boolean negated;
+
+        private Token(final Kind kind, final char literal, final char[] ranges, final boolean negated) {
+            this.kind = kind;
+            this.literal = literal;
+            this.ranges = ranges;
+            this.negated = negated;
+        }
+
+        static Token literal(final char c) {
+            return new Token(Kind.LITERAL, c, null, false);
+        }
+
+        static Token charClass(final String spec) {
+            int i = 0;
+            boolean negated = false;
+
+            if (!spec.isEmpty() && (spec.charAt(0) == '!' || spec.charAt(0) == '^')) {
+                negated = true;
+                i++;
+            }
+
+            StringBuilder ranges = new StringBuilder();
+
+            while (i < spec.length()) {
+                char from = spec.charAt(i);
+
+                if (i + 2 < spec.length() && spec.charAt(i + 1) == '-') {
+                    ranges.append(from).append(spec.charAt(i + 2));
+                    i += 3;
+                }
+                else {
+                    ranges.append(from).append(from);
+                    i++;
+                }
+            }
+
+            return new Token(Kind.CLASS, '\0', ranges.toString().toCharArray(), negated);
+        }
+
+        boolean matches(final char c) {
+            switch (kind) {
+                case LITERAL:
+                    return c == literal;
+                case CLASS:
+                    boolean included = false;
+
+                    for (int i = 0; i < ranges.length && !included; i += 2) {
+                        included = c >= ranges[i] && c <= ranges[i + 1];
+                    }
+
+                    return included != negated;
+                default:
+                    return true;
+            }
+        }
+
+    }
+
+    /**
+     * Deterministic state, i.e. a set of glob positions along with its cached
+     * transitions.
+     */
+    private final class State {
+
+        private final BitSet positions;
+        private final boolean accept;
+        private final boolean dead;
+
+        private final Map<Character, State> transitions = new ConcurrentHashMap<>();
+
+        State(final BitSet positions, final boolean accept) {
+            this.positions = positions;
+            this.accept = accept;
+            this.dead = positions.isEmpty();
+        }
+
+        State next(final char c) {
+            State next = transitions.get(c);
+
+            if (next == null) {
+                next = intern(step(positions, c));
+
+                if (states.size() < MAX_CACHED_STATES) {
+                    transitions.put(c, next);
+                }
+            }
+
+            return next;
+        }
+
+    }
+
+}
@@ -77,13 +77,10 @@ public class UnitNameMonitor extends UnitMonitor {
         boolean monitored = super.monitorsUnit(unitName);
 
         if (!monitored) {
-            for (String monitoredName : monitoredNames) {
-                if (Systemd.escapePath(monitoredName).equals(unitName)) {
-                    monitored = true;
+            // Also accept the escaped form of a monitored name (one lookup instead of escaping all names)
+            String candidate = Systemd.unescapePath(unitName);
 
-                    break;
-                }
-            }
+            monitored = monitoredNames.contains(candidate) && Systemd.escapePath(candidate).equals(unitName);
         }
 
         return monitored;
@@ -0,0 +1,319 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitRemoved;
+import de.thjom.java.systemd.types.UnitType;
+
+/**
+ * Monitor of all units whose names match at least one of a set of glob
+ * patterns (e.g. <code>worker@*.service</code>) or regular expressions. The
+ * monitored units can be further restricted to a slice (including its
+ * sub-slices).<p>
+ *
+ * Along the default handlers, units loaded later on are picked up from the
+ * <code>UnitNew</code> signal and dropped on <code>UnitRemoved</code>.
+ *
+ * @see UnitNameMatcher
+ */
+public class UnitPatternMonitor extends UnitMonitor {
+
+    private static final String SLICE_SUFFIX = ".slice";
+    static final String ROOT_SLICE = "-" + SLICE_SUFFIX;
+
+    protected final Set<String> globs = new LinkedHashSet<>();
+    protected final Set<String> regexes = new LinkedHashSet<>();
+
+    protected String slice;
+
+    protected UnitNewHandler unitNewHandler;
+    protected UnitRemovedHandler unitRemovedHandler;
+
+    private volatile UnitNameMatcher matcher = UnitNameMatcher.empty();
+
+    public UnitPatternMonitor(final Manager manager) {
+        super(manager);
+    }
+
+    @Override
+    public synchronized void reset() {
+        globs.clear();
+        regexes.clear();
+        slice = null;
+        matcher = UnitNameMatcher.empty();
+        monitoredUnits.clear();
+    }
+
+    @Override
+    public synchronized void refresh() throws DBusException {
+        try {
+            monitoredUnits.clear();
+
+            if (!matcher.isEmpty()) {
+                for (UnitType unit : manager.listUnits()) {
+                    String name = unit.getUnitName();
+
+                    if (matcher.matches(name)) {
+                        include(manager.getUnit(name));
+                    }
+                }
+            }
+        }
+        finally {
+            unitMonitorListeners.forEach(l -> l.monitorRefreshed(monitoredUnits.values()));
+        }
+    }
+
+    public final void addPatterns(final String... globs) throws DBusException {
+        synchronized (this) {
+            Collections.addAll(this.globs, globs);
+            recompile();
+        }
+
+        refresh();
+    }
+
+    public final void removePatterns(final String... globs) throws DBusException {
+        synchronized (this) {
+            for (String glob : globs) {
+                this.globs.remove(glob);
+            }
+
+            recompile();
+        }
+
+        refresh();
+    }
+
+    /**
+     * Adds regular expressions which have to match the whole unit name.
+     *
+     * @param regexes The regular expressions.
+     * @throws DBusException If the monitor cannot be refreshed.
+     * @throws java.util.regex.PatternSyntaxException If an expression is invalid.
+     */
+    public final void addRegexes(final String... regexes) throws DBusException {
+        for (String regex : regexes) {
+            Pattern.compile(regex);
+        }
+
+        synchronized (this) {
+            Collections.addAll(this.regexes, regexes);
+            recompile();
+        }
+
+        refresh();
+    }
+
+    public final void removeRegexes(final String... regexes) throws DBusException {
+        synchronized (this) {
+            for (String regex : regexes) {
+                this.regexes.remove(regex);
+            }
+
+            recompile();
+        }
+
+        refresh();
+    }
+
+    /**
+     * Restricts the monitored units to the given slice and its sub-slices,
+     * e.g. "user.slice" covers all units in "user-1000.slice".
+     *
+     * @param slice The slice name (<code>null</code> removes the restriction).
+     * @throws DBusException If the monitor cannot be refreshed.
+     */
+    public final void setSlice(final String slice) throws DBusException {
+        if (slice != null && !slice.endsWith(SLICE_SUFFIX)) {
+            throw new IllegalArgumentException("Not a slice: " + slice);
+        }
+
+        synchronized (this) {
+            this.slice = slice;
+        }
+
+        refresh();
+    }
+
+    public synchronized String getSlice() {
+        return slice;
+    }
+
+    public synchronized Set<String> getPatterns() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(globs));
+    }
+
+    public synchronized Set<String> getRegexes() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(regexes));
+    }
+
+    public UnitNameMatcher getMatcher() {
+        return matcher;
+    }
+
+    private void recompile() {
+        matcher = UnitNameMatcher.compile(globs, regexes);
+    }
+
+    /**
+     * Adds the unit to the monitored units if it belongs to the configured
+     * slice (lock held by caller).
+     */
+    private boolean include(final Unit unit) {
+        if (slice != null && !isInSlice(getSliceOf(unit), slice)) {
+            return false;
+        }
+
+        monitoredUnits.put(Systemd.escapePath(unit.getId()), unit);
+
+        return true;
+    }
+
+    protected String getSliceOf(final Unit unit) {
+        return sliceOf(unit);
+    }
+
+    static String sliceOf(final Unit unit) {
+        if (unit instanceof Service) {
+            return ((Service) unit).getSlice();
+        }
+        else if (unit instanceof Scope) {
+            return ((Scope) unit).getSlice();
+        }
+        else if (unit instanceof Mount) {
+            return ((Mount) unit).getSlice();
+        }
+        else if (unit instanceof Slice) {
+            return ((Slice) unit).getSlice();
+        }
+
+        return null;
+    }
+
+    static boolean isInSlice(final String unitSlice, final String slice) {
+        if (unitSlice == null || unitSlice.isEmpty()) {
+            return false;
+        }
+
+        if (ROOT_SLICE.equals(slice) || unitSlice.equals(slice)) {
+            return true;
+        }
+
+        // Slice names encode the hierarchy, e.g. "user-1000.slice" is a child of "user.slice"
+        String prefix = slice.substring(0, slice.length() - SLICE_SUFFIX.length()) + '-';
+
+        return unitSlice.startsWith(prefix);
+    }
+
+    @Override
+    public boolean monitorsUnit(final String unitName) {
+        boolean monitored = super.monitorsUnit(unitName);
+
+        if (!monitored && getSlice() == null) {
+            monitored = matcher.matches(unitName);
+        }
+
+        return monitored;
+    }
+
+    @Override
+    public synchronized void addDefaultHandlers() throws DBusException {
+        if (reloadingHandler != null) {
+            return;
+        }
+
+        super.addDefaultHandlers();
+
+        unitNewHandler = new UnitNewHandler();
+        manager.addHandler(UnitNew.class, unitNewHandler);
+
+        unitRemovedHandler = new UnitRemovedHandler();
+        manager.addHandler(UnitRemoved.class, unitRemovedHandler);
+    }
+
+    @Override
+    public synchronized void removeDefaultHandlers() throws DBusException {
+        if (reloadingHandler == null) {
+            return;
+        }
+
+        manager.removeHandler(UnitNew.class, unitNewHandler);
+        manager.removeHandler(UnitRemoved.class, unitRemovedHandler);
+
+        unitNewHandler = null;
+        unitRemovedHandler = null;
+
+        super.removeDefaultHandlers();
+    }
+
+    public class UnitNewHandler implements DBusSigHandler<UnitNew> {
+
+        @Override
+        public void handle(final UnitNew signal) {
+            String name = signal.getId();
+
+            if (!matcher.matches(name) || UnitPatternMonitor.super.monitorsUnit(name)) {
+                return;
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Signal received (unit loaded: %s)", name));
+            }
+
+            boolean included;
+
+            try {
+                Unit unit = manager.getUnit(name);
+
+                synchronized (UnitPatternMonitor.this) {
+                    included = matcher.matches(name) && include(unit);
+                }
+            }
+            catch (final DBusException e) {
+                log.error(ERROR_MSG_MONITOR_REFRESH, e);
+
+                return;
+            }
+
+            if (included) {
+                unitMonitorListeners.forEach(l -> l.monitorRefreshed(monitoredUnits.values()));
+            }
+        }
+
+    }
+
+    public class UnitRemovedHandler implements DBusSigHandler<UnitRemoved> {
+
+        @Override
+        public void handle(final UnitRemoved signal) {
+            if (monitoredUnits.remove(Systemd.escapePath(signal.getId())) != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Signal received (unit unloaded: %s)", signal.getId()));
+                }
+
+                unitMonitorListeners.forEach(l -> l.monitorRefreshed(monitoredUnits.values()));
+            }
+        }
+
+    }
+
+}
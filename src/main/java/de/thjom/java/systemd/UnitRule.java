@@ -0,0 +1,216 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+
+/**
+ * Immutable alert rule over unit state transitions, e.g. "any
+ * <code>*.service</code> under <code>tenant.slice</code> entering
+ * <code>failed</code> more than 3 times in 10 minutes":
+ *
+ * <pre>
+ * UnitRule.builder("tenant-failures")
+ *         .unitPattern("*.service")
+ *         .slice("tenant.slice")
+ *         .entering(UnitStateEnum.FAILED)
+ *         .moreThan(3, 10, TimeUnit.MINUTES)
+ *         .build();
+ * </pre>
+ *
+ * @see UnitRuleEngine
+ */
+public final class UnitRule {
+
+    private final String id;
+    private final List<String> globs;
+    private final List<String> regexes;
+    private final String slice;
+    private final UnitStateEnum activeState;
+    private final String subState;
+    private final String result;
+    private final long minRestarts;
+    private final int occurrences;
+    private final long windowNanos;
+
+    private UnitRule(final Builder builder) {
+        this.id = builder.id;
+        this.globs = Collections.unmodifiableList(new ArrayList<>(builder.globs));
+        this.regexes = Collections.unmodifiableList(new ArrayList<>(builder.regexes));
+        this.slice = builder.slice;
+        this.activeState = builder.activeState;
+        this.subState = builder.subState;
+        this.result = builder.result;
+        this.minRestarts = builder.minRestarts;
+        this.occurrences = builder.occurrences;
+        this.windowNanos = builder.windowNanos;
+    }
+
+    public static Builder builder(final String id) {
+        return new Builder(id);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<String> getUnitPatterns() {
+        return globs;
+    }
+
+    public List<String> getUnitRegexes() {
+        return regexes;
+    }
+
+    public String getSlice() {
+        return slice;
+    }
+
+    public UnitStateEnum getActiveState() {
+        return activeState;
+    }
+
+    public String getSubState() {
+        return subState;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public long getMinRestarts() {
+        return minRestarts;
+    }
+
+    public int getOccurrences() {
+        return occurrences;
+    }
+
+    public long getWindow(final TimeUnit unit) {
+        return unit.convert(windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[id=%s, patterns=%s, regexes=%s, slice=%s, activeState=%s, subState=%s, result=%s, minRestarts=%d, occurrences=%d, window=%dms]",
+                getClass().getSimpleName(), id, globs, regexes, slice, activeState, subState, result, minRestarts, occurrences, getWindow(TimeUnit.MILLISECONDS));
+    }
+
+    public static final class Builder {
+
+        private final String id;
+        private final List<String> globs = new ArrayList<>();
+        private final List<String> regexes = new ArrayList<>();
+        private String slice;
+        private UnitStateEnum activeState;
+        private String subState;
+        private String result;
+        private long minRestarts;
+        private int occurrences = 1;
+        private long windowNanos;
+
+        private Builder(final String id) {
+            this.id = Objects.requireNonNull(id);
+        }
+
+        /**
+         * Restricts the rule to units matching the glob pattern (multiple
+         * patterns are alternatives).
+         *
+         * @param glob The glob pattern.
+         * @return This builder.
+         */
+        public Builder unitPattern(final String glob) {
+            globs.add(Objects.requireNonNull(glob));
+
+            return this;
+        }
+
+        public Builder unitRegex(final String regex) {
+            Pattern.compile(regex);
+            regexes.add(regex);
+
+            return this;
+        }
+
+        public Builder slice(final String slice) {
+            this.slice = slice;
+
+            return this;
+        }
+
+        public Builder entering(final UnitStateEnum activeState) {
+            this.activeState = activeState;
+
+            return this;
+        }
+
+        public Builder enteringSubState(final String subState) {
+            this.subState = subState;
+
+            return this;
+        }
+
+        public Builder result(final String result) {
+            this.result = result;
+
+            return this;
+        }
+
+        public Builder minRestarts(final long minRestarts) {
+            this.minRestarts = minRestarts;
+
+            return this;
+        }
+
+        /**
+         * Requires the number of matching transitions of a unit within the
+         * window to reach the given number.
+         *
+         * @param occurrences The minimum number of matching transitions.
+         * @param window The length of the window.
+         * @param unit The time unit of the window.
+         * @return This builder.
+         */
+        public Builder atLeast(final int occurrences, final long window, final TimeUnit unit) {
+            if (occurrences <= 0 || window < 0L) {
+                throw new IllegalArgumentException("Invalid occurrences or window");
+            }
+
+            this.occurrences = occurrences;
+            this.windowNanos = unit.toNanos(window);
+
+            return this;
+        }
+
+        public Builder moreThan(final int occurrences, final long window, final TimeUnit unit) {
+            return atLeast(occurrences + 1, window, unit);
+        }
+
+        public UnitRule build() {
+            if (activeState == null && subState == null) {
+                throw new IllegalStateException("Rule requires an active state or sub-state to enter");
+            }
+
+            return new UnitRule(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,658 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.freedesktop.dbus.types.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+
+/**
+ * Engine which evaluates {@link UnitRule}s incrementally per state change.<p>
+ *
+ * Rules are compiled once: they are indexed by the state they react on, and
+ * their remaining conditions (name patterns, slice, result, restarts) are
+ * shared between all rules using the same condition. Per change, only the
+ * rules indexed by the entered state are considered and each shared
+ * condition is evaluated at most once; conditions depending on the unit
+ * identity only (name, slice) are cached per unit. Values which require bus
+ * calls (slice, result, restarts) are only fetched when a candidate rule
+ * needs them, outside the engine lock, after which the change is evaluated
+ * again. Occurrences within the time window are counted in a small ring of
+ * timestamps per rule and unit.
+ */
+public class UnitRuleEngine implements UnitStateListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnitRuleEngine.class);
+
+    private static final byte UNKNOWN = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+
+    private final LongSupplier clock;
+
+    private final Map<String, CompiledRule> rules = new LinkedHashMap<>();
+    private final List<UnitRuleListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Compiled state (rebuilt on rule changes)
+    private final List<Condition> conditions = new ArrayList<>();
+    private final Map<String, Condition> conditionsByKey = new HashMap<>();
+    private final Map<UnitStateEnum, List<CompiledRule>> byActiveState = new EnumMap<>(UnitStateEnum.class);
+    private final Map<String, List<CompiledRule>> bySubState = new HashMap<>();
+    private int generation;
+
+    private final Map<String, UnitContext> units = new HashMap<>();
+    private final Event event = new Event();
+    private byte[] memo = new byte[0];
+
+    private long evaluatedCount;
+    private long conditionTestCount;
+
+    public UnitRuleEngine() {
+        this(System::nanoTime);
+    }
+
+    UnitRuleEngine(final LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public synchronized void addRule(final UnitRule rule) {
+        CompiledRule previous = rules.put(rule.getId(), new CompiledRule(rule));
+
+        if (previous != null) {
+            LOG.debug(String.format("Replacing rule '%s'", rule.getId()));
+        }
+
+        compile();
+    }
+
+    public synchronized void addRules(final Collection<UnitRule> rules) {
+        rules.forEach(r -> this.rules.put(r.getId(), new CompiledRule(r)));
+
+        compile();
+    }
+
+    public synchronized void removeRule(final String id) {
+        if (rules.remove(id) != null) {
+            compile();
+        }
+    }
+
+    public synchronized List<UnitRule> getRules() {
+        List<UnitRule> list = new ArrayList<>(rules.size());
+        rules.values().forEach(r -> list.add(r.rule));
+
+        return Collections.unmodifiableList(list);
+    }
+
+    public void addListener(final UnitRuleListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final UnitRuleListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of distinct conditions of all rules (shared
+     * conditions are counted once).
+     *
+     * @return The number of compiled conditions.
+     */
+    public synchronized int getConditionCount() {
+        return conditions.size();
+    }
+
+    public synchronized long getEvaluatedCount() {
+        return evaluatedCount;
+    }
+
+    public synchronized long getConditionTestCount() {
+        return conditionTestCount;
+    }
+
+    /**
+     * Forgets the state of a unit (e.g. after the unit has been unloaded).
+     *
+     * @param unitName The full unit name.
+     */
+    public synchronized void forget(final String unitName) {
+        units.remove(unitName);
+
+        for (CompiledRule rule : rules.values()) {
+            rule.windows.remove(unitName);
+        }
+    }
+
+    private void compile() {
+        conditions.clear();
+        conditionsByKey.clear();
+        byActiveState.clear();
+        bySubState.clear();
+        generation++;
+
+        for (CompiledRule compiled : rules.values()) {
+            UnitRule rule = compiled.rule;
+            List<Condition> required = new ArrayList<>();
+
+            if (!rule.getUnitPatterns().isEmpty() || !rule.getUnitRegexes().isEmpty()) {
+                String key = "name:" + rule.getUnitPatterns() + rule.getUnitRegexes();
+                required.add(intern(key, () -> new NameCondition(UnitNameMatcher.compile(rule.getUnitPatterns(), rule.getUnitRegexes()))));
+            }
+
+            if (rule.getSlice() != null) {
+                required.add(intern("slice:" + rule.getSlice(), () -> new SliceCondition(rule.getSlice())));
+            }
+
+            if (rule.getResult() != null) {
+                required.add(intern("result:" + rule.getResult(), () -> new ResultCondition(rule.getResult())));
+            }
+
+            if (rule.getMinRestarts() > 0L) {
+                required.add(intern("restarts:" + rule.getMinRestarts(), () -> new RestartsCondition(rule.getMinRestarts())));
+            }
+
+            // Cheap per-unit conditions first
+            required.sort((c1, c2) -> Boolean.compare(!c1.perUnit, !c2.perUnit));
+
+            compiled.conditions = new int[required.size()];
+
+            for (int i = 0; i < required.size(); i++) {
+                compiled.conditions[i] = required.get(i).id;
+            }
+
+            if (rule.getActiveState() != null) {
+                byActiveState.computeIfAbsent(rule.getActiveState(), s -> new ArrayList<>()).add(compiled);
+            }
+            else {
+                bySubState.computeIfAbsent(rule.getSubState(), s -> new ArrayList<>()).add(compiled);
+            }
+        }
+
+        memo = new byte[conditions.size()];
+    }
+
+    private Condition intern(final String key, final Supplier<Condition> factory) {
+        Condition condition = conditionsByKey.get(key);
+
+        if (condition == null) {
+            condition = factory.get();
+            condition.id = conditions.size();
+            conditions.add(condition);
+            conditionsByKey.put(key, condition);
+        }
+
+        return condition;
+    }
+
+    @Override
+    public void stateChanged(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        evaluate(unit.name, unit, changedProperties);
+    }
+
+    void evaluate(final String unitName, final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> activeValue = changedProperties.get(Unit.Property.ACTIVE_STATE);
+        Variant<?> subValue = changedProperties.get(Unit.Property.SUB_STATE);
+
+        if (activeValue == null && subValue == null) {
+            return;
+        }
+
+        List<Trigger> triggers = null;
+        Facts facts = new Facts();
+        UnitStateEnum entered = null;
+        String enteredSub = null;
+        boolean transitioned = false;
+
+        while (true) {
+            int missing;
+
+            synchronized (this) {
+                UnitContext context = units.get(unitName);
+
+                if (context == null) {
+                    context = new UnitContext();
+                    units.put(unitName, context);
+                }
+
+                if (!transitioned) {
+                    if (activeValue != null) {
+                        UnitStateEnum active = UnitStateEnum.valueFromString(String.valueOf(activeValue.getValue()));
+
+                        if (active != context.activeState) {
+                            entered = active;
+                            context.activeState = active;
+                        }
+                    }
+
+                    if (subValue != null) {
+                        String sub = String.valueOf(subValue.getValue());
+
+                        if (!sub.equals(context.subState)) {
+                            enteredSub = sub;
+                            context.subState = sub;
+                        }
+                    }
+
+                    if (entered == null && enteredSub == null) {
+                        return;
+                    }
+
+                    transitioned = true;
+                }
+
+                if (context.generation != generation) {
+                    context.generation = generation;
+                    context.memo = new byte[conditions.size()];
+                }
+
+                event.reset(unitName, unit, changedProperties, context, facts);
+                Arrays.fill(memo, UNKNOWN);
+
+                List<CompiledRule> matched = new ArrayList<>(2);
+                int evaluated = 0;
+
+                if (entered != null) {
+                    evaluated += match(byActiveState.get(entered), enteredSub, matched);
+                }
+
+                if (enteredSub != null) {
+                    evaluated += match(bySubState.get(enteredSub), null, matched);
+                }
+
+                missing = event.missing;
+
+                if (missing == 0) {
+                    evaluatedCount += evaluated;
+
+                    long now = clock.getAsLong();
+
+                    for (CompiledRule compiled : matched) {
+                        int occurrences = compiled.hit(unitName, now);
+
+                        if (occurrences > 0) {
+                            if (triggers == null) {
+                                triggers = new ArrayList<>(2);
+                            }
+
+                            triggers.add(new Trigger(compiled.rule, occurrences));
+                        }
+                    }
+
+                    break;
+                }
+            }
+
+            // Bus calls for the values not carried by the signal, outside the lock
+            facts.resolve(missing, unit);
+        }
+
+        if (triggers != null) {
+            for (Trigger trigger : triggers) {
+                for (UnitRuleListener listener : listeners) {
+                    try {
+                        listener.ruleTriggered(trigger.rule, unit, trigger.occurrences);
+                    }
+                    catch (final RuntimeException e) {
+                        LOG.error(String.format("Error while notifying listener of rule '%s'", trigger.rule.getId()), e);
+                    }
+                }
+            }
+        }
+    }
+
+    private int match(final List<CompiledRule> candidates, final String enteredSub, final List<CompiledRule> matched) {
+        if (candidates == null) {
+            return 0;
+        }
+
+        for (CompiledRule compiled : candidates) {
+
+            String subState = compiled.rule.getSubState();
+
+            // Rules on both states are indexed by the active state
+            if (subState != null && compiled.rule.getActiveState() != null && !subState.equals(enteredSub != null ? enteredSub : event.context.subState)) {
+                continue;
+            }
+
+            if (test(compiled.conditions)) {
+                matched.add(compiled);
+            }
+        }
+
+        return candidates.size();
+    }
+
+    /**
+     * Tests the conditions of a rule. A condition which needs a value that
+     * is not resolved yet adds it to the missing facts of the event and
+     * fails the rule for this pass.
+     */
+    private boolean test(final int[] required) {
+        for (int id : required) {
+            Condition condition = conditions.get(id);
+            byte[] cache = condition.perUnit ? event.context.memo : memo;
+            byte value = cache[id];
+
+            if (value == UNKNOWN) {
+                int missing = condition.missing(event);
+
+                if (missing != 0) {
+                    event.missing |= missing;
+
+                    return false;
+                }
+
+                conditionTestCount++;
+                value = condition.test(event) ? TRUE : FALSE;
+                cache[id] = value;
+            }
+
+            if (value == FALSE) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static final class UnitContext {
+
+        private UnitStateEnum activeState;
+        private String subState;
+        private int generation = -1;
+        private byte[] memo;
+
+    }
+
+    /**
+     * The change under evaluation (reused, guarded by the engine lock).
+     */
+    private static final class Event {
+
+        private String unitName;
+        private Unit unit;
+        private Map<String, Variant<?>> properties;
+        private UnitContext context;
+        private Facts facts;
+        private int missing;
+
+        void reset(final String unitName, final Unit unit, final Map<String, Variant<?>> properties, final UnitContext context, final Facts facts) {
+            this.unitName = unitName;
+            this.unit = unit;
+            this.properties = properties;
+            this.context = context;
+            this.facts = facts;
+            this.missing = 0;
+        }
+
+    }
+
+    /**
+     * Values of a change which require bus calls, resolved outside the
+     * engine lock on demand.
+     */
+    private static final class Facts {
+
+        private static final int SLICE = 1;
+        private static final int RESULT = 2;
+        private static final int RESTARTS = 4;
+
+        private int resolved;
+        private String slice;
+        private String result;
+        private long restarts;
+
+        boolean isResolved(final int fact) {
+            return (resolved & fact) != 0;
+        }
+
+        void resolve(final int missing, final Unit unit) {
+            if ((missing & SLICE) != 0) {
+                slice = UnitPatternMonitor.sliceOf(unit);
+            }
+
+            if ((missing & RESULT) != 0) {
+                result = ((Service) unit).getResult();
+            }
+
+            if ((missing & RESTARTS) != 0) {
+                restarts = ((Service) unit).getNRestarts();
+            }
+
+            resolved |= missing;
+        }
+
+    }
+
+    private abstract static class Condition {
+
+        private final boolean perUnit;
+        private int id;
+
+        Condition(final boolean perUnit) {
+            this.perUnit = perUnit;
+        }
+
+        /**
+         * @return The facts to be resolved before the condition can be tested.
+         */
+        int missing(final Event event) {
+            return 0;
+        }
+
+        abstract boolean test(Event event);
+
+    }
+
+    private static final class NameCondition extends Condition {
+
+        private final UnitNameMatcher matcher;
+
+        NameCondition(final UnitNameMatcher matcher) {
+            super(true);
+
+            this.matcher = matcher;
+        }
+
+        @Override
+        boolean test(final Event event) {
+            return matcher.matches(event.unitName);
+        }
+
+    }
+
+    private static final class SliceCondition extends Condition {
+
+        private final String slice;
+
+        SliceCondition(final String slice) {
+            super(true);
+
+            this.slice = slice;
+        }
+
+        @Override
+        int missing(final Event event) {
+            return event.facts.isResolved(Facts.SLICE) ? 0 : Facts.SLICE;
+        }
+
+        @Override
+        boolean test(final Event event) {
+            return UnitPatternMonitor.isInSlice(event.facts.slice, slice);
+        }
+
+    }
+
+    private static final class ResultCondition extends Condition {
+
+        private final String result;
+
+        ResultCondition(final String result) {
+            super(false);
+
+            this.result = result;
+        }
+
+        @Override
+        int missing(final Event event) {
+            // Type specific properties are not part of the unit signal
+            if (event.properties.containsKey(Service.Property.RESULT) || !(event.unit instanceof Service)) {
+                return 0;
+            }
+
+            return event.facts.isResolved(Facts.RESULT) ? 0 : Facts.RESULT;
+        }
+
+        @Override
+        boolean test(final Event event) {
+            Variant<?> value = event.properties.get(Service.Property.RESULT);
+
+            if (value != null) {
+                return result.equals(value.getValue());
+            }
+
+            return event.unit instanceof Service && result.equals(event.facts.result);
+        }
+
+    }
+
+    private static final class RestartsCondition extends Condition {
+
+        private final long minRestarts;
+
+        RestartsCondition(final long minRestarts) {
+            super(false);
+
+            this.minRestarts = minRestarts;
+        }
+
+        @Override
+        int missing(final Event event) {
+            Variant<?> value = event.properties.get(Service.Property.N_RESTARTS);
+
+            if ((value != null && value.getValue() instanceof Number) || !(event.unit instanceof Service)) {
+                return 0;
+            }
+
+            return event.facts.isResolved(Facts.RESTARTS) ? 0 : Facts.RESTARTS;
+        }
+
+        @Override
+        boolean test(final Event event) {
+            Variant<?> value = event.properties.get(Service.Property.N_RESTARTS);
+
+            if (value != null && value.getValue() instanceof Number) {
+                return ((Number) value.getValue()).longValue() >= minRestarts;
+            }
+
+            return event.unit instanceof Service && event.facts.restarts >= minRestarts;
+        }
+
+    }
+
+    private static final class CompiledRule {
+
+        private final UnitRule rule;
+        private final long windowNanos;
+        private final Map<String, Window> windows = new HashMap<>();
+
+        private int[] conditions = new int[0];
+
+        CompiledRule(final UnitRule rule) {
+            this.rule = rule;
+            this.windowNanos = rule.getWindow(TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Records a matching transition.
+         *
+         * @return The number of occurrences within the window if the threshold is reached, zero otherwise.
+         */
+        int hit(final String unitName, final long now) {
+            int required = rule.getOccurrences();
+
+            if (required == 1) {
+                return 1;
+            }
+
+            Window window = windows.get(unitName);
+
+            if (window == null) {
+                window = new Window(required);
+                windows.put(unitName, window);
+            }
+
+            long oldest = window.add(now);
+
+            if (window.count < required) {
+                return 0;
+            }
+
+            return windowNanos == 0L || now - oldest <= windowNanos ? required : 0;
+        }
+
+    }
+
+    /**
+     * Ring of the timestamps of the last matching transitions of a unit.
+     */
+    private static final class Window {
+
+        private final long[] hits;
+        private int next;
+        private int count;
+
+        Window(final int size) {
+            this.hits = new long[size];
+        }
+
+        /** Adds a timestamp and returns the oldest timestamp retained. */
+        long add(final long timestamp) {
+            hits[next] = timestamp;
+            next = (next + 1) % hits.length;
+            count = Math.min(count + 1, hits.length);
+
+            return count < hits.length ? hits[0] : hits[next];
+        }
+
+    }
+
+    private static final class Trigger {
+
+        private final UnitRule rule;
+        private final int occurrences;
+
+        Trigger(final UnitRule rule, final int occurrences) {
+            this.rule = rule;
+            this.occurrences = occurrences;
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Immutable event of a unit, derived from the signals of the manager and
+ * the units (<code>PropertiesChanged</code>, <code>UnitNew</code>,
+ * <code>UnitRemoved</code>, <code>JobNew</code> and <code>JobRemoved</code>).
+ */
+public final class UnitStateEvent {
+
+    public enum Type {
+        PROPERTIES_CHANGED,
+        UNIT_NEW,
+        UNIT_REMOVED,
+        JOB_NEW,
+        JOB_REMOVED
+    }
+
+    private final Type type;
+    private final String unitName;
+    private final Map<String, Variant<?>> changedProperties;
+    private final long jobId;
+    private final String jobResult;
+    private final long timestamp;
+
+    private UnitStateEvent(final Type type, final String unitName, final Map<String, Variant<?>> changedProperties, final long jobId, final String jobResult) {
+        this.type = Objects.requireNonNull(type);
+        this.unitName = Objects.requireNonNull(unitName);
+        this.changedProperties = changedProperties;
+        this.jobId = jobId;
+        this.jobResult = jobResult;
+        this.timestamp = System.nanoTime();
+    }
+
+    public static UnitStateEvent propertiesChanged(final String unitName, final Map<String, Variant<?>> changedProperties) {
+        return new UnitStateEvent(Type.PROPERTIES_CHANGED, unitName, Collections.unmodifiableMap(new LinkedHashMap<>(changedProperties)), 0L, null);
+    }
+
+    public static UnitStateEvent unitNew(final String unitName) {
+        return new UnitStateEvent(Type.UNIT_NEW, unitName, Collections.emptyMap(), 0L, null);
+    }
+
+    public static UnitStateEvent unitRemoved(final String unitName) {
+        return new UnitStateEvent(Type.UNIT_REMOVED, unitName, Collections.emptyMap(), 0L, null);
+    }
+
+    public static UnitStateEvent jobNew(final String unitName, final long jobId) {
+        return new UnitStateEvent(Type.JOB_NEW, unitName, Collections.emptyMap(), jobId, null);
+    }
+
+    public static UnitStateEvent jobRemoved(final String unitName, final long jobId, final String result) {
+        return new UnitStateEvent(Type.JOB_REMOVED, unitName, Collections.emptyMap(), jobId, result);
+    }
+
+    /**
+     * Merges the changed properties of a later event of the same unit into
+     * this event (last value wins per property).
+     *
+     * @param later The later event.
+     * @return The merged event.
+     */
+    UnitStateEvent merge(final UnitStateEvent later) {
+        Map<String, Variant<?>> merged = new LinkedHashMap<>(changedProperties);
+        merged.putAll(later.changedProperties);
+
+        return new UnitStateEvent(Type.PROPERTIES_CHANGED, unitName, Collections.unmodifiableMap(merged), 0L, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the (unescaped) full name of the unit, e.g. "cronie.service".
+     *
+     * @return The unit name.
+     */
+    public String getUnitName() {
+        return unitName;
+    }
+
+    public Map<String, Variant<?>> getChangedProperties() {
+        return changedProperties;
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+
+    public String getJobResult() {
+        return jobResult;
+    }
+
+    /**
+     * Returns the time of reception as value of {@link System#nanoTime()}.
+     *
+     * @return The monotonic timestamp.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case PROPERTIES_CHANGED:
+                return String.format("%s %s %s", type, unitName, changedProperties.keySet());
+            case JOB_NEW:
+                return String.format("%s %s (job %d)", type, unitName, jobId);
+            case JOB_REMOVED:
+                return String.format("%s %s (job %d, %s)", type, unitName, jobId, jobResult);
+            default:
+                return String.format("%s %s", type, unitName);
+        }
+    }
+
+}
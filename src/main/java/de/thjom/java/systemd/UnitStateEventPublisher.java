@@ -0,0 +1,508 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties.PropertiesChanged;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.thjom.java.systemd.QueuedUnitStateListener.OverflowPolicy;
+import de.thjom.java.systemd.interfaces.ManagerInterface.JobNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.JobRemoved;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitRemoved;
+
+/**
+ * Reactive Streams publisher of {@link UnitStateEvent}s which honors the
+ * demand of each subscriber.<p>
+ *
+ * Each subscriber owns a bounded buffer; if a subscriber does not request
+ * fast enough, the {@link OverflowPolicy} decides which events are given up
+ * ({@link OverflowPolicy#BLOCK} stalls the signal thread). Signal handlers
+ * are registered on the first subscription and removed along the last
+ * cancellation. With <i>replay latest</i> enabled, a late subscriber first
+ * receives the known properties of each unit, merged from all its property
+ * changes into one event (limited to the buffer size).
+ */
+public class UnitStateEventPublisher implements Publisher<UnitStateEvent>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnitStateEventPublisher.class);
+
+    private final Manager manager;
+    private final Predicate<String> unitFilter;
+    private final int bufferSize;
+    private final OverflowPolicy policy;
+    private final boolean replayLatest;
+    private final Executor executor;
+
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Map<String, UnitStateEvent> latestEvents = new HashMap<>();
+
+    // Orders publishing against the replay to new subscribers
+    private final Object publishLock = new Object();
+
+    private final MatchRule stateMatchRule = MatchRule.unitPropertiesChanged();
+    private DBusSigHandler<PropertiesChanged> propertiesHandler;
+    private DBusSigHandler<UnitNew> unitNewHandler;
+    private DBusSigHandler<UnitRemoved> unitRemovedHandler;
+    private DBusSigHandler<JobNew> jobNewHandler;
+    private DBusSigHandler<JobRemoved> jobRemovedHandler;
+
+    private boolean closed;
+
+    public UnitStateEventPublisher(final Manager manager, final int bufferSize, final OverflowPolicy policy, final boolean replayLatest) {
+        this(manager, name -> true, bufferSize, policy, replayLatest, ForkJoinPool.commonPool());
+    }
+
+    public UnitStateEventPublisher(final Manager manager, final Predicate<String> unitFilter, final int bufferSize, final OverflowPolicy policy, final boolean replayLatest, final Executor executor) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+
+        this.manager = Objects.requireNonNull(manager);
+        this.unitFilter = Objects.requireNonNull(unitFilter);
+        this.bufferSize = bufferSize;
+        this.policy = Objects.requireNonNull(policy);
+        this.replayLatest = replayLatest;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super UnitStateEvent> subscriber) {
+        Objects.requireNonNull(subscriber);
+
+        EventSubscription subscription = new EventSubscription(subscriber);
+
+        synchronized (this) {
+            if (closed) {
+                subscription.complete();
+                subscription.start();
+
+                return;
+            }
+
+            if (subscriptions.isEmpty()) {
+                try {
+                    attach();
+                }
+                catch (final DBusException e) {
+                    subscription.fail(e);
+                    subscription.start();
+
+                    return;
+                }
+            }
+
+            synchronized (publishLock) {
+                if (replayLatest) {
+                    latestEvents.values().forEach(subscription::replay);
+                }
+
+                subscriptions.add(subscription);
+            }
+        }
+
+        subscription.start();
+    }
+
+    /**
+     * Publishes an event to all current subscribers (events of units not
+     * accepted by the unit filter are ignored).
+     *
+     * @param event The event.
+     */
+    public void publish(final UnitStateEvent event) {
+        if (!unitFilter.test(event.getUnitName())) {
+            return;
+        }
+
+        synchronized (publishLock) {
+            if (replayLatest) {
+                if (event.getType() == UnitStateEvent.Type.UNIT_REMOVED) {
+                    latestEvents.remove(event.getUnitName());
+                }
+                else if (event.getType() == UnitStateEvent.Type.PROPERTIES_CHANGED) {
+                    latestEvents.merge(event.getUnitName(), event, UnitStateEvent::merge);
+                }
+            }
+
+            for (EventSubscription subscription : subscriptions) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Completes all subscriptions and removes the signal handlers.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        for (EventSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+
+        synchronized (this) {
+            subscriptions.clear();
+            detachQuietly();
+        }
+
+        synchronized (publishLock) {
+            latestEvents.clear();
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Returns the number of events that were given up for slow subscribers.
+     *
+     * @return The sum of all dropped events.
+     */
+    public long getDroppedCount() {
+        long dropped = 0L;
+
+        for (EventSubscription subscription : subscriptions) {
+            dropped += subscription.dropped.get();
+        }
+
+        return dropped;
+    }
+
+    private void attach() throws DBusException {
+        propertiesHandler = s -> publish(UnitStateEvent.propertiesChanged(Systemd.unescapePath(Unit.extractName(s.getPath())), s.getPropertiesChanged()));
+        unitNewHandler = s -> publish(UnitStateEvent.unitNew(s.getId()));
+        unitRemovedHandler = s -> publish(UnitStateEvent.unitRemoved(s.getId()));
+        jobNewHandler = s -> publish(UnitStateEvent.jobNew(s.getUnit(), s.getId()));
+        jobRemovedHandler = s -> publish(UnitStateEvent.jobRemoved(s.getUnit(), s.getId(), s.getResult()));
+
+        manager.subscribe();
+
+        try {
+            manager.addHandler(stateMatchRule, PropertiesChanged.class, propertiesHandler);
+            manager.addHandler(UnitNew.class, unitNewHandler);
+            manager.addHandler(UnitRemoved.class, unitRemovedHandler);
+            manager.addHandler(JobNew.class, jobNewHandler);
+            manager.addHandler(JobRemoved.class, jobRemovedHandler);
+        }
+        catch (final DBusException e) {
+            detachQuietly();
+
+            throw e;
+        }
+    }
+
+    private void detachQuietly() {
+        if (propertiesHandler == null) {
+            return;
+        }
+
+        try {
+            manager.removeHandler(stateMatchRule, PropertiesChanged.class, propertiesHandler);
+            manager.removeHandler(UnitNew.class, unitNewHandler);
+            manager.removeHandler(UnitRemoved.class, unitRemovedHandler);
+            manager.removeHandler(JobNew.class, jobNewHandler);
+            manager.removeHandler(JobRemoved.class, jobRemovedHandler);
+        }
+        catch (final DBusException e) {
+            LOG.error("Unable to remove signal handlers of event publisher", e);
+        }
+        finally {
+            manager.unsubscribe();
+
+            propertiesHandler = null;
+        }
+    }
+
+    private void remove(final EventSubscription subscription) {
+        synchronized (this) {
+            if (subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+                detachQuietly();
+            }
+        }
+    }
+
+    private final class EventSubscription implements Subscription {
+
+        private final Subscriber<? super UnitStateEvent> subscriber;
+
+        private final ArrayDeque<UnitStateEvent> buffer = new ArrayDeque<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong dropped = new AtomicLong();
+
+        private volatile boolean started;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Throwable error;
+
+        EventSubscription(final Subscriber<? super UnitStateEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            subscriber.onSubscribe(this);
+
+            // No terminal signal must precede onSubscribe (rule 1.9)
+            started = true;
+            schedule();
+        }
+
+        void replay(final UnitStateEvent event) {
+            synchronized (buffer) {
+                if (buffer.size() >= bufferSize) {
+                    buffer.pollFirst();
+                    dropped.incrementAndGet();
+                }
+
+                buffer.addLast(event);
+            }
+        }
+
+        void offer(final UnitStateEvent event) {
+            if (cancelled || done) {
+                return;
+            }
+
+            synchronized (buffer) {
+                if (buffer.size() >= bufferSize && !makeRoom(event)) {
+                    return;
+                }
+
+                buffer.addLast(event);
+
+                // Wake up a blocked producer (delivery happens outside the lock)
+                buffer.notifyAll();
+            }
+
+            schedule();
+        }
+
+        /**
+         * Applies the overflow policy on a full buffer (lock held).
+         *
+         * @return <code>true</code> if the event still needs to be buffered.
+         */
+        private boolean makeRoom(final UnitStateEvent event) {
+            switch (policy) {
+                case BLOCK:
+                    while (buffer.size() >= bufferSize && !cancelled && !done) {
+                        schedule();
+
+                        try {
+                            buffer.wait(100L);
+                        }
+                        catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped.incrementAndGet();
+
+                            return false;
+                        }
+                    }
+
+                    return !cancelled && !done;
+                case COALESCE:
+                    if (event.getType() == UnitStateEvent.Type.PROPERTIES_CHANGED) {
+                        Iterator<UnitStateEvent> it = buffer.descendingIterator();
+
+                        while (it.hasNext()) {
+                            UnitStateEvent queued = it.next();
+
+                            if (queued.getUnitName().equals(event.getUnitName())) {
+                                if (queued.getType() != UnitStateEvent.Type.PROPERTIES_CHANGED) {
+                                    // Never merge across lifecycle or job events
+                                    break;
+                                }
+
+                                it.remove();
+                                buffer.addLast(queued.merge(event));
+                                dropped.incrementAndGet();
+
+                                return false;
+                            }
+                        }
+                    }
+
+                    buffer.pollFirst();
+                    dropped.incrementAndGet();
+
+                    return true;
+                case DROP_OLDEST:
+                default:
+                    buffer.pollFirst();
+                    dropped.incrementAndGet();
+
+                    return true;
+            }
+        }
+
+        void complete() {
+            done = true;
+            schedule();
+        }
+
+        void fail(final Throwable t) {
+            error = t;
+            done = true;
+            schedule();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0L) {
+                synchronized (buffer) {
+                    buffer.clear();
+                    buffer.notifyAll();
+                }
+
+                remove(this);
+                fail(new IllegalArgumentException("Non-positive request (rule 3.9): " + n));
+
+                return;
+            }
+
+            requested.accumulateAndGet(n, (current, add) -> {
+                long sum = current + add;
+
+                return sum < 0L ? Long.MAX_VALUE : sum;
+            });
+
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+
+                synchronized (buffer) {
+                    buffer.clear();
+                    buffer.notifyAll();
+                }
+
+                remove(this);
+            }
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                }
+                catch (final RuntimeException e) {
+                    wip.set(0);
+                    LOG.error("Unable to schedule event delivery", e);
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+
+            while (true) {
+                long demand = requested.get();
+                long emitted = 0L;
+
+                while (emitted != demand) {
+                    if (cancelled) {
+                        return;
+                    }
+
+                    UnitStateEvent event;
+
+                    synchronized (buffer) {
+                        event = buffer.pollFirst();
+                        buffer.notifyAll();
+                    }
+
+                    if (event == null) {
+                        break;
+                    }
+
+                    try {
+                        subscriber.onNext(event);
+                    }
+                    catch (final RuntimeException e) {
+                        LOG.error("Subscriber failed on event (rule 2.13), cancelling subscription", e);
+                        cancel();
+
+                        return;
+                    }
+
+                    emitted++;
+                }
+
+                if (cancelled) {
+                    return;
+                }
+
+                if (done && started && isEmpty()) {
+                    cancelled = true;
+
+                    if (error != null) {
+                        subscriber.onError(error);
+                    }
+                    else {
+                        subscriber.onComplete();
+                    }
+
+                    return;
+                }
+
+                if (emitted != 0L && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+
+                missed = wip.addAndGet(-missed);
+
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            synchronized (buffer) {
+                return buffer.isEmpty();
+            }
+        }
+
+    }
+
+}
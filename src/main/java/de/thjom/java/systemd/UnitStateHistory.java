@@ -0,0 +1,502 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.freedesktop.dbus.types.Variant;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+
+/**
+ * Recorder of the last <i>N</i> <code>ActiveState</code>/<code>SubState</code>
+ * transitions per unit.<p>
+ *
+ * Transitions are kept in fixed-size ring buffers of primitives (state
+ * ordinals, dictionary indices of sub-states and results, monotonic
+ * timestamps) which are allocated once per unit, so that recording does not
+ * allocate. On entering the <code>failed</code> state the
+ * <code>ExecMainStatus</code> and <code>Result</code> values of the unit are
+ * recorded as well.
+ */
+public class UnitStateHistory implements UnitStateListener {
+
+    private static final String ACTIVE_STATE = Unit.Property.ACTIVE_STATE;
+    private static final String SUB_STATE = Unit.Property.SUB_STATE;
+    private static final String RESULT = Service.Property.RESULT;
+    private static final String EXEC_MAIN_STATUS = Service.Property.EXEC_MAIN_STATUS;
+
+    private static final UnitStateEnum[] STATES = UnitStateEnum.values();
+
+    private static final int NONE = -1;
+
+    private static final String AUTO_RESTART = "auto-restart";
+
+    private final int capacity;
+    private final LongSupplier clock;
+
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    // Dictionaries of the (few) distinct sub-state and result strings
+    private final Map<String, Integer> symbolIds = new ConcurrentHashMap<>();
+    private final List<String> symbols = new ArrayList<>();
+
+    /**
+     * Visitor of recorded transitions (avoids materializing transition
+     * objects on hot query paths).
+     */
+    @FunctionalInterface
+    public interface TransitionVisitor {
+
+        /**
+         * @param timestamp The monotonic timestamp (see {@link System#nanoTime()}).
+         * @param activeState The active state entered.
+         * @param subState The sub-state entered.
+         * @param result The result on failure (<code>null</code> otherwise).
+         * @param exitStatus The main process exit status on failure.
+         */
+        void visit(long timestamp, UnitStateEnum activeState, String subState, String result, int exitStatus);
+
+    }
+
+    public UnitStateHistory(final int capacity) {
+        this(capacity, System::nanoTime);
+    }
+
+    UnitStateHistory(final int capacity, final LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.clock = clock;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void stateChanged(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        record(unit.name, unit, changedProperties);
+    }
+
+    void record(final String unitName, final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> activeValue = changedProperties.get(ACTIVE_STATE);
+        Variant<?> subValue = changedProperties.get(SUB_STATE);
+
+        if (activeValue == null && subValue == null) {
+            return;
+        }
+
+        Ring ring = rings.get(unitName);
+
+        if (ring == null) {
+            ring = rings.computeIfAbsent(unitName, n -> new Ring(capacity));
+        }
+
+        long timestamp = clock.getAsLong();
+
+        String failedResult = null;
+        int failedStatus = 0;
+        boolean failed = activeValue != null && UnitStateEnum.valueFromString(String.valueOf(activeValue.getValue())) == UnitStateEnum.FAILED;
+
+        if (failed) {
+            // Possibly bus calls, not to be made while holding the ring
+            failedResult = failureResult(unit, changedProperties);
+            failedStatus = failureStatus(unit, changedProperties);
+        }
+
+        synchronized (ring) {
+            int active = activeValue != null ? UnitStateEnum.valueFromString(String.valueOf(activeValue.getValue())).ordinal() : ring.lastActive();
+            int sub = subValue != null ? symbol(String.valueOf(subValue.getValue())) : ring.lastSub();
+
+            if (ring.size > 0 && active == ring.lastActive() && sub == ring.lastSub()) {
+                return;
+            }
+
+            int result = NONE;
+            int exitStatus = 0;
+
+            if (failed) {
+                result = symbol(failedResult);
+                exitStatus = failedStatus;
+            }
+            else if (active == UnitStateEnum.FAILED.ordinal()) {
+                // Sub state change within the same failure
+                result = ring.lastResult();
+                exitStatus = ring.lastExitStatus();
+            }
+
+            ring.add(timestamp, active, sub, result, exitStatus);
+        }
+    }
+
+    private static String failureResult(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> value = changedProperties.get(RESULT);
+
+        if (value != null) {
+            return String.valueOf(value.getValue());
+        }
+
+        // Type specific properties are not part of the unit signal
+        return unit instanceof Service ? ((Service) unit).getResult() : null;
+    }
+
+    private static int failureStatus(final Unit unit, final Map<String, Variant<?>> changedProperties) {
+        Variant<?> value = changedProperties.get(EXEC_MAIN_STATUS);
+
+        if (value != null && value.getValue() instanceof Number) {
+            return ((Number) value.getValue()).intValue();
+        }
+
+        return unit instanceof Service ? ((Service) unit).getExecMainStatus() : 0;
+    }
+
+    private int symbol(final String value) {
+        if (value == null) {
+            return NONE;
+        }
+
+        Integer id = symbolIds.get(value);
+
+        if (id == null) {
+            synchronized (symbols) {
+                id = symbolIds.get(value);
+
+                if (id == null) {
+                    id = symbols.size();
+                    symbols.add(value);
+                    symbolIds.put(value, id);
+                }
+            }
+        }
+
+        return id;
+    }
+
+    private String symbolName(final int id) {
+        if (id == NONE) {
+            return null;
+        }
+
+        synchronized (symbols) {
+            return symbols.get(id);
+        }
+    }
+
+    /**
+     * Visits the transitions of a unit within the given time window (oldest
+     * first).
+     *
+     * @param unitName The full unit name.
+     * @param window The length of the window up to now.
+     * @param unit The time unit of the window.
+     * @param visitor The visitor.
+     * @return The number of visited transitions.
+     */
+    public int visitTransitions(final String unitName, final long window, final TimeUnit unit, final TransitionVisitor visitor) {
+        Ring ring = rings.get(unitName);
+
+        if (ring == null) {
+            return 0;
+        }
+
+        long since = clock.getAsLong() - unit.toNanos(window);
+        int visited = 0;
+
+        synchronized (ring) {
+            for (int i = ring.indexSince(since); i < ring.size; i++) {
+                int slot = ring.slot(i);
+
+                visitor.visit(ring.timestamps[slot], STATES[ring.activeStates[slot]], symbolName(ring.subStates[slot]), symbolName(ring.results[slot]), ring.exitStatuses[slot]);
+                visited++;
+            }
+        }
+
+        return visited;
+    }
+
+    public List<Transition> getTransitions(final String unitName, final long window, final TimeUnit unit) {
+        List<Transition> transitions = new ArrayList<>();
+
+        visitTransitions(unitName, window, unit, (t, a, s, r, e) -> transitions.add(new Transition(t, a, s, r, e)));
+
+        return transitions;
+    }
+
+    public int countTransitions(final String unitName, final long window, final TimeUnit unit) {
+        Ring ring = rings.get(unitName);
+
+        if (ring == null) {
+            return 0;
+        }
+
+        long since = clock.getAsLong() - unit.toNanos(window);
+
+        synchronized (ring) {
+            return ring.size - ring.indexSince(since);
+        }
+    }
+
+    /**
+     * Counts the starts of a unit within the given window, i.e. transitions
+     * from <code>deactivating</code>, <code>inactive</code> or
+     * <code>failed</code> to <code>activating</code> or <code>active</code>,
+     * and entries into the sub state <code>auto-restart</code> (a restart
+     * loop never leaves the activating and active states).
+     *
+     * @param unitName The full unit name.
+     * @param window The length of the window up to now.
+     * @param unit The time unit of the window.
+     * @return The number of starts.
+     */
+    public int countStarts(final String unitName, final long window, final TimeUnit unit) {
+        Ring ring = rings.get(unitName);
+
+        if (ring == null) {
+            return 0;
+        }
+
+        long since = clock.getAsLong() - unit.toNanos(window);
+        Integer autoRestart = symbolIds.get(AUTO_RESTART);
+        int autoRestartId = autoRestart != null ? autoRestart : NONE;
+        int starts = 0;
+
+        synchronized (ring) {
+            int first = ring.indexSince(since);
+
+            for (int i = Math.max(1, first); i < ring.size; i++) {
+                int previous = ring.slot(i - 1);
+                int current = ring.slot(i);
+
+                if (isStart(ring.activeStates[previous], ring.subStates[previous], ring.activeStates[current], ring.subStates[current], autoRestartId)) {
+                    starts++;
+                }
+            }
+        }
+
+        return starts;
+    }
+
+    private static boolean isStart(final int previous, final int previousSub, final int current, final int currentSub, final int autoRestart) {
+        boolean wasDown = previous == UnitStateEnum.DEACTIVATING.ordinal() || previous == UnitStateEnum.INACTIVE.ordinal() || previous == UnitStateEnum.FAILED.ordinal();
+        boolean isUp = current == UnitStateEnum.ACTIVING.ordinal() || current == UnitStateEnum.ACTIVE.ordinal();
+        boolean restarting = currentSub != NONE && currentSub == autoRestart && previousSub != autoRestart;
+
+        return isUp && (wasDown || restarting);
+    }
+
+    public int countFailures(final String unitName, final long window, final TimeUnit unit) {
+        Ring ring = rings.get(unitName);
+
+        if (ring == null) {
+            return 0;
+        }
+
+        long since = clock.getAsLong() - unit.toNanos(window);
+        int failures = 0;
+
+        synchronized (ring) {
+            for (int i = ring.indexSince(since); i < ring.size; i++) {
+                if (ring.activeStates[ring.slot(i)] == UnitStateEnum.FAILED.ordinal()) {
+                    failures++;
+                }
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Returns the names of all units which have been started at least
+     * <code>threshold</code> times within the given window.
+     *
+     * @param threshold The minimum number of starts.
+     * @param window The length of the window up to now.
+     * @param unit The time unit of the window.
+     * @return The names of the flapping units.
+     */
+    public Set<String> getFlappingUnits(final int threshold, final long window, final TimeUnit unit) {
+        Set<String> flapping = new HashSet<>();
+
+        for (String unitName : rings.keySet()) {
+            if (countStarts(unitName, window, unit) >= threshold) {
+                flapping.add(unitName);
+            }
+        }
+
+        return flapping;
+    }
+
+    public Set<String> getUnitNames() {
+        return Collections.unmodifiableSet(rings.keySet());
+    }
+
+    public void remove(final String unitName) {
+        rings.remove(unitName);
+    }
+
+    /**
+     * Drops the history of all units not contained in the given collection.
+     *
+     * @param units The units to keep.
+     */
+    public void retain(final Collection<Unit> units) {
+        Set<String> names = new HashSet<>();
+        units.forEach(u -> names.add(u.name));
+
+        rings.keySet().retainAll(names);
+    }
+
+    public void clear() {
+        rings.clear();
+    }
+
+    /**
+     * Recorded transition (query result).
+     */
+    public static final class Transition {
+
+        private final long timestamp;
+        private final UnitStateEnum activeState;
+        private final String subState;
+        private final String result;
+        private final int exitStatus;
+
+        Transition(final long timestamp, final UnitStateEnum activeState, final String subState, final String result, final int exitStatus) {
+            this.timestamp = timestamp;
+            this.activeState = activeState;
+            this.subState = subState;
+            this.result = result;
+            this.exitStatus = exitStatus;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public UnitStateEnum getActiveState() {
+            return activeState;
+        }
+
+        public String getSubState() {
+            return subState;
+        }
+
+        public String getResult() {
+            return result;
+        }
+
+        public int getExitStatus() {
+            return exitStatus;
+        }
+
+        @Override
+        public String toString() {
+            if (result != null) {
+                return String.format("%s (%s) [result=%s, status=%d]", activeState.state, subState, result, exitStatus);
+            }
+
+            return String.format("%s (%s)", activeState.state, subState);
+        }
+
+    }
+
+    private static final class Ring {
+
+        private final long[] timestamps;
+        private final byte[] activeStates;
+        private final int[] subStates;
+        private final int[] results;
+        private final int[] exitStatuses;
+
+        private int head;
+        private int size;
+
+        Ring(final int capacity) {
+            this.timestamps = new long[capacity];
+            this.activeStates = new byte[capacity];
+            this.subStates = new int[capacity];
+            this.results = new int[capacity];
+            this.exitStatuses = new int[capacity];
+        }
+
+        void add(final long timestamp, final int active, final int sub, final int result, final int exitStatus) {
+            int slot = (head + size) % timestamps.length;
+
+            if (size == timestamps.length) {
+                head = (head + 1) % timestamps.length;
+            }
+            else {
+                size++;
+            }
+
+            timestamps[slot] = timestamp;
+            activeStates[slot] = (byte) active;
+            subStates[slot] = sub;
+            results[slot] = result;
+            exitStatuses[slot] = exitStatus;
+        }
+
+        /** Maps the logical index (0 = oldest) to the array slot. */
+        int slot(final int index) {
+            return (head + index) % timestamps.length;
+        }
+
+        int lastActive() {
+            return size > 0 ? activeStates[slot(size - 1)] : UnitStateEnum.UNKNOWN.ordinal();
+        }
+
+        int lastSub() {
+            return size > 0 ? subStates[slot(size - 1)] : NONE;
+        }
+
+        int lastResult() {
+            return size > 0 ? results[slot(size - 1)] : NONE;
+        }
+
+        int lastExitStatus() {
+            return size > 0 ? exitStatuses[slot(size - 1)] : 0;
+        }
+
+        /** Returns the logical index of the oldest transition not older than the given timestamp (binary search). */
+        int indexSince(final long since) {
+            int low = 0;
+            int high = size;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+
+                if (timestamps[slot(mid)] - since < 0L) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.freedesktop.dbus.types.UInt64;
+import org.freedesktop.dbus.types.Variant;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.BootAnalyzer.BootTimes;
+import de.thjom.java.systemd.BootAnalyzer.ChainLink;
+import de.thjom.java.systemd.BootAnalyzer.UnitTimes;
+
+public class BootAnalyzerTest {
+
+    private static Map<String, Variant<?>> unit(final long activating, final long activated, final String... after) {
+        Map<String, Variant<?>> properties = new HashMap<>();
+        properties.put(Unit.Property.INACTIVE_EXIT_TIMESTAMP_MONOTONIC, new Variant<>(new UInt64(activating)));
+        properties.put(Unit.Property.ACTIVE_ENTER_TIMESTAMP_MONOTONIC, new Variant<>(new UInt64(activated)));
+        properties.put(Unit.Property.AFTER, new Variant<>(Arrays.asList(after), "as"));
+
+        return properties;
+    }
+
+    private static BootAnalyzer createAnalyzer() {
+        Map<String, Variant<?>> manager = new HashMap<>();
+        manager.put(Manager.Property.FIRMWARE_TIMESTAMP_MONOTONIC, new Variant<>(new UInt64(5_000_000L)));
+        manager.put(Manager.Property.LOADER_TIMESTAMP_MONOTONIC, new Variant<>(new UInt64(2_000_000L)));
+        manager.put(Manager.Property.INIT_RD_TIMESTAMP_MONOTONIC, new Variant<>(new UInt64(1_000_000L)));
+        manager.put(Manager.Property.USERSPACE_TIMESTAMP_MONOTONIC, new Variant<>(new UInt64(3_000_000L)));
+        manager.put(Manager.Property.FINISH_TIMESTAMP_MONOTONIC, new Variant<>(new UInt64(10_000_000L)));
+
+        Map<String, Map<String, Variant<?>>> units = new HashMap<>();
+        units.put("multi-user.target", unit(9_000_000L, 9_000_000L, "app.service", "cron.service", "late.service"));
+        units.put("app.service", unit(6_000_000L, 9_000_000L, "db.service", "network.target"));
+        units.put("cron.service", unit(4_000_000L, 4_500_000L, "network.target"));
+        units.put("db.service", unit(4_000_000L, 6_000_000L, "network.target"));
+        units.put("network.target", unit(3_900_000L, 3_900_000L));
+        units.put("late.service", unit(20_000_000L, 21_000_000L));
+
+        return new BootAnalyzer(manager, "multi-user.target", units);
+    }
+
+    @Test(description="Tests the durations of the boot phases.")
+    public void testBootTimes() {
+        BootTimes times = createAnalyzer().getBootTimes();
+
+        Assert.assertTrue(times.isFinished());
+        Assert.assertEquals(times.getFirmware(), 3_000_000L);
+        Assert.assertEquals(times.getLoader(), 2_000_000L);
+        Assert.assertEquals(times.getKernel(), 1_000_000L);
+        Assert.assertEquals(times.getInitRD(), 2_000_000L);
+        Assert.assertEquals(times.getUserspace(), 7_000_000L);
+        Assert.assertEquals(times.getTotal(), 15_000_000L);
+    }
+
+    @Test(description="Tests the units ordered by activation time.")
+    public void testBlame() {
+        List<String> names = new ArrayList<>();
+        List<UnitTimes> blame = createAnalyzer().blame();
+        blame.forEach(t -> names.add(t.getUnitName()));
+
+        Assert.assertEquals(names, Arrays.asList("app.service", "db.service", "late.service", "cron.service"));
+        Assert.assertEquals(blame.get(0).getActivationTime(), 3_000_000L);
+    }
+
+    @Test(description="Tests the critical chain.")
+    public void testCriticalChain() {
+        BootAnalyzer analyzer = createAnalyzer();
+
+        List<String> names = new ArrayList<>();
+        List<ChainLink> chain = analyzer.criticalChain();
+        chain.forEach(l -> names.add(l.getUnitName()));
+
+        // The late unit was activated after boot and the cron service earlier than the app
+        Assert.assertEquals(names, Arrays.asList("multi-user.target", "app.service", "db.service", "network.target"));
+        Assert.assertEquals(chain.get(2).getLevel(), 2);
+        Assert.assertEquals(chain.get(2).getActivatedOffset(), 3_000_000L);
+        Assert.assertEquals(chain.get(2).getActivationTime(), 2_000_000L);
+
+        // Tolerance includes the cron service
+        Assert.assertEquals(analyzer.criticalChain("multi-user.target", 5_000_000L).size(), 7);
+
+        Assert.assertTrue(analyzer.criticalChain("unknown.target", 0L).isEmpty());
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CgroupAccountingBackendTest {
+
+    private CgroupTree tree;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tree = new CgroupTree("cgroup");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        tree.close();
+    }
+
+    private static long[] newValues() {
+        long[] values = new long[ResourceMetric.values().length];
+        Arrays.fill(values, ResourceSample.NOT_AVAILABLE);
+
+        return values;
+    }
+
+    @Test(description="Tests reading from the unified hierarchy.")
+    public void testUnified() throws Exception {
+        tree.write("cgroup.controllers", "cpu io memory pids\n");
+        tree.write("system.slice/app.service/memory.current", "4096\n");
+        tree.write("system.slice/app.service/memory.high", "max\n");
+        tree.write("system.slice/app.service/memory.max", "1073741824\n");
+        tree.write("system.slice/app.service/pids.current", "7\n");
+        tree.write("system.slice/app.service/cpu.stat", "usage_usec 1500\nuser_usec 1000\nsystem_usec 500\n");
+        tree.write("system.slice/app.service/io.stat", "8:0 rbytes=100 wbytes=200 rios=1 wios=2 dbytes=0 dios=0\n8:16 rbytes=10 wbytes=20 rios=3 wios=4 dbytes=0 dios=0\n");
+
+        int[] resolved = new int[1];
+        CgroupAccountingBackend backend = new CgroupAccountingBackend(tree.getRoot(), name -> {
+            resolved[0]++;
+
+            return "/system.slice/" + name;
+        });
+
+        Assert.assertTrue(backend.isUnified());
+
+        long[] values = newValues();
+        backend.read("app.service", values);
+
+        Assert.assertEquals(values[ResourceMetric.MEMORY_CURRENT.ordinal()], 4096L);
+        Assert.assertEquals(values[ResourceMetric.MEMORY_HIGH.ordinal()], ResourceSample.NOT_AVAILABLE);
+        Assert.assertEquals(values[ResourceMetric.MEMORY_MAX.ordinal()], 1073741824L);
+        Assert.assertEquals(values[ResourceMetric.TASKS_CURRENT.ordinal()], 7L);
+        Assert.assertEquals(values[ResourceMetric.CPU_USAGE_NSEC.ordinal()], 1500000L);
+        Assert.assertEquals(values[ResourceMetric.IO_READ_BYTES.ordinal()], 110L);
+        Assert.assertEquals(values[ResourceMetric.IO_WRITE_BYTES.ordinal()], 220L);
+        Assert.assertEquals(values[ResourceMetric.IO_READ_OPERATIONS.ordinal()], 4L);
+        Assert.assertEquals(values[ResourceMetric.IO_WRITE_OPERATIONS.ordinal()], 6L);
+        Assert.assertEquals(values[ResourceMetric.IP_INGRESS_BYTES.ordinal()], ResourceSample.NOT_AVAILABLE);
+
+        // Files are kept open and re-read
+        tree.write("system.slice/app.service/memory.current", "8192\n");
+
+        values = newValues();
+        backend.read("app.service", values);
+
+        Assert.assertEquals(values[ResourceMetric.MEMORY_CURRENT.ordinal()], 8192L);
+        Assert.assertEquals(resolved[0], 1);
+
+        backend.release("app.service");
+        backend.read("app.service", newValues());
+        Assert.assertEquals(resolved[0], 2);
+    }
+
+    @Test(description="Tests reading from the legacy hierarchy.")
+    public void testLegacy() throws Exception {
+        tree.write("memory/system.slice/app.service/memory.usage_in_bytes", "4096\n");
+        tree.write("memory/system.slice/app.service/memory.soft_limit_in_bytes", "9223372036854771712\n");
+        tree.write("memory/system.slice/app.service/memory.limit_in_bytes", "65536\n");
+        tree.write("cpuacct/system.slice/app.service/cpuacct.usage", "123456789\n");
+        tree.write("pids/system.slice/app.service/pids.current", "3\n");
+        tree.write("blkio/system.slice/app.service/blkio.throttle.io_service_bytes", "8:0 Read 100\n8:0 Write 200\n8:0 Total 300\n8:16 Read 5\nTotal 305\n");
+        tree.write("blkio/system.slice/app.service/blkio.throttle.io_serviced", "8:0 Read 1\n8:0 Write 2\n8:0 Total 3\nTotal 3\n");
+
+        CgroupAccountingBackend backend = new CgroupAccountingBackend(tree.getRoot(), name -> "/system.slice/" + name);
+
+        Assert.assertFalse(backend.isUnified());
+
+        long[] values = newValues();
+        backend.read("app.service", values);
+
+        Assert.assertEquals(values[ResourceMetric.MEMORY_CURRENT.ordinal()], 4096L);
+        Assert.assertEquals(values[ResourceMetric.MEMORY_HIGH.ordinal()], ResourceSample.NOT_AVAILABLE);
+        Assert.assertEquals(values[ResourceMetric.MEMORY_MAX.ordinal()], 65536L);
+        Assert.assertEquals(values[ResourceMetric.CPU_USAGE_NSEC.ordinal()], 123456789L);
+        Assert.assertEquals(values[ResourceMetric.TASKS_CURRENT.ordinal()], 3L);
+        Assert.assertEquals(values[ResourceMetric.IO_READ_BYTES.ordinal()], 105L);
+        Assert.assertEquals(values[ResourceMetric.IO_WRITE_BYTES.ordinal()], 200L);
+        Assert.assertEquals(values[ResourceMetric.IO_READ_OPERATIONS.ordinal()], 1L);
+        Assert.assertEquals(values[ResourceMetric.IO_WRITE_OPERATIONS.ordinal()], 2L);
+    }
+
+    @Test(description="Tests units without or with a missing control group.")
+    public void testMissing() throws Exception {
+        tree.write("cgroup.controllers", "cpu memory\n");
+
+        CgroupAccountingBackend backend = new CgroupAccountingBackend(tree.getRoot(), name -> name.equals("inactive.service") ? "" : "/gone.scope");
+
+        long[] values = newValues();
+        backend.read("inactive.service", values);
+        Assert.assertEquals(values[ResourceMetric.MEMORY_CURRENT.ordinal()], ResourceSample.NOT_AVAILABLE);
+
+        try {
+            backend.read("gone.scope", values);
+            Assert.fail("Missing control group not detected");
+        }
+        catch (final IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(description="Tests files larger than the initial buffer.")
+    public void testLargeFile() throws Exception {
+        tree.write("cgroup.controllers", "io\n");
+
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < 200; i++) {
+            content.append(String.format("%d:%d rbytes=1 wbytes=2 rios=0 wios=0 dbytes=0 dios=0%n", 8, i));
+        }
+
+        tree.write("many.service/io.stat", content.toString());
+
+        CgroupAccountingBackend backend = new CgroupAccountingBackend(tree.getRoot(), name -> "/" + name);
+
+        long[] values = newValues();
+        backend.read("many.service", values);
+
+        Assert.assertEquals(values[ResourceMetric.IO_READ_BYTES.ordinal()], 200L);
+        Assert.assertEquals(values[ResourceMetric.IO_WRITE_BYTES.ordinal()], 400L);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CgroupEventsWatcherTest {
+
+    private CgroupTree tree;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tree = new CgroupTree("cgroup");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        tree.close();
+    }
+
+    private void writeEvents(final String controlGroup, final int populated, final int frozen) throws IOException {
+        tree.write(controlGroup + "/" + CgroupEventsWatcher.EVENTS_FILE, String.format("populated %d%nfrozen %d%n", populated, frozen));
+    }
+
+    @Test(description="Tests the detection of changes via the watch service.")
+    public void testWatch() throws Exception {
+        writeEvents("system.slice/app.service", 1, 0);
+
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+
+        try (CgroupEventsWatcher watcher = new CgroupEventsWatcher(tree.getRoot(), name -> "/system.slice/" + name)) {
+            watcher.addListener(new CgroupEventsListener() {
+
+                @Override
+                public void populatedChanged(final String unitName, final boolean populated) {
+                    changes.add(unitName + " populated=" + populated + (Thread.holdsLock(watcher) ? " locked" : ""));
+                }
+
+                @Override
+                public void frozenChanged(final String unitName, final boolean frozen) {
+                    changes.add(unitName + " frozen=" + frozen + (Thread.holdsLock(watcher) ? " locked" : ""));
+                }
+
+            });
+
+            watcher.watch("app.service", "missing.service");
+            watcher.open();
+
+            Assert.assertEquals(watcher.isPopulated("app.service").get(), Boolean.TRUE);
+            Assert.assertEquals(watcher.isFrozen("app.service").get(), Boolean.FALSE);
+            Assert.assertFalse(watcher.isPopulated("missing.service").isPresent());
+
+            writeEvents("system.slice/app.service", 1, 1);
+            Assert.assertEquals(changes.poll(30L, TimeUnit.SECONDS), "app.service frozen=true");
+            Assert.assertTrue(watcher.awaitFrozen("app.service", true, 1L, TimeUnit.SECONDS));
+
+            writeEvents("system.slice/app.service", 0, 1);
+            Assert.assertEquals(changes.poll(30L, TimeUnit.SECONDS), "app.service populated=false");
+
+            // Stopped and started again
+            writeEvents("system.slice/app.service", 1, 1);
+            Assert.assertEquals(changes.poll(30L, TimeUnit.SECONDS), "app.service populated=true");
+            tree.delete("system.slice/app.service");
+            Assert.assertEquals(changes.poll(30L, TimeUnit.SECONDS), "app.service populated=false");
+
+            writeEvents("system.slice/app.service", 1, 1);
+            Assert.assertEquals(changes.poll(30L, TimeUnit.SECONDS), "app.service populated=true");
+            Assert.assertEquals(watcher.isPopulated("app.service").get(), Boolean.TRUE);
+
+            watcher.unwatch("app.service");
+            Assert.assertFalse(watcher.awaitFrozen("app.service", true, 10L, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test(description="Tests publishing and monitor integration.")
+    public void testPublishAndAttach() throws Exception {
+        writeEvents("a.service", 1, 0);
+        writeEvents("b.service", 0, 0);
+
+        UnitStateEventPublisher publisher = Mockito.mock(UnitStateEventPublisher.class);
+        UnitMonitor monitor = Mockito.mock(UnitMonitor.class);
+        Mockito.when(monitor.getMonitoredUnits()).thenReturn(Collections.emptyList());
+
+        CgroupEventsWatcher watcher = new CgroupEventsWatcher(tree.getRoot(), name -> "/" + name);
+        watcher.setPublisher(publisher);
+        watcher.attach(monitor);
+
+        ArgumentCaptor<UnitMonitorListener> listener = ArgumentCaptor.forClass(UnitMonitorListener.class);
+        Mockito.verify(monitor).addListener(listener.capture());
+
+        // Refreshes of the monitor are followed (unit names of mocks are not set)
+        watcher.retain(new ArrayList<>(Arrays.asList("a.service", "b.service")));
+        Assert.assertEquals(watcher.getUnitNames().size(), 2);
+
+        writeEvents("a.service", 0, 0);
+        watcher.check("a.service");
+
+        ArgumentCaptor<UnitStateEvent> event = ArgumentCaptor.forClass(UnitStateEvent.class);
+        Mockito.verify(publisher).publish(event.capture());
+
+        Assert.assertEquals(event.getValue().getUnitName(), "a.service");
+        Assert.assertEquals(event.getValue().getChangedProperties().get(CgroupEventsWatcher.POPULATED).getValue(), Boolean.FALSE);
+
+        List<String> remaining = new ArrayList<>();
+        remaining.add("b.service");
+        watcher.retain(remaining);
+        Assert.assertEquals(watcher.getUnitNames(), Collections.singleton("b.service"));
+
+        watcher.close();
+        Mockito.verify(monitor).removeListener(listener.getValue());
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Fake cgroup (or procfs) tree in a temporary directory.
+ */
+final class CgroupTree implements Closeable {
+
+    private final Path root;
+
+    CgroupTree(final String prefix) throws IOException {
+        this.root = Files.createTempDirectory(prefix);
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    Path resolve(final String file) {
+        return root.resolve(file);
+    }
+
+    Path write(final String file, final String content) throws IOException {
+        Path path = root.resolve(file);
+        Files.createDirectories(path.getParent());
+
+        return Files.write(path, content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    void delete(final String file) throws IOException {
+        delete(root.resolve(file));
+    }
+
+    @Override
+    public void close() throws IOException {
+        delete(root);
+    }
+
+    private static void delete(final Path path) throws IOException {
+        if (Files.exists(path)) {
+            try (Stream<Path> paths = Files.walk(path)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+}
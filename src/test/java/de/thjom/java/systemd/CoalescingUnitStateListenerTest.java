@@ -0,0 +1,132 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.awaitility.Awaitility;
+import org.freedesktop.dbus.types.Variant;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import static de.thjom.java.systemd.UnitStates.state;
+
+public class CoalescingUnitStateListenerTest {
+
+    @Test(description="Tests merging of a burst into a single callback.")
+    public void testCoalescing() {
+        Unit cronie = Mockito.mock(Service.class);
+        Unit polkit = Mockito.mock(Service.class);
+
+        List<Map<String, Variant<?>>> received = Collections.synchronizedList(new ArrayList<>());
+
+        CoalescingUnitStateListener listener = new CoalescingUnitStateListener((u, p) -> received.add(p), 100L, TimeUnit.MILLISECONDS);
+
+        listener.stateChanged(cronie, state("deactivating", "stop-sigterm"));
+        listener.stateChanged(cronie, state("inactive", "dead"));
+        listener.stateChanged(cronie, Collections.singletonMap(Service.Property.N_RESTARTS, new Variant<>(3L)));
+        listener.stateChanged(cronie, state("active", "running"));
+        listener.stateChanged(polkit, state("failed", "failed"));
+
+        Assert.assertEquals(listener.getPendingCount(), 2);
+
+        Awaitility.await().until(() -> received.size() == 2);
+
+        Map<String, Variant<?>> merged = received.get(0).size() == 3 ? received.get(0) : received.get(1);
+
+        Assert.assertEquals(merged.get(Unit.Property.ACTIVE_STATE).getValue(), "active");
+        Assert.assertEquals(merged.get(Unit.Property.SUB_STATE).getValue(), "running");
+        Assert.assertEquals(merged.get(Service.Property.N_RESTARTS).getValue(), 3L);
+        Assert.assertEquals(listener.getReceivedCount(), 5L);
+        Assert.assertEquals(listener.getDeliveredCount(), 2L);
+
+        listener.close();
+    }
+
+    @Test(description="Tests preservation of intermediate transitions.")
+    public void testTransitionPreservation() {
+        Unit cronie = Mockito.mock(Service.class);
+
+        List<String> states = new ArrayList<>();
+
+        CoalescingUnitStateListener listener = new CoalescingUnitStateListener((u, p) -> states.add(String.valueOf(p.get(Unit.Property.SUB_STATE).getValue())), 1L, TimeUnit.HOURS, true);
+
+        listener.stateChanged(cronie, state("deactivating", "stop-sigterm"));
+        listener.stateChanged(cronie, Collections.singletonMap(Service.Property.N_RESTARTS, new Variant<>(1L)));
+        listener.stateChanged(cronie, state("inactive", "dead"));
+        listener.stateChanged(cronie, state("inactive", "dead"));
+        listener.stateChanged(cronie, state("active", "running"));
+
+        Assert.assertEquals(states, Arrays.asList("stop-sigterm", "dead"));
+
+        listener.close();
+
+        Assert.assertEquals(states, Arrays.asList("stop-sigterm", "dead", "running"));
+
+        // Pass-through after close
+        listener.stateChanged(cronie, state("failed", "failed"));
+
+        Assert.assertEquals(states.size(), 4);
+    }
+
+    @Test(description="Tests that flushed and expired batches are delivered one at a time and in order.")
+    public void testSerializedDelivery() throws InterruptedException {
+        Unit cronie = Mockito.mock(Service.class);
+
+        List<String> states = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch expiring = new CountDownLatch(1);
+
+        CoalescingUnitStateListener listener = new CoalescingUnitStateListener((u, p) -> {
+            if (inside.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+
+            expiring.countDown();
+
+            try {
+                // Keep the timer thread busy with the expired batch
+                Thread.sleep(200L);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            states.add(String.valueOf(p.get(Unit.Property.SUB_STATE).getValue()));
+            inside.decrementAndGet();
+        }, 10L, TimeUnit.MILLISECONDS, true);
+
+        listener.stateChanged(cronie, state("active", "running"));
+        Assert.assertTrue(expiring.await(10L, TimeUnit.SECONDS));
+
+        // New batch flushed on this thread while the expired one is being delivered
+        listener.stateChanged(cronie, state("deactivating", "stop-sigterm"));
+        listener.stateChanged(cronie, state("inactive", "dead"));
+
+        Awaitility.await().until(() -> states.size() == 3);
+
+        Assert.assertEquals(states, Arrays.asList("running", "stop-sigterm", "dead"));
+        Assert.assertEquals(overlaps.get(), 0);
+
+        listener.close();
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.freedesktop.dbus.types.Variant;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.DependencyGraph.Type;
+
+public class DependencyGraphTest {
+
+    private static DependencyGraph.Builder createBuilder() {
+        return DependencyGraph.builder()
+                .put("app.service", Type.REQUIRES, "db.service", "network.target")
+                .put("app.service", Type.AFTER, "db.service", "network.target")
+                .put("db.service", Type.BINDS_TO, "data.mount")
+                .put("db.service", Type.AFTER, "data.mount")
+                .put("metrics.service", Type.PART_OF, "app.service")
+                .put("metrics.service", Type.WANTS, "app.service")
+                .put("metrics.service", Type.AFTER, "app.service");
+    }
+
+    @Test(description="Tests adjacency in both directions.")
+    public void testAdjacency() {
+        DependencyGraph graph = createBuilder().build();
+
+        // Units only referenced as dependency are contained as well
+        Assert.assertEquals(graph.size(), 5);
+        Assert.assertTrue(graph.contains("data.mount"));
+
+        Assert.assertEquals(graph.getDependencies("app.service", Type.REQUIRES), Arrays.asList("db.service", "network.target"));
+        Assert.assertEquals(graph.getDependents("db.service", Type.REQUIRES), Collections.singletonList("app.service"));
+        Assert.assertEquals(graph.getDependents("app.service", Type.PART_OF), Collections.singletonList("metrics.service"));
+        Assert.assertTrue(graph.getDependencies("data.mount", Type.AFTER).isEmpty());
+        Assert.assertTrue(graph.getDependencies("unknown.service", Type.AFTER).isEmpty());
+        Assert.assertEquals(graph.getEdgeCount(Type.AFTER), 4);
+    }
+
+    @Test(description="Tests transitive closures and the blast radius.")
+    public void testClosure() {
+        DependencyGraph graph = createBuilder().build();
+
+        Assert.assertEquals(graph.closure("metrics.service", EnumSet.of(Type.WANTS, Type.REQUIRES, Type.BINDS_TO)),
+                new HashSet<>(Arrays.asList("app.service", "db.service", "network.target", "data.mount")));
+        Assert.assertEquals(graph.closure("app.service", EnumSet.of(Type.WANTS)), Collections.emptySet());
+
+        Assert.assertEquals(graph.blastRadius("data.mount"), new HashSet<>(Arrays.asList("db.service", "app.service", "metrics.service")));
+        Assert.assertEquals(graph.blastRadius("network.target"), new HashSet<>(Arrays.asList("app.service", "metrics.service")));
+        Assert.assertTrue(graph.blastRadius("metrics.service").isEmpty());
+        Assert.assertTrue(graph.blastRadius("unknown.service").isEmpty());
+    }
+
+    @Test(description="Tests topological order and cycle detection.")
+    public void testOrder() {
+        DependencyGraph.Builder builder = createBuilder();
+        DependencyGraph graph = builder.build();
+
+        Assert.assertTrue(graph.findCycles(EnumSet.of(Type.AFTER)).isEmpty());
+
+        List<String> order = graph.topologicalOrder(EnumSet.of(Type.AFTER)).get();
+        Assert.assertEquals(order.size(), 5);
+        Assert.assertTrue(order.indexOf("data.mount") < order.indexOf("db.service"));
+        Assert.assertTrue(order.indexOf("db.service") < order.indexOf("app.service"));
+        Assert.assertTrue(order.indexOf("app.service") < order.indexOf("metrics.service"));
+
+        // Ordering cycle and a self reference
+        graph = builder.put("data.mount", Type.AFTER, "metrics.service").put("loop.service", Type.AFTER, "loop.service").build();
+
+        List<List<String>> cycles = graph.findCycles(EnumSet.of(Type.AFTER));
+        Assert.assertEquals(cycles.size(), 2);
+        Assert.assertEquals(new HashSet<>(cycles.get(0)), new HashSet<>(Arrays.asList("app.service", "db.service", "data.mount", "metrics.service")));
+        Assert.assertEquals(cycles.get(1), Collections.singletonList("loop.service"));
+        Assert.assertFalse(graph.topologicalOrder(EnumSet.of(Type.AFTER)).isPresent());
+
+        // Incremental update
+        graph = builder.remove("loop.service").put("data.mount", Type.AFTER).build();
+        Assert.assertTrue(graph.topologicalOrder(EnumSet.of(Type.AFTER)).isPresent());
+    }
+
+    @Test(description="Tests building from unit properties.")
+    public void testProperties() {
+        Map<String, Variant<?>> properties = new HashMap<>();
+        properties.put(Unit.Property.REQUIRES, new Variant<>(Arrays.asList("a.service", "b.service"), "as"));
+        properties.put(Unit.Property.DESCRIPTION, new Variant<>("Test"));
+
+        DependencyGraph graph = DependencyGraph.builder().put("test.service", properties).build();
+
+        Assert.assertEquals(graph.getDependencies("test.service", Type.REQUIRES), Arrays.asList("a.service", "b.service"));
+        Assert.assertTrue(graph.getDependencies("test.service", Type.WANTS).isEmpty());
+    }
+
+    @Test(description="Tests deep dependency chains.")
+    public void testDeepChain() {
+        DependencyGraph.Builder builder = DependencyGraph.builder();
+
+        for (int i = 1; i < 100000; i++) {
+            builder.put("u" + i + ".service", Type.AFTER, "u" + (i - 1) + ".service");
+        }
+
+        DependencyGraph graph = builder.build();
+
+        Assert.assertTrue(graph.findCycles(EnumSet.of(Type.AFTER)).isEmpty());
+        Assert.assertEquals(graph.topologicalOrder(EnumSet.of(Type.AFTER)).get().get(0), "u0.service");
+        Assert.assertEquals(graph.reverseClosure("u0.service", EnumSet.of(Type.AFTER)).size(), 99999);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class GorillaBlockTest {
+
+    @Test(description="Tests the round trip of timestamps and values.")
+    public void testRoundTrip() {
+        Random random = new Random(42L);
+
+        int n = 5000;
+        long[] timestamps = new long[n];
+        long[] values = new long[n];
+
+        long timestamp = 1_600_000_000_000L;
+
+        for (int i = 0; i < n; i++) {
+            switch (i % 7) {
+                case 0:
+                    timestamp += 10_000L;
+                    break;
+                case 1:
+                    timestamp += 10_000L + random.nextInt(100);
+                    break;
+                case 2:
+                    timestamp += 9_000L + random.nextInt(2000);
+                    break;
+                case 3:
+                    timestamp += random.nextInt(100_000_000);
+                    break;
+                default:
+                    timestamp += 10_000L;
+            }
+
+            timestamps[i] = timestamp;
+
+            switch (i % 5) {
+                case 0:
+                    values[i] = i > 0 ? values[i - 1] : 0L;
+                    break;
+                case 1:
+                    values[i] = random.nextLong();
+                    break;
+                case 2:
+                    values[i] = -1L;
+                    break;
+                default:
+                    values[i] = random.nextInt(1 << 20);
+            }
+        }
+
+        GorillaBlock block = new GorillaBlock();
+
+        for (int i = 0; i < n; i++) {
+            block.append(timestamps[i], values[i]);
+        }
+
+        block.seal();
+
+        Assert.assertEquals(block.getCount(), n);
+        Assert.assertEquals(block.getFirstTimestamp(), timestamps[0]);
+        Assert.assertEquals(block.getLastTimestamp(), timestamps[n - 1]);
+
+        GorillaBlock.Reader reader = block.reader();
+
+        for (int i = 0; i < n; i++) {
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(reader.getTimestamp(), timestamps[i], "Timestamp " + i);
+            Assert.assertEquals(reader.getValue(), values[i], "Value " + i);
+        }
+
+        Assert.assertFalse(reader.next());
+    }
+
+    @Test(description="Tests the compression of regular series.")
+    public void testCompression() {
+        GorillaBlock block = new GorillaBlock();
+
+        for (int i = 0; i < 2160; i++) {
+            block.append(1_600_000_000_000L + i * 10_000L, 52_428_800L + (i % 3) * 4096L);
+        }
+
+        block.seal();
+
+        // 16 bytes per point uncompressed
+        Assert.assertTrue(block.getSizeInBytes() < 2160 * 4, "Size: " + block.getSizeInBytes());
+    }
+
+}
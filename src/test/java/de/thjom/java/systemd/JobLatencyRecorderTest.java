@@ -0,0 +1,93 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.JobLatencyRecorder.JobStatistics;
+
+public class JobLatencyRecorderTest {
+
+    @Test(description="Tests pairing of jobs and aggregation.")
+    public void testRecording() {
+        AtomicLong clock = new AtomicLong();
+        JobLatencyRecorder recorder = new JobLatencyRecorder(Mockito.mock(Manager.class), true, 2, clock::get, Runnable::run);
+
+        Assert.assertTrue(recorder.jobNew(1L, "app.service", clock.get()));
+        Assert.assertTrue(recorder.jobNew(2L, "db.service", clock.get()));
+        Assert.assertFalse(recorder.jobNew(3L, "cron.service", clock.get()));
+        Assert.assertEquals(recorder.getPendingCount(), 2);
+        Assert.assertEquals(recorder.getUntrackedCount(), 1L);
+
+        recorder.jobTypeResolved(1L, "start");
+        recorder.jobTypeResolved(2L, "start");
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(250L));
+        recorder.jobRemoved(1L, "done", clock.get());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(750L));
+        recorder.jobRemoved(2L, "timeout", clock.get());
+        recorder.jobRemoved(3L, "done", clock.get());
+        Assert.assertEquals(recorder.getPendingCount(), 0);
+
+        JobStatistics app = recorder.getUnitStatistics("app.service").get();
+        Assert.assertEquals(app.getCount(), 1L);
+        Assert.assertEquals(app.getHistogram().getMax(), 250_000L);
+
+        JobStatistics start = recorder.getTypeStatistics("start").get();
+        Assert.assertEquals(start.getCount(), 2L);
+        Assert.assertEquals(start.getHistogram().getMax(), 1_000_000L);
+
+        Map<String, Long> results = recorder.getTotalStatistics().getResultCounts();
+        Assert.assertEquals(results.get("done"), Long.valueOf(1L));
+        Assert.assertEquals(results.get("timeout"), Long.valueOf(1L));
+
+        Assert.assertFalse(recorder.getUnitStatistics("cron.service").isPresent());
+        Assert.assertEquals(recorder.getUnitNames().size(), 2);
+    }
+
+    @Test(description="Tests pairing of removals handled before the new job and eviction of stale jobs.")
+    public void testReorderingAndExpiry() {
+        AtomicLong clock = new AtomicLong();
+        JobLatencyRecorder recorder = new JobLatencyRecorder(Mockito.mock(Manager.class), false, 16, clock::get, Runnable::run);
+        recorder.setPendingTimeout(1L, TimeUnit.MINUTES);
+
+        // Signals of a short job dispatched out of order
+        long removed = clock.get();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(2L));
+        recorder.jobRemoved(7L, "done", removed);
+        Assert.assertFalse(recorder.jobNew(7L, "short.service", clock.get()));
+
+        Assert.assertEquals(recorder.getPendingCount(), 0);
+        Assert.assertEquals(recorder.getUnitStatistics("short.service").get().getCount(), 1L);
+        Assert.assertEquals(recorder.getTypeStatistics(JobLatencyRecorder.UNKNOWN_JOB_TYPE).get().getHistogram().getMax(), 0L);
+
+        // Never removed
+        Assert.assertTrue(recorder.jobNew(8L, "lost.service", clock.get()));
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(2L));
+        Assert.assertTrue(recorder.jobNew(9L, "app.service", clock.get()));
+
+        Assert.assertEquals(recorder.getPendingCount(), 1);
+        Assert.assertEquals(recorder.getExpiredCount(), 1L);
+
+        recorder.jobRemoved(8L, "done", clock.get());
+        Assert.assertFalse(recorder.getUnitStatistics("lost.service").isPresent());
+    }
+
+}
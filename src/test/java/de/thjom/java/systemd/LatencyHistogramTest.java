@@ -0,0 +1,62 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    @Test(description="Tests the bucket layout.")
+    public void testBuckets() {
+        for (long value = 0L; value < 100000L; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueAt(index);
+
+            Assert.assertTrue(highest >= value);
+            Assert.assertTrue(highest - value <= value / 32, "Value " + value);
+        }
+
+        Assert.assertTrue(LatencyHistogram.highestValueAt(LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE)) >= LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test(description="Tests percentiles.")
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getValueAtPercentile(99.0), 0L);
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        Assert.assertEquals(histogram.getCount(), 1000L);
+        Assert.assertEquals(histogram.getMax(), 1_000_000L);
+        Assert.assertEquals(histogram.getMean(), 500_500.0, 0.1);
+
+        long p50 = histogram.getValueAtPercentile(50.0);
+        long p99 = histogram.getValueAtPercentile(99.0);
+
+        Assert.assertTrue(Math.abs(p50 - 500_000L) <= 500_000L / 32, "p50 " + p50);
+        Assert.assertTrue(Math.abs(p99 - 990_000L) <= 990_000L / 32, "p99 " + p99);
+        Assert.assertEquals(histogram.getValueAtPercentile(100.0), 1_000_000L);
+
+        // Clamped
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(histogram.getMax(), LatencyHistogram.MAX_VALUE);
+
+        histogram.reset();
+        Assert.assertEquals(histogram.getCount(), 0L);
+    }
+
+}
@@ -11,7 +11,12 @@
 
 package de.thjom.java.systemd;
 
+import org.freedesktop.dbus.DBusMatchRule;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBus;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties.PropertiesChanged;
+import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -49,4 +54,59 @@ public class ManagerTest extends AbstractTestCase {
         }
     }
 
+    @Test(dependsOnMethods={ "testAccess" }, description="Tests reference counting of signal subscriptions.")
+    public void testSubscriptions() {
+        manager.subscribe();
+        manager.subscribe();
+
+        Assert.assertEquals(manager.getSubscriptionCount(), 2);
+        Mockito.verify(miface, Mockito.times(1)).subscribe();
+
+        manager.unsubscribe();
+
+        Assert.assertTrue(manager.isSubscribed());
+        Mockito.verify(miface, Mockito.never()).unsubscribe();
+
+        manager.unsubscribe();
+        manager.unsubscribe();
+
+        Assert.assertFalse(manager.isSubscribed());
+        Mockito.verify(miface, Mockito.times(1)).unsubscribe();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(dependsOnMethods={ "testAccess" }, description="Tests handler registration along match rules.")
+    public void testMatchRuleHandlers() throws DBusException {
+        DBus bus = Mockito.mock(DBus.class);
+        Mockito.when(dbus.getRemoteObject(Manager.BUS_NAME, Manager.BUS_OBJECT_PATH, DBus.class)).thenReturn(bus);
+
+        MatchRule allUnits = MatchRule.unitPropertiesChanged();
+        MatchRule cronie = allUnits.toBuilder().pathNamespace(null).path(Unit.OBJECT_PATH + "cronie_2eservice").build();
+        MatchRule polkit = allUnits.toBuilder().arg(0, Service.SERVICE_NAME).build();
+
+        DBusSigHandler<PropertiesChanged> handler0 = s -> { /* Do nothing (test case) */ };
+        DBusSigHandler<PropertiesChanged> handler1 = s -> { /* Do nothing (test case) */ };
+
+        manager.addHandler(allUnits, PropertiesChanged.class, handler0);
+        manager.addHandler(allUnits, PropertiesChanged.class, handler1);
+        manager.addHandler(polkit, PropertiesChanged.class, handler0);
+        manager.addHandler(cronie, PropertiesChanged.class, handler0);
+
+        // Primary rules are installed by dbus-java, secondary rules on same signal tuple directly
+        Mockito.verify(dbus, Mockito.times(2)).addGenericSigHandler(Mockito.any(DBusMatchRule.class), Mockito.any(DBusSigHandler.class));
+        Mockito.verify(bus, Mockito.times(1)).AddMatch(polkit.toString());
+
+        manager.removeHandler(polkit, PropertiesChanged.class, handler0);
+        manager.removeHandler(allUnits, PropertiesChanged.class, handler0);
+
+        Mockito.verify(bus, Mockito.times(1)).RemoveMatch(polkit.toString());
+        Mockito.verify(dbus, Mockito.never()).removeGenericSigHandler(Mockito.any(DBusMatchRule.class), Mockito.any(DBusSigHandler.class));
+
+        manager.removeHandler(allUnits, PropertiesChanged.class, handler1);
+        manager.removeHandler(cronie, PropertiesChanged.class, handler0);
+
+        Mockito.verify(dbus, Mockito.times(2)).removeGenericSigHandler(Mockito.any(DBusMatchRule.class), Mockito.any(DBusSigHandler.class));
+        Mockito.verify(bus, Mockito.never()).RemoveMatch(allUnits.toString());
+    }
+
 }
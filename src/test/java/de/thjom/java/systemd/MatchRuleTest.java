@@ -0,0 +1,78 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collections;
+
+import org.freedesktop.dbus.DBusMatchRule;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.Properties.PropertiesChanged;
+import org.freedesktop.dbus.types.Variant;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MatchRuleTest {
+
+    private static final String CRONIE_PATH = Unit.OBJECT_PATH + Systemd.escapePath("cronie.service");
+
+    @Test(description="Tests rendering of match rule strings.")
+    public void testRendering() {
+        Assert.assertEquals(MatchRule.unitPropertiesChanged().toString(),
+                "type='signal',sender='org.freedesktop.systemd1',interface='org.freedesktop.DBus.Properties',member='PropertiesChanged',"
+                + "path_namespace='/org/freedesktop/systemd1/unit',arg0='org.freedesktop.systemd1.Unit'");
+
+        Assert.assertEquals(MatchRule.unitPropertiesChanged("cronie.service").getPath(), CRONIE_PATH);
+
+        MatchRule rule = MatchRule.builder().member("Foo").arg(2, "it's").arg(1, "bar").build();
+
+        Assert.assertEquals(rule.toString(), "type='signal',member='Foo',arg1='bar',arg2='it'\\''s'");
+        Assert.assertEquals(rule, rule.toBuilder().build());
+        Assert.assertNotEquals(rule, rule.toBuilder().arg(1, null).build());
+    }
+
+    @Test(description="Tests validation of builder input.")
+    public void testValidation() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> MatchRule.builder().arg(64, "foo"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> MatchRule.builder().arg(-1, "foo"));
+        Assert.assertThrows(IllegalStateException.class, () -> MatchRule.builder().path("/a").pathNamespace("/a").build());
+    }
+
+    @Test(description="Tests local matching of received signals.")
+    public void testMatching() throws DBusException {
+        MatchRule rule = MatchRule.unitPropertiesChanged();
+
+        PropertiesChanged unitSignal = new PropertiesChanged(CRONIE_PATH, Unit.SERVICE_NAME, Collections.singletonMap(Unit.Property.ACTIVE_STATE, new Variant<>("active")), Collections.emptyList());
+        PropertiesChanged serviceSignal = new PropertiesChanged(CRONIE_PATH, Service.SERVICE_NAME, Collections.singletonMap(Service.Property.N_RESTARTS, new Variant<>(1L)), Collections.emptyList());
+        PropertiesChanged managerSignal = new PropertiesChanged(Systemd.OBJECT_PATH, Unit.SERVICE_NAME, Collections.emptyMap(), Collections.emptyList());
+
+        Assert.assertTrue(rule.matches(unitSignal));
+        Assert.assertFalse(rule.matches(serviceSignal));
+        Assert.assertFalse(rule.matches(managerSignal));
+
+        Assert.assertTrue(MatchRule.unitPropertiesChanged("cronie.service").matches(unitSignal));
+        Assert.assertFalse(MatchRule.unitPropertiesChanged("polkit.service").matches(unitSignal));
+        Assert.assertTrue(MatchRule.builder().pathNamespace("/").build().matches(managerSignal));
+    }
+
+    @Test(description="Tests mapping to the dbus-java match rule type.")
+    public void testAdaption() throws DBusException {
+        DBusMatchRule busRule = MatchRule.builder().pathNamespace("/org/freedesktop/systemd1/unit").build().toDBusMatchRule(PropertiesChanged.class);
+
+        Assert.assertEquals(busRule.getInterface(), "org.freedesktop.DBus.Properties");
+        Assert.assertEquals(busRule.getMember(), "PropertiesChanged");
+        Assert.assertNull(busRule.getObject());
+        Assert.assertEquals(busRule.toString(), "type='signal',interface='org.freedesktop.DBus.Properties',member='PropertiesChanged',path_namespace='/org/freedesktop/systemd1/unit'");
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> MatchRule.builder().member("Foo").build().toDBusMatchRule(PropertiesChanged.class));
+    }
+
+}
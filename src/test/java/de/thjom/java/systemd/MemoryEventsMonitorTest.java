@@ -0,0 +1,164 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.MemoryEvent.Counter;
+
+public class MemoryEventsMonitorTest {
+
+    private CgroupTree tree;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tree = new CgroupTree("memory");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        tree.close();
+    }
+
+    private void writeEvents(final String controlGroup, final long high, final long max, final long oom, final long oomKill) throws IOException {
+        tree.write(controlGroup + "/" + MemoryEventsMonitor.EVENTS_FILE, String.format("low 0%nhigh %d%nmax %d%noom %d%noom_kill %d%noom_group_kill 0%n", high, max, oom, oomKill));
+    }
+
+    @Test(description="Tests the detection of counter increases.")
+    public void testPoll() throws IOException {
+        writeEvents("system.slice/app.service", 5L, 0L, 0L, 0L);
+        writeEvents("system.slice/other.service", 0L, 0L, 0L, 0L);
+
+        AtomicLong nanos = new AtomicLong();
+        List<String> resolved = new ArrayList<>();
+        List<MemoryEvent> notified = new ArrayList<>();
+
+        MemoryEventsMonitor monitor = new MemoryEventsMonitor(tree.getRoot(), name -> "/system.slice/" + name, name -> {
+            resolved.add(name);
+
+            return 4711L;
+        }, name -> "", nanos::get, () -> 1000L);
+
+        monitor.addListener(notified::add);
+        monitor.addUnits("app.service", "other.service", "missing.service");
+
+        // Baseline only
+        Assert.assertTrue(monitor.poll().isEmpty());
+        Assert.assertEquals(monitor.getTotal("app.service", Counter.HIGH), 5L);
+        Assert.assertEquals(monitor.getTotal("missing.service", Counter.HIGH), ResourceSample.NOT_AVAILABLE);
+        Assert.assertEquals(monitor.getErrorCount(), 1L);
+
+        nanos.set(TimeUnit.SECONDS.toNanos(2L));
+        writeEvents("system.slice/app.service", 9L, 1L, 1L, 1L);
+
+        List<MemoryEvent> events = monitor.poll();
+
+        Assert.assertEquals(events.size(), 4);
+        Assert.assertEquals(notified, events);
+        // Main PIDs are resolved for new control groups and after increases
+        Assert.assertEquals(resolved.size(), 3);
+
+        MemoryEvent high = events.get(0);
+        Assert.assertEquals(high.getUnitName(), "app.service");
+        Assert.assertEquals(high.getCounter(), Counter.HIGH);
+        Assert.assertEquals(high.getIncrease(), 4L);
+        Assert.assertEquals(high.getTotal(), 9L);
+        Assert.assertEquals(high.getRate(), 2.0, 1e-9);
+        Assert.assertEquals(high.getMainPid(), 4711L);
+        Assert.assertEquals(high.getTimestamp(), 1000L);
+
+        Assert.assertEquals(events.get(3).getCounter(), Counter.OOM_KILL);
+        Assert.assertEquals(events.get(3).getIncrease(), 1L);
+
+        // Unchanged
+        nanos.set(TimeUnit.SECONDS.toNanos(4L));
+        Assert.assertTrue(monitor.poll().isEmpty());
+        Assert.assertEquals(resolved.size(), 3);
+
+        // Restarted with a new control group
+        writeEvents("system.slice/app.service", 3L, 0L, 0L, 0L);
+        events = monitor.poll();
+
+        Assert.assertEquals(events.size(), 1);
+        Assert.assertEquals(events.get(0).getCounter(), Counter.HIGH);
+        Assert.assertEquals(events.get(0).getIncrease(), 3L);
+
+        monitor.removeUnits("app.service");
+        Assert.assertEquals(monitor.getTotal("app.service", Counter.OOM_KILL), ResourceSample.NOT_AVAILABLE);
+    }
+
+    @Test(description="Tests a kill missed before the control group vanished.")
+    public void testVanished() throws IOException {
+        writeEvents("system.slice/app.service", 0L, 0L, 0L, 1L);
+
+        AtomicLong pid = new AtomicLong(4711L);
+        AtomicReference<String> result = new AtomicReference<>("success");
+        List<FileChannel> channels = new ArrayList<>();
+
+        MemoryEventsMonitor monitor = new MemoryEventsMonitor(tree.getRoot(), name -> "/system.slice/" + name, name -> pid.get(), name -> result.get(), () -> 0L, () -> 1000L) {
+
+            @Override
+            FileChannel openEvents(final Path path) throws IOException {
+                FileChannel channel = super.openEvents(path);
+                channels.add(channel);
+
+                return channel;
+            }
+
+        };
+
+        monitor.addUnits("app.service");
+        Assert.assertTrue(monitor.poll().isEmpty());
+
+        // Killed, stopped and started again before the next poll
+        channels.get(0).close();
+        pid.set(4712L);
+        result.set(MemoryEventsMonitor.OOM_KILL_RESULT);
+
+        List<MemoryEvent> events = monitor.poll();
+
+        Assert.assertEquals(events.size(), 1);
+        Assert.assertEquals(events.get(0).getCounter(), Counter.OOM_KILL);
+        Assert.assertEquals(events.get(0).getIncrease(), 1L);
+        Assert.assertEquals(events.get(0).getTotal(), 2L);
+        Assert.assertEquals(events.get(0).getMainPid(), 4711L);
+        Assert.assertEquals(monitor.getErrorCount(), 1L);
+
+        // The new control group counts from zero
+        events = monitor.poll();
+
+        Assert.assertEquals(events.size(), 1);
+        Assert.assertEquals(events.get(0).getCounter(), Counter.OOM_KILL);
+        Assert.assertEquals(events.get(0).getTotal(), 1L);
+        Assert.assertEquals(events.get(0).getMainPid(), 4712L);
+
+        // Unchanged
+        Assert.assertTrue(monitor.poll().isEmpty());
+
+        // Kill already reported
+        channels.get(1).close();
+        Assert.assertTrue(monitor.poll().isEmpty());
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MemoryTrendAnalyzerTest {
+
+    private static ResourceSample sample(final String unitName, final long timestamp, final long current, final long max, final boolean reset) {
+        long[] values = new long[ResourceMetric.METRICS.length];
+        double[] rates = new double[ResourceMetric.METRICS.length];
+        Arrays.fill(values, ResourceSample.NOT_AVAILABLE);
+        Arrays.fill(rates, Double.NaN);
+
+        values[ResourceMetric.MEMORY_CURRENT.ordinal()] = current;
+        values[ResourceMetric.MEMORY_MAX.ordinal()] = max;
+
+        return new ResourceSample(unitName, timestamp, values, rates, reset);
+    }
+
+    @Test(description="Tests the fitted trend over a sliding window.")
+    public void testWindow() {
+        MemoryTrendAnalyzer.Window window = new MemoryTrendAnalyzer.Window(4);
+
+        window.add(1_000_000L, 100L);
+        window.add(1_001_000L, 110L);
+        Assert.assertTrue(Double.isNaN(window.slope()));
+
+        window.add(1_002_000L, 120L);
+        Assert.assertEquals(window.slope(), 10.0, 1e-9);
+
+        // Many revolutions of a growing then flat series
+        long t = 1_003_000L;
+
+        for (int i = 0; i < 1000; i++, t += 1000L) {
+            window.add(t, 130L + 5L * i);
+        }
+
+        Assert.assertEquals(window.slope(), 5.0, 1e-6);
+
+        for (int i = 0; i < 4; i++, t += 1000L) {
+            window.add(t, 7L);
+        }
+
+        Assert.assertEquals(window.slope(), 0.0, 1e-6);
+        Assert.assertEquals(window.latest(), 7L);
+
+        window.clear();
+        window.add(t, 1L);
+        Assert.assertTrue(Double.isNaN(window.slope()));
+    }
+
+    @Test(description="Tests the prediction of exhaustion.")
+    public void testPrediction() {
+        List<String> predicted = new ArrayList<>();
+        List<String> cleared = new ArrayList<>();
+
+        MemoryTrendAnalyzer analyzer = new MemoryTrendAnalyzer(5, 60L, TimeUnit.SECONDS);
+        analyzer.addListener(new MemoryTrendListener() {
+
+            @Override
+            public void exhaustionPredicted(final MemoryTrend trend) {
+                predicted.add(trend.getUnitName());
+            }
+
+            @Override
+            public void exhaustionCleared(final MemoryTrend trend) {
+                cleared.add(trend.getUnitName());
+            }
+
+        });
+
+        // Growing by 1 MB/s towards 200 MB, 10 s steps
+        long mb = 1024L * 1024L;
+
+        for (int i = 0; i < 10; i++) {
+            analyzer.sampleTaken(sample("leak.service", i * 10_000L, (50L + 10L * i) * mb, 200L * mb, false));
+            analyzer.sampleTaken(sample("flat.service", i * 10_000L, 50L * mb, 200L * mb, false));
+            analyzer.sampleTaken(sample("unlimited.service", i * 10_000L, (50L + 10L * i) * mb, ResourceSample.NOT_AVAILABLE, false));
+            analyzer.sampleTaken(sample("leak.socket", i * 10_000L, (50L + 10L * i) * mb, 200L * mb, false));
+        }
+
+        MemoryTrend trend = analyzer.getTrend("leak.service").get();
+        Assert.assertEquals(trend.getSlope(), mb / 1.0, 1e-3);
+        Assert.assertEquals(trend.getSecondsToLimit(), 60.0, 1e-6);
+        Assert.assertEquals(trend.getSampleCount(), 5);
+
+        // 140 MB at sample 9: 60 s left is not below 60 s, crossed at sample 10
+        Assert.assertTrue(predicted.isEmpty());
+
+        analyzer.sampleTaken(sample("leak.service", 100_000L, 150L * mb, 200L * mb, false));
+        Assert.assertEquals(predicted, Arrays.asList("leak.service"));
+        Assert.assertEquals(analyzer.getExhaustingUnits().size(), 1);
+
+        Assert.assertEquals(analyzer.getTrend("flat.service").get().getSecondsToLimit(), Double.POSITIVE_INFINITY);
+        Assert.assertEquals(analyzer.getTrend("unlimited.service").get().getSecondsToLimit(), Double.POSITIVE_INFINITY);
+        Assert.assertFalse(analyzer.getTrend("leak.socket").isPresent());
+        Assert.assertEquals(analyzer.getTrends().get(0).getUnitName(), "leak.service");
+
+        // Restart, memory is back at a low level and stays there
+        for (int i = 0; i < 5; i++) {
+            analyzer.sampleTaken(sample("leak.service", 110_000L + i * 10_000L, 20L * mb, 200L * mb, i == 0));
+        }
+
+        Assert.assertEquals(cleared, Arrays.asList("leak.service"));
+        Assert.assertTrue(analyzer.getExhaustingUnits().isEmpty());
+
+        analyzer.removeUnit("leak.service");
+        Assert.assertFalse(analyzer.getTrend("leak.service").isPresent());
+    }
+
+    @Test(description="Tests a unit already at its limit.")
+    public void testAtLimit() {
+        List<String> predicted = new ArrayList<>();
+
+        MemoryTrendAnalyzer analyzer = new MemoryTrendAnalyzer(5, 60L, TimeUnit.SECONDS);
+        analyzer.addListener(trend -> predicted.add(trend.getUnitName()));
+
+        long mb = 1024L * 1024L;
+
+        // Reported on the first sample, before a slope is known
+        analyzer.sampleTaken(sample("full.service", 0L, 200L * mb, 200L * mb, false));
+        analyzer.sampleTaken(sample("half.service", 0L, 100L * mb, 200L * mb, false));
+
+        Assert.assertEquals(predicted, Arrays.asList("full.service"));
+        Assert.assertEquals(analyzer.getTrend("full.service").get().getSecondsToLimit(), 0.0);
+        Assert.assertEquals(analyzer.getTrend("half.service").get().getSecondsToLimit(), Double.POSITIVE_INFINITY);
+    }
+
+    @Test(description="Tests the removal of units which are not sampled anymore.")
+    public void testExpiry() {
+        List<String> cleared = new ArrayList<>();
+
+        MemoryTrendAnalyzer analyzer = new MemoryTrendAnalyzer(3, 60L, TimeUnit.SECONDS);
+        analyzer.addListener(new MemoryTrendListener() {
+
+            @Override
+            public void exhaustionPredicted(final MemoryTrend trend) {
+            }
+
+            @Override
+            public void exhaustionCleared(final MemoryTrend trend) {
+                cleared.add(trend.getUnitName());
+            }
+
+        });
+
+        long mb = 1024L * 1024L;
+
+        analyzer.sampleTaken(sample("full.service", 0L, 200L * mb, 200L * mb, false));
+        Assert.assertEquals(analyzer.getExhaustingUnits().size(), 1);
+
+        for (int i = 0; i < 4; i++) {
+            analyzer.sampleTaken(sample("other.service", i * 1000L, 50L * mb, 200L * mb, false));
+        }
+
+        Assert.assertTrue(analyzer.getTrend("full.service").isPresent());
+        Assert.assertTrue(cleared.isEmpty());
+
+        // No sample for a whole window
+        analyzer.sampleTaken(sample("other.service", 4000L, 50L * mb, 200L * mb, false));
+
+        Assert.assertFalse(analyzer.getTrend("full.service").isPresent());
+        Assert.assertTrue(analyzer.getExhaustingUnits().isEmpty());
+        Assert.assertEquals(cleared, Arrays.asList("full.service"));
+
+        // Removed from the sampler
+        analyzer.sampleTaken(sample("full.service", 5000L, 200L * mb, 200L * mb, false));
+        analyzer.unitsRemoved(Arrays.asList("full.service", "other.service"));
+
+        Assert.assertTrue(analyzer.getTrends().isEmpty());
+        Assert.assertEquals(cleared, Arrays.asList("full.service", "full.service"));
+    }
+
+}
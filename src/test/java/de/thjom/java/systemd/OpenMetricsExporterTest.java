@@ -0,0 +1,107 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.types.UInt32;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.types.UnitType;
+
+public class OpenMetricsExporterTest {
+
+    private static UnitType unit(final String name, final String activeState, final String subState) {
+        return new UnitType(name, "", "loaded", activeState, subState, "", new DBusPath(Unit.OBJECT_PATH + Systemd.escapePath(name)), new UInt32(0L), "", new DBusPath("/"));
+    }
+
+    @Test(description="Tests the exposition of manager, unit and accounting metrics.")
+    public void testWrite() throws Exception {
+        Manager manager = Mockito.mock(Manager.class);
+        Mockito.when(manager.getNFailedUnits()).thenReturn(1L);
+        Mockito.when(manager.getNJobs()).thenReturn(2L);
+        Mockito.when(manager.getSystemState()).thenReturn("degraded");
+        Mockito.when(manager.listUnits()).thenReturn(Arrays.asList(unit("app.service", "active", "running"), unit("dev-x\\x2dy.mount", "failed", "failed")));
+
+        AtomicLong clock = new AtomicLong();
+        ResourceSampler sampler = new ResourceSampler((name, values) -> {
+            values[ResourceMetric.CPU_USAGE_NSEC.ordinal()] = 1_500_000_123L;
+            values[ResourceMetric.MEMORY_CURRENT.ordinal()] = 4096L;
+        }, clock::get, clock::get);
+        sampler.addUnits("app.service");
+        sampler.sample();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new OpenMetricsExporter(manager, sampler).write(out);
+
+        String expected = "# TYPE systemd_manager_failed_units gauge\n"
+                + "systemd_manager_failed_units 1\n"
+                + "# TYPE systemd_manager_jobs gauge\n"
+                + "systemd_manager_jobs 2\n"
+                + "# TYPE systemd_system_state stateset\n"
+                + "systemd_system_state{systemd_system_state=\"initializing\"} 0\n"
+                + "systemd_system_state{systemd_system_state=\"starting\"} 0\n"
+                + "systemd_system_state{systemd_system_state=\"running\"} 0\n"
+                + "systemd_system_state{systemd_system_state=\"degraded\"} 1\n"
+                + "systemd_system_state{systemd_system_state=\"maintenance\"} 0\n"
+                + "systemd_system_state{systemd_system_state=\"stopping\"} 0\n"
+                + "systemd_system_state{systemd_system_state=\"offline\"} 0\n"
+                + "systemd_system_state{systemd_system_state=\"unknown\"} 0\n"
+                + "# TYPE systemd_unit info\n"
+                + "systemd_unit_info{unit=\"app.service\",load_state=\"loaded\",active_state=\"active\",sub_state=\"running\"} 1\n"
+                + "systemd_unit_info{unit=\"dev-x\\\\x2dy.mount\",load_state=\"loaded\",active_state=\"failed\",sub_state=\"failed\"} 1\n"
+                + "# TYPE systemd_unit_cpu_usage_seconds counter\n"
+                + "systemd_unit_cpu_usage_seconds_total{unit=\"app.service\"} 1.500000123\n"
+                + "# TYPE systemd_unit_memory_current_bytes gauge\n"
+                + "systemd_unit_memory_current_bytes{unit=\"app.service\"} 4096\n"
+                + "# EOF\n";
+
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), expected);
+    }
+
+    @Test(description="Tests output exceeding the buffer.")
+    public void testLargeOutput() throws Exception {
+        List<UnitType> units = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            units.add(unit(String.format("unit-%d.service", i), "active", "running"));
+        }
+
+        OpenMetricsExporter exporter = new OpenMetricsExporter(Mockito.mock(Manager.class));
+
+        for (int run = 0; run < 2; run++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            exporter.write(java.nio.channels.Channels.newChannel(out), 0L, 0L, "running", units, new ArrayList<>());
+
+            String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+
+            Assert.assertEquals(lines.length, 5000 + 15);
+            Assert.assertEquals(lines[14 + 4999], "systemd_unit_info{unit=\"unit-4999.service\",load_state=\"loaded\",active_state=\"active\",sub_state=\"running\"} 1");
+            Assert.assertEquals(lines[lines.length - 1], "# EOF");
+        }
+    }
+
+    @Test(description="Tests the escaping of label values.")
+    public void testEscape() {
+        Assert.assertEquals(OpenMetricsExporter.escape("plain"), "plain");
+        Assert.assertEquals(OpenMetricsExporter.escape("a\\b\"c\nd"), "a\\\\b\\\"c\\nd");
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.PressureSample.Line;
+import de.thjom.java.systemd.PressureSample.Resource;
+import de.thjom.java.systemd.PressureSample.Window;
+import de.thjom.java.systemd.PressureSampler.Threshold;
+
+public class PressureSamplerTest {
+
+    private CgroupTree tree;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tree = new CgroupTree("pressure");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        tree.close();
+    }
+
+    private static String pressure(final String some10, final long someTotal, final String full10, final long fullTotal) {
+        return String.format("some avg10=%s avg60=1.50 avg300=0.25 total=%d%nfull avg10=%s avg60=0.00 avg300=0.00 total=%d%n", some10, someTotal, full10, fullTotal);
+    }
+
+    @Test(description="Tests parsing, rates and thresholds.")
+    public void testSample() throws Exception {
+        tree.write("proc/cpu", "some avg10=2.04 avg60=0.75 avg300=0.15 total=1000\n");
+        tree.write("proc/memory", pressure("0.00", 0L, "0.00", 0L));
+        tree.write("proc/io", pressure("0.00", 0L, "0.00", 0L));
+        tree.write("cgroup/system.slice/app.service/memory.pressure", pressure("12.50", 100_000L, "3.00", 50_000L));
+        tree.write("cgroup/system.slice/app.service/cpu.pressure", pressure("0.00", 0L, "0.00", 0L));
+
+        AtomicLong nanos = new AtomicLong();
+        PressureSampler sampler = new PressureSampler(tree.resolve("cgroup"), tree.resolve("proc"), name -> name.equals("gone.service") ? "/gone.service" : "/system.slice/" + name, nanos::get, nanos::get);
+        sampler.addUnits("app.service", "gone.service");
+        sampler.addThreshold(new Threshold(Resource.MEMORY, Line.SOME, Window.RATE, 20.0));
+
+        List<PressureSample> notified = new ArrayList<>();
+        List<String> crossings = new ArrayList<>();
+
+        sampler.addListener(new PressureListener() {
+
+            @Override
+            public void pressureSampled(final PressureSample sample) {
+                notified.add(sample);
+            }
+
+            @Override
+            public void thresholdCrossed(final PressureSample sample, final Threshold threshold, final boolean exceeded) {
+                crossings.add(sample.getUnitName() + "=" + exceeded);
+            }
+
+        });
+
+        List<PressureSample> samples = sampler.sample();
+        Assert.assertEquals(samples.size(), 2);
+        Assert.assertEquals(sampler.getErrorCount(), 1L);
+
+        PressureSample system = samples.get(0);
+        Assert.assertTrue(system.isSystem());
+        Assert.assertEquals(system.getPercentage(Resource.CPU, Line.SOME, Window.AVG10), 2.04, 1e-9);
+        Assert.assertEquals(system.getPercentage(Resource.CPU, Line.SOME, Window.AVG300), 0.15, 1e-9);
+        Assert.assertEquals(system.getTotal(Resource.CPU, Line.SOME), 1000L);
+        Assert.assertFalse(system.isAvailable(Resource.CPU, Line.FULL));
+        Assert.assertTrue(Double.isNaN(system.getPercentage(Resource.CPU, Line.FULL, Window.AVG10)));
+
+        PressureSample app = samples.get(1);
+        Assert.assertEquals(app.getUnitName(), "app.service");
+        Assert.assertEquals(app.getPercentage(Resource.MEMORY, Line.SOME, Window.AVG10), 12.5, 1e-9);
+        Assert.assertEquals(app.getPercentage(Resource.MEMORY, Line.FULL, Window.AVG60), 0.0, 1e-9);
+        Assert.assertFalse(app.isAvailable(Resource.IO, Line.SOME));
+        Assert.assertTrue(Double.isNaN(app.getPercentage(Resource.MEMORY, Line.SOME, Window.RATE)));
+        Assert.assertTrue(crossings.isEmpty());
+
+        // 300ms of 1s stalled
+        tree.write("cgroup/system.slice/app.service/memory.pressure", pressure("30.00", 400_000L, "3.00", 60_000L));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+
+        app = sampler.sample().get(1);
+        Assert.assertEquals(app.getPercentage(Resource.MEMORY, Line.SOME, Window.RATE), 30.0, 1e-9);
+        Assert.assertEquals(app.getPercentage(Resource.MEMORY, Line.FULL, Window.RATE), 1.0, 1e-9);
+        Assert.assertEquals(crossings.size(), 1);
+        Assert.assertEquals(crossings.get(0), "app.service=true");
+
+        // Still above, no new crossing
+        tree.write("cgroup/system.slice/app.service/memory.pressure", pressure("30.00", 700_000L, "3.00", 60_000L));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        sampler.sample();
+        Assert.assertEquals(crossings.size(), 1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        sampler.sample();
+        Assert.assertEquals(crossings.size(), 2);
+        Assert.assertEquals(crossings.get(1), "app.service=false");
+
+        Assert.assertEquals(notified.size(), 8);
+    }
+
+    @Test(description="Tests that released files reset the crossings.")
+    public void testClose() throws Exception {
+        tree.write("proc/memory", pressure("0.00", 0L, "0.00", 0L));
+        tree.write("cgroup/app.service/memory.pressure", pressure("50.00", 0L, "0.00", 0L));
+
+        AtomicLong nanos = new AtomicLong();
+        PressureSampler sampler = new PressureSampler(tree.resolve("cgroup"), tree.resolve("proc"), name -> "/" + name, nanos::get, nanos::get);
+        sampler.addUnits("app.service");
+        sampler.addThreshold(new Threshold(Resource.MEMORY, Line.SOME, Window.AVG10, 20.0));
+
+        List<String> crossings = new ArrayList<>();
+
+        sampler.addListener(new PressureListener() {
+
+            @Override
+            public void pressureSampled(final PressureSample sample) {
+            }
+
+            @Override
+            public void thresholdCrossed(final PressureSample sample, final Threshold threshold, final boolean exceeded) {
+                crossings.add(sample.getUnitName() + "=" + exceeded);
+            }
+
+        });
+
+        sampler.sample();
+        sampler.sample();
+        Assert.assertEquals(crossings.size(), 1);
+
+        sampler.close();
+
+        // Reopened, still above
+        sampler.sample();
+        Assert.assertEquals(crossings.size(), 2);
+        Assert.assertEquals(crossings.get(1), "app.service=true");
+
+        sampler.close();
+    }
+
+    @Test(description="Tests decimal parsing of the reader.")
+    public void testParseDecimal() throws Exception {
+        tree.write("value", "some avg10=100.00 avg60=0.5 total=7\n");
+
+        CgroupFileReader reader = new CgroupFileReader();
+
+        try (java.nio.channels.FileChannel channel = CgroupFileReader.open(tree.resolve("value"))) {
+            Assert.assertTrue(reader.fill(channel));
+
+            int line = reader.findLine(CgroupFileReader.bytes("some"));
+            Assert.assertEquals(line, 0);
+            Assert.assertEquals(reader.parseDecimal(reader.findAssigned(line, CgroupFileReader.bytes("avg10"))), 100.0);
+            Assert.assertEquals(reader.parseDecimal(reader.findAssigned(line, CgroupFileReader.bytes("avg60"))), 0.5);
+            Assert.assertEquals(reader.findAssigned(line, CgroupFileReader.bytes("avg300")), -1);
+            Assert.assertEquals(reader.findLine(CgroupFileReader.bytes("full")), -1);
+        }
+    }
+
+}
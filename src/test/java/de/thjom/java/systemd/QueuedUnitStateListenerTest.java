@@ -0,0 +1,161 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.messages.DBusSignal;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.QueuedUnitStateListener.OverflowPolicy;
+
+import static de.thjom.java.systemd.UnitStates.state;
+
+public class QueuedUnitStateListenerTest {
+
+    private static UnitStateListener blockingListener(final CountDownLatch gate, final List<String> received) {
+        return (u, p) -> {
+            try {
+                gate.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            received.add(String.valueOf(p.get(Unit.Property.SUB_STATE).getValue()));
+        };
+    }
+
+    @Test(description="Tests dropping of oldest changes on overflow.")
+    public void testDropOldest() {
+        Unit unit = Mockito.mock(Service.class);
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+        QueuedUnitStateListener listener = new QueuedUnitStateListener(blockingListener(gate, received), 2, OverflowPolicy.DROP_OLDEST);
+
+        listener.stateChanged(unit, state("s0"));
+        Awaitility.await().until(() -> listener.getQueueSize() == 0);
+
+        // Delivery thread is blocked on "s0" now
+        listener.stateChanged(unit, state("s1"));
+        listener.stateChanged(unit, state("s2"));
+        listener.stateChanged(unit, state("s3"));
+
+        Assert.assertEquals(listener.getQueueSize(), 2);
+        Assert.assertEquals(listener.getDroppedCount(), 1L);
+        Assert.assertTrue(listener.getCurrentLag(TimeUnit.NANOSECONDS) > 0L);
+
+        gate.countDown();
+        Awaitility.await().until(() -> listener.getDeliveredCount() == 3L);
+
+        Assert.assertEquals(received, Arrays.asList("s0", "s2", "s3"));
+        Assert.assertTrue(listener.getMaxLag(TimeUnit.NANOSECONDS) > 0L);
+
+        listener.close();
+    }
+
+    @Test(description="Tests coalescing of changes per unit on overflow.")
+    public void testCoalesce() {
+        Unit cronie = Mockito.mock(Service.class);
+        Unit polkit = Mockito.mock(Service.class);
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+        QueuedUnitStateListener listener = new QueuedUnitStateListener(blockingListener(gate, received), 2, OverflowPolicy.COALESCE);
+
+        listener.stateChanged(cronie, state("c0"));
+        Awaitility.await().until(() -> listener.getQueueSize() == 0);
+
+        listener.stateChanged(cronie, state("c1"));
+        listener.stateChanged(polkit, state("p1"));
+        listener.stateChanged(cronie, state("c2"));
+        listener.stateChanged(polkit, state("p2"));
+
+        Assert.assertEquals(listener.getQueueSize(), 2);
+        Assert.assertEquals(listener.getCoalescedCount(), 2L);
+        Assert.assertEquals(listener.getDroppedCount(), 0L);
+
+        gate.countDown();
+        Awaitility.await().until(() -> listener.getDeliveredCount() == 3L);
+
+        Assert.assertEquals(received, Arrays.asList("c0", "c2", "p2"));
+
+        listener.close();
+    }
+
+    @Test(description="Tests blocking of the producer on overflow.")
+    public void testBlock() throws InterruptedException {
+        Unit unit = Mockito.mock(Service.class);
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+        QueuedUnitStateListener listener = new QueuedUnitStateListener(blockingListener(gate, received), 1, OverflowPolicy.BLOCK);
+
+        listener.stateChanged(unit, state("s0"));
+        Awaitility.await().until(() -> listener.getQueueSize() == 0);
+        listener.stateChanged(unit, state("s1"));
+
+        Thread producer = new Thread(() -> listener.stateChanged(unit, state("s2")));
+        producer.start();
+
+        Awaitility.await().until(() -> producer.getState() == Thread.State.WAITING);
+
+        gate.countDown();
+        producer.join(5000L);
+
+        Awaitility.await().until(() -> listener.getDeliveredCount() == 3L);
+
+        Assert.assertEquals(received, Arrays.asList("s0", "s1", "s2"));
+        Assert.assertEquals(listener.getDroppedCount(), 0L);
+
+        listener.close();
+        listener.stateChanged(unit, state("s3"));
+
+        Assert.assertEquals(listener.getDroppedCount(), 1L);
+    }
+
+    @Test(description="Tests cleaning up of a queued listener whose registration failed.")
+    public void testFailedRegistration() {
+        AbstractAdapter adapter = new AbstractAdapter() {
+
+            @Override
+            public <T extends DBusSignal> void addHandler(final Class<T> type, final DBusSigHandler<T> handler) throws DBusException {
+                throw new DBusException("Not connected");
+            }
+
+            @Override
+            public <T extends DBusSignal> void removeHandler(final Class<T> type, final DBusSigHandler<T> handler) throws DBusException {
+                // Never registered
+            }
+
+        };
+
+        UnitStateListener listener = (u, p) -> {};
+
+        Assert.assertThrows(DBusException.class, () -> adapter.addListener(listener, 2, OverflowPolicy.DROP_OLDEST));
+        Assert.assertTrue(adapter.getQueuedListeners().isEmpty());
+
+        Awaitility.await().until(() -> Thread.getAllStackTraces().keySet().stream().noneMatch(t -> t.getName().startsWith(QueuedUnitStateListener.class.getSimpleName() + "-" + listener.getClass().getSimpleName())));
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.dbus.types.UInt64;
+import org.freedesktop.dbus.types.Variant;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ResourceSamplerTest {
+
+    private static final class FakeBackend implements AccountingBackend {
+
+        private final Map<String, long[]> values = new HashMap<>();
+
+        void set(final String unitName, final ResourceMetric metric, final long value) {
+            long[] unitValues = values.computeIfAbsent(unitName, k -> {
+                long[] v = new long[ResourceMetric.values().length];
+                java.util.Arrays.fill(v, ResourceSample.NOT_AVAILABLE);
+                return v;
+            });
+
+            unitValues[metric.ordinal()] = value;
+        }
+
+        @Override
+        public void read(final String unitName, final long[] target) throws IOException {
+            long[] unitValues = values.get(unitName);
+
+            if (unitValues == null) {
+                throw new IOException("No such unit");
+            }
+
+            System.arraycopy(unitValues, 0, target, 0, target.length);
+        }
+
+    }
+
+    @Test(description="Tests rate computation and counter resets.")
+    public void testRates() {
+        FakeBackend backend = new FakeBackend();
+        AtomicLong clock = new AtomicLong();
+        ResourceSampler sampler = new ResourceSampler(backend, clock::get, () -> clock.get() / 1000000L);
+
+        List<ResourceSample> notified = new ArrayList<>();
+        sampler.addListener(notified::add);
+        sampler.addUnits("app.service", "gone.service");
+
+        backend.set("app.service", ResourceMetric.CPU_USAGE_NSEC, 1_000_000_000L);
+        backend.set("app.service", ResourceMetric.MEMORY_CURRENT, 4096L);
+        backend.set("app.service", ResourceMetric.IO_READ_BYTES, 1000L);
+
+        ResourceSample first = sampler.sample().get(0);
+        Assert.assertTrue(Double.isNaN(first.getCpuUsage()));
+        Assert.assertEquals(sampler.getErrorCount(), 1L);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2L));
+        backend.set("app.service", ResourceMetric.CPU_USAGE_NSEC, 2_000_000_000L);
+        backend.set("app.service", ResourceMetric.IO_READ_BYTES, ResourceSample.NOT_AVAILABLE);
+
+        ResourceSample second = sampler.sample().get(0);
+        Assert.assertEquals(second.getCpuUsage(), 0.5, 1e-9);
+        Assert.assertTrue(Double.isNaN(second.getRate(ResourceMetric.MEMORY_CURRENT)));
+        Assert.assertFalse(second.isAvailable(ResourceMetric.IO_READ_BYTES));
+        Assert.assertTrue(Double.isNaN(second.getRate(ResourceMetric.IO_READ_BYTES)));
+        Assert.assertFalse(second.isCounterReset());
+        Assert.assertEquals(second.getTimestamp(), 2000L);
+
+        // Restart
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        backend.set("app.service", ResourceMetric.CPU_USAGE_NSEC, 250_000_000L);
+
+        ResourceSample third = sampler.sample().get(0);
+        Assert.assertTrue(third.isCounterReset());
+        Assert.assertEquals(third.getCpuUsage(), 0.25, 1e-9);
+
+        Assert.assertSame(sampler.getLatestSample("app.service").get(), third);
+        Assert.assertEquals(notified.size(), 3);
+        Assert.assertEquals(sampler.getTickCount(), 3L);
+
+        List<String> removed = new ArrayList<>();
+        sampler.addListener(new ResourceSampleListener() {
+
+            @Override
+            public void sampleTaken(final ResourceSample sample) {
+            }
+
+            @Override
+            public void unitsRemoved(final Collection<String> unitNames) {
+                removed.addAll(unitNames);
+            }
+
+        });
+
+        sampler.removeUnits("app.service", "unknown.service");
+        Assert.assertFalse(sampler.getLatestSample("app.service").isPresent());
+        Assert.assertEquals(removed, Collections.singletonList("app.service"));
+    }
+
+    @Test(description="Tests decoding of bus values.")
+    public void testBusDecoding() {
+        Map<String, Variant<?>> properties = new HashMap<>();
+        properties.put(ResourceMetric.MEMORY_CURRENT.property, new Variant<>(new UInt64(8192L)));
+        properties.put(ResourceMetric.MEMORY_MAX.property, new Variant<>(new UInt64(new BigInteger("18446744073709551615"))));
+
+        long[] values = new long[ResourceMetric.values().length];
+        java.util.Arrays.fill(values, ResourceSample.NOT_AVAILABLE);
+
+        BusAccountingBackend.decode(properties, values);
+
+        Assert.assertEquals(values[ResourceMetric.MEMORY_CURRENT.ordinal()], 8192L);
+        Assert.assertEquals(values[ResourceMetric.MEMORY_MAX.ordinal()], ResourceSample.NOT_AVAILABLE);
+        Assert.assertEquals(values[ResourceMetric.TASKS_CURRENT.ordinal()], ResourceSample.NOT_AVAILABLE);
+
+        Assert.assertEquals(BusAccountingBackend.interfaceOf("app.service"), Service.SERVICE_NAME);
+        Assert.assertEquals(BusAccountingBackend.interfaceOf("user.slice"), Slice.SERVICE_NAME);
+        Assert.assertNull(BusAccountingBackend.interfaceOf("multi-user.target"));
+    }
+
+}
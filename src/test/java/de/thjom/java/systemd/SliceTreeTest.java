@@ -0,0 +1,222 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.SliceTree.SliceUsage;
+
+public class SliceTreeTest {
+
+    @Test(description="Tests the parent of slices.")
+    public void testParentOf() {
+        Assert.assertNull(SliceTree.parentOf("-.slice"));
+        Assert.assertEquals(SliceTree.parentOf("system.slice"), "-.slice");
+        Assert.assertEquals(SliceTree.parentOf("system-tenant.slice"), "system.slice");
+        Assert.assertEquals(SliceTree.parentOf("system-tenant-a.slice"), "system-tenant.slice");
+    }
+
+    @Test(description="Tests the bottom-up aggregation.")
+    public void testAggregation() {
+        Map<String, String> sliceOf = new HashMap<>();
+        sliceOf.put("a.service", "system-tenant.slice");
+        sliceOf.put("b.service", "system-tenant.slice");
+        sliceOf.put("c.service", "system.slice");
+        sliceOf.put("d.scope", "user-1000.slice");
+
+        Map<String, long[]> counters = new HashMap<>();
+        AtomicLong nanos = new AtomicLong();
+
+        ResourceSampler sampler = new ResourceSampler((name, values) -> {
+            long[] unit = counters.get(name);
+            values[ResourceMetric.CPU_USAGE_NSEC.ordinal()] = unit[0];
+            values[ResourceMetric.MEMORY_CURRENT.ordinal()] = unit[1];
+            values[ResourceMetric.MEMORY_MAX.ordinal()] = 1L << 30;
+        }, nanos::get, nanos::get);
+
+        int[] resolved = new int[1];
+        SliceTree tree = new SliceTree(name -> {
+            resolved[0]++;
+
+            return sliceOf.get(name);
+        });
+
+        sampler.addListener(tree);
+        sampler.addUnits("a.service", "b.service", "c.service", "d.scope", "system.slice");
+
+        counters.put("a.service", new long[] { 0L, 100L });
+        counters.put("b.service", new long[] { 0L, 200L });
+        counters.put("c.service", new long[] { 0L, 400L });
+        counters.put("d.scope", new long[] { 0L, 800L });
+        counters.put("system.slice", new long[] { 0L, 99999L });
+
+        sampler.sample();
+
+        counters.get("a.service")[0] = 1_000_000_000L;
+        counters.get("b.service")[0] = 2_000_000_000L;
+        counters.get("b.service")[1] = 250L;
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+
+        sampler.sample();
+
+        Assert.assertEquals(resolved[0], 4);
+        Assert.assertEquals(tree.getSliceNames(), new HashSet<>(Arrays.asList("-.slice", "system.slice", "system-tenant.slice", "user.slice", "user-1000.slice")));
+
+        SliceUsage tenant = tree.getUsage("system-tenant.slice").get();
+        Assert.assertEquals(tenant.getParentName().get(), "system.slice");
+        Assert.assertEquals(tenant.getUnitNames(), new HashSet<>(Arrays.asList("a.service", "b.service")));
+        Assert.assertEquals(tenant.getValue(ResourceMetric.MEMORY_CURRENT), 350L);
+        Assert.assertEquals(tenant.getRate(ResourceMetric.CPU_USAGE_NSEC), 3e9, 1e-3);
+        Assert.assertEquals(tenant.getTotal(ResourceMetric.CPU_USAGE_NSEC), 3_000_000_000L);
+        Assert.assertEquals(tenant.getValue(ResourceMetric.MEMORY_MAX), 0L);
+
+        SliceUsage system = tree.getUsage("system.slice").get();
+        Assert.assertEquals(system.getChildSlices(), new HashSet<>(Arrays.asList("system-tenant.slice")));
+        Assert.assertEquals(system.getValue(ResourceMetric.MEMORY_CURRENT), 750L);
+
+        SliceUsage root = tree.getUsage("-.slice").get();
+        Assert.assertFalse(root.getParentName().isPresent());
+        Assert.assertEquals(root.getValue(ResourceMetric.MEMORY_CURRENT), 1550L);
+        Assert.assertEquals(root.getRate(ResourceMetric.CPU_USAGE_NSEC), 3e9, 1e-3);
+
+        // Restart of a.service
+        counters.get("a.service")[0] = 500_000_000L;
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        sampler.sample();
+
+        tenant = tree.getUsage("system-tenant.slice").get();
+        Assert.assertEquals(tenant.getTotal(ResourceMetric.CPU_USAGE_NSEC), 3_500_000_000L);
+        Assert.assertEquals(tenant.getRate(ResourceMetric.CPU_USAGE_NSEC), 0.5e9, 1e-3);
+
+        tree.removeUnit("b.service");
+
+        tenant = tree.getUsage("system-tenant.slice").get();
+        Assert.assertEquals(tenant.getValue(ResourceMetric.MEMORY_CURRENT), 100L);
+        Assert.assertEquals(tenant.getRate(ResourceMetric.CPU_USAGE_NSEC), 0.5e9, 1e-3);
+        Assert.assertEquals(tenant.getTotal(ResourceMetric.CPU_USAGE_NSEC), 3_500_000_000L);
+        Assert.assertEquals(tree.getUsage("-.slice").get().getValue(ResourceMetric.MEMORY_CURRENT), 1300L);
+
+        tree.setSlice("a.service", "other.slice");
+        Assert.assertEquals(tree.getUsage("system-tenant.slice").get().getValue(ResourceMetric.MEMORY_CURRENT), 0L);
+        Assert.assertFalse(tree.getUsage("missing.slice").isPresent());
+    }
+
+    private static ResourceSample cpuSample(final long timestamp, final long cpu) {
+        long[] values = new long[ResourceMetric.METRICS.length];
+        double[] rates = new double[ResourceMetric.METRICS.length];
+        Arrays.fill(values, ResourceSample.NOT_AVAILABLE);
+        Arrays.fill(rates, Double.NaN);
+
+        values[ResourceMetric.CPU_USAGE_NSEC.ordinal()] = cpu;
+
+        return new ResourceSample("a.service", timestamp, values, rates, false);
+    }
+
+    @Test(description="Tests totals of counters which are temporarily not available.")
+    public void testUnavailableCounter() {
+        SliceTree tree = new SliceTree(name -> null);
+        tree.setSlice("a.service", "system.slice");
+
+        tree.sampleTaken(cpuSample(0L, 1000L));
+        tree.sampleTaken(cpuSample(1L, 1200L));
+        tree.sampleTaken(cpuSample(2L, ResourceSample.NOT_AVAILABLE));
+        tree.sampleTaken(cpuSample(3L, 1500L));
+
+        Assert.assertEquals(tree.getUsage("system.slice").get().getTotal(ResourceMetric.CPU_USAGE_NSEC), 500L);
+    }
+
+    @Test(description="Tests the removal of units which are not sampled anymore.")
+    public void testExpiry() {
+        Map<String, Long> memory = new HashMap<>();
+        memory.put("a.service", 100L);
+        memory.put("b.service", 200L);
+
+        AtomicLong nanos = new AtomicLong();
+        ResourceSampler sampler = new ResourceSampler((name, values) -> {
+            Long value = memory.get(name);
+
+            if (value == null) {
+                throw new IOException("No such unit");
+            }
+
+            values[ResourceMetric.MEMORY_CURRENT.ordinal()] = value;
+        }, nanos::get, nanos::get);
+
+        SliceTree tree = new SliceTree(name -> "system.slice");
+        tree.setExpiryTicks(2);
+
+        sampler.addListener(tree);
+        sampler.addUnits("a.service", "b.service");
+        sampler.sample();
+
+        Assert.assertEquals(tree.getUsage("system.slice").get().getValue(ResourceMetric.MEMORY_CURRENT), 300L);
+
+        // Unloaded, reads fail
+        memory.remove("b.service");
+
+        for (int i = 0; i < 2; i++) {
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+            sampler.sample();
+        }
+
+        Assert.assertEquals(tree.getUsage("system.slice").get().getValue(ResourceMetric.MEMORY_CURRENT), 300L);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        sampler.sample();
+
+        SliceUsage system = tree.getUsage("system.slice").get();
+        Assert.assertEquals(system.getValue(ResourceMetric.MEMORY_CURRENT), 100L);
+        Assert.assertEquals(system.getUnitNames(), Collections.singleton("a.service"));
+
+        sampler.removeUnits("a.service");
+
+        system = tree.getUsage("system.slice").get();
+        Assert.assertEquals(system.getValue(ResourceMetric.MEMORY_CURRENT), 0L);
+        Assert.assertTrue(system.getUnitNames().isEmpty());
+    }
+
+    private static ResourceSample cpuRateSample(final long timestamp, final double rate) {
+        long[] values = new long[ResourceMetric.METRICS.length];
+        double[] rates = new double[ResourceMetric.METRICS.length];
+        Arrays.fill(values, ResourceSample.NOT_AVAILABLE);
+        Arrays.fill(rates, Double.NaN);
+
+        rates[ResourceMetric.CPU_USAGE_NSEC.ordinal()] = rate;
+
+        return new ResourceSample("a.service", timestamp, values, rates, false);
+    }
+
+    @Test(description="Tests that rounding errors of the rates do not add up.")
+    public void testRateRounding() {
+        SliceTree tree = new SliceTree(name -> null);
+        tree.setSlice("a.service", "system.slice");
+
+        // The difference loses the small rate
+        tree.sampleTaken(cpuRateSample(0L, 1e17));
+        tree.sampleTaken(cpuRateSample(1L, 0.5));
+        tree.sampleTaken(cpuRateSample(2L, 0.5));
+
+        Assert.assertEquals(tree.getUsage("system.slice").get().getRate(ResourceMetric.CPU_USAGE_NSEC), 0.5);
+        Assert.assertEquals(tree.getUsage("-.slice").get().getRate(ResourceMetric.CPU_USAGE_NSEC), 0.5);
+    }
+
+}
@@ -32,6 +32,15 @@ public class SystemdTest {
         Assert.assertEquals(Systemd.escapePath(null), "");
     }
 
+    @Test(description="Tests object path unescape function.")
+    public void testPathUnescaping() {
+        Assert.assertEquals(Systemd.unescapePath("systemd_2dbacklight_40leds_3atpacpi_3a_3akbd_5fbacklight_2eservice"),
+                "systemd-backlight@leds:tpacpi::kbd_backlight.service");
+        Assert.assertEquals(Systemd.unescapePath(Systemd.escapePath("worker@42.service")), "worker@42.service");
+        Assert.assertEquals(Systemd.unescapePath("foo_zz"), "foo_zz");
+        Assert.assertEquals(Systemd.unescapePath(null), "");
+    }
+
     @Test(description="Tests micro-timestamp conversion to java.time.Instant object.")
     public void testTimestampConversion() {
         long usecTimestamp = System.currentTimeMillis() * 1000 + 987;
@@ -0,0 +1,128 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.TimeSeriesStore.Points;
+import de.thjom.java.systemd.TimeSeriesStore.Resolution;
+
+public class TimeSeriesStoreTest {
+
+    private static final long START = TimeUnit.HOURS.toMillis(1000L);
+    private static final long STEP = TimeUnit.SECONDS.toMillis(10L);
+
+    @Test(description="Tests range queries and rollups.")
+    public void testRangeAndRollups() {
+        TimeSeriesStore store = TimeSeriesStore.builder().build();
+
+        // 10 minutes of memory alternating between 100 and 300
+        for (int i = 0; i < 60; i++) {
+            store.record("app.service", ResourceMetric.MEMORY_CURRENT, START + i * STEP, i % 2 == 0 ? 100L : 300L);
+        }
+
+        Points raw = store.range("app.service", ResourceMetric.MEMORY_CURRENT, START + 5 * STEP, START + 9 * STEP, Resolution.RAW);
+        Assert.assertEquals(raw.size(), 5);
+        Assert.assertEquals(raw.getTimestamp(0), START + 5 * STEP);
+        Assert.assertEquals(raw.getValue(0), 300L);
+
+        Points minutes = store.range("app.service", ResourceMetric.MEMORY_CURRENT, START, START + TimeUnit.HOURS.toMillis(1L), Resolution.ONE_MINUTE);
+        Assert.assertEquals(minutes.size(), 9); // last minute still open
+        Assert.assertEquals(minutes.getValue(0), 200L);
+        Assert.assertEquals(minutes.getTimestamp(1) - minutes.getTimestamp(0), TimeUnit.MINUTES.toMillis(1L));
+
+        Points maxima = store.rangeMax("app.service", ResourceMetric.MEMORY_CURRENT, START, START + TimeUnit.HOURS.toMillis(1L), Resolution.FIVE_MINUTES);
+        Assert.assertEquals(maxima.size(), 1);
+        Assert.assertEquals(maxima.getValue(0), 300L);
+
+        Assert.assertEquals(store.percentile("app.service", ResourceMetric.MEMORY_CURRENT, START, START + 59 * STEP, Resolution.RAW, 50.0), 100.0);
+        Assert.assertEquals(store.percentile("app.service", ResourceMetric.MEMORY_CURRENT, START, START + 59 * STEP, Resolution.RAW, 99.0), 300.0);
+
+        Assert.assertEquals(store.range("other.service", ResourceMetric.MEMORY_CURRENT, START, START + STEP, Resolution.RAW).size(), 0);
+    }
+
+    @Test(description="Tests rates of counters with a reset.")
+    public void testRate() {
+        TimeSeriesStore store = TimeSeriesStore.builder().build();
+
+        long[] cpu = { 0L, 10_000L, 20_000L, 5_000L, 15_000L };
+
+        for (int i = 0; i < cpu.length; i++) {
+            store.record("app.service", ResourceMetric.CPU_USAGE_NSEC, START + i * STEP, cpu[i]);
+        }
+
+        // 10000 + 10000 + 5000 (restart) + 10000 in 40 seconds
+        Assert.assertEquals(store.rate("app.service", ResourceMetric.CPU_USAGE_NSEC, START, START + 4 * STEP, Resolution.RAW), 875.0, 1e-9);
+        Assert.assertEquals(store.percentile("app.service", ResourceMetric.CPU_USAGE_NSEC, START, START + 4 * STEP, Resolution.RAW, 100.0), 1000.0);
+        Assert.assertTrue(Double.isNaN(store.rate("app.service", ResourceMetric.CPU_USAGE_NSEC, START, START, Resolution.RAW)));
+    }
+
+    @Test(description="Tests the retention.")
+    public void testRetention() {
+        TimeSeriesStore store = TimeSeriesStore.builder()
+                .retention(1L, TimeUnit.HOURS)
+                .rollupRetention(1L, TimeUnit.HOURS)
+                .blockDuration(10L, TimeUnit.MINUTES)
+                .build();
+
+        ResourceSampler sampler = new ResourceSampler((name, values) -> values[ResourceMetric.TASKS_CURRENT.ordinal()] = 5L, () -> 0L, new AtomicLong(START)::get);
+        sampler.addListener(store);
+        sampler.addUnits("app.service");
+        sampler.sample();
+
+        Assert.assertEquals(store.getUnitNames().size(), 1);
+        Assert.assertEquals(store.range("app.service", ResourceMetric.TASKS_CURRENT, START, START, Resolution.RAW).size(), 1);
+        Assert.assertEquals(store.range("app.service", ResourceMetric.MEMORY_CURRENT, START, START, Resolution.RAW).size(), 0);
+
+        for (int i = 1; i <= 720; i++) {
+            store.record("app.service", ResourceMetric.TASKS_CURRENT, START + i * STEP, 5L);
+        }
+
+        store.trim(START + 720 * STEP);
+
+        Points points = store.range("app.service", ResourceMetric.TASKS_CURRENT, START, START + 720 * STEP, Resolution.RAW);
+        Assert.assertTrue(points.getTimestamp(0) >= START + TimeUnit.MINUTES.toMillis(50L));
+        Assert.assertTrue(store.getSizeInBytes() > 0L);
+
+        store.trim(START + TimeUnit.HOURS.toMillis(10L));
+        Assert.assertTrue(store.getUnitNames().isEmpty());
+    }
+
+    @Test(description="Tests the retention enforced by samples.")
+    public void testRetentionBySamples() {
+        TimeSeriesStore store = TimeSeriesStore.builder()
+                .retention(1L, TimeUnit.HOURS)
+                .rollupRetention(1L, TimeUnit.HOURS)
+                .blockDuration(10L, TimeUnit.MINUTES)
+                .build();
+
+        AtomicLong wallClock = new AtomicLong(START);
+        ResourceSampler sampler = new ResourceSampler((name, values) -> values[ResourceMetric.TASKS_CURRENT.ordinal()] = 5L, () -> 0L, wallClock::get);
+        sampler.addListener(store);
+        sampler.addUnits("app.service");
+
+        // Three hours of samples without explicit trimming
+        for (int i = 0; i <= 1080; i++) {
+            wallClock.set(START + i * STEP);
+            sampler.sample();
+        }
+
+        Points points = store.range("app.service", ResourceMetric.TASKS_CURRENT, START, START + 1080 * STEP, Resolution.RAW);
+        Assert.assertTrue(points.size() > 0);
+        Assert.assertTrue(points.getTimestamp(0) >= START + TimeUnit.MINUTES.toMillis(110L));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.types.UInt32;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.TopConsumers.Entry;
+import de.thjom.java.systemd.types.UnitType;
+
+public class TopConsumersTest {
+
+    @Test(description="Tests the bounded heap selection.")
+    public void testHeap() {
+        Random random = new Random(7L);
+        List<Double> all = new ArrayList<>();
+        TopConsumers.Heap heap = new TopConsumers.Heap(10);
+
+        for (int i = 0; i < 1000; i++) {
+            double score = random.nextDouble();
+            all.add(score);
+            heap.offer("u" + i, score);
+        }
+
+        all.sort(Collections.reverseOrder());
+
+        List<Entry> top = heap.drain();
+        Assert.assertEquals(top.size(), 10);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(top.get(i).getScore(), all.get(i).doubleValue());
+        }
+
+        TopConsumers.Heap small = new TopConsumers.Heap(5);
+        small.offer("a", 1.0);
+        small.offer("b", 3.0);
+        Assert.assertEquals(small.drain().get(0).getUnitName(), "b");
+    }
+
+    @Test(description="Tests the queries over the sampled units.")
+    public void testQueries() {
+        AtomicLong nanos = new AtomicLong();
+        AtomicLong millis = new AtomicLong(TimeUnit.HOURS.toMillis(1000L));
+
+        ResourceSampler sampler = new ResourceSampler((name, values) -> {
+            int n = Integer.parseInt(name.substring(1, name.indexOf('.')));
+
+            values[ResourceMetric.CPU_USAGE_NSEC.ordinal()] = n * nanos.get();
+            values[ResourceMetric.MEMORY_CURRENT.ordinal()] = 100L * n;
+            values[ResourceMetric.MEMORY_MAX.ordinal()] = n % 2 == 0 ? 1000L : ResourceSample.NOT_AVAILABLE;
+            values[ResourceMetric.IO_WRITE_BYTES.ordinal()] = (10 - n) * millis.get();
+        }, nanos::get, millis::get);
+
+        for (int i = 1; i <= 9; i++) {
+            sampler.addUnits(String.format("u%d.service", i));
+        }
+
+        TimeSeriesStore store = TimeSeriesStore.builder().build();
+        sampler.addListener(store);
+
+        TopConsumers top = new TopConsumers(sampler, store, millis::get);
+
+        for (int i = 0; i < 7; i++) {
+            sampler.sample();
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(10L));
+            millis.addAndGet(TimeUnit.SECONDS.toMillis(10L));
+        }
+
+        List<Entry> cpu = top.byRate(ResourceMetric.CPU_USAGE_NSEC, 3);
+        Assert.assertEquals(names(cpu), Arrays.asList("u9.service", "u8.service", "u7.service"));
+        Assert.assertEquals(cpu.get(0).getScore(), 9e9, 1e-3);
+
+        List<Entry> windowed = top.byRate(ResourceMetric.IO_WRITE_BYTES, 2, 1L, TimeUnit.MINUTES);
+        Assert.assertEquals(names(windowed), Arrays.asList("u1.service", "u2.service"));
+        Assert.assertEquals(windowed.get(0).getScore(), 9000.0, 1e-9);
+
+        List<Entry> memory = top.byRatio(ResourceMetric.MEMORY_CURRENT, ResourceMetric.MEMORY_MAX, 10);
+        Assert.assertEquals(names(memory), Arrays.asList("u8.service", "u6.service", "u4.service", "u2.service"));
+        Assert.assertEquals(memory.get(0).getScore(), 0.8, 1e-9);
+
+        Assert.assertEquals(top.byValue(ResourceMetric.MEMORY_CURRENT, 1).get(0).getUnitName(), "u9.service");
+        Assert.assertTrue(top.byValue(ResourceMetric.TASKS_CURRENT, 5).isEmpty());
+    }
+
+    @Test(description="Tests listing the units with accounting.")
+    public void testListAccountedUnits() {
+        Manager manager = Mockito.mock(Manager.class);
+        List<UnitType> units = new ArrayList<>();
+
+        for (String name : new String[] { "a.service", "b.scope", "user.slice", "c.socket", "d.target" }) {
+            units.add(new UnitType(name, "", "loaded", "active", "running", "", new DBusPath("/"), new UInt32(0L), "", new DBusPath("/")));
+        }
+
+        Mockito.when(manager.listUnits()).thenReturn(units);
+
+        Assert.assertEquals(TopConsumers.listAccountedUnits(manager), Arrays.asList("a.service", "b.scope", "user.slice"));
+    }
+
+    private static List<String> names(final List<Entry> entries) {
+        List<String> names = new ArrayList<>();
+        entries.forEach(e -> names.add(e.getUnitName()));
+
+        return names;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.freedesktop.dbus.types.Variant;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.UnitChangeFeed.Changes;
+import de.thjom.java.systemd.UnitChangeFeed.Delta;
+
+public class UnitChangeFeedTest {
+
+    @Test(description="Tests compaction of changes per unit.")
+    public void testCompaction() {
+        UnitChangeFeed feed = new UnitChangeFeed(16);
+
+        feed.record("a.service", Collections.singletonMap(Unit.Property.ACTIVE_STATE, new Variant<>("activating")));
+        feed.record("b.service", Collections.singletonMap(Unit.Property.ACTIVE_STATE, new Variant<>("active")));
+        feed.record("a.service", Collections.singletonMap(Unit.Property.SUB_STATE, new Variant<>("running")));
+        feed.record("a.service", Collections.singletonMap(Unit.Property.ACTIVE_STATE, new Variant<>("active")));
+
+        Assert.assertEquals(feed.getSequence(), 4L);
+        Assert.assertEquals(feed.size(), 2);
+
+        Changes changes = feed.changesSince(0L, 10);
+        Assert.assertFalse(changes.isResyncRequired());
+        Assert.assertFalse(changes.hasMore());
+        Assert.assertEquals(changes.getCursor(), 4L);
+        Assert.assertEquals(changes.getDeltas().size(), 2);
+
+        Delta b = changes.getDeltas().get(0);
+        Assert.assertEquals(b.getUnitName(), "b.service");
+        Assert.assertEquals(b.getSequence(), 2L);
+
+        Delta a = changes.getDeltas().get(1);
+        Assert.assertEquals(a.getUnitName(), "a.service");
+        Assert.assertEquals(a.getSequence(), 4L);
+        Assert.assertEquals(a.getProperties().get(Unit.Property.ACTIVE_STATE).getValue(), "active");
+        Assert.assertEquals(a.getProperties().get(Unit.Property.SUB_STATE).getValue(), "running");
+
+        // Nothing new since the last cursor
+        Assert.assertTrue(feed.changesSince(changes.getCursor(), 10).getDeltas().isEmpty());
+
+        Changes next = feed.changesSince(2L, 10);
+        Assert.assertEquals(next.getDeltas().size(), 1);
+        Assert.assertEquals(next.getDeltas().get(0).getUnitName(), "a.service");
+    }
+
+    @Test(description="Tests paging of changes.")
+    public void testPaging() {
+        UnitChangeFeed feed = new UnitChangeFeed(16);
+
+        for (int i = 0; i < 5; i++) {
+            feed.record("unit" + i + ".service", Collections.singletonMap(Unit.Property.SUB_STATE, new Variant<>("running")));
+        }
+
+        Changes first = feed.changesSince(0L, 2);
+        Assert.assertTrue(first.hasMore());
+        Assert.assertEquals(first.getCursor(), 2L);
+
+        Changes second = feed.changesSince(first.getCursor(), 2);
+        Assert.assertTrue(second.hasMore());
+        Assert.assertEquals(second.getDeltas().get(0).getUnitName(), "unit2.service");
+
+        Changes third = feed.changesSince(second.getCursor(), 2);
+        Assert.assertFalse(third.hasMore());
+        Assert.assertEquals(third.getDeltas().size(), 1);
+        Assert.assertEquals(third.getCursor(), 5L);
+    }
+
+    @Test(description="Tests resync after trimming of the log.")
+    public void testResync() {
+        UnitChangeFeed feed = new UnitChangeFeed(2);
+
+        feed.record("a.service", Collections.emptyMap());
+        feed.record("b.service", Collections.emptyMap());
+        Assert.assertFalse(feed.changesSince(0L, 10).isResyncRequired());
+
+        feed.record("c.service", Collections.emptyMap());
+        Assert.assertEquals(feed.size(), 2);
+        Assert.assertEquals(feed.getCompactedSequence(), 1L);
+
+        Changes changes = feed.changesSince(0L, 10);
+        Assert.assertTrue(changes.isResyncRequired());
+        Assert.assertTrue(changes.getDeltas().isEmpty());
+        Assert.assertEquals(changes.getCursor(), 3L);
+
+        Assert.assertFalse(feed.changesSince(1L, 10).isResyncRequired());
+
+        // Unknown future cursor
+        Assert.assertTrue(feed.changesSince(42L, 10).isResyncRequired());
+    }
+
+    @Test(description="Tests recording of added and removed units.")
+    public void testRefresh() {
+        UnitChangeFeed feed = new UnitChangeFeed(16);
+
+        feed.refreshed(new HashSet<>(Arrays.asList("a.service", "b.service")));
+        long cursor = feed.changesSince(0L, 10).getCursor();
+        Assert.assertEquals(cursor, 2L);
+
+        feed.refreshed(new HashSet<>(Arrays.asList("a.service", "b.service")));
+        Assert.assertEquals(feed.getSequence(), 2L);
+
+        feed.record("a.service", Collections.singletonMap(Unit.Property.SUB_STATE, new Variant<>("running")));
+        feed.refreshed(Collections.singleton("b.service"));
+
+        Changes changes = feed.changesSince(cursor, 10);
+        Assert.assertEquals(changes.getDeltas().size(), 1);
+
+        Delta a = changes.getDeltas().get(0);
+        Assert.assertEquals(a.getUnitName(), "a.service");
+        Assert.assertTrue(a.isRemoved());
+        Assert.assertTrue(a.getProperties().isEmpty());
+
+        // Re-added units start from scratch
+        feed.refreshed(new HashSet<>(Arrays.asList("a.service", "b.service")));
+        Delta added = feed.changesSince(changes.getCursor(), 10).getDeltas().get(0);
+        Assert.assertFalse(added.isRemoved());
+    }
+
+    @Test(description="Tests refreshes with more units than the capacity of the log.")
+    public void testRefreshBeyondCapacity() {
+        UnitChangeFeed feed = new UnitChangeFeed(2);
+        Set<String> unitNames = new HashSet<>(Arrays.asList("a.service", "b.service", "c.service", "d.service"));
+
+        feed.refreshed(unitNames);
+        Assert.assertEquals(feed.getSequence(), 4L);
+        Assert.assertEquals(feed.size(), 2);
+
+        // Trimmed units are still known, nothing is appended again
+        feed.refreshed(unitNames);
+        Assert.assertEquals(feed.getSequence(), 4L);
+
+        Changes changes = feed.changesSince(feed.getSequence(), 10);
+        Assert.assertFalse(changes.isResyncRequired());
+
+        feed.refreshed(Collections.singleton("a.service"));
+        Assert.assertEquals(feed.getSequence(), 7L);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.types.UInt32;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.Manager.SystemStateEnum;
+import de.thjom.java.systemd.interfaces.ManagerInterface.Reloading;
+import de.thjom.java.systemd.types.UnitType;
+
+public class UnitHealthIndexTest {
+
+    private static UnitType unit(final String name, final String activeState) {
+        return new UnitType(name, "", "loaded", activeState, "", "", new DBusPath("/"), new UInt32(0), "", new DBusPath("/"));
+    }
+
+    @Test(description="Tests seeding and incremental updates.")
+    public void testUpdates() {
+        UnitHealthIndex index = new UnitHealthIndex(Mockito.mock(Manager.class));
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.UNKNOWN);
+
+        index.seed(Arrays.asList(
+                unit("a.service", "active"),
+                unit("b.service", "failed"),
+                unit("c.service", "activating")), SystemStateEnum.DEGRADED);
+
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.DEGRADED);
+        Assert.assertTrue(index.isDegraded());
+        Assert.assertEquals(index.getFailedUnits(), Collections.singleton("b.service"));
+        Assert.assertEquals(index.getActivatingUnits(), Collections.singleton("c.service"));
+        Assert.assertEquals(index.getTransitioningCount(), 1);
+
+        Set<String> failed = index.getFailedUnits();
+
+        index.update("c.service", "active");
+        index.update("a.service", "deactivating");
+        Assert.assertSame(index.getFailedUnits(), failed);
+        Assert.assertTrue(index.getActivatingUnits().isEmpty());
+        Assert.assertEquals(index.getDeactivatingUnits(), Collections.singleton("a.service"));
+
+        index.update("a.service", "failed");
+        Assert.assertEquals(index.getFailedCount(), 2);
+        Assert.assertTrue(index.isFailed("a.service"));
+        Assert.assertEquals(index.getTransitioningCount(), 0);
+
+        // Reset of failed units
+        index.update("a.service", "inactive");
+        index.remove("b.service");
+        Assert.assertEquals(index.getFailedCount(), 0);
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.RUNNING);
+    }
+
+    @Test(description="Tests derivation of the system state.")
+    public void testSystemState() {
+        UnitHealthIndex index = new UnitHealthIndex(Mockito.mock(Manager.class));
+
+        index.seed(Collections.singletonList(unit("early.service", "failed")), SystemStateEnum.INITIALIZAING);
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.INITIALIZAING);
+
+        index.update(UnitHealthIndex.BASIC_TARGET, "active");
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.STARTING);
+
+        index.finishStartup();
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.DEGRADED);
+
+        index.update(UnitHealthIndex.RESCUE_TARGET, "active");
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.MAINTENANCE);
+
+        index.update(UnitHealthIndex.RESCUE_TARGET, "inactive");
+        index.update("early.service", "inactive");
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.RUNNING);
+
+        index.update(UnitHealthIndex.SHUTDOWN_TARGET, "activating");
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.STOPPING);
+    }
+
+    @Test(description="Tests seeding from the manager.")
+    public void testResync() {
+        Manager manager = Mockito.mock(Manager.class);
+        Mockito.when(manager.getSystemStateEnum()).thenReturn(SystemStateEnum.RUNNING);
+        Mockito.when(manager.listUnits()).thenReturn(Arrays.asList(unit("a.service", "active"), unit("b.service", "deactivating")));
+
+        UnitHealthIndex index = new UnitHealthIndex(manager);
+        index.resync();
+
+        Assert.assertEquals(index.getSystemState(), SystemStateEnum.RUNNING);
+        Assert.assertEquals(index.getDeactivatingUnits(), Collections.singleton("b.service"));
+    }
+
+    @Test(description="Tests the debounced resync after reloads.")
+    @SuppressWarnings("unchecked")
+    public void testResyncDebounce() throws DBusException {
+        Manager manager = Mockito.mock(Manager.class);
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+        Mockito.when(manager.getSystemStateEnum()).thenReturn(SystemStateEnum.RUNNING);
+        Mockito.when(manager.listUnits()).thenAnswer(i -> {
+            threads.add(Thread.currentThread());
+
+            return Collections.emptyList();
+        });
+
+        UnitHealthIndex index = new UnitHealthIndex(manager);
+        index.setResyncDebounce(50L, TimeUnit.MILLISECONDS);
+        index.open();
+
+        ArgumentCaptor<DBusSigHandler<Reloading>> handler = ArgumentCaptor.forClass(DBusSigHandler.class);
+        Mockito.verify(manager).addHandler(Mockito.eq(Reloading.class), handler.capture());
+
+        Reloading finished = Mockito.mock(Reloading.class);
+        Mockito.when(finished.isActive()).thenReturn(false);
+
+        // Reload storm, the signal thread is not blocked
+        for (int i = 0; i < 20; i++) {
+            handler.getValue().handle(finished);
+        }
+
+        Mockito.verify(manager, Mockito.timeout(5000L).times(2)).listUnits();
+
+        Assert.assertEquals(threads.size(), 2);
+        Assert.assertSame(threads.get(0), caller);
+        Assert.assertNotSame(threads.get(1), caller);
+
+        index.close();
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.freedesktop.dbus.types.Variant;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+
+public class UnitIndexTest {
+
+    private static UnitIndex createIndex() {
+        UnitIndex index = new UnitIndex(Mockito.mock(Manager.class));
+
+        index.put("worker@1.service", UnitStateEnum.ACTIVE, "system-tenants.slice", "/etc/systemd/system/worker@.service");
+        index.put("worker@2.service", UnitStateEnum.FAILED, "system-tenants-a.slice", "/etc/systemd/system/worker@.service");
+        index.put("cronie.service", UnitStateEnum.ACTIVE, "system.slice", "/usr/lib/systemd/system/cronie.service");
+        index.put("tenant.socket", UnitStateEnum.ACTIVE, "system-tenants.slice", "/etc/systemd/system/tenant.socket");
+        index.put("system-tenants.slice", UnitStateEnum.ACTIVE, "system.slice", null);
+
+        return index;
+    }
+
+    @Test(description="Tests derivation of unit types and templates.")
+    public void testNames() {
+        Assert.assertEquals(UnitIndex.typeOf("cronie.service"), Service.UNIT_SUFFIX);
+        Assert.assertEquals(UnitIndex.templateOf("worker@1.service"), "worker@.service");
+        Assert.assertEquals(UnitIndex.templateOf("getty@tty1.service"), "getty@.service");
+        Assert.assertNull(UnitIndex.templateOf("worker@.service"));
+        Assert.assertNull(UnitIndex.templateOf("cronie.service"));
+    }
+
+    @Test(description="Tests queries over the indexes.")
+    public void testQueries() {
+        UnitIndex index = createIndex();
+
+        Assert.assertEquals(index.size(), 5);
+        Assert.assertEquals(index.query().count(), 5);
+
+        Assert.assertEquals(index.query().activeState(UnitStateEnum.FAILED).list(), Collections.singletonList("worker@2.service"));
+        Assert.assertEquals(index.query().template("worker@.service").list(), Arrays.asList("worker@1.service", "worker@2.service"));
+        Assert.assertEquals(index.query().type(Socket.UNIT_SUFFIX).list(), Collections.singletonList("tenant.socket"));
+
+        // Slices include their sub-slices
+        Assert.assertEquals(index.query().type(Service.UNIT_SUFFIX).slice("system-tenants.slice").list(), Arrays.asList("worker@1.service", "worker@2.service"));
+        Assert.assertEquals(index.query().slice("system.slice").count(), 5);
+        Assert.assertEquals(index.query().slice("-.slice").count(), 5);
+        Assert.assertEquals(index.query().slice("user.slice").count(), 0);
+
+        Assert.assertEquals(index.query().fragmentPathUnder("/etc/systemd/system").count(), 3);
+        Assert.assertEquals(index.query().fragmentPathUnder("/etc/systemd/").count(), 3);
+        Assert.assertEquals(index.query().fragmentPathUnder("/etc/systemd/sys").count(), 0);
+
+        Assert.assertEquals(index.query().template("worker@.service").activeState(UnitStateEnum.ACTIVE).fragmentPathUnder("/etc").list(), Collections.singletonList("worker@1.service"));
+        Assert.assertEquals(index.query().template("unknown@.service").count(), 0);
+    }
+
+    @Test(description="Tests incremental maintenance of the indexes.")
+    public void testUpdates() {
+        UnitIndex index = createIndex();
+
+        Map<String, Variant<?>> properties = new HashMap<>();
+        properties.put(Unit.Property.ACTIVE_STATE, new Variant<>("failed"));
+        properties.put(Unit.Property.FRAGMENT_PATH, new Variant<>("/run/systemd/transient/cronie.service"));
+
+        index.update("cronie.service", properties);
+        index.update("unknown.service", properties);
+
+        Assert.assertEquals(index.query().activeState(UnitStateEnum.FAILED).count(), 2);
+        Assert.assertEquals(index.query().fragmentPathUnder("/run/systemd/transient").list(), Collections.singletonList("cronie.service"));
+        Assert.assertFalse(index.contains("unknown.service"));
+
+        index.remove("worker@2.service");
+        Assert.assertEquals(index.query().template("worker@.service").list(), Collections.singletonList("worker@1.service"));
+        Assert.assertEquals(index.query().activeState(UnitStateEnum.FAILED).list(), Collections.singletonList("cronie.service"));
+
+        // Ids are reused
+        index.put("worker@3.service", UnitStateEnum.ACTIVING, "system-tenants-b.slice", "/etc/systemd/system/worker@.service");
+        Assert.assertEquals(index.query().template("worker@.service").list(), Arrays.asList("worker@1.service", "worker@3.service"));
+        Assert.assertEquals(index.query().slice("system-tenants.slice").type(Service.UNIT_SUFFIX).count(), 2);
+    }
+
+    @Test(description="Tests growth beyond the initial capacity.")
+    public void testGrowth() {
+        UnitIndex index = new UnitIndex(Mockito.mock(Manager.class));
+
+        for (int i = 0; i < 1000; i++) {
+            index.put("worker@" + i + ".service", i % 10 == 0 ? UnitStateEnum.FAILED : UnitStateEnum.ACTIVE, "system.slice", null);
+        }
+
+        Assert.assertEquals(index.query().activeState(UnitStateEnum.FAILED).count(), 100);
+        Assert.assertEquals(index.query().template("worker@.service").count(), 1000);
+    }
+
+    @Test(description="Tests coalescing of resyncs requested by reloads.")
+    public void testResyncDebounce() {
+        Manager manager = Mockito.mock(Manager.class);
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<>();
+
+        Mockito.when(manager.listUnits()).thenAnswer(i -> {
+            threads.add(Thread.currentThread());
+
+            return Collections.emptyList();
+        });
+
+        UnitIndex index = new UnitIndex(manager);
+        index.setResyncDebounce(50L, TimeUnit.MILLISECONDS);
+        index.put("cronie.service", UnitStateEnum.ACTIVE, "system.slice", null);
+
+        for (int i = 0; i < 20; i++) {
+            index.requestResync();
+        }
+
+        Mockito.verify(manager, Mockito.timeout(5000L)).listUnits();
+        Awaitility.await().until(() -> index.size() == 0);
+
+        Assert.assertEquals(threads.size(), 1);
+        Assert.assertNotSame(threads.get(0), caller);
+
+        index.close();
+    }
+
+}
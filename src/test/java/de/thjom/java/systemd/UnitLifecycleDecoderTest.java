@@ -0,0 +1,147 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.freedesktop.dbus.types.Variant;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.UnitLifecycleEvent.Kind;
+
+import static de.thjom.java.systemd.UnitStates.state;
+
+public class UnitLifecycleDecoderTest {
+
+    @Test(description="Tests decoding of a service lifecycle.")
+    public void testLifecycle() {
+        List<UnitLifecycleEvent> events = new ArrayList<>();
+        UnitLifecycleDecoder decoder = new UnitLifecycleDecoder(e -> events.add(e.copy()));
+
+        Service service = Mockito.mock(Service.class);
+        Mockito.when(service.getResult()).thenReturn("exit-code");
+        Mockito.when(service.getExecMainStatus()).thenReturn(1);
+        Mockito.when(service.getNRestarts()).thenReturn(2L);
+
+        decoder.decode("app.service", service, state("inactive", "dead"));
+        decoder.decode("app.service", service, state("activating", "start"));
+        decoder.decode("app.service", service, state("active", "running"));
+        decoder.decode("app.service", service, state("active", "running"));
+        decoder.decode("app.service", service, state("reloading", "reload"));
+        decoder.decode("app.service", service, state("active", "running"));
+        decoder.decode("app.service", service, state("failed", "failed"));
+        decoder.decode("app.service", service, state("activating", "auto-restart"));
+        decoder.decode("app.service", service, state("active", "running"));
+        decoder.decode("app.service", service, state("deactivating", "stop-sigterm"));
+        decoder.decode("app.service", service, state("inactive", "dead"));
+
+        List<Kind> kinds = new ArrayList<>();
+        events.forEach(e -> kinds.add(e.getKind()));
+
+        Assert.assertEquals(kinds, Arrays.asList(Kind.STARTED, Kind.RELOADED, Kind.FAILED, Kind.RESTARTING, Kind.STARTED, Kind.STOPPED));
+
+        UnitLifecycleEvent failed = events.get(2);
+        Assert.assertEquals(failed.getResult(), "exit-code");
+        Assert.assertEquals(failed.getExitStatus(), 1);
+        Assert.assertEquals(failed.getUnitName(), "app.service");
+        Assert.assertSame(failed.getUnit(), service);
+
+        Assert.assertEquals(events.get(3).getRestarts(), 3L);
+    }
+
+    @Test(description="Tests decoding of values carried in the signal.")
+    public void testSignalValues() {
+        List<String> events = new ArrayList<>();
+        UnitLifecycleDecoder decoder = new UnitLifecycleDecoder(e -> events.add(e.toString()));
+        Unit unit = Mockito.mock(Unit.class);
+
+        decoder.decode("job.service", unit, state("activating", "start"));
+
+        Map<String, Variant<?>> failed = state("failed", "failed");
+        failed.put(Service.Property.RESULT, new Variant<>("timeout"));
+        failed.put(Service.Property.EXEC_MAIN_STATUS, new Variant<>(15));
+        decoder.decode("job.service", unit, failed);
+
+        Map<String, Variant<?>> skipped = state("inactive", "dead");
+        skipped.put(Unit.Property.CONDITION_RESULT, new Variant<>(Boolean.FALSE));
+        decoder.decode("job.service", unit, skipped);
+
+        Map<String, Variant<?>> restarting = state("activating", "auto-restart");
+        restarting.put(Service.Property.N_RESTARTS, new Variant<>(0L));
+        decoder.decode("job.service", unit, restarting);
+
+        Assert.assertEquals(events, Arrays.asList("FAILED job.service (result=timeout, status=15)", "CONDITION_FAILED job.service", "RESTARTING job.service (1)"));
+
+        // Listener failures do not affect other listeners
+        decoder.addListener(e -> { throw new IllegalStateException(); });
+        decoder.decode("job.service", unit, state("active", "running"));
+        Assert.assertEquals(events.size(), 4);
+    }
+
+    @Test(description="Tests the first signal of a unit as baseline.")
+    public void testBaseline() {
+        List<Kind> kinds = new ArrayList<>();
+        UnitLifecycleDecoder decoder = new UnitLifecycleDecoder(e -> kinds.add(e.getKind()));
+        Service service = Mockito.mock(Service.class);
+
+        decoder.decode("running.service", service, state("active", "running"));
+        decoder.decode("stopped.service", service, state("inactive", "dead"));
+        decoder.decode("failed.service", service, state("failed", "failed"));
+        decoder.decode("restarting.service", service, state("activating", "auto-restart"));
+
+        Assert.assertTrue(kinds.isEmpty());
+        Mockito.verifyNoInteractions(service);
+
+        decoder.decode("failed.service", service, state("activating", "start"));
+        decoder.decode("failed.service", service, state("active", "running"));
+        Assert.assertEquals(kinds, Arrays.asList(Kind.STARTED));
+
+        // Baseline again after forgetting
+        decoder.forget("failed.service");
+        decoder.decode("failed.service", service, state("failed", "failed"));
+        Assert.assertEquals(kinds.size(), 1);
+    }
+
+    @Test(description="Tests dropping the states of units no longer monitored.")
+    public void testRetain() throws Exception {
+        UnitLifecycleDecoder decoder = new UnitLifecycleDecoder();
+        Service service = Mockito.mock(Service.class);
+
+        decoder.decode("app.service", service, state("active", "running"));
+        decoder.decode("run-1.scope", service, state("active", "running"));
+        decoder.decode("run-2.scope", service, state("active", "running"));
+
+        decoder.retainNames(Collections.singleton("app.service"));
+        Assert.assertEquals(decoder.getUnitNames(), Collections.singleton("app.service"));
+
+        UnitMonitor monitor = Mockito.mock(UnitMonitor.class);
+        decoder.attach(monitor);
+
+        ArgumentCaptor<UnitMonitorListener> listener = ArgumentCaptor.forClass(UnitMonitorListener.class);
+        Mockito.verify(monitor).addListener(listener.capture());
+        Mockito.verify(monitor).addListener((UnitStateListener) decoder);
+
+        listener.getValue().monitorRefreshed(Collections.emptyList());
+        Assert.assertTrue(decoder.getUnitNames().isEmpty());
+
+        decoder.detach(monitor);
+        Mockito.verify(monitor).removeListener(listener.getValue());
+    }
+
+}
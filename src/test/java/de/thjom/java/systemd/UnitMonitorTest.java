@@ -12,9 +12,16 @@
 package de.thjom.java.systemd;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.awaitility.Awaitility;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -25,6 +32,8 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitFilesChanged;
+
 public class UnitMonitorTest extends AbstractTestCase {
 
     @Override
@@ -148,4 +157,237 @@ public class UnitMonitorTest extends AbstractTestCase {
         }
     }
 
+    @Test(description="Tests registration of queued state listeners.")
+    public void testQueuedListeners() {
+        try {
+            UnitMonitor monitor = new UnitMonitor(systemd.getManager()) {
+
+                @Override
+                public void reset() {
+                    // Do nothing (simple mock object)
+                }
+
+                @Override
+                public void refresh() throws DBusException {
+                    // Do nothing (simple mock object)
+                }
+
+            };
+
+            UnitStateListener stateListener = (u, p) -> { /* Do nothing (test case) */ };
+
+            monitor.addListener(stateListener, 16, QueuedUnitStateListener.OverflowPolicy.DROP_OLDEST);
+
+            Assert.assertEquals(monitor.getQueuedListeners().size(), 1);
+            Assert.assertEquals(monitor.unitStateListeners.size(), 1);
+
+            QueuedUnitStateListener queued = monitor.getQueuedListeners().iterator().next();
+
+            Assert.assertSame(queued.getDelegate(), stateListener);
+
+            monitor.removeListener(stateListener);
+
+            Assert.assertTrue(monitor.getQueuedListeners().isEmpty());
+            Assert.assertTrue(monitor.unitStateListeners.isEmpty());
+            Assert.assertTrue(queued.isClosed());
+        }
+        catch (DBusException e) {
+            Assert.fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(description="Tests coalescing of refresh requests (debounce).")
+    public void testRefreshDebounce() {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final AtomicReference<Timer> refreshTimer = new AtomicReference<>();
+
+        try {
+            UnitMonitor monitor = new UnitMonitor(systemd.getManager()) {
+
+                @Override
+                public void reset() {
+                    // Do nothing (simple mock object)
+                }
+
+                @Override
+                public void refresh() throws DBusException {
+                    refreshes.incrementAndGet();
+                }
+
+                @Override
+                protected Timer createRefreshTimer() {
+                    refreshTimer.set(super.createRefreshTimer());
+
+                    return refreshTimer.get();
+                }
+
+            };
+
+            monitor.addDefaultHandlers();
+            monitor.setRefreshDebounce(100L, 5000L, TimeUnit.MILLISECONDS);
+
+            // Burst of signals as caused by touching many unit files
+            DBusSigHandler<UnitFilesChanged> handler = monitor.new UnitFilesChangedHandler();
+
+            for (int i = 0; i < 200; i++) {
+                handler.handle(null);
+            }
+
+            Awaitility.await().until(() -> refreshes.get() > 0);
+            Thread.sleep(250L);
+
+            Assert.assertEquals(refreshes.get(), 1);
+            Assert.assertEquals(monitor.getRefreshCount(), 1L);
+            Assert.assertEquals(monitor.getRefreshRequestCount(), 200L);
+
+            Assert.assertThrows(IllegalArgumentException.class, () -> monitor.setRefreshDebounce(100L, 50L, TimeUnit.MILLISECONDS));
+
+            // Timer thread is stopped along the handlers
+            monitor.removeDefaultHandlers();
+            Assert.assertThrows(IllegalStateException.class, () -> refreshTimer.get().schedule(new TimerTask() {
+
+                @Override
+                public void run() {
+                    // Never scheduled
+                }
+
+            }, 0L));
+        }
+        catch (DBusException | InterruptedException e) {
+            Assert.fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(description="Tests absorption of refresh requests by a running refresh.")
+    public void testRefreshAbsorption() {
+        final AtomicInteger refreshes = new AtomicInteger();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            UnitMonitor monitor = new UnitMonitor(systemd.getManager()) {
+
+                @Override
+                public void reset() {
+                    // Do nothing (simple mock object)
+                }
+
+                @Override
+                public void refresh() throws DBusException {
+                    if (refreshes.incrementAndGet() == 1) {
+                        running.countDown();
+
+                        try {
+                            release.await();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+
+            };
+
+            // Refresh on the signal thread
+            monitor.setRefreshDebounce(0L, 0L, TimeUnit.MILLISECONDS);
+
+            Thread signalThread = new Thread(monitor::requestRefresh);
+            signalThread.start();
+
+            running.await();
+
+            for (int i = 0; i < 50; i++) {
+                monitor.requestRefresh();
+            }
+
+            release.countDown();
+            signalThread.join();
+
+            Assert.assertEquals(refreshes.get(), 2);
+            Assert.assertEquals(monitor.getRefreshRequestCount(), 51L);
+            Assert.assertTrue(monitor.getMaxRefreshDuration(TimeUnit.NANOSECONDS) > 0L);
+        }
+        catch (DBusException | InterruptedException e) {
+            Assert.fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(description="Tests enabling and disabling of the transition history.")
+    public void testHistory() {
+        try {
+            UnitMonitor monitor = new UnitMonitor(systemd.getManager()) {
+
+                @Override
+                public void reset() {
+                    // Do nothing (simple mock object)
+                }
+
+                @Override
+                public void refresh() throws DBusException {
+                    unitMonitorListeners.forEach(l -> l.monitorRefreshed(monitoredUnits.values()));
+                }
+
+            };
+
+            Assert.assertFalse(monitor.getHistory().isPresent());
+
+            UnitStateHistory history = monitor.enableHistory(8);
+            history.record("cronie.service", null, Collections.singletonMap(Unit.Property.SUB_STATE, new Variant<>("running")));
+
+            Assert.assertSame(monitor.enableHistory(8), history);
+            Assert.assertTrue(monitor.unitStateListeners.contains(history));
+
+            // Units no longer monitored are dropped on refresh
+            monitor.refresh();
+            Assert.assertTrue(history.getUnitNames().isEmpty());
+
+            monitor.disableHistory();
+            Assert.assertFalse(monitor.getHistory().isPresent());
+            Assert.assertTrue(monitor.unitStateListeners.isEmpty());
+        }
+        catch (DBusException e) {
+            Assert.fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(description="Tests enabling and disabling of the change feed.")
+    public void testChangeFeed() {
+        try {
+            UnitMonitor monitor = new UnitMonitor(systemd.getManager()) {
+
+                @Override
+                public void reset() {
+                    // Do nothing (simple mock object)
+                }
+
+                @Override
+                public void refresh() throws DBusException {
+                    unitMonitorListeners.forEach(l -> l.monitorRefreshed(monitoredUnits.values()));
+                }
+
+            };
+
+            Assert.assertFalse(monitor.getChangeFeed().isPresent());
+
+            UnitChangeFeed feed = monitor.enableChangeFeed(8);
+            feed.record("cronie.service", Collections.singletonMap(Unit.Property.SUB_STATE, new Variant<>("running")));
+
+            Assert.assertSame(monitor.enableChangeFeed(8), feed);
+            Assert.assertTrue(monitor.unitStateListeners.contains(feed));
+            Assert.assertTrue(monitor.unitMonitorListeners.contains(feed));
+
+            // Units no longer monitored are recorded as removed on refresh
+            monitor.refresh();
+            Assert.assertTrue(feed.changesSince(0L, 8).getDeltas().get(0).isRemoved());
+
+            monitor.disableChangeFeed();
+            Assert.assertFalse(monitor.getChangeFeed().isPresent());
+            Assert.assertTrue(monitor.unitStateListeners.isEmpty());
+            Assert.assertTrue(monitor.unitMonitorListeners.isEmpty());
+        }
+        catch (DBusException e) {
+            Assert.fail(e.getMessage(), e);
+        }
+    }
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class UnitNameMatcherTest {
+
+    @Test(description="Tests matching of glob patterns.")
+    public void testGlobs() {
+        UnitNameMatcher matcher = UnitNameMatcher.compileGlobs("worker@*.service", "*.scope", "tty?.device", "sys-[a-c]*.mount", "cronie.service");
+
+        Assert.assertTrue(matcher.matches("worker@1.service"));
+        Assert.assertTrue(matcher.matches("worker@.service"));
+        Assert.assertTrue(matcher.matches("session-3.scope"));
+        Assert.assertTrue(matcher.matches("tty1.device"));
+        Assert.assertTrue(matcher.matches("sys-bus.mount"));
+        Assert.assertTrue(matcher.matches("cronie.service"));
+
+        Assert.assertFalse(matcher.matches("worker@1.socket"));
+        Assert.assertFalse(matcher.matches("tty10.device"));
+        Assert.assertFalse(matcher.matches("sys-dev.mount"));
+        Assert.assertFalse(matcher.matches("cronie.service.d"));
+        Assert.assertFalse(matcher.matches(""));
+        Assert.assertFalse(matcher.matches(null));
+    }
+
+    @Test(description="Tests special glob syntax.")
+    public void testGlobSyntax() {
+        Assert.assertTrue(UnitNameMatcher.compileGlobs("a[!0-9]b").matches("axb"));
+        Assert.assertFalse(UnitNameMatcher.compileGlobs("a[!0-9]b").matches("a1b"));
+        Assert.assertTrue(UnitNameMatcher.compileGlobs("a[]]b").matches("a]b"));
+        Assert.assertTrue(UnitNameMatcher.compileGlobs("a\\*b").matches("a*b"));
+        Assert.assertFalse(UnitNameMatcher.compileGlobs("a\\*b").matches("axb"));
+        Assert.assertTrue(UnitNameMatcher.compileGlobs("a[b").matches("a[b"));
+        Assert.assertTrue(UnitNameMatcher.compileGlobs("**.service").matches("x.service"));
+        Assert.assertTrue(UnitNameMatcher.compileGlobs("*").matches(""));
+
+        Assert.assertTrue(UnitNameMatcher.isGlob("worker@*.service"));
+        Assert.assertFalse(UnitNameMatcher.isGlob("cronie.service"));
+    }
+
+    @Test(description="Tests matching of regular expressions along globs.")
+    public void testRegexes() {
+        UnitNameMatcher matcher = UnitNameMatcher.compile(Collections.singletonList("*.timer"), Arrays.asList("worker-\\d+\\.service", "user@(1000|1001)\\.service"));
+
+        Assert.assertTrue(matcher.matches("fstrim.timer"));
+        Assert.assertTrue(matcher.matches("worker-17.service"));
+        Assert.assertTrue(matcher.matches("user@1001.service"));
+
+        Assert.assertFalse(matcher.matches("worker-x.service"));
+        Assert.assertFalse(matcher.matches("user@1002.service"));
+        Assert.assertFalse(matcher.isEmpty());
+
+        Assert.assertTrue(UnitNameMatcher.compile(Collections.emptyList(), Collections.emptyList()).isEmpty());
+        Assert.assertFalse(UnitNameMatcher.empty().matches("cronie.service"));
+    }
+
+    @Test(description="Tests that the deterministic states are shared between matches.")
+    public void testStateCache() {
+        String[] globs = new String[200];
+
+        for (int i = 0; i < globs.length; i++) {
+            globs[i] = "worker-" + i + "@*.service";
+        }
+
+        UnitNameMatcher matcher = UnitNameMatcher.compileGlobs(globs);
+
+        Assert.assertTrue(matcher.matches("worker-199@a.service"));
+        int states = matcher.getCachedStateCount();
+
+        Assert.assertTrue(matcher.matches("worker-199@b.service"));
+        Assert.assertFalse(matcher.matches("worker-200@a.service"));
+        Assert.assertTrue(matcher.matches("worker-199@a.service"));
+        Assert.assertTrue(matcher.getCachedStateCount() <= states + 12);
+    }
+
+}
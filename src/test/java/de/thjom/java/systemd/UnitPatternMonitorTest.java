@@ -0,0 +1,145 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.types.UInt32;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitRemoved;
+import de.thjom.java.systemd.types.UnitType;
+
+public class UnitPatternMonitorTest {
+
+    private static Manager createManager(final List<String> loadedUnits) throws DBusException {
+        Manager manager = Mockito.mock(Manager.class);
+
+        Mockito.when(manager.listUnits()).then(invocation -> {
+            List<UnitType> list = new ArrayList<>();
+
+            for (String name : loadedUnits) {
+                list.add(new UnitType(name, null, null, null, null, null, null, new UInt32(0L), null, null));
+            }
+
+            return list;
+        });
+
+        Mockito.when(manager.getUnit(Mockito.anyString())).then(invocation -> {
+            String name = invocation.getArgument(0);
+            Unit unit;
+
+            if (name.endsWith(".scope")) {
+                Scope scope = Mockito.mock(Scope.class);
+                Mockito.when(scope.getSlice()).thenReturn(name.startsWith("session-") ? "user-1000.slice" : "machine.slice");
+                unit = scope;
+            }
+            else {
+                Service service = Mockito.mock(Service.class);
+                Mockito.when(service.getSlice()).thenReturn("system-worker.slice");
+                unit = service;
+            }
+
+            Mockito.when(unit.getId()).thenReturn(name);
+
+            return unit;
+        });
+
+        return manager;
+    }
+
+    @Test(description="Tests monitoring by glob patterns and regular expressions.")
+    public void testPatterns() throws DBusException {
+        List<String> loaded = Arrays.asList("worker@1.service", "worker@2.service", "cronie.service", "session-3.scope", "machine-qemu.scope", "job-17.service");
+        UnitPatternMonitor monitor = new UnitPatternMonitor(createManager(loaded));
+
+        monitor.addPatterns("worker@*.service", "*.scope");
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 4);
+        Assert.assertTrue(monitor.monitorsUnit("worker@1.service"));
+        Assert.assertTrue(monitor.monitorsUnit("worker@99.service"));
+        Assert.assertFalse(monitor.monitorsUnit("cronie.service"));
+
+        monitor.addRegexes("job-\\d+\\.service");
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 5);
+
+        monitor.removePatterns("*.scope");
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 3);
+        Assert.assertTrue(monitor.getMonitoredUnit("job-17.service").isPresent());
+
+        monitor.reset();
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 0);
+        Assert.assertTrue(monitor.getMatcher().isEmpty());
+    }
+
+    @Test(description="Tests restriction of monitored units to a slice.")
+    public void testSlice() throws DBusException {
+        List<String> loaded = Arrays.asList("session-3.scope", "session-4.scope", "machine-qemu.scope");
+        UnitPatternMonitor monitor = new UnitPatternMonitor(createManager(loaded));
+
+        monitor.addPatterns("*.scope");
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 3);
+
+        monitor.setSlice("user.slice");
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 2);
+        Assert.assertFalse(monitor.monitorsUnit("machine-qemu.scope"));
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> monitor.setSlice("user"));
+
+        Assert.assertTrue(UnitPatternMonitor.isInSlice("user-1000.slice", "user.slice"));
+        Assert.assertTrue(UnitPatternMonitor.isInSlice("user.slice", "user.slice"));
+        Assert.assertTrue(UnitPatternMonitor.isInSlice("system.slice", "-.slice"));
+        Assert.assertFalse(UnitPatternMonitor.isInSlice("users.slice", "user.slice"));
+        Assert.assertFalse(UnitPatternMonitor.isInSlice(null, "user.slice"));
+    }
+
+    @Test(description="Tests pick up of units loaded later on.")
+    public void testUnitSignals() throws DBusException {
+        List<String> loaded = new ArrayList<>(Arrays.asList("worker@1.service"));
+        UnitPatternMonitor monitor = new UnitPatternMonitor(createManager(loaded));
+
+        AtomicInteger refreshed = new AtomicInteger();
+        monitor.addListener(units -> refreshed.incrementAndGet());
+
+        monitor.addPatterns("worker@*.service");
+        monitor.addDefaultHandlers();
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 1);
+
+        UnitNew added = Mockito.mock(UnitNew.class);
+        Mockito.when(added.getId()).thenReturn("worker@2.service");
+        monitor.unitNewHandler.handle(added);
+
+        UnitNew ignored = Mockito.mock(UnitNew.class);
+        Mockito.when(ignored.getId()).thenReturn("cronie.service");
+        monitor.unitNewHandler.handle(ignored);
+
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 2);
+        Assert.assertEquals(refreshed.get(), 2);
+
+        UnitRemoved removed = Mockito.mock(UnitRemoved.class);
+        Mockito.when(removed.getId()).thenReturn("worker@1.service");
+        monitor.unitRemovedHandler.handle(removed);
+
+        Assert.assertEquals(monitor.getMonitoredUnits().size(), 1);
+        Assert.assertEquals(refreshed.get(), 3);
+
+        monitor.removeDefaultHandlers();
+        Assert.assertNull(monitor.unitNewHandler);
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.dbus.types.Variant;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+
+public class UnitRuleEngineTest {
+
+    private static Map<String, Variant<?>> active(final String activeState) {
+        return Collections.singletonMap(Unit.Property.ACTIVE_STATE, new Variant<>(activeState));
+    }
+
+    private static Service service(final String slice, final String result) {
+        Service service = Mockito.mock(Service.class);
+        Mockito.when(service.getSlice()).thenReturn(slice);
+        Mockito.when(service.getResult()).thenReturn(result);
+
+        return service;
+    }
+
+    private static void fail(final UnitRuleEngine engine, final String name, final Unit unit) {
+        engine.evaluate(name, unit, active("activating"));
+        engine.evaluate(name, unit, active("failed"));
+    }
+
+    @Test(description="Tests a windowed rule on failures in a slice.")
+    public void testWindowedRule() {
+        AtomicLong clock = new AtomicLong();
+        UnitRuleEngine engine = new UnitRuleEngine(clock::get);
+        List<String> triggered = new ArrayList<>();
+
+        engine.addRule(UnitRule.builder("tenant-failures")
+                .unitPattern("*.service")
+                .slice("tenant.slice")
+                .entering(UnitStateEnum.FAILED)
+                .moreThan(3, 10, TimeUnit.MINUTES)
+                .build());
+
+        engine.addListener((r, u, n) -> triggered.add(r.getId() + ":" + n));
+
+        Service tenant = service("tenant-a.slice", "exit-code");
+        Service system = service("system.slice", "exit-code");
+
+        for (int i = 0; i < 3; i++) {
+            clock.addAndGet(TimeUnit.MINUTES.toNanos(1L));
+            fail(engine, "app.service", tenant);
+            fail(engine, "sshd.service", system);
+        }
+
+        Assert.assertTrue(triggered.isEmpty());
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(1L));
+        fail(engine, "app.service", tenant);
+
+        Assert.assertEquals(triggered, Collections.singletonList("tenant-failures:4"));
+
+        // Oldest failures leave the window
+        triggered.clear();
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(20L));
+        fail(engine, "app.service", tenant);
+
+        Assert.assertTrue(triggered.isEmpty());
+
+        // Repeated state is not a transition
+        engine.evaluate("app.service", tenant, active("failed"));
+        Assert.assertTrue(triggered.isEmpty());
+    }
+
+    @Test(description="Tests sharing of conditions between rules.")
+    public void testSharedConditions() {
+        UnitRuleEngine engine = new UnitRuleEngine();
+        List<String> triggered = new ArrayList<>();
+
+        List<UnitRule> rules = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            rules.add(UnitRule.builder("rule-" + i)
+                    .unitPattern("*.service")
+                    .slice("tenant.slice")
+                    .result(i % 2 == 0 ? "exit-code" : "timeout")
+                    .entering(UnitStateEnum.FAILED)
+                    .build());
+        }
+
+        rules.add(UnitRule.builder("restarting").unitPattern("worker@*.service").enteringSubState("auto-restart").minRestarts(5L).build());
+
+        engine.addRules(rules);
+        engine.addListener((r, u, n) -> triggered.add(r.getId()));
+
+        // Pattern, slice, both results, second pattern and restarts
+        Assert.assertEquals(engine.getConditionCount(), 6);
+
+        Service tenant = service("tenant.slice", "exit-code");
+        fail(engine, "app.service", tenant);
+
+        Assert.assertEquals(triggered.size(), 50);
+        Assert.assertEquals(engine.getEvaluatedCount(), 100L);
+        Assert.assertEquals(engine.getConditionTestCount(), 4L);
+
+        // Name and slice are cached per unit
+        fail(engine, "app.service", tenant);
+        Assert.assertEquals(engine.getConditionTestCount(), 6L);
+
+        // Sub-state rule with restarts from the signal
+        triggered.clear();
+        Map<String, Variant<?>> restart = new HashMap<>();
+        restart.put(Unit.Property.SUB_STATE, new Variant<>("auto-restart"));
+        restart.put(Service.Property.N_RESTARTS, new Variant<>(7L));
+
+        engine.evaluate("worker@1.service", tenant, restart);
+        Assert.assertEquals(triggered, Collections.singletonList("restarting"));
+
+        engine.removeRule("restarting");
+        Assert.assertEquals(engine.getConditionCount(), 4);
+        Assert.assertEquals(engine.getRules().size(), 100);
+    }
+
+    @Test(description="Tests resolution of bus values outside the engine lock.")
+    public void testBusValuesOutsideLock() {
+        UnitRuleEngine engine = new UnitRuleEngine();
+        List<String> triggered = new ArrayList<>();
+        List<Boolean> locked = new ArrayList<>();
+
+        engine.addRule(UnitRule.builder("failed-in-tenant")
+                .slice("tenant.slice")
+                .result("oom-kill")
+                .entering(UnitStateEnum.FAILED)
+                .build());
+
+        engine.addListener((r, u, n) -> triggered.add(r.getId()));
+
+        Service service = Mockito.mock(Service.class);
+        Mockito.when(service.getSlice()).thenAnswer(i -> {
+            locked.add(Thread.holdsLock(engine));
+
+            return "tenant.slice";
+        });
+        Mockito.when(service.getResult()).thenAnswer(i -> {
+            locked.add(Thread.holdsLock(engine));
+
+            return "oom-kill";
+        });
+
+        fail(engine, "app.service", service);
+
+        Assert.assertEquals(triggered, Collections.singletonList("failed-in-tenant"));
+        Assert.assertEquals(locked, Arrays.asList(false, false));
+        Assert.assertEquals(engine.getEvaluatedCount(), 1L);
+
+        // Slice is cached per unit, the result is fetched once per change
+        fail(engine, "app.service", service);
+
+        Assert.assertEquals(triggered.size(), 2);
+        Mockito.verify(service, Mockito.times(1)).getSlice();
+        Mockito.verify(service, Mockito.times(2)).getResult();
+    }
+
+    @Test(description="Tests rule validation.")
+    public void testRuleValidation() {
+        Assert.assertThrows(IllegalStateException.class, () -> UnitRule.builder("invalid").unitPattern("*.service").build());
+        Assert.assertThrows(IllegalArgumentException.class, () -> UnitRule.builder("invalid").atLeast(0, 1L, TimeUnit.MINUTES));
+
+        UnitRule rule = UnitRule.builder("valid").entering(UnitStateEnum.FAILED).moreThan(3, 10L, TimeUnit.MINUTES).build();
+
+        Assert.assertEquals(rule.getOccurrences(), 4);
+        Assert.assertEquals(rule.getWindow(TimeUnit.MINUTES), 10L);
+        Assert.assertEquals(Arrays.asList(rule.getUnitPatterns().size(), rule.getUnitRegexes().size()), Arrays.asList(0, 0));
+    }
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties.PropertiesChanged;
+import org.freedesktop.dbus.types.Variant;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.QueuedUnitStateListener.OverflowPolicy;
+import de.thjom.java.systemd.interfaces.ManagerInterface.JobNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.JobRemoved;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitNew;
+import de.thjom.java.systemd.interfaces.ManagerInterface.UnitRemoved;
+
+import static de.thjom.java.systemd.UnitStates.state;
+
+public class UnitStateEventPublisherTest {
+
+    private static UnitStateEventPublisher publisher(final Manager manager, final int bufferSize, final OverflowPolicy policy, final boolean replayLatest) {
+        // Synchronous delivery keeps the tests deterministic
+        return new UnitStateEventPublisher(manager, name -> !name.startsWith("ignored"), bufferSize, policy, replayLatest, Runnable::run);
+    }
+
+    @Test(description="Tests delivery according to the demand of the subscriber.")
+    public void testDemand() {
+        Manager manager = Mockito.mock(Manager.class);
+        UnitStateEventPublisher publisher = publisher(manager, 16, OverflowPolicy.DROP_OLDEST, false);
+        TestSubscriber subscriber = new TestSubscriber();
+
+        publisher.subscribe(subscriber);
+
+        publisher.publish(UnitStateEvent.propertiesChanged("cronie.service", state("running")));
+        publisher.publish(UnitStateEvent.propertiesChanged("ignored.service", state("running")));
+        publisher.publish(UnitStateEvent.jobNew("cronie.service", 42L));
+        publisher.publish(UnitStateEvent.jobRemoved("cronie.service", 42L, "done"));
+
+        Assert.assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(2L);
+        Assert.assertEquals(subscriber.types(), Arrays.asList(UnitStateEvent.Type.PROPERTIES_CHANGED, UnitStateEvent.Type.JOB_NEW));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertEquals(subscriber.events.size(), 3);
+        Assert.assertEquals(subscriber.events.get(2).getJobResult(), "done");
+
+        publisher.publish(UnitStateEvent.unitRemoved("cronie.service"));
+        Assert.assertEquals(subscriber.events.size(), 4);
+
+        publisher.close();
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertNull(subscriber.error);
+    }
+
+    @Test(description="Tests the overflow policies on slow subscribers.")
+    public void testOverflow() {
+        Manager manager = Mockito.mock(Manager.class);
+
+        UnitStateEventPublisher dropping = publisher(manager, 2, OverflowPolicy.DROP_OLDEST, false);
+        TestSubscriber first = new TestSubscriber();
+        dropping.subscribe(first);
+
+        dropping.publish(UnitStateEvent.propertiesChanged("cronie.service", state("s1")));
+        dropping.publish(UnitStateEvent.propertiesChanged("cronie.service", state("s2")));
+        dropping.publish(UnitStateEvent.propertiesChanged("cronie.service", state("s3")));
+
+        first.subscription.request(10L);
+        Assert.assertEquals(first.subStates(), Arrays.asList("s2", "s3"));
+        Assert.assertEquals(dropping.getDroppedCount(), 1L);
+
+        UnitStateEventPublisher coalescing = publisher(manager, 2, OverflowPolicy.COALESCE, false);
+        TestSubscriber second = new TestSubscriber();
+        coalescing.subscribe(second);
+
+        coalescing.publish(UnitStateEvent.propertiesChanged("cronie.service", state("s1")));
+        coalescing.publish(UnitStateEvent.jobNew("cronie.service", 1L));
+        coalescing.publish(UnitStateEvent.propertiesChanged("cronie.service", state("s2")));
+        coalescing.publish(UnitStateEvent.propertiesChanged("cronie.service", state("s3")));
+
+        second.subscription.request(10L);
+        Assert.assertEquals(second.types(), Arrays.asList(UnitStateEvent.Type.JOB_NEW, UnitStateEvent.Type.PROPERTIES_CHANGED));
+        Assert.assertEquals(second.subStates(), Collections.singletonList("s3"));
+
+        dropping.close();
+        coalescing.close();
+    }
+
+    @Test(description="Tests replay of the latest event per unit to late subscribers.")
+    public void testReplayLatest() {
+        Manager manager = Mockito.mock(Manager.class);
+        UnitStateEventPublisher publisher = publisher(manager, 16, OverflowPolicy.DROP_OLDEST, true);
+
+        TestSubscriber early = new TestSubscriber();
+        publisher.subscribe(early);
+
+        Map<String, Variant<?>> active = new HashMap<>();
+        active.put(Unit.Property.ACTIVE_STATE, new Variant<>("active"));
+        active.put(Unit.Property.SUB_STATE, new Variant<>("s1"));
+
+        publisher.publish(UnitStateEvent.propertiesChanged("cronie.service", active));
+        publisher.publish(UnitStateEvent.propertiesChanged("cronie.service", state("s2")));
+        publisher.publish(UnitStateEvent.jobNew("cronie.service", 42L));
+        publisher.publish(UnitStateEvent.jobRemoved("cronie.service", 42L, "done"));
+        publisher.publish(UnitStateEvent.unitNew("sshd.service"));
+        publisher.publish(UnitStateEvent.propertiesChanged("sshd.service", state("running")));
+        publisher.publish(UnitStateEvent.unitRemoved("sshd.service"));
+
+        TestSubscriber late = new TestSubscriber();
+        publisher.subscribe(late);
+        late.subscription.request(10L);
+
+        // Merged properties only, no job or lifecycle events
+        Assert.assertEquals(late.types(), Collections.singletonList(UnitStateEvent.Type.PROPERTIES_CHANGED));
+        Assert.assertEquals(late.subStates(), Collections.singletonList("s2"));
+        Assert.assertEquals(late.events.get(0).getChangedProperties().get(Unit.Property.ACTIVE_STATE).getValue(), "active");
+
+        publisher.close();
+
+        UnitStateEventPublisher small = publisher(manager, 2, OverflowPolicy.DROP_OLDEST, true);
+        small.subscribe(new TestSubscriber());
+
+        for (int i = 0; i < 5; i++) {
+            small.publish(UnitStateEvent.propertiesChanged("unit" + i + ".service", state("running")));
+        }
+
+        TestSubscriber bounded = new TestSubscriber();
+        small.subscribe(bounded);
+        bounded.subscription.request(10L);
+
+        Assert.assertEquals(bounded.events.size(), 2);
+
+        small.close();
+    }
+
+    @Test(description="Tests the Reactive Streams rules for subscribers.")
+    public void testRules() {
+        Manager manager = Mockito.mock(Manager.class);
+        UnitStateEventPublisher publisher = publisher(manager, 16, OverflowPolicy.DROP_OLDEST, false);
+
+        Assert.assertThrows(NullPointerException.class, () -> publisher.subscribe(null));
+
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0L);
+
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+        Assert.assertEquals(publisher.getSubscriberCount(), 0);
+
+        TestSubscriber failing = new TestSubscriber() {
+
+            @Override
+            public void onNext(final UnitStateEvent event) {
+                throw new IllegalStateException();
+            }
+
+        };
+
+        publisher.subscribe(failing);
+        failing.subscription.request(1L);
+        publisher.publish(UnitStateEvent.unitNew("cronie.service"));
+
+        Assert.assertEquals(publisher.getSubscriberCount(), 0);
+
+        publisher.close();
+
+        TestSubscriber tooLate = new TestSubscriber();
+        publisher.subscribe(tooLate);
+        Assert.assertNotNull(tooLate.subscription);
+        Assert.assertTrue(tooLate.completed);
+    }
+
+    @Test(description="Tests registration of the signal handlers along the subscriptions.")
+    @SuppressWarnings("unchecked")
+    public void testHandlerLifecycle() throws DBusException {
+        Manager manager = Mockito.mock(Manager.class);
+        UnitStateEventPublisher publisher = publisher(manager, 16, OverflowPolicy.DROP_OLDEST, false);
+
+        TestSubscriber first = new TestSubscriber();
+        TestSubscriber second = new TestSubscriber();
+
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+
+        Mockito.verify(manager, Mockito.times(1)).subscribe();
+        Mockito.verify(manager).addHandler(ArgumentMatchers.eq(MatchRule.unitPropertiesChanged()), ArgumentMatchers.eq(PropertiesChanged.class), ArgumentMatchers.any(DBusSigHandler.class));
+        Mockito.verify(manager).addHandler(ArgumentMatchers.eq(UnitNew.class), ArgumentMatchers.any(DBusSigHandler.class));
+        Mockito.verify(manager).addHandler(ArgumentMatchers.eq(UnitRemoved.class), ArgumentMatchers.any(DBusSigHandler.class));
+        Mockito.verify(manager).addHandler(ArgumentMatchers.eq(JobNew.class), ArgumentMatchers.any(DBusSigHandler.class));
+        Mockito.verify(manager).addHandler(ArgumentMatchers.eq(JobRemoved.class), ArgumentMatchers.any(DBusSigHandler.class));
+
+        first.subscription.cancel();
+        Mockito.verify(manager, Mockito.never()).unsubscribe();
+
+        second.subscription.cancel();
+        Mockito.verify(manager).removeHandler(ArgumentMatchers.eq(MatchRule.unitPropertiesChanged()), ArgumentMatchers.eq(PropertiesChanged.class), ArgumentMatchers.any(DBusSigHandler.class));
+        Mockito.verify(manager).removeHandler(ArgumentMatchers.eq(JobRemoved.class), ArgumentMatchers.any(DBusSigHandler.class));
+        Mockito.verify(manager, Mockito.times(1)).unsubscribe();
+
+        publisher.close();
+        Mockito.verify(manager, Mockito.times(1)).unsubscribe();
+    }
+
+    private static class TestSubscriber implements Subscriber<UnitStateEvent> {
+
+        private final List<UnitStateEvent> events = new ArrayList<>();
+
+        private Subscription subscription;
+        private boolean completed;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final UnitStateEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        List<UnitStateEvent.Type> types() {
+            return events.stream().map(UnitStateEvent::getType).collect(Collectors.toList());
+        }
+
+        List<String> subStates() {
+            return events.stream()
+                    .filter(e -> e.getType() == UnitStateEvent.Type.PROPERTIES_CHANGED)
+                    .map(e -> String.valueOf(e.getChangedProperties().get(Unit.Property.SUB_STATE).getValue()))
+                    .collect(Collectors.toList());
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.dbus.types.Variant;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.thjom.java.systemd.Unit.UnitStateEnum;
+
+import static de.thjom.java.systemd.UnitStates.state;
+
+public class UnitStateHistoryTest {
+
+    @Test(description="Tests recording of transitions in the ring buffer.")
+    public void testRecording() {
+        AtomicLong clock = new AtomicLong();
+        UnitStateHistory history = new UnitStateHistory(3, clock::get);
+
+        Service service = Mockito.mock(Service.class);
+        Mockito.when(service.getResult()).thenReturn("exit-code");
+        Mockito.when(service.getExecMainStatus()).thenReturn(3);
+
+        history.record("cronie.service", service, state("activating", "start"));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        history.record("cronie.service", service, state("active", "running"));
+
+        // Unchanged state is not recorded
+        history.record("cronie.service", service, state("active", "running"));
+        history.record("cronie.service", service, Collections.singletonMap(Unit.Property.LOAD_STATE, new Variant<>("loaded")));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        history.record("cronie.service", service, state("failed", "failed"));
+
+        List<UnitStateHistory.Transition> transitions = history.getTransitions("cronie.service", 1L, TimeUnit.HOURS);
+
+        Assert.assertEquals(transitions.size(), 3);
+        Assert.assertEquals(transitions.get(0).getActiveState(), UnitStateEnum.ACTIVING);
+        Assert.assertEquals(transitions.get(1).getSubState(), "running");
+        Assert.assertNull(transitions.get(1).getResult());
+        Assert.assertEquals(transitions.get(2).getActiveState(), UnitStateEnum.FAILED);
+        Assert.assertEquals(transitions.get(2).getResult(), "exit-code");
+        Assert.assertEquals(transitions.get(2).getExitStatus(), 3);
+
+        // Oldest transition is overwritten
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        history.record("cronie.service", service, state("activating", "start"));
+
+        transitions = history.getTransitions("cronie.service", 1L, TimeUnit.HOURS);
+        Assert.assertEquals(transitions.size(), 3);
+        Assert.assertEquals(transitions.get(0).getSubState(), "running");
+        Assert.assertEquals(transitions.get(1).getActiveState(), UnitStateEnum.FAILED);
+        Assert.assertEquals(transitions.get(2).getActiveState(), UnitStateEnum.ACTIVING);
+        Assert.assertNull(transitions.get(2).getResult());
+        Mockito.verify(service, Mockito.times(1)).getResult();
+
+        Assert.assertEquals(history.countTransitions("cronie.service", 1500L, TimeUnit.MILLISECONDS), 2);
+        Assert.assertEquals(history.countFailures("cronie.service", 1L, TimeUnit.HOURS), 1);
+        Assert.assertEquals(history.countTransitions("unknown.service", 1L, TimeUnit.HOURS), 0);
+    }
+
+    @Test(description="Tests detection of flapping units.")
+    public void testFlapping() {
+        AtomicLong clock = new AtomicLong();
+        UnitStateHistory history = new UnitStateHistory(64, clock::get);
+
+        Unit worker = Mockito.mock(Unit.class);
+        Unit stable = Mockito.mock(Unit.class);
+
+        history.record("stable.service", stable, state("active", "running"));
+        history.record("worker.service", worker, state("activating", "start"));
+        history.record("worker.service", worker, state("active", "running"));
+
+        // Restart= loop as emitted by systemd, never inactive or failed
+        for (int i = 0; i < 5; i++) {
+            clock.addAndGet(TimeUnit.SECONDS.toNanos(10L));
+            history.record("worker.service", worker, state("activating", "auto-restart"));
+            history.record("worker.service", worker, state("activating", "start"));
+            history.record("worker.service", worker, state("active", "running"));
+        }
+
+        // Manual restart
+        history.record("stable.service", stable, state("deactivating", "stop-sigterm"));
+        history.record("stable.service", stable, state("inactive", "dead"));
+        history.record("stable.service", stable, state("activating", "start"));
+        history.record("stable.service", stable, state("active", "running"));
+
+        Assert.assertEquals(history.countStarts("worker.service", 1L, TimeUnit.MINUTES), 5);
+        Assert.assertEquals(history.countStarts("worker.service", 25L, TimeUnit.SECONDS), 3);
+        Assert.assertEquals(history.countStarts("stable.service", 1L, TimeUnit.MINUTES), 1);
+        Assert.assertEquals(history.getFlappingUnits(3, 1L, TimeUnit.MINUTES), Collections.singleton("worker.service"));
+        Assert.assertTrue(history.getFlappingUnits(3, 15L, TimeUnit.SECONDS).isEmpty());
+
+        history.remove("worker.service");
+        Assert.assertEquals(history.getUnitNames(), Collections.singleton("stable.service"));
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Java-systemd implementation
+ * Copyright (c) 2016 Markus Enax
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of either the GNU Lesser General Public License Version 2 or the
+ * Academic Free Licence Version 3.0.
+ *
+ * Full licence texts are included in the COPYING file with this program.
+ */
+
+package de.thjom.java.systemd;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.freedesktop.dbus.types.Variant;
+
+/**
+ * Changed properties of state signals as passed to {@link UnitStateListener}s.
+ */
+final class UnitStates {
+
+    private UnitStates() {
+        super();
+    }
+
+    static Map<String, Variant<?>> state(final String activeState, final String subState) {
+        Map<String, Variant<?>> properties = new HashMap<>();
+        properties.put(Unit.Property.ACTIVE_STATE, new Variant<>(activeState));
+        properties.put(Unit.Property.SUB_STATE, new Variant<>(subState));
+
+        return properties;
+    }
+
+    static Map<String, Variant<?>> state(final String subState) {
+        return Collections.singletonMap(Unit.Property.SUB_STATE, new Variant<>(subState));
+    }
+
+}
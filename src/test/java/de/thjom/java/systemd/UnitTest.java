@@ -16,6 +16,8 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.interfaces.DBusSigHandler;
+import org.freedesktop.dbus.interfaces.Properties.PropertiesChanged;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.testng.Assert;
@@ -98,6 +100,41 @@ public class UnitTest extends AbstractTestCase {
         Assert.assertNotEquals(foo1.hashCode(), bar.hashCode());
     }
 
+    @Test(description="Tests that only registered handlers release a subscription.")
+    public void testHandlerSubscriptions() throws DBusException {
+        Manager manager = systemd.getManager();
+        TestUnit unit = TestUnit.create(manager, "handler.service");
+
+        DBusSigHandler<PropertiesChanged> handler = signal -> {};
+        DBusSigHandler<PropertiesChanged> other = signal -> {};
+
+        int subscriptions = manager.getSubscriptionCount();
+
+        // Never added
+        unit.removeHandler(PropertiesChanged.class, other);
+        Assert.assertEquals(manager.getSubscriptionCount(), subscriptions);
+
+        unit.addHandler(PropertiesChanged.class, handler);
+        Assert.assertEquals(manager.getSubscriptionCount(), subscriptions + 1);
+
+        unit.removeHandler(PropertiesChanged.class, handler);
+        unit.removeHandler(PropertiesChanged.class, handler);
+        Assert.assertEquals(manager.getSubscriptionCount(), subscriptions);
+
+        // Failed registration
+        Mockito.doThrow(new DBusException("failed")).when(dbus).addSigHandler(Mockito.eq(PropertiesChanged.class), Mockito.any(UnitInterface.class), Mockito.eq(other));
+
+        Assert.assertThrows(DBusException.class, () -> unit.addHandler(PropertiesChanged.class, other));
+        Assert.assertEquals(manager.getSubscriptionCount(), subscriptions);
+
+        // Failed removal still releases the subscription
+        unit.addHandler(PropertiesChanged.class, handler);
+        Mockito.doThrow(new DBusException("failed")).when(dbus).removeSigHandler(Mockito.eq(PropertiesChanged.class), Mockito.any(UnitInterface.class), Mockito.eq(handler));
+
+        Assert.assertThrows(DBusException.class, () -> unit.removeHandler(PropertiesChanged.class, handler));
+        Assert.assertEquals(manager.getSubscriptionCount(), subscriptions);
+    }
+
     // This method is called from derived test classes hence no need for annotation
     public void testUnitProperties(final Unit unit, final Collection<String> propertyNames) {
         for (String propertyName : Unit.Property.getAllNames()) {